@@ -0,0 +1,23 @@
+package sample.app;
+
+import sample.util.Greeting;
+
+/**
+ * Something for the sample reactor to compile, depending on the other module.
+ *
+ * @author robbram
+ */
+public final class Main {
+
+   /** Not for instances. */
+   private Main() {
+   }
+
+   /**
+    * @param args
+    *           not used
+    */
+   public static void main(final String[] args) {
+      System.out.println(Greeting.hello("Raven"));
+   }
+}
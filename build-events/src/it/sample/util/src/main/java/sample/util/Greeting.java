@@ -0,0 +1,22 @@
+package sample.util;
+
+/**
+ * Something for the sample reactor to compile.
+ *
+ * @author robbram
+ */
+public final class Greeting {
+
+   /** Not for instances. */
+   private Greeting() {
+   }
+
+   /**
+    * @param name
+    *           who to greet
+    * @return greeting
+    */
+   public static String hello(final String name) {
+      return "Caw caw, " + name + "!";
+   }
+}
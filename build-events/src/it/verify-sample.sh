@@ -0,0 +1,120 @@
+#!/bin/bash
+
+# ------------------------------------------------------------------------------
+# -- What is this?
+# Builds the build-events extension against the Maven on the PATH, runs the
+# sample reactor next to this script with it and checks the events written.
+# Works offline once the sample's plugins are in the local repository, which a
+# single "mvn -o compile" (or one online run) of the sample takes care of.
+#
+# How to use this script.
+#       build-events/src/it/verify-sample.sh
+# Exits 0 and prints "Sample events OK." if all is well.
+# ------------------------------------------------------------------------------
+
+set -e
+
+itDir=$(cd "$(dirname "$0")" && pwd)
+projectDir=$(cd "${itDir}/../.." && pwd)
+work=$(mktemp -d)
+trap 'rm -rf "${work}"' EXIT
+
+# ===  FUNCTION  ===============================================================
+#   DESCRIPTION:  Fail with a message and the events written.
+#    PARAMETERS:  1 - what was wrong
+#       RETURNS:  -
+# ==============================================================================
+function fail() {
+   echo "FAILED: $1"
+   echo "Events [${events}]:"
+   cat "${events}" 2>/dev/null
+   exit 1
+}
+
+# ===  FUNCTION  ===============================================================
+#   DESCRIPTION:  Check that some line of the events matches.
+#    PARAMETERS:  1 - extended regular expression
+#       RETURNS:  -
+# ==============================================================================
+function expectLine() {
+   grep -Eq "$1" "${events}" || fail "no line matching [$1]"
+}
+
+# The extension only needs maven-core and javax.inject, both in Maven's lib.
+mavenHome=$(mvn -v | sed -n 's/^Maven home: //p')
+if [ ! -d "${mavenHome}/lib" ] ; then
+   echo "Cannot find the lib directory of Maven home [${mavenHome}]."
+   exit 2
+fi
+mkdir -p "${work}/classes"
+javac -nowarn -source 8 -target 8 -d "${work}/classes" \
+   -cp "${mavenHome}/lib/*" \
+   $(find "${projectDir}/src/main/java" -name '*.java') 2>&1 \
+   | grep -v -e "^warning: \[options\]" -e "^[0-9]* warning" || true
+cp -r "${projectDir}/src/main/resources/." "${work}/classes"
+jar cf "${work}/build-events.jar" -C "${work}/classes" .
+
+# ===  FUNCTION  ===============================================================
+#   DESCRIPTION:  Build the copy of the sample with the extension, saving
+#                 Maven's output next to the events, as raven does.
+#    PARAMETERS:  1 - events file to write
+#                 2 - BUILD_EVENTS_DIRECTORY to set, may be empty
+#       RETURNS:  -
+# ==============================================================================
+function buildSample() {
+   events=$1
+   log=${events%.jsonl}.txt
+   (
+      cd "${work}/sample"
+      BUILD_EVENTS_FILE="${events}" \
+      BUILD_EVENTS_COMMAND="mvn -o compile" \
+      BUILD_EVENTS_DIRECTORY="$2" \
+         mvn -o -B -Dmaven.ext.class.path="${work}/build-events.jar" compile \
+         > "${log}" 2>&1
+   ) || { cat "${log}" ; fail "the sample did not build" ; }
+}
+
+# Build a copy of the sample, so its output stays out of the source tree.
+cp -r "${itDir}/sample" "${work}/sample"
+
+# Without BUILD_EVENTS_DIRECTORY, the directory is Maven's base directory.
+buildSample "${work}/base.jsonl" ""
+head -1 "${events}" | grep -Fq "\"directory\":\"${work}/sample\"}" \
+   || fail "directory is not the base directory [${work}/sample]"
+
+# As raven runs it.
+buildSample "${work}/events.jsonl" "/c/work/sample"
+[ -s "${events}" ] || fail "no events were written"
+head -1 "${events}" | grep -Eq \
+   '^\{"type":"session-start","nanos":0,"epochMillis":[0-9]+,"command":"mvn -o compile","directory":"/c/work/sample"\}$' \
+   || fail "first line is not the session start with the command and directory"
+tail -1 "${events}" | grep -Eq \
+   '^\{"type":"session-end","nanos":[0-9]+,"result":"success"\}$' \
+   || fail "last line is not a successful session end"
+for project in Sample util app ; do
+   expectLine "^\{\"type\":\"project-start\",\"nanos\":[0-9]+,\"project\":\"${project}\","
+   expectLine "^\{\"type\":\"project-end\",\"nanos\":[0-9]+,\"project\":\"${project}\",.*\"result\":\"success\"\}$"
+done
+for project in util app ; do
+   expectLine "^\{\"type\":\"mojo-end\",\"nanos\":[0-9]+,\"project\":\"${project}\",\"mojo\":\"maven-compiler-plugin:3.1:compile\",\"execution\":\"default-compile\",.*\"result\":\"success\"\}$"
+done
+# The events time the same span as Maven's "Total time", which is rounded to
+# the millisecond; allow some more for the two reading the clock apart.
+logSeconds=$(sed -n 's/^\[INFO\] Total time: *\([0-9.]*\) s.*/\1/p' "${log}")
+[ -n "${logSeconds}" ] || fail "no total time in seconds in the log [${log}]"
+eventNanos=$(tail -1 "${events}" | sed -n 's/^{"type":"session-end","nanos":\([0-9]*\).*/\1/p')
+awk -v logged="${logSeconds}" -v nanos="${eventNanos}" 'BEGIN {
+   difference = nanos / 1e9 - logged
+   if (difference < 0) difference = -difference
+   exit !(difference <= 0.02)
+}' || fail "events total [${eventNanos}] ns is not the log's [${logSeconds}] s"
+echo "Events total [${eventNanos}] ns, log total [${logSeconds}] s."
+
+# Times only go forwards.
+previous=-1
+for nanos in $(sed -n 's/^{"type":"[a-z-]*","nanos":\([0-9]*\).*/\1/p' "${events}") ; do
+   [ "${nanos}" -ge "${previous}" ] || fail "nanos went backwards at [${nanos}]"
+   previous=${nanos}
+done
+
+echo "Sample events OK."
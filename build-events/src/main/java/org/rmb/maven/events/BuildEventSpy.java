@@ -0,0 +1,406 @@
+package org.rmb.maven.events;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.apache.maven.eventspy.AbstractEventSpy;
+import org.apache.maven.execution.ExecutionEvent;
+import org.apache.maven.execution.MavenExecutionRequest;
+import org.apache.maven.plugin.MojoExecution;
+import org.apache.maven.project.MavenProject;
+
+/**
+ * <p>
+ * Maven core extension that writes when the session, each project and each
+ * mojo start and finish, one JSON object per line, so that
+ * <code>MavenBuildTimes</code> can read build times without parsing the
+ * text Maven writes. Times are nanoseconds since the session started, from
+ * {@link System#nanoTime()}, and the session start also has the wall clock
+ * time in milliseconds:
+ * </p>
+ * <p>
+ * The session starts when Maven started the request, the start its own
+ * <code>Total time</code> counts from, rather than when the session started
+ * event comes, which is only once the projects have been read. So the time
+ * to the session end is what the log says, to within a millisecond, the
+ * resolution of the request's start time.
+ * </p>
+ *
+ * <pre>
+ * {"type":"session-start","nanos":0,"epochMillis":1420070400000,
+ *    "command":"mvn clean install","directory":"/work/app"}
+ * {"type":"project-start","nanos":1200,"project":"core","thread":"main"}
+ * {"type":"mojo-start","nanos":1300,"project":"core",
+ *    "mojo":"maven-compiler-plugin:3.1:compile","execution":"default-compile",
+ *    "thread":"main"}
+ * {"type":"mojo-end","nanos":9000,"project":"core",
+ *    "mojo":"maven-compiler-plugin:3.1:compile","execution":"default-compile",
+ *    "thread":"main","result":"success"}
+ * {"type":"project-end","nanos":9100,"project":"core","thread":"main",
+ *    "result":"success"}
+ * {"type":"session-end","nanos":9200,"result":"success"}
+ * </pre>
+ * <p>
+ * (each record is on one line). <code>type</code> always comes first, so a
+ * reader can skip records it doesn't want without parsing them. Results are
+ * <code>success</code>, <code>failure</code> or, for projects,
+ * <code>skipped</code>. Projects are named as in the reactor summary.
+ * </p>
+ * <p>
+ * Records go to the file named by the <code>buildEvents.file</code> property
+ * or, failing that, the <code>BUILD_EVENTS_FILE</code> environment variable,
+ * which raven sets to its log file name with <code>.jsonl</code> in place of
+ * <code>.txt</code>. With neither, nothing is written. The command is taken
+ * from <code>BUILD_EVENTS_COMMAND</code>, which raven also sets, or else
+ * rebuilt from the goals, profiles and properties Maven was given. The
+ * directory is taken from <code>BUILD_EVENTS_DIRECTORY</code>, which raven
+ * sets to the directory it writes in the log's header, so a directory has
+ * the same name whether a build is timed from its events or its log (under
+ * Git Bash that is <code>/c/work/app</code>, not Java's
+ * <code>C:\work\app</code>), or else Maven's base directory. Load the
+ * extension with <code>-Dmaven.ext.class.path=build-events.jar</code>, by
+ * copying the jar to <code>lib/ext</code> of the Maven installation or, from
+ * Maven 3.3.1, by listing it in <code>.mvn/extensions.xml</code>. See
+ * <code>src/it/verify-sample.sh</code> to try it on the sample reactor.
+ * </p>
+ *
+ * @author robbram
+ */
+@Named("buildEvents")
+@Singleton
+public final class BuildEventSpy extends AbstractEventSpy {
+
+   /** Property naming the file to write to. */
+   public static final String PROPERTY_FILE = "buildEvents.file";
+
+   /** Environment variable naming the file to write to. */
+   public static final String ENV_FILE = "BUILD_EVENTS_FILE";
+
+   /** Environment variable holding the command as typed. */
+   public static final String ENV_COMMAND = "BUILD_EVENTS_COMMAND";
+
+   /** Environment variable holding the directory as the log names it. */
+   public static final String ENV_DIRECTORY = "BUILD_EVENTS_DIRECTORY";
+
+   /** Where records are written, or null if not recording. */
+   private Writer out;
+
+   /** {@link System#nanoTime()} when the session started. */
+   private long started;
+
+   /** True if any project failed. */
+   private boolean failed;
+
+   @Override
+   public synchronized void onEvent(final Object event) throws IOException {
+      if (!(event instanceof ExecutionEvent)) {
+         return;
+      }
+      ExecutionEvent execution = (ExecutionEvent) event;
+      long now = System.nanoTime();
+      switch (execution.getType()) {
+         case SessionStarted:
+            sessionStarted(execution, now);
+            break;
+         case ProjectStarted:
+            project("project-start", execution, now, null);
+            break;
+         case ProjectSucceeded:
+            project("project-end", execution, now, "success");
+            break;
+         case ProjectFailed:
+            failed = true;
+            project("project-end", execution, now, "failure");
+            break;
+         case ProjectSkipped:
+            project("project-end", execution, now, "skipped");
+            break;
+         case MojoStarted:
+            mojo("mojo-start", execution, now, null);
+            break;
+         case MojoSucceeded:
+            mojo("mojo-end", execution, now, "success");
+            break;
+         case MojoFailed:
+            mojo("mojo-end", execution, now, "failure");
+            break;
+         case SessionEnded:
+            sessionEnded(now);
+            break;
+         default:
+            break;
+      }
+   }
+
+   @Override
+   public synchronized void close() throws IOException {
+      if (out != null) {
+         out.close();
+         out = null;
+      }
+   }
+
+   /**
+    * Open the file, if there is one, and write the session start, dated
+    * from when Maven started the request.
+    *
+    * @param event
+    *           session start
+    * @param now
+    *           {@link System#nanoTime()} of the event
+    * @throws IOException
+    *            if the file cannot be written
+    */
+   private void sessionStarted(final ExecutionEvent event, final long now)
+         throws IOException {
+      close();
+      MavenExecutionRequest request = event.getSession().getRequest();
+      String file = property(request, PROPERTY_FILE);
+      if (file == null) {
+         file = System.getenv(ENV_FILE);
+      }
+      if (file == null || file.isEmpty()) {
+         return;
+      }
+      File target = new File(file);
+      if (!target.isAbsolute()) {
+         target = new File(request.getBaseDirectory(), file);
+      }
+      if (target.getParentFile() != null) {
+         target.getParentFile().mkdirs();
+      }
+      out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(
+            target), StandardCharsets.UTF_8));
+      started = now;
+      long epochMillis = System.currentTimeMillis();
+      Date requestStart = request.getStartTime();
+      if (requestStart != null && requestStart.getTime() <= epochMillis) {
+         // Back to when Maven started, before it read the projects.
+         started -= TimeUnit.MILLISECONDS.toNanos(epochMillis
+               - requestStart.getTime());
+         epochMillis = requestStart.getTime();
+      }
+      failed = false;
+      write("{\"type\":\"session-start\",\"nanos\":0,\"epochMillis\":"
+            + epochMillis + ",\"command\":"
+            + quote(command(request)) + ",\"directory\":"
+            + quote(directory(request)) + "}");
+   }
+
+   /**
+    * Write the session end and close the file.
+    *
+    * @param now
+    *           {@link System#nanoTime()} of the event
+    * @throws IOException
+    *            if the file cannot be written
+    */
+   private void sessionEnded(final long now) throws IOException {
+      if (out == null) {
+         return;
+      }
+      String result = "success";
+      if (failed) {
+         result = "failure";
+      }
+      write("{\"type\":\"session-end\",\"nanos\":" + (now - started)
+            + ",\"result\":\"" + result + "\"}");
+      close();
+   }
+
+   /**
+    * @param type
+    *           record type
+    * @param event
+    *           project event
+    * @param now
+    *           {@link System#nanoTime()} of the event
+    * @param result
+    *           how the project finished, or null if it is starting
+    * @throws IOException
+    *            if the file cannot be written
+    */
+   private void project(final String type, final ExecutionEvent event,
+         final long now, final String result) throws IOException {
+      if (out == null || event.getProject() == null) {
+         return;
+      }
+      StringBuilder record = start(type, now, event.getProject());
+      record.append(",\"thread\":").append(quote(
+            Thread.currentThread().getName()));
+      end(record, result);
+   }
+
+   /**
+    * @param type
+    *           record type
+    * @param event
+    *           mojo event
+    * @param now
+    *           {@link System#nanoTime()} of the event
+    * @param result
+    *           how the mojo finished, or null if it is starting
+    * @throws IOException
+    *            if the file cannot be written
+    */
+   private void mojo(final String type, final ExecutionEvent event,
+         final long now, final String result) throws IOException {
+      MojoExecution mojo = event.getMojoExecution();
+      if (out == null || event.getProject() == null || mojo == null) {
+         return;
+      }
+      StringBuilder record = start(type, now, event.getProject());
+      record.append(",\"mojo\":").append(quote(mojo.getArtifactId() + ":"
+            + mojo.getVersion() + ":" + mojo.getGoal()));
+      record.append(",\"execution\":").append(quote(mojo.getExecutionId()));
+      record.append(",\"thread\":").append(quote(
+            Thread.currentThread().getName()));
+      end(record, result);
+   }
+
+   /**
+    * @param type
+    *           record type
+    * @param now
+    *           {@link System#nanoTime()} of the event
+    * @param project
+    *           project the event is for
+    * @return start of the record
+    */
+   private StringBuilder start(final String type, final long now,
+         final MavenProject project) {
+      StringBuilder record = new StringBuilder();
+      record.append("{\"type\":\"").append(type).append("\",\"nanos\":")
+            .append(now - started);
+      String name = project.getName();
+      if (name == null) {
+         name = project.getArtifactId();
+      }
+      record.append(",\"project\":").append(quote(name));
+      return record;
+   }
+
+   /**
+    * Finish a record and write it.
+    *
+    * @param record
+    *           record so far
+    * @param result
+    *           result to add, or null
+    * @throws IOException
+    *            if the file cannot be written
+    */
+   private void end(final StringBuilder record, final String result)
+         throws IOException {
+      if (result != null) {
+         record.append(",\"result\":\"").append(result).append('"');
+      }
+      record.append('}');
+      write(record.toString());
+   }
+
+   /**
+    * @param record
+    *           one JSON object
+    * @throws IOException
+    *            if the file cannot be written
+    */
+   private void write(final String record) throws IOException {
+      out.write(record);
+      out.write('\n');
+   }
+
+   /**
+    * @param request
+    *           what Maven was asked to do
+    * @param name
+    *           property name
+    * @return value of a user or system property, or null
+    */
+   private static String property(final MavenExecutionRequest request,
+         final String name) {
+      String value = request.getUserProperties().getProperty(name);
+      if (value == null) {
+         value = request.getSystemProperties().getProperty(name);
+      }
+      return value;
+   }
+
+   /**
+    * @param request
+    *           what Maven was asked to do
+    * @return command as typed, or as near as we can rebuild it
+    */
+   private static String command(final MavenExecutionRequest request) {
+      String typed = System.getenv(ENV_COMMAND);
+      if (typed != null && !typed.isEmpty()) {
+         return typed;
+      }
+      StringBuilder command = new StringBuilder("mvn");
+      List<String> goals = request.getGoals();
+      for (String goal : goals) {
+         command.append(' ').append(goal);
+      }
+      for (String profile : request.getActiveProfiles()) {
+         command.append(" -P").append(profile);
+      }
+      Properties properties = request.getUserProperties();
+      for (String name : new TreeSet<String>(
+            properties.stringPropertyNames())) {
+         if (!name.equals(PROPERTY_FILE)) {
+            command.append(" -D").append(name).append('=')
+                  .append(properties.getProperty(name));
+         }
+      }
+      return command.toString();
+   }
+
+   /**
+    * @param request
+    *           what Maven was asked to do
+    * @return directory the build was run from, as raven names it if it can
+    */
+   private static String directory(final MavenExecutionRequest request) {
+      String named = System.getenv(ENV_DIRECTORY);
+      if (named != null && !named.isEmpty()) {
+         return named;
+      }
+      return request.getBaseDirectory();
+   }
+
+   /**
+    * @param value
+    *           string to write, may be null
+    * @return value as a JSON string, or <code>null</code>
+    */
+   static String quote(final String value) {
+      if (value == null) {
+         return "null";
+      }
+      StringBuilder json = new StringBuilder("\"");
+      for (int index = 0; index < value.length(); index++) {
+         char c = value.charAt(index);
+         if (c == '"' || c == '\\') {
+            json.append('\\').append(c);
+         } else if (c < ' ') {
+            json.append(String.format("\\u%04x", (int) c));
+         } else {
+            json.append(c);
+         }
+      }
+      return json.append('"').toString();
+   }
+}
@@ -0,0 +1,206 @@
+package org.rmb.maven;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * <p>
+ * Common plumbing for sinks that write to a file or to a stream someone else
+ * owns.
+ * </p>
+ * <p>
+ * Files are written to a temporary file in the same directory and moved over
+ * the target on {@link #close()}, so anything reading the target path (a
+ * metrics scraper, say) never sees a half written report. The temporary file
+ * is created with the usual permissions for new files, or those of the report
+ * it replaces, so the report stays readable by whoever could read it before.
+ * It is deleted by {@link #abort()}.
+ * </p>
+ *
+ * @author robbram
+ */
+public abstract class AbstractReportSink implements ReportSink {
+
+   /** Buffer size for output. */
+   private static final int BUFFER_SIZE = 64 * 1024;
+
+   /** Final location of the report, or null if writing to a stream. */
+   private final Path target;
+
+   /** Temporary file we write to before moving it to target. */
+   private Path temporary;
+
+   /** Where output goes while the sink is open. */
+   private OutputStream stream;
+
+   /** Character view of {@link #stream}, created on demand. */
+   private Writer writer;
+
+   /** True if statistics cover only some of their command's runs. */
+   private boolean partial;
+
+   /**
+    * @param theTarget
+    *           file the report will be written to
+    */
+   protected AbstractReportSink(final Path theTarget) {
+      target = theTarget.toAbsolutePath();
+   }
+
+   /**
+    * @param theStream
+    *           stream the report will be written to. It is flushed but not
+    *           closed by {@link #close()}.
+    */
+   protected AbstractReportSink(final OutputStream theStream) {
+      target = null;
+      stream = theStream;
+   }
+
+   @Override
+   public final void setPartial(final boolean isPartial) {
+      partial = isPartial;
+   }
+
+   @Override
+   public final void open() throws IOException {
+      if (target != null) {
+         stream = new BufferedOutputStream(createTemporary(), BUFFER_SIZE);
+      }
+      writeHeader();
+   }
+
+   /**
+    * Create the temporary file next to the target. Unlike
+    * {@link Files#createTempFile(Path, String, String,
+    * java.nio.file.attribute.FileAttribute...)}, which makes files only the
+    * owner can read, new files get the default permissions.
+    *
+    * @return stream to the new temporary file
+    * @throws IOException
+    *            if the file cannot be created
+    */
+   private OutputStream createTemporary() throws IOException {
+      OutputStream created = null;
+      while (created == null) {
+         Path candidate = target.resolveSibling(target.getFileName() + "."
+               + Long.toHexString(ThreadLocalRandom.current().nextLong())
+               + ".tmp");
+         try {
+            created = Files.newOutputStream(candidate,
+                  StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+         } catch (FileAlreadyExistsException e) {
+            continue;
+         }
+         temporary = candidate;
+      }
+      PosixFileAttributeView view = Files.getFileAttributeView(temporary,
+            PosixFileAttributeView.class);
+      if (view != null && Files.exists(target)) {
+         try {
+            view.setPermissions(Files.getPosixFilePermissions(target));
+         } catch (IOException e) {
+            created.close();
+            throw e;
+         }
+      }
+      return created;
+   }
+
+   @Override
+   public final void close() throws IOException {
+      writeTrailer();
+      if (writer != null) {
+         writer.flush();
+      }
+      stream.flush();
+      if (target == null) {
+         return;
+      }
+      stream.close();
+      try {
+         Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE,
+               StandardCopyOption.REPLACE_EXISTING);
+      } catch (AtomicMoveNotSupportedException e) {
+         Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+      }
+      temporary = null;
+      System.out.println("Output report [" + target + "].");
+   }
+
+   @Override
+   public final void abort() {
+      if (temporary == null) {
+         return;
+      }
+      try {
+         if (stream != null) {
+            stream.close();
+         }
+      } catch (IOException e) {
+         // Going to delete it anyway.
+      }
+      try {
+         Files.deleteIfExists(temporary);
+      } catch (IOException e) {
+         System.err.println("Unable to delete [" + temporary + "]: " + e);
+      }
+      temporary = null;
+   }
+
+   /**
+    * @return true if statistics cover only the runs since their command was
+    *         last taken on, see {@link #setPartial(boolean)}
+    */
+   protected final boolean isPartial() {
+      return partial;
+   }
+
+   /** @return stream to write binary output to */
+   protected final OutputStream getStream() {
+      return stream;
+   }
+
+   /** @return UTF-8 writer over the output stream */
+   protected final Writer getWriter() {
+      if (writer == null) {
+         writer = new BufferedWriter(
+               new OutputStreamWriter(stream, StandardCharsets.UTF_8),
+               BUFFER_SIZE);
+      }
+      return writer;
+   }
+
+   /**
+    * Write anything that comes before the first statistic. Does nothing by
+    * default.
+    *
+    * @throws IOException
+    *            if we cannot write.
+    */
+   protected void writeHeader() throws IOException {
+   }
+
+   /**
+    * Write anything that comes after the last statistic. Does nothing by
+    * default.
+    *
+    * @throws IOException
+    *            if we cannot write.
+    */
+   protected void writeTrailer() throws IOException {
+   }
+}
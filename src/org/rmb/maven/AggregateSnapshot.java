@@ -0,0 +1,233 @@
+package org.rmb.maven;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.rmb.maven.MavenBuildTimes.DirectoryTotal;
+import org.rmb.maven.MavenBuildTimes.Statistic;
+
+/**
+ * <p>
+ * Everything {@link MavenBuildTimes} adds up about each command, saved to a
+ * small file so that the statistics of many build agents can be combined
+ * without copying their logs to one place. Each agent saves one from its own
+ * logs and any number of them are then merged into one.
+ * </p>
+ * <p>
+ * Merging adds counts, times and histogram buckets, all held as whole
+ * numbers, and joins the directory totals, so merging is associative and
+ * commutative: merged snapshots hold exactly what one snapshot of all the
+ * logs would, and are written the same byte for byte. Commands and
+ * directories are written sorted for that reason; reports from merged
+ * statistics list them in that order. Regressions depend on the order of
+ * builds over time and are not kept. To keep merges exact, a snapshot is
+ * only saved from every log, never from a sample. This is not the same as
+ * {@link BuildTimesSnapshot}, which is the live view served over HTTP.
+ * </p>
+ * <p>
+ * Layout, gzipped, all numbers big-endian as written by
+ * {@link DataOutputStream}:
+ * </p>
+ *
+ * <pre>
+ * file      := "MBTS" version:short commands:int command[commands]
+ * command   := command:string count:int totalMillis:long
+ *              buckets:int (bucket:int count:int)[buckets]
+ *              directories:int directory[directories]
+ * directory := directory:string count:int totalMillis:long
+ * string    := length:int utf8:byte[length]
+ * </pre>
+ * <p>
+ * Only histogram buckets with a count are written.
+ * </p>
+ *
+ * @author robbram
+ */
+public final class AggregateSnapshot {
+
+   /** Identifies the file format. */
+   static final byte[] MAGIC = {'M', 'B', 'T', 'S' };
+
+   /** Version of the layout written. */
+   static final short VERSION = 1;
+
+   /** Statistics by command, sorted. */
+   private final Map<String, Statistic> commands =
+         new TreeMap<String, Statistic>();
+
+   /**
+    * Add statistics to the snapshot, merging any for the same command.
+    *
+    * @param statistics
+    *           statistics to add; commands never timed are left out
+    */
+   public void addAll(final Collection<Statistic> statistics) {
+      for (Statistic statistic : statistics) {
+         if (statistic.getCount() == 0) {
+            continue;
+         }
+         Statistic mine = commands.get(statistic.getCommand());
+         if (mine == null) {
+            mine = new Statistic(statistic.getCommand());
+            commands.put(statistic.getCommand(), mine);
+         }
+         mine.merge(statistic);
+      }
+   }
+
+   /**
+    * Merge another snapshot into this one.
+    *
+    * @param other
+    *           snapshot to add
+    */
+   public void merge(final AggregateSnapshot other) {
+      addAll(other.commands.values());
+   }
+
+   /** @return statistics by command, in command order */
+   public List<Statistic> getStatistics() {
+      return new ArrayList<Statistic>(commands.values());
+   }
+
+   /**
+    * @param target
+    *           file to write the snapshot to
+    * @throws IOException
+    *            if we cannot write.
+    */
+   public void write(final Path target) throws IOException {
+      try (DataOutputStream data = new DataOutputStream(
+            new BufferedOutputStream(new GZIPOutputStream(
+                  Files.newOutputStream(target))))) {
+         data.write(MAGIC);
+         data.writeShort(VERSION);
+         data.writeInt(commands.size());
+         for (Statistic statistic : commands.values()) {
+            writeString(data, statistic.getCommand());
+            data.writeInt(statistic.getCount());
+            data.writeLong(statistic.getTotalMillis());
+            DurationHistogram histogram = statistic.getHistogram();
+            int buckets = 0;
+            for (int bucket = 0; bucket < histogram.getLength(); bucket++) {
+               if (histogram.getBucketCount(bucket) != 0) {
+                  buckets++;
+               }
+            }
+            data.writeInt(buckets);
+            for (int bucket = 0; bucket < histogram.getLength(); bucket++) {
+               if (histogram.getBucketCount(bucket) != 0) {
+                  data.writeInt(bucket);
+                  data.writeInt(histogram.getBucketCount(bucket));
+               }
+            }
+            List<DirectoryTotal> directories = new ArrayList<DirectoryTotal>(
+                  statistic.getDirectoryTotals());
+            Collections.sort(directories, new Comparator<DirectoryTotal>() {
+               @Override
+               public int compare(final DirectoryTotal one,
+                     final DirectoryTotal two) {
+                  return one.getDirectory().compareTo(two.getDirectory());
+               }
+            });
+            data.writeInt(directories.size());
+            for (DirectoryTotal total : directories) {
+               writeString(data, total.getDirectory());
+               data.writeInt(total.getCount());
+               data.writeLong(total.getTotalMillis());
+            }
+         }
+      }
+   }
+
+   /**
+    * @param source
+    *           file written by {@link #write(Path)}
+    * @return snapshot read from the file
+    * @throws IOException
+    *            if we cannot read, or the file is not a snapshot in a version
+    *            we know.
+    */
+   public static AggregateSnapshot read(final Path source)
+         throws IOException {
+      AggregateSnapshot snapshot = new AggregateSnapshot();
+      try (DataInputStream data = new DataInputStream(
+            new BufferedInputStream(new GZIPInputStream(
+                  Files.newInputStream(source))))) {
+         byte[] magic = new byte[MAGIC.length];
+         data.readFully(magic);
+         if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("Not a snapshot [" + source + "].");
+         }
+         short version = data.readShort();
+         if (version != VERSION) {
+            throw new IOException("Unknown snapshot version [" + version
+                  + "] in [" + source + "].");
+         }
+         int count = data.readInt();
+         for (int index = 0; index < count; index++) {
+            Statistic statistic = new Statistic(readString(data));
+            int builds = data.readInt();
+            long totalMillis = data.readLong();
+            DurationHistogram histogram = new DurationHistogram();
+            int buckets = data.readInt();
+            for (int bucket = 0; bucket < buckets; bucket++) {
+               histogram.addToBucket(data.readInt(), data.readInt());
+            }
+            statistic.add(builds, totalMillis, histogram);
+            int directories = data.readInt();
+            for (int directory = 0; directory < directories; directory++) {
+               statistic.addDirectory(readString(data), data.readInt(),
+                     data.readLong());
+            }
+            snapshot.addAll(Collections.singletonList(statistic));
+         }
+      }
+      return snapshot;
+   }
+
+   /**
+    * @param data
+    *           stream to write to
+    * @param value
+    *           string to write with a length prefix
+    * @throws IOException
+    *            if we cannot write.
+    */
+   private static void writeString(final DataOutputStream data,
+         final String value) throws IOException {
+      byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      data.writeInt(bytes.length);
+      data.write(bytes);
+   }
+
+   /**
+    * @param data
+    *           stream to read from
+    * @return string written by {@link #writeString(DataOutputStream, String)}
+    * @throws IOException
+    *            if we cannot read.
+    */
+   private static String readString(final DataInputStream data)
+         throws IOException {
+      byte[] bytes = new byte[data.readInt()];
+      data.readFully(bytes);
+      return new String(bytes, StandardCharsets.UTF_8);
+   }
+}
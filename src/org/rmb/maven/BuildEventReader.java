@@ -0,0 +1,279 @@
+package org.rmb.maven;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * Read the build events written by the <code>build-events</code> Maven
+ * extension (<code>org.rmb.maven.events.BuildEventSpy</code>) next to a raven
+ * log, which give the command, directory and total time without parsing the
+ * log's text.
+ * </p>
+ * <p>
+ * Events for <code>maven_20150301_235959.txt</code> are in
+ * <code>maven_20150301_235959.jsonl</code>, one JSON object per line, each
+ * starting with its type. Only the session start and end are needed, so
+ * other lines are passed over on their first few characters. The total time
+ * is the session end less the session start. The extension dates the session
+ * start from when Maven started the request, as Maven's own
+ * <code>Total time</code> does, so the two measure the same span and differ
+ * by little more than the log's rounding. A command's history can mix logs
+ * timed either way.
+ * </p>
+ *
+ * @author robbram
+ */
+final class BuildEventReader {
+
+   /** Extension of a raven log. */
+   private static final String LOG_EXTENSION = ".txt";
+
+   /** Extension of the events for a raven log. */
+   static final String EVENTS_EXTENSION = ".jsonl";
+
+   /** Start of a session start record. */
+   private static final String SESSION_START =
+         "{\"type\":\"session-start\"";
+
+   /** Start of a session end record. */
+   private static final String SESSION_END = "{\"type\":\"session-end\"";
+
+   /** Nanoseconds in a second. */
+   private static final double NANOS_PER_SECOND = 1e9;
+
+   /** Not for instances. */
+   private BuildEventReader() {
+   }
+
+   /**
+    * @param log
+    *           raven log
+    * @return file the events for the log would be in, which may not exist
+    */
+   static File eventsFor(final File log) {
+      String name = log.getName();
+      if (name.toLowerCase().endsWith(LOG_EXTENSION)) {
+         name = name.substring(0, name.length() - LOG_EXTENSION.length());
+      }
+      return new File(log.getParentFile(), name + EVENTS_EXTENSION);
+   }
+
+   /**
+    * @param events
+    *           events written by the extension
+    * @return the last whole session in the file, or null if there isn't one,
+    *         say because the build was killed
+    * @throws IOException
+    *            if the file cannot be read
+    */
+   static Session read(final File events) throws IOException {
+      Session last = null;
+      Map<String, String> start = null;
+      try (BufferedReader reader = Files.newBufferedReader(events.toPath(),
+            StandardCharsets.UTF_8)) {
+         String line;
+         while ((line = reader.readLine()) != null) {
+            if (line.startsWith(SESSION_START)) {
+               start = parse(line);
+            } else if (line.startsWith(SESSION_END) && start != null) {
+               Map<String, String> end = parse(line);
+               if (end == null) {
+                  continue;
+               }
+               try {
+                  long nanos = Long.parseLong(end.get("nanos"))
+                        - Long.parseLong(start.get("nanos"));
+                  last = new Session(start.get("command"),
+                        start.get("directory"), nanos / NANOS_PER_SECOND);
+               } catch (NumberFormatException e) {
+                  continue;
+               }
+               start = null;
+            }
+         }
+      }
+      if (last == null || last.command == null || last.directory == null) {
+         return null;
+      }
+      return last;
+   }
+
+   /**
+    * Parse one record: a JSON object whose values are strings, numbers or
+    * null, as the extension writes them.
+    *
+    * @param line
+    *           record
+    * @return values by name, numbers as written; null if the line is not
+    *         such an object
+    */
+   static Map<String, String> parse(final String line) {
+      Map<String, String> values = new HashMap<String, String>();
+      int[] at = {skip(line, 0) };
+      if (!expect(line, at, '{')) {
+         return null;
+      }
+      if (expect(line, at, '}')) {
+         return values;
+      }
+      do {
+         String name = string(line, at);
+         if (name == null || !expect(line, at, ':')) {
+            return null;
+         }
+         String value;
+         if (at[0] < line.length() && line.charAt(at[0]) == '"') {
+            value = string(line, at);
+            if (value == null) {
+               return null;
+            }
+         } else {
+            int end = at[0];
+            while (end < line.length() && ",} \t".indexOf(line.charAt(end))
+                  < 0) {
+               end++;
+            }
+            value = line.substring(at[0], end);
+            at[0] = skip(line, end);
+            if ("null".equals(value)) {
+               value = null;
+            }
+         }
+         values.put(name, value);
+      } while (expect(line, at, ','));
+      if (!expect(line, at, '}')) {
+         return null;
+      }
+      return values;
+   }
+
+   /**
+    * @param line
+    *           record
+    * @param at
+    *           position, moved past the character and any spaces after it if
+    *           it is there
+    * @param c
+    *           character wanted
+    * @return true if the character was there
+    */
+   private static boolean expect(final String line, final int[] at,
+         final char c) {
+      if (at[0] < line.length() && line.charAt(at[0]) == c) {
+         at[0] = skip(line, at[0] + 1);
+         return true;
+      }
+      return false;
+   }
+
+   /**
+    * @param line
+    *           record
+    * @param from
+    *           position
+    * @return first position from there that is not a space
+    */
+   private static int skip(final String line, final int from) {
+      int index = from;
+      while (index < line.length() && Character.isWhitespace(
+            line.charAt(index))) {
+         index++;
+      }
+      return index;
+   }
+
+   /**
+    * @param line
+    *           record
+    * @param at
+    *           position of the opening quote, moved past the string and any
+    *           spaces after it
+    * @return the string, unescaped, or null if it is not a whole string
+    */
+   private static String string(final String line, final int[] at) {
+      if (at[0] >= line.length() || line.charAt(at[0]) != '"') {
+         return null;
+      }
+      StringBuilder value = new StringBuilder();
+      int index = at[0] + 1;
+      while (index < line.length()) {
+         char c = line.charAt(index);
+         if (c == '"') {
+            at[0] = skip(line, index + 1);
+            return value.toString();
+         }
+         if (c == '\\' && index + 1 < line.length()) {
+            index++;
+            char escaped = line.charAt(index);
+            if (escaped == 'u' && index + 4 < line.length()) {
+               value.append((char) Integer.parseInt(
+                     line.substring(index + 1, index + 5), 16));
+               index += 4;
+            } else if (escaped == 'n') {
+               value.append('\n');
+            } else if (escaped == 't') {
+               value.append('\t');
+            } else if (escaped == 'r') {
+               value.append('\r');
+            } else {
+               value.append(escaped);
+            }
+         } else {
+            value.append(c);
+         }
+         index++;
+      }
+      return null;
+   }
+
+   /**
+    * One whole Maven session from the events.
+    */
+   static final class Session {
+
+      /** Command that was run. */
+      private final String command;
+
+      /** Directory it was run from. */
+      private final String directory;
+
+      /** Time from start to end, in seconds. */
+      private final double seconds;
+
+      /**
+       * @param theCommand
+       *           command that was run
+       * @param theDirectory
+       *           directory it was run from
+       * @param theSeconds
+       *           time from start to end, in seconds
+       */
+      Session(final String theCommand, final String theDirectory,
+            final double theSeconds) {
+         command = theCommand;
+         directory = theDirectory;
+         seconds = theSeconds;
+      }
+
+      /** @return command that was run */
+      String getCommand() {
+         return command;
+      }
+
+      /** @return directory it was run from */
+      String getDirectory() {
+         return directory;
+      }
+
+      /** @return time from start to end, in seconds */
+      double getSeconds() {
+         return seconds;
+      }
+   }
+}
@@ -0,0 +1,291 @@
+package org.rmb.maven;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * <p>
+ * Counters and timers for each phase of the analysis, so we can tell whether
+ * time goes into listing, opening, reading or matching log files.
+ * </p>
+ * <p>
+ * A disabled instance, {@link #DISABLED}, returns straight away from every
+ * method without reading the clock, so leaving the calls in the hot path costs
+ * next to nothing. Values are updated without synchronisation by the thread
+ * doing the analysis; JMX readers may see them lag slightly.
+ * </p>
+ *
+ * @author robbram
+ */
+public final class BuildTimesMetrics implements BuildTimesMetricsMBean {
+
+   /** Instance that records nothing. */
+   public static final BuildTimesMetrics DISABLED =
+         new BuildTimesMetrics(false);
+
+   /** Name we register under with JMX. */
+   public static final String OBJECT_NAME =
+         "org.rmb.maven:type=MavenBuildTimes,name=metrics";
+
+   /** Default for {@link #getSlowFileThresholdMillis()}. */
+   private static final long DEFAULT_SLOW_FILE_MILLIS = 1000;
+
+   /** Record anything? */
+   private final boolean enabled;
+
+   /** Counter values, indexed by {@link Counter#ordinal()}. */
+   private final long[] counters = new long[Counter.values().length];
+
+   /** Timer values in nanoseconds, indexed by {@link Timer#ordinal()}. */
+   private final long[] timers = new long[Timer.values().length];
+
+   /** Files taking longer than this are logged. */
+   private volatile long slowFileThresholdNanos =
+         TimeUnit.MILLISECONDS.toNanos(DEFAULT_SLOW_FILE_MILLIS);
+
+   /** Create an instance that records. */
+   public BuildTimesMetrics() {
+      this(true);
+   }
+
+   /**
+    * @param theEnabled
+    *           record anything?
+    */
+   private BuildTimesMetrics(final boolean theEnabled) {
+      enabled = theEnabled;
+   }
+
+   /**
+    * @param counter
+    *           counter to add to
+    * @param amount
+    *           amount to add
+    */
+   public void count(final Counter counter, final long amount) {
+      if (enabled) {
+         counters[counter.ordinal()] += amount;
+      }
+   }
+
+   /**
+    * @return value to pass to {@link #stop(Timer, long)}, zero if disabled
+    */
+   public long start() {
+      if (enabled) {
+         return System.nanoTime();
+      }
+      return 0;
+   }
+
+   /**
+    * @param timer
+    *           timer to add the elapsed time to
+    * @param started
+    *           value returned by {@link #start()}
+    * @return current value of the clock, so it can be used to start the next
+    *         phase; zero if disabled
+    */
+   public long stop(final Timer timer, final long started) {
+      if (!enabled) {
+         return 0;
+      }
+      long now = System.nanoTime();
+      timers[timer.ordinal()] += now - started;
+      return now;
+   }
+
+   /**
+    * Log a file if it took longer than the threshold.
+    *
+    * @param log
+    *           file that has just been analysed
+    * @param started
+    *           value returned by {@link #start()} before it was opened
+    */
+   public void fileFinished(final File log, final long started) {
+      if (!enabled) {
+         return;
+      }
+      long elapsed = System.nanoTime() - started;
+      if (elapsed > slowFileThresholdNanos) {
+         System.err.println("Slow file [" + log + "] took ["
+               + TimeUnit.NANOSECONDS.toMillis(elapsed) + "] ms for ["
+               + log.length() + "] bytes.");
+      }
+   }
+
+   /** @return true if this instance records anything */
+   public boolean isEnabled() {
+      return enabled;
+   }
+
+   /**
+    * Register with the platform MBean server under {@link #OBJECT_NAME}.
+    *
+    * @throws JMException
+    *            if registration fails.
+    */
+   public void register() throws JMException {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName(OBJECT_NAME);
+      if (server.isRegistered(name)) {
+         server.unregisterMBean(name);
+      }
+      server.registerMBean(this, name);
+   }
+
+   /** @return counters and timers, one per line */
+   public String summary() {
+      StringBuilder builder = new StringBuilder("Analysis metrics:\n");
+      for (Counter counter : Counter.values()) {
+         builder.append("   ").append(counter.getDescription()).append(" [")
+               .append(counters[counter.ordinal()]).append("]\n");
+      }
+      for (Timer timer : Timer.values()) {
+         builder.append("   ").append(timer.getDescription()).append(" [")
+               .append(TimeUnit.NANOSECONDS.toMillis(timers[timer.ordinal()]))
+               .append("] ms\n");
+      }
+      return builder.toString();
+   }
+
+   @Override
+   public long getFilesListed() {
+      return counters[Counter.FILES_LISTED.ordinal()];
+   }
+
+   @Override
+   public long getFilesOpened() {
+      return counters[Counter.FILES_OPENED.ordinal()];
+   }
+
+   @Override
+   public long getBytesRead() {
+      return counters[Counter.BYTES_READ.ordinal()];
+   }
+
+   @Override
+   public long getLinesScanned() {
+      return counters[Counter.LINES_SCANNED.ordinal()];
+   }
+
+   @Override
+   public long getMarkersMatched() {
+      return counters[Counter.MARKERS_MATCHED.ordinal()];
+   }
+
+   @Override
+   public long getRunsAggregated() {
+      return counters[Counter.RUNS_AGGREGATED.ordinal()];
+   }
+
+   @Override
+   public long getBadFiles() {
+      return counters[Counter.BAD_FILES.ordinal()];
+   }
+
+   @Override
+   public long getListNanos() {
+      return timers[Timer.LIST.ordinal()];
+   }
+
+   @Override
+   public long getOpenNanos() {
+      return timers[Timer.OPEN.ordinal()];
+   }
+
+   @Override
+   public long getReadNanos() {
+      return timers[Timer.READ.ordinal()];
+   }
+
+   @Override
+   public long getScanNanos() {
+      return timers[Timer.SCAN.ordinal()];
+   }
+
+   @Override
+   public long getAggregateNanos() {
+      return timers[Timer.AGGREGATE.ordinal()];
+   }
+
+   @Override
+   public long getSlowFileThresholdMillis() {
+      return TimeUnit.NANOSECONDS.toMillis(slowFileThresholdNanos);
+   }
+
+   @Override
+   public void setSlowFileThresholdMillis(final long millis) {
+      slowFileThresholdNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+   }
+
+   /** Things we count. */
+   public enum Counter {
+      /** Log files found while listing. */
+      FILES_LISTED("Files listed"),
+      /** Log files opened. */
+      FILES_OPENED("Files opened"),
+      /** Bytes read from log files. */
+      BYTES_READ("Bytes read"),
+      /** Lines looked at. */
+      LINES_SCANNED("Lines scanned"),
+      /** Lines that matched a marker. */
+      MARKERS_MATCHED("Markers matched"),
+      /** Runs added to the statistics. */
+      RUNS_AGGREGATED("Runs aggregated"),
+      /** Files without a command, directory and time. */
+      BAD_FILES("Bad files");
+
+      /** Label used in the summary. */
+      private final String description;
+
+      /**
+       * @param theDescription
+       *           label used in the summary
+       */
+      Counter(final String theDescription) {
+         description = theDescription;
+      }
+
+      /** @return label used in the summary */
+      public String getDescription() {
+         return description;
+      }
+   }
+
+   /** Phases we time. */
+   public enum Timer {
+      /** Listing log files. */
+      LIST("List"),
+      /** Opening log files. */
+      OPEN("Open"),
+      /** Reading lines from log files. */
+      READ("Read"),
+      /** Matching lines against markers. */
+      SCAN("Scan"),
+      /** Adding runs to the statistics. */
+      AGGREGATE("Aggregate");
+
+      /** Label used in the summary. */
+      private final String description;
+
+      /**
+       * @param theDescription
+       *           label used in the summary
+       */
+      Timer(final String theDescription) {
+         description = theDescription;
+      }
+
+      /** @return label used in the summary */
+      public String getDescription() {
+         return description;
+      }
+   }
+}
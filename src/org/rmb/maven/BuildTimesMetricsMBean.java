@@ -0,0 +1,54 @@
+package org.rmb.maven;
+
+/**
+ * JMX view of {@link BuildTimesMetrics}. Times are in nanoseconds.
+ *
+ * @author robbram
+ */
+public interface BuildTimesMetricsMBean {
+
+   /** @return log files found while listing */
+   long getFilesListed();
+
+   /** @return log files opened */
+   long getFilesOpened();
+
+   /** @return bytes read from log files */
+   long getBytesRead();
+
+   /** @return lines looked at */
+   long getLinesScanned();
+
+   /** @return lines that matched a marker we look for */
+   long getMarkersMatched();
+
+   /** @return build runs added to the statistics */
+   long getRunsAggregated();
+
+   /** @return log files that did not give us a command, directory and time */
+   long getBadFiles();
+
+   /** @return time spent listing log files */
+   long getListNanos();
+
+   /** @return time spent opening log files */
+   long getOpenNanos();
+
+   /** @return time spent reading log files */
+   long getReadNanos();
+
+   /** @return time spent matching lines against markers */
+   long getScanNanos();
+
+   /** @return time spent adding runs to the statistics */
+   long getAggregateNanos();
+
+   /** @return files taking longer than this are logged */
+   long getSlowFileThresholdMillis();
+
+   /**
+    * @param millis
+    *           files taking longer than this are logged
+    */
+   void setSlowFileThresholdMillis(long millis);
+}
@@ -0,0 +1,194 @@
+package org.rmb.maven;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+import org.rmb.maven.MavenBuildTimes.Statistic;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * <p>
+ * Small HTTP server on the loopback interface that serves the latest
+ * {@link BuildTimesSnapshot}:
+ * </p>
+ * <ul>
+ * <li><code>/stats</code> - JSON document with per command aggregates,
+ * percentiles and per directory breakdowns.</li>
+ * <li><code>/metrics</code> - the same in Prometheus text format.</li>
+ * </ul>
+ * <p>
+ * Requests are handled on the server's own threads and only ever read the
+ * snapshot they are given, so they never hold up analysis. Those threads keep
+ * the JVM alive until {@link #stop()} is called.
+ * </p>
+ *
+ * @author robbram
+ */
+public final class BuildTimesServer {
+
+   /** HTTP OK. */
+   private static final int HTTP_OK = 200;
+
+   /** HTTP method not allowed. */
+   private static final int HTTP_BAD_METHOD = 405;
+
+   /** Threads used to answer requests. */
+   private static final int THREADS = 2;
+
+   /** Source of the latest snapshot. */
+   private final Supplier<BuildTimesSnapshot> snapshots;
+
+   /** The underlying JDK server. */
+   private final HttpServer server;
+
+   /** Threads used to answer requests. */
+   private final ExecutorService executor;
+
+   /**
+    * @param port
+    *           port on localhost to listen on, 0 for any free port
+    * @param theSnapshots
+    *           source of the latest snapshot
+    * @throws IOException
+    *            if we cannot bind to the port.
+    */
+   public BuildTimesServer(final int port,
+         final Supplier<BuildTimesSnapshot> theSnapshots) throws IOException {
+      snapshots = theSnapshots;
+      server = HttpServer.create(new InetSocketAddress(
+            InetAddress.getLoopbackAddress(), port), 0);
+      executor = Executors.newFixedThreadPool(THREADS,
+            runnable -> new Thread(runnable, "build-times-http"));
+      server.setExecutor(executor);
+      server.createContext("/stats", new SnapshotHandler(false));
+      server.createContext("/metrics", new SnapshotHandler(true));
+   }
+
+   /** @return port the server is listening on */
+   public int getPort() {
+      return server.getAddress().getPort();
+   }
+
+   /** Start answering requests. */
+   public void start() {
+      server.start();
+      System.out.println("Serving build times on [http://"
+            + server.getAddress().getHostString() + ":" + getPort()
+            + "/stats] and [/metrics].");
+   }
+
+   /** Stop answering requests. */
+   public void stop() {
+      server.stop(0);
+      executor.shutdown();
+   }
+
+   /**
+    * @param writer
+    *           to write to
+    * @param snapshot
+    *           to write as JSON
+    * @throws IOException
+    *            if we cannot write.
+    */
+   private static void writeJson(final Writer writer,
+         final BuildTimesSnapshot snapshot) throws IOException {
+      writer.write("{\"timestamp\":");
+      writer.write(Long.toString(snapshot.getTimestamp()));
+      writer.write(",\"filesAnalysed\":");
+      writer.write(Integer.toString(snapshot.getFilesAnalysed()));
+      writer.write(",\"commands\":[");
+      boolean first = true;
+      for (Statistic statistic : snapshot.getCommands()) {
+         if (!first) {
+            writer.write(',');
+         }
+         JsonLinesReportSink.writeObject(writer, statistic, false);
+         first = false;
+      }
+      writer.write("]}\n");
+   }
+
+   /**
+    * @param writer
+    *           to write to
+    * @param snapshot
+    *           to write in Prometheus text format
+    * @throws IOException
+    *            if we cannot write.
+    */
+   private static void writeMetrics(final Writer writer,
+         final BuildTimesSnapshot snapshot) throws IOException {
+      PrometheusReportSink.writeFamilyHeader(writer,
+            PrometheusReportSink.METRIC,
+            "Wall clock time of maven builds by command.");
+      for (Statistic statistic : snapshot.getCommands()) {
+         PrometheusReportSink.writeSeries(writer, statistic);
+      }
+      PrometheusReportSink.writeFamilyHeader(writer,
+            PrometheusReportSink.DIRECTORY_METRIC,
+            "Wall clock time of maven builds by command and directory.");
+      for (Statistic statistic : snapshot.getCommands()) {
+         PrometheusReportSink.writeDirectorySeries(writer, statistic);
+      }
+   }
+
+   /**
+    * Render the current snapshot in one of the two formats.
+    */
+   private final class SnapshotHandler implements HttpHandler {
+
+      /** True for Prometheus, false for JSON. */
+      private final boolean prometheus;
+
+      /**
+       * @param thePrometheus
+       *           true for Prometheus, false for JSON
+       */
+      SnapshotHandler(final boolean thePrometheus) {
+         prometheus = thePrometheus;
+      }
+
+      @Override
+      public void handle(final HttpExchange exchange) throws IOException {
+         try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+               exchange.sendResponseHeaders(HTTP_BAD_METHOD, -1);
+               return;
+            }
+            BuildTimesSnapshot snapshot = snapshots.get();
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            Writer writer =
+                  new OutputStreamWriter(body, StandardCharsets.UTF_8);
+            if (prometheus) {
+               writeMetrics(writer, snapshot);
+               exchange.getResponseHeaders().set("Content-Type",
+                     "text/plain; version=0.0.4; charset=utf-8");
+            } else {
+               writeJson(writer, snapshot);
+               exchange.getResponseHeaders().set("Content-Type",
+                     "application/json; charset=utf-8");
+            }
+            writer.flush();
+            exchange.sendResponseHeaders(HTTP_OK, body.size());
+            OutputStream response = exchange.getResponseBody();
+            body.writeTo(response);
+            response.close();
+         } finally {
+            exchange.close();
+         }
+      }
+   }
+}
@@ -0,0 +1,85 @@
+package org.rmb.maven;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.rmb.maven.MavenBuildTimes.Statistic;
+
+/**
+ * <p>
+ * Immutable point in time view of the statistics gathered so far.
+ * </p>
+ * <p>
+ * A new snapshot is derived from the previous one by replacing only the
+ * commands that changed, so refreshing costs a map copy plus one
+ * {@link Statistic#copy()} per changed command. Readers never see a snapshot
+ * change underneath them.
+ * </p>
+ *
+ * @author robbram
+ */
+public final class BuildTimesSnapshot {
+
+   /** Snapshot before anything has been analysed. */
+   public static final BuildTimesSnapshot EMPTY = new BuildTimesSnapshot(
+         Collections.<String, Statistic> emptyMap(), 0, 0);
+
+   /** Frozen statistics by command. */
+   private final Map<String, Statistic> commands;
+
+   /** Number of log files analysed when the snapshot was taken. */
+   private final int filesAnalysed;
+
+   /** When the snapshot was taken, in milliseconds since the epoch. */
+   private final long timestamp;
+
+   /**
+    * @param theCommands
+    *           frozen statistics by command, not copied
+    * @param theFilesAnalysed
+    *           number of log files analysed so far
+    * @param theTimestamp
+    *           when the snapshot was taken
+    */
+   private BuildTimesSnapshot(final Map<String, Statistic> theCommands,
+         final int theFilesAnalysed, final long theTimestamp) {
+      commands = Collections.unmodifiableMap(theCommands);
+      filesAnalysed = theFilesAnalysed;
+      timestamp = theTimestamp;
+   }
+
+   /**
+    * @param changed
+    *           statistics that have changed since this snapshot was taken
+    * @param theFilesAnalysed
+    *           number of log files analysed so far
+    * @return new snapshot with frozen copies of the changed statistics
+    */
+   public BuildTimesSnapshot update(final Collection<Statistic> changed,
+         final int theFilesAnalysed) {
+      Map<String, Statistic> updated =
+            new LinkedHashMap<String, Statistic>(commands);
+      for (Statistic statistic : changed) {
+         updated.put(statistic.getCommand(), statistic.copy());
+      }
+      return new BuildTimesSnapshot(updated, theFilesAnalysed,
+            System.currentTimeMillis());
+   }
+
+   /** @return frozen statistics, in the order commands were first seen */
+   public Collection<Statistic> getCommands() {
+      return commands.values();
+   }
+
+   /** @return number of log files analysed when the snapshot was taken */
+   public int getFilesAnalysed() {
+      return filesAnalysed;
+   }
+
+   /** @return when the snapshot was taken, in milliseconds since the epoch */
+   public long getTimestamp() {
+      return timestamp;
+   }
+}
@@ -0,0 +1,146 @@
+package org.rmb.maven;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.rmb.maven.MavenBuildTimes.Statistic;
+
+/**
+ * <p>
+ * Write statistics in a compact column oriented binary format. Rows are
+ * grouped into blocks of at most {@link #ROW_GROUP_SIZE} commands and each
+ * block stores its columns one after the other, so only one block is ever held
+ * in memory.
+ * </p>
+ * <p>
+ * Layout, all numbers big-endian as written by {@link DataOutputStream}:
+ * </p>
+ *
+ * <pre>
+ * file      := "MBTC" version:short flags:short group* 0:int
+ * group     := rows:int
+ *              count:int[rows]
+ *              totalSeconds:double[rows]
+ *              command:string[rows]
+ *              directoryCount:int[rows]
+ *              directory:string[sum(directoryCount)]
+ * string    := length:int utf8:byte[length]
+ * </pre>
+ * <p>
+ * Flag {@link #FLAG_PARTIAL} marks counts and totals that cover only the runs
+ * since each command was last tracked.
+ * </p>
+ *
+ * @author robbram
+ */
+public final class ColumnarReportSink extends AbstractReportSink {
+
+   /** Identifies the file format. */
+   static final byte[] MAGIC = {'M', 'B', 'T', 'C' };
+
+   /** Version of the layout written. */
+   static final short VERSION = 2;
+
+   /** Flag set when statistics cover only some of their command's runs. */
+   static final short FLAG_PARTIAL = 1;
+
+   /** Maximum number of rows buffered before a group is written. */
+   static final int ROW_GROUP_SIZE = 1024;
+
+   /** Rows in the current group. */
+   private final List<Statistic> group =
+         new ArrayList<Statistic>(ROW_GROUP_SIZE);
+
+   /** Binary view of the output stream. */
+   private DataOutputStream data;
+
+   /**
+    * @param theTarget
+    *           file to write the report to
+    */
+   public ColumnarReportSink(final Path theTarget) {
+      super(theTarget);
+   }
+
+   /**
+    * @param theStream
+    *           stream to write the report to
+    */
+   public ColumnarReportSink(final OutputStream theStream) {
+      super(theStream);
+   }
+
+   @Override
+   protected void writeHeader() throws IOException {
+      data = new DataOutputStream(getStream());
+      data.write(MAGIC);
+      data.writeShort(VERSION);
+      short flags = 0;
+      if (isPartial()) {
+         flags |= FLAG_PARTIAL;
+      }
+      data.writeShort(flags);
+   }
+
+   @Override
+   public void write(final Statistic statistic) throws IOException {
+      group.add(statistic);
+      if (group.size() == ROW_GROUP_SIZE) {
+         writeGroup();
+      }
+   }
+
+   @Override
+   protected void writeTrailer() throws IOException {
+      if (!group.isEmpty()) {
+         writeGroup();
+      }
+      data.writeInt(0);
+      data.flush();
+   }
+
+   /**
+    * Write the buffered rows as one group, column by column.
+    *
+    * @throws IOException
+    *            if we cannot write.
+    */
+   private void writeGroup() throws IOException {
+      data.writeInt(group.size());
+      for (Statistic statistic : group) {
+         data.writeInt(statistic.getCount());
+      }
+      for (Statistic statistic : group) {
+         data.writeDouble(statistic.getTotalTime());
+      }
+      for (Statistic statistic : group) {
+         writeString(statistic.getCommand());
+      }
+      for (Statistic statistic : group) {
+         data.writeInt(statistic.getDirectories().size());
+      }
+      for (Statistic statistic : group) {
+         for (String directory : statistic.getDirectories()) {
+            writeString(directory);
+         }
+      }
+      group.clear();
+   }
+
+   /**
+    * @param value
+    *           string to write with a length prefix
+    * @throws IOException
+    *            if we cannot write.
+    */
+   private void writeString(final String value) throws IOException {
+      byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      data.writeInt(bytes.length);
+      data.write(bytes);
+   }
+}
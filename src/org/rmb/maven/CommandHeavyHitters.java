@@ -0,0 +1,127 @@
+package org.rmb.maven;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.rmb.maven.MavenBuildTimes.Statistic;
+import org.rmb.maven.SpaceSaving.Counter;
+
+/**
+ * <p>
+ * Track only the commands run most often and those taking the most time, in
+ * a fixed amount of memory, for logs where nearly every command line is
+ * different, such as builds run with <code>-Dversion=...</code> or a
+ * timestamp that {@link CommandNormaliser} hasn't been told to ignore.
+ * </p>
+ * <p>
+ * Commands are kept in two {@link SpaceSaving} summaries of
+ * <code>capacity</code> commands each: one weighted by runs and one by
+ * seconds. Any command with more than a <code>1/capacity</code> share of
+ * all runs, or of all time, is sure to be tracked, and each count and total
+ * is reported with how much it may be over. Each tracked command also has a
+ * {@link Statistic}, made when it was last taken on, so its average,
+ * percentiles and directories are those of the runs since then.
+ * </p>
+ * <p>
+ * When {@link MavenBuildTimes} tracks commands this way, it doesn't keep a
+ * statistic per distinct command, nor look for regressions or publish
+ * snapshots, all of which grow with the number of commands. Its reports list
+ * the commands tracked by time, with their statistics marked as partial.
+ * Other extractors keep their own statistics and aren't bounded by this.
+ * </p>
+ *
+ * @author robbram
+ */
+public final class CommandHeavyHitters implements LogExtractor {
+
+   /** Rows in each list of the report. */
+   private static final int REPORT_ROWS = 20;
+
+   /** Commands weighted by runs. */
+   private final SpaceSaving<String, Statistic> byRuns;
+
+   /** Commands weighted by seconds. */
+   private final SpaceSaving<String, Statistic> byTime;
+
+   /**
+    * @param capacity
+    *           most commands tracked in each summary
+    */
+   public CommandHeavyHitters(final int capacity) {
+      byRuns = new SpaceSaving<String, Statistic>(capacity,
+            command -> new Statistic(command));
+      byTime = new SpaceSaving<String, Statistic>(capacity,
+            command -> new Statistic(command));
+   }
+
+   @Override
+   public boolean needsFullLog() {
+      return false;
+   }
+
+   @Override
+   public void startLog(final File log) {
+      // Only finished builds matter.
+   }
+
+   @Override
+   public void scanLine(final String line) {
+      // Only finished builds matter.
+   }
+
+   @Override
+   public void buildFinished(final String command, final String directory,
+         final double seconds) {
+      byRuns.add(command, 1).getValue().addTime(seconds, directory);
+      byTime.add(command, seconds).getValue().addTime(seconds, directory);
+   }
+
+   /**
+    * @return statistics of the commands tracked by time, most time first;
+    *         each covers the runs since the command was last taken on
+    */
+   public List<Statistic> getStatistics() {
+      List<Statistic> statistics = new ArrayList<Statistic>();
+      for (Counter<String, Statistic> counter : byTime.top(byTime.size())) {
+         statistics.add(counter.getValue());
+      }
+      return statistics;
+   }
+
+   /** @return commands weighted by runs */
+   public SpaceSaving<String, Statistic> getByRuns() {
+      return byRuns;
+   }
+
+   /** @return commands weighted by seconds */
+   public SpaceSaving<String, Statistic> getByTime() {
+      return byTime;
+   }
+
+   @Override
+   public void outputResults() {
+      System.out.println(String.format("---- Most run commands (tracking %d"
+            + " of at most %d, %d evicted, counts over by at most %.0f)"
+            + " ----", byRuns.size(), byRuns.getCapacity(),
+            byRuns.getEvictions(), byRuns.getErrorBound()));
+      for (Counter<String, Statistic> counter : byRuns.top(REPORT_ROWS)) {
+         System.out.println(String.format(
+               "   %8.0f runs (+0/-%.0f) %9.1f s avg   %s",
+               counter.getWeight(), counter.getError(),
+               counter.getValue().getAverageTime(), counter.getKey()));
+      }
+      System.out.println(String.format("---- Commands with the most time"
+            + " (tracking %d of at most %d, %d evicted, totals over by at"
+            + " most %.1f s) ----", byTime.size(), byTime.getCapacity(),
+            byTime.getEvictions(), byTime.getErrorBound()));
+      for (Counter<String, Statistic> counter : byTime.top(REPORT_ROWS)) {
+         System.out.println(String.format(
+               "   %10.1f s total (+0/-%.1f) %9.1f s avg   %s",
+               counter.getWeight(), counter.getError(),
+               counter.getValue().getAverageTime(), counter.getKey()));
+      }
+      System.out.println("   Averages, and the runs in the reports, cover"
+            + " only the runs since each command was last taken on.");
+   }
+}
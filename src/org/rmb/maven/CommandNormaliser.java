@@ -0,0 +1,259 @@
+package org.rmb.maven;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+/**
+ * <p>
+ * Turn an <code>mvn ...</code> command line into a canonical form so that
+ * commands that build the same thing are grouped together. For example
+ * <code>mvn install clean -DskipTests -o</code> and
+ * <code>mvn clean install -DskipTests</code> both become
+ * <code>mvn clean install -DskipTests</code>.
+ * </p>
+ * <p>
+ * The canonical form is <code>mvn</code> followed by the sorted goals, the
+ * sorted remaining options (with their arguments), the sorted profiles as one
+ * <code>-P</code> option and the properties sorted by name. Options listed by
+ * {@link #ignoreOption(String)} and properties matching
+ * {@link #ignoreProperty(String)} are dropped. By default the options that only
+ * change how maven talks to us, rather than what it builds, are ignored.
+ * </p>
+ *
+ * @author robbram
+ */
+public final class CommandNormaliser {
+
+   /** Options ignored unless {@link #keepOption(String)} is called. */
+   private static final List<String> DEFAULT_IGNORED_OPTIONS = Arrays.asList(
+         "-o", "--offline", "-B", "--batch-mode", "-e", "--errors", "-X",
+         "--debug", "-q", "--quiet", "-U", "--update-snapshots", "-nsu",
+         "--no-snapshot-updates", "-ntp", "--no-transfer-progress", "-V",
+         "--show-version", "-l", "--log-file");
+
+   /** Options that take the following token as their argument. */
+   private static final Set<String> OPTIONS_WITH_ARGUMENT =
+         new HashSet<String>(Arrays.asList("-f", "--file", "-s",
+               "--settings", "-gs", "--global-settings", "-t",
+               "--toolchains", "-pl", "--projects", "-rf", "--resume-from",
+               "-T", "--threads", "-b", "--builder", "-l", "--log-file",
+               "-P", "--activate-profiles", "-D", "--define"));
+
+   /** Start of a maven command line. */
+   private static final String MVN = "mvn";
+
+   /** Options that are dropped. */
+   private final Set<String> ignoredOptions =
+         new HashSet<String>(DEFAULT_IGNORED_OPTIONS);
+
+   /** Properties whose names match one of these are dropped. */
+   private final List<Pattern> ignoredProperties = new ArrayList<Pattern>();
+
+   /**
+    * @param option
+    *           option to drop, e.g. <code>-U</code>
+    * @return this normaliser
+    */
+   public CommandNormaliser ignoreOption(final String option) {
+      ignoredOptions.add(option);
+      return this;
+   }
+
+   /**
+    * @param option
+    *           option to keep even though it is ignored by default, e.g.
+    *           <code>-o</code>
+    * @return this normaliser
+    */
+   public CommandNormaliser keepOption(final String option) {
+      ignoredOptions.remove(option);
+      return this;
+   }
+
+   /**
+    * @param regex
+    *           properties with names matching this are dropped, e.g.
+    *           <code>buildNumber|timestamp</code>
+    * @return this normaliser
+    */
+   public CommandNormaliser ignoreProperty(final String regex) {
+      ignoredProperties.add(Pattern.compile(regex));
+      return this;
+   }
+
+   /**
+    * @param line
+    *           command line as logged, starting with <code>mvn</code>
+    * @return canonical form of the command
+    */
+   public String normalise(final String line) {
+      List<String> tokens = tokenise(line);
+      Set<String> goals = new TreeSet<String>();
+      Set<String> options = new TreeSet<String>();
+      Set<String> profiles = new TreeSet<String>();
+      TreeMap<String, String> properties = new TreeMap<String, String>();
+      int index = 0;
+      if (!tokens.isEmpty() && MVN.equals(tokens.get(0))) {
+         index++;
+      }
+      while (index < tokens.size()) {
+         String token = tokens.get(index++);
+         if (!token.startsWith("-")) {
+            goals.add(token);
+            continue;
+         }
+         String option = token;
+         String argument = null;
+         if (token.startsWith("-D") && token.length() > 2) {
+            option = "-D";
+            argument = token.substring(2);
+         } else if (token.startsWith("-P") && token.length() > 2) {
+            option = "-P";
+            argument = token.substring(2);
+         } else if (OPTIONS_WITH_ARGUMENT.contains(token)
+               && index < tokens.size()) {
+            argument = tokens.get(index++);
+         }
+         if (ignoredOptions.contains(option)) {
+            continue;
+         }
+         if ("-D".equals(option) || "--define".equals(option)) {
+            addProperty(properties, argument);
+         } else if ("-P".equals(option)
+               || "--activate-profiles".equals(option)) {
+            if (argument != null) {
+               Collections.addAll(profiles, argument.split(","));
+            }
+         } else if (argument == null) {
+            options.add(option);
+         } else {
+            options.add(option + " " + quote(argument));
+         }
+      }
+      return format(goals, options, profiles, properties);
+   }
+
+   /**
+    * @param properties
+    *           properties found so far
+    * @param definition
+    *           <code>name=value</code> or just <code>name</code>
+    */
+   private void addProperty(final TreeMap<String, String> properties,
+         final String definition) {
+      if (definition == null) {
+         return;
+      }
+      int equals = definition.indexOf('=');
+      String name = definition;
+      String value = null;
+      if (equals >= 0) {
+         name = definition.substring(0, equals);
+         value = definition.substring(equals + 1);
+      }
+      for (Pattern pattern : ignoredProperties) {
+         if (pattern.matcher(name).matches()) {
+            return;
+         }
+      }
+      properties.put(name, value);
+   }
+
+   /**
+    * @param goals
+    *           sorted goals and phases
+    * @param options
+    *           sorted options
+    * @param profiles
+    *           sorted profiles
+    * @param properties
+    *           properties sorted by name
+    * @return canonical command line
+    */
+   private static String format(final Set<String> goals,
+         final Set<String> options, final Set<String> profiles,
+         final TreeMap<String, String> properties) {
+      StringBuilder builder = new StringBuilder(MVN);
+      for (String goal : goals) {
+         builder.append(' ').append(goal);
+      }
+      for (String option : options) {
+         builder.append(' ').append(option);
+      }
+      if (!profiles.isEmpty()) {
+         builder.append(" -P");
+         boolean first = true;
+         for (String profile : profiles) {
+            if (!first) {
+               builder.append(',');
+            }
+            builder.append(profile);
+            first = false;
+         }
+      }
+      for (String name : properties.keySet()) {
+         builder.append(" -D").append(name);
+         String value = properties.get(name);
+         if (value != null) {
+            builder.append('=').append(quote(value));
+         }
+      }
+      return builder.toString();
+   }
+
+   /**
+    * @param value
+    *           option argument or property value
+    * @return value, in double quotes if it contains white space
+    */
+   private static String quote(final String value) {
+      for (int index = 0; index < value.length(); index++) {
+         if (Character.isWhitespace(value.charAt(index))) {
+            return '"' + value + '"';
+         }
+      }
+      return value;
+   }
+
+   /**
+    * Split a command line on white space, keeping double quoted sections
+    * together and dropping the quotes.
+    *
+    * @param line
+    *           command line
+    * @return tokens
+    */
+   static List<String> tokenise(final String line) {
+      List<String> tokens = new ArrayList<String>();
+      StringBuilder current = new StringBuilder();
+      boolean quoted = false;
+      boolean inToken = false;
+      for (int index = 0; index < line.length(); index++) {
+         char character = line.charAt(index);
+         if (character == '"') {
+            quoted = !quoted;
+            inToken = true;
+         } else if (Character.isWhitespace(character) && !quoted) {
+            if (inToken) {
+               tokens.add(current.toString());
+               current.setLength(0);
+               inToken = false;
+            }
+         } else {
+            current.append(character);
+            inToken = true;
+         }
+      }
+      if (inToken) {
+         tokens.add(current.toString());
+      }
+      return tokens;
+   }
+}
@@ -0,0 +1,51 @@
+package org.rmb.maven;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Intern table for canonical command lines. Each distinct command is stored
+ * once and given a small id, numbered from zero in the order first seen, so
+ * aggregates can be indexed by id rather than hashed by string.
+ *
+ * @author robbram
+ */
+public final class CommandTable {
+
+   /** Id of each command. */
+   private final Map<String, Integer> ids = new HashMap<String, Integer>();
+
+   /** Command for each id. */
+   private final List<String> commands = new ArrayList<String>();
+
+   /**
+    * @param command
+    *           canonical command line
+    * @return id of the command, allocating a new one if it has not been seen
+    */
+   public int intern(final String command) {
+      Integer id = ids.get(command);
+      if (id == null) {
+         id = commands.size();
+         ids.put(command, id);
+         commands.add(command);
+      }
+      return id;
+   }
+
+   /**
+    * @param id
+    *           id returned by {@link #intern(String)}
+    * @return the shared copy of the command
+    */
+   public String get(final int id) {
+      return commands.get(id);
+   }
+
+   /** @return number of distinct commands */
+   public int size() {
+      return commands.size();
+   }
+}
@@ -0,0 +1,90 @@
+package org.rmb.maven;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.file.Path;
+
+import org.rmb.maven.MavenBuildTimes.Statistic;
+
+/**
+ * Write statistics as CSV, one row per command. Text columns are always quoted
+ * and any quotes inside them are doubled as per RFC 4180. When the statistics
+ * are partial the second column is headed "Runs Since Tracked" instead.
+ *
+ * @author robbram
+ */
+public final class CsvReportSink extends AbstractReportSink {
+
+   /** First line of the report. */
+   private static final String HEADER =
+         "Average Time in Seconds,Number of Runs,Command,Directories";
+
+   /** First line of the report when statistics are partial. */
+   private static final String PARTIAL_HEADER =
+         "Average Time in Seconds,Runs Since Tracked,Command,Directories";
+
+   /**
+    * @param theTarget
+    *           file to write the report to
+    */
+   public CsvReportSink(final Path theTarget) {
+      super(theTarget);
+   }
+
+   /**
+    * @param theStream
+    *           stream to write the report to
+    */
+   public CsvReportSink(final OutputStream theStream) {
+      super(theStream);
+   }
+
+   /**
+    * Write <code>value</code> as a quoted CSV field.
+    *
+    * @param writer
+    *           to write to
+    * @param value
+    *           text to quote
+    * @throws IOException
+    *            if we cannot write.
+    */
+   static void writeQuoted(final Writer writer, final String value)
+         throws IOException {
+      writer.write('"');
+      int start = 0;
+      int quote = value.indexOf('"');
+      while (quote >= 0) {
+         writer.write(value, start, quote + 1 - start);
+         writer.write('"');
+         start = quote + 1;
+         quote = value.indexOf('"', start);
+      }
+      writer.write(value, start, value.length() - start);
+      writer.write('"');
+   }
+
+   @Override
+   protected void writeHeader() throws IOException {
+      if (isPartial()) {
+         getWriter().write(PARTIAL_HEADER);
+      } else {
+         getWriter().write(HEADER);
+      }
+      getWriter().write('\n');
+   }
+
+   @Override
+   public void write(final Statistic statistic) throws IOException {
+      Writer writer = getWriter();
+      writer.write(Double.toString(statistic.getAverageTime()));
+      writer.write(',');
+      writer.write(Integer.toString(statistic.getCount()));
+      writer.write(',');
+      writeQuoted(writer, statistic.getCommand());
+      writer.write(',');
+      writeQuoted(writer, statistic.getDirectoryList());
+      writer.write('\n');
+   }
+}
@@ -0,0 +1,419 @@
+package org.rmb.maven;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * Add up the artifacts each build downloaded and how long they took, to show
+ * how much build time a warmer local repository or a nearer mirror could
+ * save.
+ * </p>
+ * <p>
+ * Maven writes a line for each finished download, in one of two forms:
+ * </p>
+ *
+ * <pre>
+ * Downloaded: https://repo.host/a/b/1.0/b-1.0.jar (4 KB at 12.3 KB/sec)
+ * [INFO] Downloaded from central: https://h/a/b-1.0.jar (4.1 kB at 12 kB/s)
+ * </pre>
+ * <p>
+ * The time of each download is its size divided by its rate. Maven may
+ * download several artifacts at once, so the sum is an upper bound on the
+ * wall clock time spent waiting for downloads. <code>KB</code> and
+ * <code>MB</code> are taken as powers of 1024 and <code>kB</code> as 1000,
+ * as older and newer Maven versions write them; the difference is within the
+ * rounding Maven already does.
+ * </p>
+ *
+ * @author robbram
+ */
+public final class DownloadExtractor implements LogExtractor {
+
+   /** Start of a finished download line in Maven 3.0 to 3.3. */
+   private static final String FRAGMENT_DOWNLOADED = "Downloaded: ";
+
+   /** Start of a finished download line from Maven 3.5. */
+   private static final String FRAGMENT_DOWNLOADED_FROM = "Downloaded from ";
+
+   /** Level written before download lines from Maven 3.5. */
+   private static final String FRAGMENT_INFO = "[INFO] ";
+
+   /** Separates the size from the rate. */
+   private static final String FRAGMENT_AT = " at ";
+
+   /** Separates the scheme from the host in a URL. */
+   private static final String FRAGMENT_SCHEME_END = "://";
+
+   /** Bytes in a binary kilobyte. */
+   private static final double KIBI = 1024.0;
+
+   /** Bytes in a decimal kilobyte. */
+   private static final double KILO = 1000.0;
+
+   /** Bytes in a megabyte, as shown in the report. */
+   private static final double MEGA = KIBI * KIBI;
+
+   /** Builds listed with the most download time. */
+   private static final int SLOWEST_BUILDS = 10;
+
+   /** Percent. */
+   private static final double PERCENT = 100.0;
+
+   /** Totals by command. */
+   private final Map<String, Totals> commands =
+         new LinkedHashMap<String, Totals>();
+
+   /** Totals by repository host. */
+   private final Map<String, Totals> hosts =
+         new LinkedHashMap<String, Totals>();
+
+   /** Builds with the most download time, most first. */
+   private final List<Build> slowest = new ArrayList<Build>();
+
+   /** Log being read. */
+   private File log;
+
+   /** Downloads in the build being read. */
+   private final Totals build = new Totals();
+
+   @Override
+   public boolean needsFullLog() {
+      return true;
+   }
+
+   @Override
+   public void startLog(final File theLog) {
+      log = theLog;
+      build.clear();
+   }
+
+   @Override
+   public void scanLine(final String line) {
+      String text = LogTimestamp.strip(line);
+      if (text.startsWith(FRAGMENT_INFO)) {
+         text = text.substring(FRAGMENT_INFO.length());
+      }
+      if (!text.startsWith(FRAGMENT_DOWNLOADED)
+            && !text.startsWith(FRAGMENT_DOWNLOADED_FROM)) {
+         return;
+      }
+      int open = text.lastIndexOf('(');
+      int close = text.lastIndexOf(')');
+      if (open < 0 || close < open) {
+         return;
+      }
+      /*-
+       * 4 KB at 12.3 KB/sec
+       * 4.1 kB at 12 kB/s
+       * 512 B
+       */
+      String transfer = text.substring(open + 1, close);
+      double bytes;
+      double rate = 0;
+      int at = transfer.indexOf(FRAGMENT_AT);
+      if (at < 0) {
+         bytes = parseBytes(transfer);
+      } else {
+         bytes = parseBytes(transfer.substring(0, at));
+         rate = parseBytes(transfer.substring(at + FRAGMENT_AT.length()));
+      }
+      if (bytes < 0) {
+         return;
+      }
+      double seconds = 0;
+      if (rate > 0) {
+         seconds = bytes / rate;
+      }
+      build.add(bytes, seconds);
+      totals(hosts, host(text.substring(0, open))).add(bytes, seconds);
+   }
+
+   @Override
+   public void buildFinished(final String command, final String directory,
+         final double seconds) {
+      Totals totals = totals(commands, command);
+      totals.builds++;
+      totals.buildSeconds += seconds;
+      if (build.downloads > 0) {
+         totals.buildsWithDownloads++;
+         totals.addDownloads(build);
+         addSlowBuild(new Build(command, log, build.bytes,
+               build.transferSeconds, seconds));
+      }
+      build.clear();
+   }
+
+   /**
+    * Keep the build if it is one of the slowest to download.
+    *
+    * @param candidate
+    *           build just finished
+    */
+   private void addSlowBuild(final Build candidate) {
+      int index = slowest.size();
+      while (index > 0
+            && slowest.get(index - 1).transferSeconds
+               < candidate.transferSeconds) {
+         index--;
+      }
+      if (index < SLOWEST_BUILDS) {
+         slowest.add(index, candidate);
+         if (slowest.size() > SLOWEST_BUILDS) {
+            slowest.remove(SLOWEST_BUILDS);
+         }
+      }
+   }
+
+   @Override
+   public void outputResults() {
+      System.out.println("---- Downloads by command ----");
+      double allTransfer = 0;
+      double allBuild = 0;
+      for (Map.Entry<String, Totals> entry : commands.entrySet()) {
+         Totals totals = entry.getValue();
+         allTransfer += totals.transferSeconds;
+         allBuild += totals.buildSeconds;
+         if (totals.downloads == 0) {
+            continue;
+         }
+         System.out.println(String.format("   %d of %d builds downloaded %d"
+               + " files, %.1f MB in about %.1f s (%.1f%% of %.1f s)   %s",
+               totals.buildsWithDownloads, totals.builds, totals.downloads,
+               totals.bytes / MEGA, totals.transferSeconds,
+               percent(totals.transferSeconds, totals.buildSeconds),
+               totals.buildSeconds, entry.getKey()));
+      }
+      System.out.println("---- Downloads by repository host ----");
+      List<Map.Entry<String, Totals>> byHost =
+            new ArrayList<Map.Entry<String, Totals>>(hosts.entrySet());
+      Collections.sort(byHost, new Comparator<Map.Entry<String, Totals>>() {
+         @Override
+         public int compare(final Map.Entry<String, Totals> one,
+               final Map.Entry<String, Totals> two) {
+            return Double.compare(two.getValue().transferSeconds,
+                  one.getValue().transferSeconds);
+         }
+      });
+      for (Map.Entry<String, Totals> entry : byHost) {
+         Totals totals = entry.getValue();
+         System.out.println(String.format(
+               "   %8d files %10.1f MB %10.1f s %8.1f KB/s   %s",
+               totals.downloads, totals.bytes / MEGA, totals.transferSeconds,
+               totals.rate(), entry.getKey()));
+      }
+      System.out.println("---- Builds with the most download time ----");
+      for (Build slow : slowest) {
+         System.out.println("   " + slow);
+      }
+      System.out.println(String.format("Downloads took up to %.1f s of %.1f s"
+            + " build time (%.1f%%); a warm local repository or mirror could"
+            + " recover most of it.", allTransfer, allBuild,
+            percent(allTransfer, allBuild)));
+   }
+
+   /**
+    * @param part
+    *           part of the whole
+    * @param whole
+    *           the whole
+    * @return part as a percentage of whole, 0 if whole is 0
+    */
+   private static double percent(final double part, final double whole) {
+      if (whole == 0) {
+         return 0;
+      }
+      return PERCENT * part / whole;
+   }
+
+   /**
+    * @param map
+    *           totals by key
+    * @param key
+    *           key to look up
+    * @return totals for the key, added if new
+    */
+   private static Totals totals(final Map<String, Totals> map,
+         final String key) {
+      Totals totals = map.get(key);
+      if (totals == null) {
+         totals = new Totals();
+         map.put(key, totals);
+      }
+      return totals;
+   }
+
+   /**
+    * @param text
+    *           download line up to the size, holding the URL
+    * @return host of the URL as written, or <code>unknown</code>
+    */
+   private static String host(final String text) {
+      int scheme = text.indexOf(FRAGMENT_SCHEME_END);
+      if (scheme < 0) {
+         return EnvironmentExtractor.UNKNOWN;
+      }
+      int start = scheme + FRAGMENT_SCHEME_END.length();
+      int end = start;
+      while (end < text.length() && text.charAt(end) != '/'
+            && text.charAt(end) != ' ') {
+         end++;
+      }
+      return text.substring(start, end);
+   }
+
+   /**
+    * @param text
+    *           size or rate, like <code>4.1 kB</code> or
+    *           <code>12.3 KB/sec</code>
+    * @return bytes, or bytes per second; -1 if not understood
+    */
+   private static double parseBytes(final String text) {
+      String trimmed = text.trim();
+      int slash = trimmed.indexOf('/');
+      if (slash >= 0) {
+         trimmed = trimmed.substring(0, slash);
+      }
+      int space = trimmed.indexOf(' ');
+      if (space < 0) {
+         return -1;
+      }
+      double value;
+      try {
+         value = Double.parseDouble(trimmed.substring(0, space));
+      } catch (NumberFormatException e) {
+         return -1;
+      }
+      String unit = trimmed.substring(space + 1);
+      if ("B".equals(unit)) {
+         return value;
+      } else if ("kB".equals(unit)) {
+         return value * KILO;
+      } else if ("KB".equals(unit)) {
+         return value * KIBI;
+      } else if ("MB".equals(unit)) {
+         return value * MEGA;
+      } else if ("GB".equals(unit)) {
+         return value * MEGA * KIBI;
+      }
+      return -1;
+   }
+
+   /**
+    * Downloads added up for a build, command or host.
+    */
+   private static final class Totals {
+
+      /** Builds seen. */
+      private int builds;
+
+      /** Builds that downloaded something. */
+      private int buildsWithDownloads;
+
+      /** Files downloaded. */
+      private int downloads;
+
+      /** Bytes downloaded. */
+      private double bytes;
+
+      /** Estimated time downloading, in seconds. */
+      private double transferSeconds;
+
+      /** Total time of the builds, in seconds. */
+      private double buildSeconds;
+
+      /**
+       * @param moreBytes
+       *           bytes in one more download
+       * @param moreSeconds
+       *           estimated time it took
+       */
+      void add(final double moreBytes, final double moreSeconds) {
+         downloads++;
+         bytes += moreBytes;
+         transferSeconds += moreSeconds;
+      }
+
+      /**
+       * @param other
+       *           totals whose downloads to add to these
+       */
+      void addDownloads(final Totals other) {
+         downloads += other.downloads;
+         bytes += other.bytes;
+         transferSeconds += other.transferSeconds;
+      }
+
+      /** @return average rate in KB per second, 0 if unknown */
+      double rate() {
+         if (transferSeconds == 0) {
+            return 0;
+         }
+         return bytes / KIBI / transferSeconds;
+      }
+
+      /** Start again from nothing. */
+      void clear() {
+         builds = 0;
+         buildsWithDownloads = 0;
+         downloads = 0;
+         bytes = 0;
+         transferSeconds = 0;
+         buildSeconds = 0;
+      }
+   }
+
+   /**
+    * Downloads of one build.
+    */
+   private static final class Build {
+
+      /** Command that was run. */
+      private final String command;
+
+      /** Log the build came from. */
+      private final File log;
+
+      /** Bytes downloaded. */
+      private final double bytes;
+
+      /** Estimated time downloading, in seconds. */
+      private final double transferSeconds;
+
+      /** Total time of the build, in seconds. */
+      private final double buildSeconds;
+
+      /**
+       * @param theCommand
+       *           command that was run
+       * @param theLog
+       *           log the build came from
+       * @param theBytes
+       *           bytes downloaded
+       * @param theTransferSeconds
+       *           estimated time downloading, in seconds
+       * @param theBuildSeconds
+       *           total time of the build, in seconds
+       */
+      Build(final String theCommand, final File theLog, final double theBytes,
+            final double theTransferSeconds, final double theBuildSeconds) {
+         command = theCommand;
+         log = theLog;
+         bytes = theBytes;
+         transferSeconds = theTransferSeconds;
+         buildSeconds = theBuildSeconds;
+      }
+
+      @Override
+      public String toString() {
+         return String.format("%.1f s of %.1f s downloading %.1f MB in [%s]"
+               + " for [%s]", transferSeconds, buildSeconds, bytes / MEGA,
+               log, command);
+      }
+   }
+}
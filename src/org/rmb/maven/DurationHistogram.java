@@ -0,0 +1,166 @@
+package org.rmb.maven;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * Log scale histogram of build durations, used to estimate percentiles without
+ * keeping every run.
+ * </p>
+ * <p>
+ * Durations are recorded in whole milliseconds. Bucket <code>0</code> holds
+ * zero and bucket <code>i</code> holds durations in
+ * <code>[GAMMA^(i-1), GAMMA^i)</code>, so a percentile is reported to within
+ * about one percent. Bucket boundaries are fixed, which means two histograms
+ * can be merged by adding their counts.
+ * </p>
+ *
+ * @author robbram
+ */
+public final class DurationHistogram {
+
+   /** Percentiles included in reports. */
+   static final double[] REPORTED_QUANTILES = {0.5, 0.9, 0.99 };
+
+   /** Ratio between bucket boundaries. */
+   private static final double GAMMA = 1.02;
+
+   /** Natural log of {@link #GAMMA}. */
+   private static final double LOG_GAMMA = StrictMath.log(GAMMA);
+
+   /** Milliseconds in a second. */
+   private static final double MILLIS_PER_SECOND = 1000.0;
+
+   /** Number of buckets allocated up front. */
+   private static final int INITIAL_BUCKETS = 16;
+
+   /** Count of durations in each bucket. */
+   private int[] counts;
+
+   /** Highest bucket in use plus one. */
+   private int length;
+
+   /** Total number of durations recorded. */
+   private long count;
+
+   /** Create an empty histogram. */
+   public DurationHistogram() {
+      counts = new int[INITIAL_BUCKETS];
+   }
+
+   /**
+    * @param other
+    *           histogram to copy
+    */
+   private DurationHistogram(final DurationHistogram other) {
+      counts = Arrays.copyOf(other.counts, other.length);
+      length = other.length;
+      count = other.count;
+   }
+
+   /**
+    * @param millis
+    *           duration in milliseconds
+    * @return bucket the duration falls into
+    */
+   static int bucketFor(final long millis) {
+      if (millis <= 0) {
+         return 0;
+      }
+      return 1 + (int) Math.floor(StrictMath.log(millis) / LOG_GAMMA);
+   }
+
+   /**
+    * @param bucket
+    *           bucket index
+    * @return duration in milliseconds that represents the bucket
+    */
+   static double valueFor(final int bucket) {
+      if (bucket == 0) {
+         return 0;
+      }
+      double lower = StrictMath.pow(GAMMA, bucket - 1);
+      return (lower + lower * GAMMA) / 2;
+   }
+
+   /**
+    * @param millis
+    *           duration to record, in milliseconds
+    */
+   public void add(final long millis) {
+      addToBucket(bucketFor(millis), 1);
+   }
+
+   /**
+    * @param bucket
+    *           bucket to add to
+    * @param amount
+    *           number of durations to add
+    */
+   void addToBucket(final int bucket, final int amount) {
+      if (bucket >= counts.length) {
+         counts = Arrays.copyOf(counts, Math.max(bucket + 1,
+               counts.length * 2));
+      }
+      counts[bucket] += amount;
+      length = Math.max(length, bucket + 1);
+      count += amount;
+   }
+
+   /** @return independent copy of this histogram */
+   public DurationHistogram copy() {
+      return new DurationHistogram(this);
+   }
+
+   /** @return highest bucket in use plus one */
+   int getLength() {
+      return length;
+   }
+
+   /**
+    * @param bucket
+    *           bucket index, less than {@link #getLength()}
+    * @return number of durations in the bucket
+    */
+   int getBucketCount(final int bucket) {
+      return counts[bucket];
+   }
+
+   /** @return number of durations recorded */
+   public long getCount() {
+      return count;
+   }
+
+   /**
+    * @param other
+    *           histogram whose counts are added to this one
+    */
+   public void merge(final DurationHistogram other) {
+      for (int bucket = 0; bucket < other.length; bucket++) {
+         if (other.counts[bucket] != 0) {
+            addToBucket(bucket, other.counts[bucket]);
+         }
+      }
+   }
+
+   /**
+    * @param quantile
+    *           between 0 and 1, e.g. 0.9 for the 90th percentile
+    * @return estimated duration at the quantile in <strong>seconds</strong>, or
+    *         zero if nothing has been recorded
+    */
+   public double percentile(final double quantile) {
+      if (count == 0) {
+         return 0;
+      }
+      long rank = Math.max(1, (long) Math.ceil(quantile * count));
+      long seen = 0;
+      for (int bucket = 0; bucket < length; bucket++) {
+         seen += counts[bucket];
+         if (seen >= rank) {
+            return valueFor(bucket) / MILLIS_PER_SECOND;
+         }
+      }
+      return valueFor(length - 1) / MILLIS_PER_SECOND;
+   }
+}
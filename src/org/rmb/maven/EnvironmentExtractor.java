@@ -0,0 +1,268 @@
+package org.rmb.maven;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringTokenizer;
+
+import org.rmb.maven.MavenBuildTimes.Statistic;
+
+/**
+ * <p>
+ * Group build times by the JDK, Maven version and heap settings they ran
+ * with, so we can see which set up builds each command fastest.
+ * </p>
+ * <p>
+ * Raven starts each log with its environment details:
+ * </p>
+ *
+ * <pre>
+ * M2_HOME [/C/apps/apache-maven-3.2.3]
+ * JAVA_HOME [/C/Program Files/Java/jdk1.7.0_67]
+ * MAVEN_OPTS [-Xms512m -Xmx1024m -XX:MaxPermSize=256m]
+ * </pre>
+ * <p>
+ * The JDK and Maven version are the last part of <code>JAVA_HOME</code> and
+ * <code>M2_HOME</code> (without <code>apache-maven-</code>), unless the build
+ * was run with <code>-V</code>, in which case the versions Maven printed are
+ * used instead. Heap settings are
+ * the <code>-Xms</code>, <code>-Xmx</code>, <code>-Xss</code> and
+ * <code>-XX:...Size=</code> options in <code>MAVEN_OPTS</code>; logs written
+ * before raven recorded <code>MAVEN_OPTS</code> show as {@link #UNKNOWN}.
+ * Everything needed is in the head of the log, so this works in either scan
+ * mode.
+ * </p>
+ *
+ * @author robbram
+ */
+public final class EnvironmentExtractor implements LogExtractor {
+
+   /** Shown for a setting the log doesn't tell us. */
+   public static final String UNKNOWN = "unknown";
+
+   /** Raven's line giving the Maven home. */
+   private static final String FRAGMENT_M2_HOME = "M2_HOME [";
+
+   /** Raven's line giving the Java home. */
+   private static final String FRAGMENT_JAVA_HOME = "JAVA_HOME [";
+
+   /** Raven's line giving the options for Maven's JVM. */
+   private static final String FRAGMENT_MAVEN_OPTS = "MAVEN_OPTS [";
+
+   /** Maven's version line, from <code>mvn -V</code>. */
+   private static final String FRAGMENT_MAVEN_VERSION = "Apache Maven ";
+
+   /** How Maven's own distribution names its home directory. */
+   private static final String MAVEN_HOME_PREFIX = "apache-maven-";
+
+   /** Maven's Java version line, from <code>mvn -V</code>. */
+   private static final String FRAGMENT_JAVA_VERSION = "Java version: ";
+
+   /** Options in MAVEN_OPTS that count as heap settings. */
+   private static final String[] HEAP_PREFIXES = {"-Xms", "-Xmx", "-Xss" };
+
+   /** Quantile shown next to the average. */
+   private static final double REPORTED_QUANTILE = 0.9;
+
+   /** Statistics by command, then by environment. */
+   private final Map<String, Map<String, Statistic>> commands =
+         new LinkedHashMap<String, Map<String, Statistic>>();
+
+   /** JDK of the current log. */
+   private String jdk;
+
+   /** Maven version of the current log. */
+   private String maven;
+
+   /** Heap settings of the current log. */
+   private String heap;
+
+   /** Did the current log give the JDK version from <code>-V</code>? */
+   private boolean jdkFromMaven;
+
+   /** Did the current log give the Maven version from <code>-V</code>? */
+   private boolean mavenFromMaven;
+
+   @Override
+   public boolean needsFullLog() {
+      return false;
+   }
+
+   @Override
+   public void startLog(final File log) {
+      jdk = UNKNOWN;
+      maven = UNKNOWN;
+      heap = UNKNOWN;
+      jdkFromMaven = false;
+      mavenFromMaven = false;
+   }
+
+   @Override
+   public void scanLine(final String line) {
+      if (line.startsWith(FRAGMENT_M2_HOME)) {
+         if (!mavenFromMaven) {
+            maven = lastPart(bracketed(line, FRAGMENT_M2_HOME));
+            if (maven.startsWith(MAVEN_HOME_PREFIX)) {
+               maven = maven.substring(MAVEN_HOME_PREFIX.length());
+            }
+         }
+      } else if (line.startsWith(FRAGMENT_JAVA_HOME)) {
+         if (!jdkFromMaven) {
+            jdk = lastPart(bracketed(line, FRAGMENT_JAVA_HOME));
+         }
+      } else if (line.startsWith(FRAGMENT_MAVEN_OPTS)) {
+         heap = heapSettings(bracketed(line, FRAGMENT_MAVEN_OPTS));
+      } else if (line.startsWith(FRAGMENT_MAVEN_VERSION)) {
+         /*-
+          * Apache Maven 3.2.3 (33f8c3e1027c3ddde99d3cdebad2656a31e8fdf4; ...)
+          */
+         StringTokenizer tokens = new StringTokenizer(
+               line.substring(FRAGMENT_MAVEN_VERSION.length()));
+         if (tokens.hasMoreTokens()) {
+            maven = tokens.nextToken();
+            mavenFromMaven = true;
+         }
+      } else if (line.startsWith(FRAGMENT_JAVA_VERSION)) {
+         /*-
+          * Java version: 1.7.0_67, vendor: Oracle Corporation
+          */
+         String version = line.substring(FRAGMENT_JAVA_VERSION.length());
+         int comma = version.indexOf(',');
+         if (comma >= 0) {
+            version = version.substring(0, comma);
+         }
+         jdk = version.trim();
+         jdkFromMaven = true;
+      }
+   }
+
+   @Override
+   public void buildFinished(final String command, final String directory,
+         final double seconds) {
+      Map<String, Statistic> environments = commands.get(command);
+      if (environments == null) {
+         environments = new LinkedHashMap<String, Statistic>();
+         commands.put(command, environments);
+      }
+      String environment =
+            "JDK [" + jdk + "] Maven [" + maven + "] Heap [" + heap + "]";
+      Statistic statistic = environments.get(environment);
+      if (statistic == null) {
+         statistic = new Statistic(environment);
+         environments.put(environment, statistic);
+      }
+      statistic.addTime(seconds, directory);
+   }
+
+   /**
+    * @param command
+    *           command, as grouped by {@link MavenBuildTimes}
+    * @return statistics for each environment the command ran in, fastest
+    *         average first; each statistic's command is the environment
+    */
+   public List<Statistic> getEnvironments(final String command) {
+      Map<String, Statistic> environments = commands.get(command);
+      if (environments == null) {
+         return Collections.emptyList();
+      }
+      List<Statistic> sorted = new ArrayList<Statistic>(environments.values());
+      Collections.sort(sorted, new Comparator<Statistic>() {
+         @Override
+         public int compare(final Statistic one, final Statistic two) {
+            return Double.compare(one.getAverageTime(), two.getAverageTime());
+         }
+      });
+      return sorted;
+   }
+
+   @Override
+   public void outputResults() {
+      System.out.println("---- Build times by environment, fastest first ----");
+      for (String command : commands.keySet()) {
+         System.out.println(command);
+         for (Statistic environment : getEnvironments(command)) {
+            System.out.println(String.format(
+                  "   %9.1f s avg %9.1f s p90 %6d runs   %s",
+                  environment.getAverageTime(),
+                  environment.getPercentile(REPORTED_QUANTILE),
+                  environment.getCount(), environment.getCommand()));
+         }
+      }
+   }
+
+   /**
+    * @param line
+    *           line like <code>NAME [value]</code>
+    * @param prefix
+    *           <code>NAME [</code>
+    * @return value between the brackets
+    */
+   private static String bracketed(final String line, final String prefix) {
+      String value = line.substring(prefix.length());
+      if (value.endsWith("]")) {
+         value = value.substring(0, value.length() - 1);
+      }
+      return value.trim();
+   }
+
+   /**
+    * @param path
+    *           directory, with either kind of separator
+    * @return last part of it, e.g. <code>jdk1.7.0_67</code>, or
+    *         {@link #UNKNOWN} if empty
+    */
+   private static String lastPart(final String path) {
+      String trimmed = path;
+      while (trimmed.endsWith("/") || trimmed.endsWith("\\")) {
+         trimmed = trimmed.substring(0, trimmed.length() - 1);
+      }
+      int separator =
+            Math.max(trimmed.lastIndexOf('/'), trimmed.lastIndexOf('\\'));
+      String part = trimmed.substring(separator + 1);
+      if (part.isEmpty()) {
+         return UNKNOWN;
+      }
+      return part;
+   }
+
+   /**
+    * @param options
+    *           value of MAVEN_OPTS
+    * @return heap related options in the order given, or <code>none</code>
+    */
+   private static String heapSettings(final String options) {
+      StringBuilder heap = new StringBuilder();
+      StringTokenizer tokens = new StringTokenizer(options);
+      while (tokens.hasMoreTokens()) {
+         String option = tokens.nextToken();
+         if (isHeapSetting(option)) {
+            if (heap.length() > 0) {
+               heap.append(' ');
+            }
+            heap.append(option);
+         }
+      }
+      if (heap.length() == 0) {
+         return "none";
+      }
+      return heap.toString();
+   }
+
+   /**
+    * @param option
+    *           one JVM option
+    * @return true if it sizes the heap, stack or a memory pool
+    */
+   private static boolean isHeapSetting(final String option) {
+      for (String prefix : HEAP_PREFIXES) {
+         if (option.startsWith(prefix)) {
+            return true;
+         }
+      }
+      return option.startsWith("-XX:") && option.contains("Size=");
+   }
+}
@@ -0,0 +1,160 @@
+package org.rmb.maven;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.file.Path;
+
+import org.rmb.maven.MavenBuildTimes.DirectoryTotal;
+import org.rmb.maven.MavenBuildTimes.Statistic;
+
+/**
+ * Write statistics as JSON Lines: one self contained JSON object per command,
+ * for example
+ *
+ * <pre>
+ * {"command":"mvn clean install","count":3,"averageSeconds":42.1,
+ *  "totalSeconds":126.3,"percentileSeconds":{"0.5":41.9,"0.9":44.2,...},
+ *  "directories":[{"directory":"/work/app","count":3,"averageSeconds":42.1}]}
+ * </pre>
+ *
+ * (shown wrapped here, written on a single line). When the statistics are
+ * partial each object also has <code>"partial":true</code> after the count.
+ *
+ * @author robbram
+ */
+public final class JsonLinesReportSink extends AbstractReportSink {
+
+   /** Characters below this must be escaped in JSON strings. */
+   private static final char FIRST_PRINTABLE = 0x20;
+
+   /** Hex digits for unicode escapes. */
+   private static final String HEX = "0123456789abcdef";
+
+   /** Shift to get the top nibble of a control character. */
+   private static final int NIBBLE_SHIFT = 4;
+
+   /** Mask for a nibble. */
+   private static final int NIBBLE_MASK = 0xf;
+
+   /**
+    * @param theTarget
+    *           file to write the report to
+    */
+   public JsonLinesReportSink(final Path theTarget) {
+      super(theTarget);
+   }
+
+   /**
+    * @param theStream
+    *           stream to write the report to
+    */
+   public JsonLinesReportSink(final OutputStream theStream) {
+      super(theStream);
+   }
+
+   /**
+    * Write <code>value</code> as a quoted and escaped JSON string.
+    *
+    * @param writer
+    *           to write to
+    * @param value
+    *           text to write
+    * @throws IOException
+    *            if we cannot write.
+    */
+   static void writeString(final Writer writer, final String value)
+         throws IOException {
+      writer.write('"');
+      for (int index = 0; index < value.length(); index++) {
+         char character = value.charAt(index);
+         switch (character) {
+            case '"':
+               writer.write("\\\"");
+               break;
+            case '\\':
+               writer.write("\\\\");
+               break;
+            case '\n':
+               writer.write("\\n");
+               break;
+            case '\r':
+               writer.write("\\r");
+               break;
+            case '\t':
+               writer.write("\\t");
+               break;
+            default:
+               if (character < FIRST_PRINTABLE) {
+                  writer.write("\\u00");
+                  writer.write(HEX.charAt(character >> NIBBLE_SHIFT));
+                  writer.write(HEX.charAt(character & NIBBLE_MASK));
+               } else {
+                  writer.write(character);
+               }
+         }
+      }
+      writer.write('"');
+   }
+
+   /**
+    * Write a statistic as a single JSON object, without a line break.
+    *
+    * @param writer
+    *           to write to
+    * @param statistic
+    *           statistic to write
+    * @param partial
+    *           true if the statistic covers only some of its command's runs
+    * @throws IOException
+    *            if we cannot write.
+    */
+   static void writeObject(final Writer writer, final Statistic statistic,
+         final boolean partial) throws IOException {
+      writer.write("{\"command\":");
+      writeString(writer, statistic.getCommand());
+      writer.write(",\"count\":");
+      writer.write(Integer.toString(statistic.getCount()));
+      if (partial) {
+         writer.write(",\"partial\":true");
+      }
+      writer.write(",\"averageSeconds\":");
+      writer.write(Double.toString(statistic.getAverageTime()));
+      writer.write(",\"totalSeconds\":");
+      writer.write(Double.toString(statistic.getTotalTime()));
+      writer.write(",\"percentileSeconds\":{");
+      boolean first = true;
+      for (double quantile : DurationHistogram.REPORTED_QUANTILES) {
+         if (!first) {
+            writer.write(',');
+         }
+         writer.write('"');
+         writer.write(Double.toString(quantile));
+         writer.write("\":");
+         writer.write(Double.toString(statistic.getPercentile(quantile)));
+         first = false;
+      }
+      writer.write("},\"directories\":[");
+      first = true;
+      for (DirectoryTotal total : statistic.getDirectoryTotals()) {
+         if (!first) {
+            writer.write(',');
+         }
+         writer.write("{\"directory\":");
+         writeString(writer, total.getDirectory());
+         writer.write(",\"count\":");
+         writer.write(Integer.toString(total.getCount()));
+         writer.write(",\"averageSeconds\":");
+         writer.write(Double.toString(total.getAverageTime()));
+         writer.write('}');
+         first = false;
+      }
+      writer.write("]}");
+   }
+
+   @Override
+   public void write(final Statistic statistic) throws IOException {
+      writeObject(getWriter(), statistic, isPartial());
+      getWriter().write('\n');
+   }
+}
@@ -0,0 +1,62 @@
+package org.rmb.maven;
+
+import java.io.File;
+
+/**
+ * <p>
+ * Extra analysis run by {@link MavenBuildTimes} in the same pass over each
+ * log as the build times.
+ * </p>
+ * <p>
+ * For each log, {@link #startLog(File)} is called first, then
+ * {@link #scanLine(String)} for each line read and
+ * {@link #buildFinished(String, String, double)} each time a total time is
+ * found. {@link #outputResults()} is called once every log has been read.
+ * Lines come one at a time and are not kept, so an extractor should keep
+ * only its aggregates.
+ * </p>
+ *
+ * @author robbram
+ */
+public interface LogExtractor {
+
+   /**
+    * @return true if the extractor needs every line of a log. When any
+    *         extractor does, {@link MavenBuildTimes.ScanMode#HEAD_AND_TAIL} is
+    *         ignored and whole logs are read, even those with build
+    *         events beside them; otherwise an extractor only sees the lines
+    *         in the head window and, unless the time came from build events,
+    *         the total time line.
+    */
+   boolean needsFullLog();
+
+   /**
+    * Forget anything found in the previous log. May be called again for the
+    * same log if it has to be read a second time.
+    *
+    * @param log
+    *           log about to be read
+    */
+   void startLog(File log);
+
+   /**
+    * @param line
+    *           next line of the log, without the line break
+    */
+   void scanLine(String line);
+
+   /**
+    * @param command
+    *           command that was run, as grouped by {@link MavenBuildTimes}
+    * @param directory
+    *           directory it was run from
+    * @param seconds
+    *           total time of the build
+    */
+   void buildFinished(String command, String directory, double seconds);
+
+   /**
+    * Write what was found to {@link System#out}.
+    */
+   void outputResults();
+}
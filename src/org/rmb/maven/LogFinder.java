@@ -0,0 +1,363 @@
+package org.rmb.maven;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * <p>
+ * Find log files under a directory and its subdirectories, such as one per
+ * date or per build agent, handing each to the analysis as soon as it is
+ * found.
+ * </p>
+ * <p>
+ * The directory tree is walked on its own thread into a queue of at most
+ * {@link #QUEUE_CAPACITY} paths, so parsing starts straight away and the
+ * walk only gets that far ahead of it. By default each directory is listed
+ * with a {@link DirectoryStream} and its entries sorted by name before they
+ * are handed out or walked into; raven names logs by timestamp, so logs come
+ * in the order they were run, which the regression report needs. Only the
+ * names of the directories on the current path are held, so memory is
+ * bounded by the largest single directory. When order does not matter,
+ * {@link #setSorted(boolean)} with false walks with
+ * {@link Files#walkFileTree(Path, java.nio.file.FileVisitor)} instead and
+ * holds no names at all, however many files there are.
+ * </p>
+ * <p>
+ * Sorting is by path, so logs only come in run order from one flat directory
+ * or from subdirectories named by date. Subdirectories per build agent hand
+ * out each agent's logs in turn. {@link #isInRunOrder()} tells whether the
+ * logs handed out so far came sorted with their names, raven's timestamps,
+ * never going backwards.
+ * </p>
+ * <p>
+ * Include and exclude filters are globs, as for
+ * {@link java.nio.file.FileSystem#getPathMatcher(String)}, matched against a
+ * path relative to the root directory: <code>**.txt</code> or
+ * <code>agent-*&#47;**.txt</code>. A file is found if it matches an include
+ * and no exclude; a directory matching an exclude is not walked into. With no
+ * includes, files whose names end in <code>.txt</code>, in any case, are
+ * found.
+ * </p>
+ *
+ * @author robbram
+ */
+public final class LogFinder {
+
+   /** Most paths found but not yet taken. */
+   static final int QUEUE_CAPACITY = 1024;
+
+   /** Put on the queue when the walk is finished. */
+   private static final Path END = Paths.get("");
+
+   /** Extension of log files when there are no includes. */
+   private static final String LOG_EXTENSION = ".txt";
+
+   /** Globs a file must match one of, or empty for any log file. */
+   private final List<PathMatcher> includes = new ArrayList<PathMatcher>();
+
+   /** Globs of files and directories to leave out. */
+   private final List<PathMatcher> excludes = new ArrayList<PathMatcher>();
+
+   /** Paths found and not yet taken, then {@link #END}. */
+   private final BlockingQueue<Path> queue =
+         new ArrayBlockingQueue<Path>(QUEUE_CAPACITY);
+
+   /** Directory to walk. */
+   private Path root;
+
+   /** Hand out the entries of each directory sorted by name? */
+   private boolean sorted = true;
+
+   /** Walks the tree, or null if not started. */
+   private Thread walker;
+
+   /** Why the walk failed, or null. */
+   private volatile IOException failure;
+
+   /** True once {@link #END} has been taken. */
+   private boolean finished;
+
+   /** Name of the last log handed out, or null. */
+   private String lastName;
+
+   /** True while no log's name has sorted before the one handed out before. */
+   private boolean inRunOrder = true;
+
+   /**
+    * @param theRoot
+    *           directory to walk
+    */
+   public LogFinder(final Path theRoot) {
+      root = theRoot;
+   }
+
+   /** @return directory to walk */
+   public Path getRoot() {
+      return root;
+   }
+
+   /**
+    * @param theRoot
+    *           directory to walk
+    */
+   public void setRoot(final Path theRoot) {
+      root = theRoot;
+   }
+
+   /**
+    * @param glob
+    *           files to find, relative to the root
+    */
+   public void include(final String glob) {
+      includes.add(root.getFileSystem().getPathMatcher("glob:" + glob));
+   }
+
+   /**
+    * @param glob
+    *           files and directories to leave out, relative to the root
+    */
+   public void exclude(final String glob) {
+      excludes.add(root.getFileSystem().getPathMatcher("glob:" + glob));
+   }
+
+   /**
+    * @param theSorted
+    *           hand out the entries of each directory sorted by name, so
+    *           logs come in the order they were run? False holds no names
+    *           while walking.
+    */
+   public void setSorted(final boolean theSorted) {
+      sorted = theSorted;
+   }
+
+   /**
+    * @return true if logs are handed out sorted and, so far, no log's name
+    *         sorted before that of the log before it, so they came in the
+    *         order they were run
+    */
+   public boolean isInRunOrder() {
+      return sorted && inRunOrder;
+   }
+
+   /**
+    * Start walking the tree in the background.
+    */
+   public void start() {
+      walker = new Thread(new Runnable() {
+         @Override
+         public void run() {
+            walk();
+         }
+      }, "LogFinder");
+      // Don't hold up exit if the analysis stops early.
+      walker.setDaemon(true);
+      walker.start();
+   }
+
+   /**
+    * @return next log found, waiting for the walk if need be, or null when
+    *         there are no more
+    * @throws IOException
+    *            if the root directory could not be walked
+    */
+   public File next() throws IOException {
+      if (walker == null) {
+         start();
+      }
+      if (finished) {
+         return null;
+      }
+      Path path;
+      try {
+         path = queue.take();
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new IOException("Interrupted while finding logs.", e);
+      }
+      if (path == END) {
+         finished = true;
+         if (failure != null) {
+            throw failure;
+         }
+         return null;
+      }
+      String name = path.getFileName().toString();
+      if (lastName != null && name.compareTo(lastName) < 0) {
+         inRunOrder = false;
+      }
+      lastName = name;
+      return path.toFile();
+   }
+
+   /**
+    * Walk the tree, then mark the end of the queue.
+    */
+   private void walk() {
+      try {
+         if (sorted) {
+            walkSorted(root);
+         } else {
+            walkUnsorted();
+         }
+      } catch (IOException e) {
+         failure = e;
+      } catch (InterruptedException e) {
+         return;
+      }
+      try {
+         queue.put(END);
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+   }
+
+   /**
+    * @param directory
+    *           directory to hand out the logs in, in name order
+    * @throws IOException
+    *            if the root directory cannot be listed
+    * @throws InterruptedException
+    *            if interrupted while waiting for room in the queue
+    */
+   private void walkSorted(final Path directory) throws IOException,
+         InterruptedException {
+      List<Path> entries = new ArrayList<Path>();
+      try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+         for (Path entry : stream) {
+            entries.add(entry);
+         }
+      } catch (IOException e) {
+         if (directory == root) {
+            throw e;
+         }
+         System.err.println("Unable to list [" + directory + "]: " + e);
+         return;
+      }
+      Collections.sort(entries);
+      for (Path entry : entries) {
+         if (Files.isDirectory(entry)) {
+            if (!excluded(entry)) {
+               walkSorted(entry);
+            }
+         } else if (accept(entry)) {
+            queue.put(entry);
+         }
+      }
+   }
+
+   /**
+    * Hand out logs in whatever order the file system lists them.
+    *
+    * @throws IOException
+    *            if the root directory cannot be walked
+    * @throws InterruptedException
+    *            if interrupted while waiting for room in the queue
+    */
+   private void walkUnsorted() throws IOException, InterruptedException {
+      try {
+         Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(final Path directory,
+                  final BasicFileAttributes attributes) {
+               if (!directory.equals(root) && excluded(directory)) {
+                  return FileVisitResult.SKIP_SUBTREE;
+               }
+               return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(final Path file,
+                  final BasicFileAttributes attributes) throws IOException {
+               if (attributes.isRegularFile() && accept(file)) {
+                  try {
+                     queue.put(file);
+                  } catch (InterruptedException e) {
+                     throw new InterruptedWalk(e);
+                  }
+               }
+               return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(final Path file,
+                  final IOException e) throws IOException {
+               if (file.equals(root)) {
+                  throw e;
+               }
+               System.err.println("Unable to read [" + file + "]: " + e);
+               return FileVisitResult.CONTINUE;
+            }
+         });
+      } catch (InterruptedWalk e) {
+         throw (InterruptedException) e.getCause();
+      }
+   }
+
+   /**
+    * @param path
+    *           file or directory under the root
+    * @return true if it matches an exclude
+    */
+   private boolean excluded(final Path path) {
+      Path relative = root.relativize(path);
+      for (PathMatcher exclude : excludes) {
+         if (exclude.matches(relative)) {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   /**
+    * @param file
+    *           file under the root
+    * @return true if it is a log to analyse
+    */
+   private boolean accept(final Path file) {
+      if (excluded(file)) {
+         return false;
+      }
+      if (includes.isEmpty()) {
+         return file.getFileName().toString().toLowerCase()
+               .endsWith(LOG_EXTENSION);
+      }
+      Path relative = root.relativize(file);
+      for (PathMatcher include : includes) {
+         if (include.matches(relative)) {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   /**
+    * Carries an interrupt out of a file visitor, which may only throw
+    * {@link IOException}.
+    */
+   private static final class InterruptedWalk extends IOException {
+
+      /** Serial version. */
+      private static final long serialVersionUID = 1L;
+
+      /**
+       * @param cause
+       *           the interrupt
+       */
+      InterruptedWalk(final InterruptedException cause) {
+         super(cause);
+      }
+   }
+}
@@ -0,0 +1,548 @@
+package org.rmb.maven;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * <p>
+ * Pick a random sample of logs to analyse instead of all of them, for a
+ * quick answer from years of logs, and estimate how often each command was
+ * run and how long it takes over the whole archive, with 95% confidence
+ * intervals.
+ * </p>
+ * <p>
+ * Logs are grouped into strata by the month in the timestamp raven puts in
+ * each file name (<code>maven_20150301_235959.txt</code>), so that busy and
+ * quiet months, old and new build setups, are all represented. Files are
+ * drawn one at a time from the month that has had the smallest share of its
+ * files read so far, so the sample stays in proportion however soon it is
+ * stopped. Sampling stops when the file or time budget runs out, or when
+ * every log has been read, in which case the estimates are exact.
+ * </p>
+ * <p>
+ * For each command, each sampled build counts for the unread builds of its
+ * month: it is weighted by the logs in the month over the logs read from it.
+ * The mean is the weighted total time over the weighted number of builds, a
+ * ratio estimator whose interval comes from the spread of each log's time
+ * about the mean, month by month, less the share of each month already read.
+ * A month with only one log read adds nothing to the spread. Percentiles come
+ * from the weighted times, and their interval from the percentiles either
+ * side that the effective number of builds in the sample allows. Estimates
+ * are printed as they are refined, each time the sample doubles.
+ * </p>
+ *
+ * @author robbram
+ */
+public final class LogSampler implements LogExtractor {
+
+   /** Standard normal value for a two sided 95% interval. */
+   private static final double Z_95 = 1.96;
+
+   /** Quantile estimated next to the mean. */
+   private static final double REPORTED_QUANTILE = 0.9;
+
+   /** Sampled logs before the first progress line. */
+   private static final int FIRST_PROGRESS = 16;
+
+   /** Nanoseconds in a second. */
+   private static final double NANOS_PER_SECOND = 1e9;
+
+   /** Percent. */
+   private static final double PERCENT = 100.0;
+
+   /** Year and month in a raven file name. */
+   private static final Pattern MONTH =
+         Pattern.compile("(\\d{4})(\\d{2})\\d{2}_\\d{6}");
+
+   /** Stratum for logs without a timestamp in their name. */
+   private static final String NO_MONTH = "unknown";
+
+   /** Most logs to read, or 0 for no limit. */
+   private final int fileBudget;
+
+   /** Most time to spend reading logs in nanoseconds, or 0 for no limit. */
+   private final long timeBudgetNanos;
+
+   /** Makes the sample. */
+   private final Random random;
+
+   /** Logs by month. */
+   private final List<Stratum> strata = new ArrayList<Stratum>();
+
+   /** Estimates by command. */
+   private final Map<String, Estimate> estimates =
+         new LinkedHashMap<String, Estimate>();
+
+   /** Logs in the archive. */
+   private int population;
+
+   /** Logs handed out to be read. */
+   private int sampled;
+
+   /** When the first log was handed out, from {@link System#nanoTime()}. */
+   private long started;
+
+   /** Sample size at which to print the next progress line. */
+   private int nextProgress = FIRST_PROGRESS;
+
+   /** Stratum of the log being read, or null. */
+   private Stratum current;
+
+   /** Count of builds of each command in the log being read. */
+   private final Map<String, Integer> logCounts =
+         new LinkedHashMap<String, Integer>();
+
+   /** Total time of each command in the log being read, in seconds. */
+   private final Map<String, Double> logSeconds =
+         new LinkedHashMap<String, Double>();
+
+   /** Time of each build in the log being read, by command, in seconds. */
+   private final Map<String, List<Double>> logBuilds =
+         new LinkedHashMap<String, List<Double>>();
+
+   /**
+    * @param theFileBudget
+    *           most logs to read, or 0 for no limit
+    * @param timeBudgetSeconds
+    *           most time to spend reading logs, or 0 for no limit
+    * @param seed
+    *           seed for the random sample, so a sample can be repeated
+    */
+   public LogSampler(final int theFileBudget, final double timeBudgetSeconds,
+         final long seed) {
+      fileBudget = theFileBudget;
+      timeBudgetNanos = Math.round(timeBudgetSeconds * NANOS_PER_SECOND);
+      random = new Random(seed);
+   }
+
+   /**
+    * Group the archive into months, ready to sample.
+    *
+    * @param logs
+    *           every log in the archive
+    */
+   public void plan(final List<File> logs) {
+      Map<String, Stratum> byMonth = new LinkedHashMap<String, Stratum>();
+      for (File log : logs) {
+         String month = month(log.getName());
+         Stratum stratum = byMonth.get(month);
+         if (stratum == null) {
+            stratum = new Stratum(byMonth.size());
+            byMonth.put(month, stratum);
+         }
+         stratum.logs.add(log);
+      }
+      strata.clear();
+      strata.addAll(byMonth.values());
+      for (Stratum stratum : strata) {
+         Collections.shuffle(stratum.logs, random);
+      }
+      population = logs.size();
+      sampled = 0;
+      started = System.nanoTime();
+   }
+
+   /**
+    * @param name
+    *           log file name
+    * @return year and month, like <code>2015-03</code>, or
+    *         <code>unknown</code>
+    */
+   static String month(final String name) {
+      Matcher matcher = MONTH.matcher(name);
+      if (!matcher.find()) {
+         return NO_MONTH;
+      }
+      return matcher.group(1) + "-" + matcher.group(2);
+   }
+
+   /**
+    * @return next log to read, or null once the budget is spent or every
+    *         log has been read
+    */
+   public File next() {
+      finishLog();
+      if (sampled >= nextProgress) {
+         outputProgress();
+         nextProgress *= 2;
+      }
+      if (fileBudget > 0 && sampled >= fileBudget) {
+         return null;
+      }
+      if (timeBudgetNanos > 0
+            && System.nanoTime() - started >= timeBudgetNanos) {
+         return null;
+      }
+      // The month with the smallest share read, largest first on ties.
+      Stratum pick = null;
+      for (Stratum stratum : strata) {
+         if (stratum.sampled == stratum.logs.size()) {
+            continue;
+         }
+         if (pick == null) {
+            pick = stratum;
+            continue;
+         }
+         long share = (long) stratum.sampled * pick.logs.size();
+         long pickShare = (long) pick.sampled * stratum.logs.size();
+         if (share < pickShare || share == pickShare
+               && stratum.logs.size() > pick.logs.size()) {
+            pick = stratum;
+         }
+      }
+      if (pick == null) {
+         return null;
+      }
+      File log = pick.logs.get(pick.sampled);
+      pick.sampled++;
+      sampled++;
+      current = pick;
+      return log;
+   }
+
+   @Override
+   public boolean needsFullLog() {
+      return false;
+   }
+
+   @Override
+   public void startLog(final File log) {
+      // Start again if the same log is read twice.
+      logCounts.clear();
+      logSeconds.clear();
+      logBuilds.clear();
+   }
+
+   @Override
+   public void scanLine(final String line) {
+      // Only finished builds matter.
+   }
+
+   @Override
+   public void buildFinished(final String command, final String directory,
+         final double seconds) {
+      Integer count = logCounts.get(command);
+      if (count == null) {
+         logCounts.put(command, 1);
+         logSeconds.put(command, seconds);
+         logBuilds.put(command, new ArrayList<Double>());
+      } else {
+         logCounts.put(command, count + 1);
+         logSeconds.put(command, logSeconds.get(command) + seconds);
+      }
+      logBuilds.get(command).add(seconds);
+   }
+
+   /**
+    * Add the builds of the log just read to the sums for its month.
+    */
+   private void finishLog() {
+      if (current == null) {
+         return;
+      }
+      for (Map.Entry<String, Integer> entry : logCounts.entrySet()) {
+         Estimate estimate = estimate(entry.getKey());
+         estimate.add(current.index, entry.getValue(),
+               logSeconds.get(entry.getKey()));
+         for (double seconds : logBuilds.get(entry.getKey())) {
+            estimate.builds.add(new double[] {seconds, current.index });
+         }
+      }
+      logCounts.clear();
+      logSeconds.clear();
+      logBuilds.clear();
+      current = null;
+   }
+
+   /**
+    * @param command
+    *           command that was run
+    * @return estimate for the command, added if new
+    */
+   private Estimate estimate(final String command) {
+      Estimate estimate = estimates.get(command);
+      if (estimate == null) {
+         estimate = new Estimate(command, strata.size());
+         estimates.put(command, estimate);
+      }
+      return estimate;
+   }
+
+   /** @return logs read so far */
+   public int getSampled() {
+      return sampled;
+   }
+
+   /**
+    * Print how the estimate for the most run command is coming along.
+    */
+   private void outputProgress() {
+      Estimate top = null;
+      for (Estimate estimate : estimates.values()) {
+         if (top == null || estimate.builds() > top.builds()) {
+            top = estimate;
+         }
+      }
+      if (top == null) {
+         return;
+      }
+      System.out.println(String.format("Sampled %d of %d logs in %.1f s:"
+            + " %.1f s +/- %.1f s mean for [%s]", sampled, population,
+            (System.nanoTime() - started) / NANOS_PER_SECOND, top.mean(),
+            top.meanMargin(), top.command));
+   }
+
+   @Override
+   public void outputResults() {
+      finishLog();
+      System.out.println(String.format("---- Estimates from %d of %d logs"
+            + " (%.1f%%) in %d months, 95%% confidence ----", sampled,
+            population, percent(sampled, population), strata.size()));
+      List<Estimate> sorted = new ArrayList<Estimate>(estimates.values());
+      Collections.sort(sorted, new Comparator<Estimate>() {
+         @Override
+         public int compare(final Estimate one, final Estimate two) {
+            return Double.compare(two.builds() * two.mean(),
+                  one.builds() * one.mean());
+         }
+      });
+      for (Estimate estimate : sorted) {
+         double[] quantile = estimate.quantile(REPORTED_QUANTILE);
+         System.out.println(String.format("   %8.0f +/- %-6.0f builds"
+               + " %9.1f s +/- %-7.1f mean %9.1f s [%.1f, %.1f] p90   %s",
+               estimate.builds(), estimate.buildsMargin(), estimate.mean(),
+               estimate.meanMargin(), quantile[1], quantile[0], quantile[2],
+               estimate.command));
+      }
+   }
+
+   /**
+    * @param part
+    *           part of the whole
+    * @param whole
+    *           the whole
+    * @return part as a percentage of whole, 0 if whole is 0
+    */
+   private static double percent(final double part, final double whole) {
+      if (whole == 0) {
+         return 0;
+      }
+      return PERCENT * part / whole;
+   }
+
+   /**
+    * Logs from one month.
+    */
+   private static final class Stratum {
+
+      /** Position in the list of strata. */
+      private final int index;
+
+      /** Logs, shuffled; the first {@link #sampled} have been handed out. */
+      private final List<File> logs = new ArrayList<File>();
+
+      /** Logs handed out to be read. */
+      private int sampled;
+
+      /**
+       * @param theIndex
+       *           position in the list of strata
+       */
+      Stratum(final int theIndex) {
+         index = theIndex;
+      }
+   }
+
+   /**
+    * Sums for one command, by month, over the logs read.
+    */
+   private final class Estimate {
+
+      /** Command that was run. */
+      private final String command;
+
+      /** Builds of the command. */
+      private final double[] count;
+
+      /** Squares of the builds in each log. */
+      private final double[] countSquares;
+
+      /** Time of the builds, in seconds. */
+      private final double[] seconds;
+
+      /** Squares of the time in each log. */
+      private final double[] secondsSquares;
+
+      /** Products of the builds and time in each log. */
+      private final double[] products;
+
+      /** Time and stratum index of each sampled build. */
+      private final List<double[]> builds = new ArrayList<double[]>();
+
+      /**
+       * @param theCommand
+       *           command that was run
+       * @param months
+       *           number of strata
+       */
+      Estimate(final String theCommand, final int months) {
+         command = theCommand;
+         count = new double[months];
+         countSquares = new double[months];
+         seconds = new double[months];
+         secondsSquares = new double[months];
+         products = new double[months];
+      }
+
+      /**
+       * @param month
+       *           stratum index of the log
+       * @param logCount
+       *           builds of the command in the log
+       * @param logSeconds
+       *           their total time, in seconds
+       */
+      void add(final int month, final int logCount, final double logSeconds) {
+         count[month] += logCount;
+         countSquares[month] += (double) logCount * logCount;
+         seconds[month] += logSeconds;
+         secondsSquares[month] += logSeconds * logSeconds;
+         products[month] += logCount * logSeconds;
+      }
+
+      /**
+       * @param month
+       *           stratum
+       * @return weight of each log read from the month
+       */
+      private double weight(final Stratum month) {
+         return (double) month.logs.size() / month.sampled;
+      }
+
+      /** @return estimated builds of the command in the whole archive */
+      double builds() {
+         double total = 0;
+         for (Stratum month : strata) {
+            if (month.sampled > 0) {
+               total += weight(month) * count[month.index];
+            }
+         }
+         return total;
+      }
+
+      /** @return estimated mean time of the command, in seconds */
+      double mean() {
+         double time = 0;
+         for (Stratum month : strata) {
+            if (month.sampled > 0) {
+               time += weight(month) * seconds[month.index];
+            }
+         }
+         return time / builds();
+      }
+
+      /**
+       * @param sums
+       *           sum over the logs read of some amount, by month
+       * @param squares
+       *           sum of its squares, by month
+       * @return estimated variance of the amount's total over the archive
+       */
+      private double variance(final double[] sums, final double[] squares) {
+         double variance = 0;
+         for (Stratum month : strata) {
+            int n = month.sampled;
+            if (n < 2) {
+               continue;
+            }
+            int i = month.index;
+            double spread = (squares[i] - sums[i] * sums[i] / n) / (n - 1);
+            double size = month.logs.size();
+            variance += size * size * (1 - n / size) * spread / n;
+         }
+         return Math.max(0, variance);
+      }
+
+      /** @return half width of the interval on the estimated builds */
+      double buildsMargin() {
+         return Z_95 * Math.sqrt(variance(count, countSquares));
+      }
+
+      /** @return half width of the interval on the mean, in seconds */
+      double meanMargin() {
+         double mean = mean();
+         // Each log's time less the mean time of its builds.
+         double[] sums = new double[count.length];
+         double[] squares = new double[count.length];
+         for (int i = 0; i < count.length; i++) {
+            sums[i] = seconds[i] - mean * count[i];
+            squares[i] = secondsSquares[i] - 2 * mean * products[i]
+                  + mean * mean * countSquares[i];
+         }
+         return Z_95 * Math.sqrt(variance(sums, squares)) / builds();
+      }
+
+      /**
+       * @param quantile
+       *           between 0 and 1
+       * @return low end of the interval, estimate and high end of the
+       *         interval, in seconds
+       */
+      double[] quantile(final double quantile) {
+         List<double[]> sorted = new ArrayList<double[]>(builds);
+         Collections.sort(sorted, new Comparator<double[]>() {
+            @Override
+            public int compare(final double[] one, final double[] two) {
+               return Double.compare(one[0], two[0]);
+            }
+         });
+         double[] weights = new double[sorted.size()];
+         double total = 0;
+         double squares = 0;
+         for (int index = 0; index < weights.length; index++) {
+            weights[index] = weight(strata.get((int) sorted.get(index)[1]));
+            total += weights[index];
+            squares += weights[index] * weights[index];
+         }
+         // Effective number of builds, given the unequal weights.
+         double effective = total * total / squares;
+         double margin = Z_95
+               * Math.sqrt(quantile * (1 - quantile) / effective);
+         return new double[] {
+            at(sorted, weights, total, Math.max(0, quantile - margin)),
+            at(sorted, weights, total, quantile),
+            at(sorted, weights, total, Math.min(1, quantile + margin)) };
+      }
+
+      /**
+       * @param sorted
+       *           sampled builds, quickest first
+       * @param weights
+       *           weight of each
+       * @param total
+       *           sum of the weights
+       * @param quantile
+       *           between 0 and 1
+       * @return time of the first build at or past the quantile, in seconds
+       */
+      private double at(final List<double[]> sorted, final double[] weights,
+            final double total, final double quantile) {
+         double cumulative = 0;
+         for (int index = 0; index < weights.length; index++) {
+            cumulative += weights[index];
+            if (cumulative >= quantile * total) {
+               return sorted.get(index)[0];
+            }
+         }
+         return sorted.get(sorted.size() - 1)[0];
+      }
+   }
+}
@@ -0,0 +1,201 @@
+package org.rmb.maven;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * The time Maven puts at the start of each line when run with
+ * <code>-Dorg.slf4j.simpleLogger.showDateTime=true</code>, e.g.
+ * </p>
+ *
+ * <pre>
+ * 2015-01-08 16:57:36,123 [INFO] Scanning for projects...
+ * 16:57:36.123 [INFO] Scanning for projects...
+ * 1234 [INFO] Scanning for projects...
+ * </pre>
+ * <p>
+ * The last form is the logger's default: milliseconds since Maven started.
+ * </p>
+ *
+ * @author robbram
+ */
+final class LogTimestamp {
+
+   /** Returned when a line has no time we understand. */
+   static final long NONE = -1;
+
+   /** Milliseconds in a day. */
+   static final long MILLIS_PER_DAY = TimeUnit.DAYS.toMillis(1);
+
+   /** Separates the time from the level. */
+   private static final String LEVEL_START = " [";
+
+   /** Length of <code>yyyy-MM-dd</code>. */
+   private static final int DATE_LENGTH = 10;
+
+   /** Length of <code>HH:mm:ss</code>. */
+   private static final int TIME_LENGTH = 8;
+
+   /** Position of the first colon in <code>HH:mm:ss</code>. */
+   private static final int MINUTES_COLON = 2;
+
+   /** Position of the second colon in <code>HH:mm:ss</code>. */
+   private static final int SECONDS_COLON = 5;
+
+   /** Digits of milliseconds read after the seconds. */
+   private static final int MILLIS_DIGITS = 3;
+
+   /** Base of the digits read. */
+   private static final int RADIX = 10;
+
+   /** Private constructor: static methods only. */
+   private LogTimestamp() {
+   }
+
+   /**
+    * @param line
+    *           line from a log
+    * @return length of the time at the start of the line, including the
+    *         space after it, or 0 if there isn't one
+    */
+   static int prefixLength(final String line) {
+      if (line.isEmpty() || !Character.isDigit(line.charAt(0))) {
+         return 0;
+      }
+      int end = line.indexOf(LEVEL_START);
+      if (end < 0) {
+         return 0;
+      }
+      for (int index = 0; index < end; index++) {
+         char next = line.charAt(index);
+         if (!Character.isDigit(next) && "-:.,T ".indexOf(next) < 0) {
+            return 0;
+         }
+      }
+      return end + 1;
+   }
+
+   /**
+    * Same as {@link #prefixLength(String)}, for a line not yet decoded.
+    *
+    * @param bytes
+    *           bytes holding the line
+    * @param start
+    *           where the line starts
+    * @param end
+    *           where the line ends
+    * @return length of the time at the start of the line, including the
+    *         space after it, or 0 if there isn't one
+    */
+   static int prefixLength(final byte[] bytes, final int start,
+         final int end) {
+      if (start >= end || !Character.isDigit(bytes[start])) {
+         return 0;
+      }
+      for (int index = start; index + 1 < end; index++) {
+         byte next = bytes[index];
+         if (next == LEVEL_START.charAt(0)
+               && bytes[index + 1] == LEVEL_START.charAt(1)) {
+            return index - start + 1;
+         }
+         if (!Character.isDigit(next) && "-:.,T ".indexOf(next) < 0) {
+            return 0;
+         }
+      }
+      return 0;
+   }
+
+   /**
+    * @param line
+    *           line from a log
+    * @return line without the time at its start
+    */
+   static String strip(final String line) {
+      int prefix = prefixLength(line);
+      if (prefix == 0) {
+         return line;
+      }
+      return line.substring(prefix);
+   }
+
+   /**
+    * @param line
+    *           line from a log
+    * @return the time at the start of the line in milliseconds, or
+    *         {@link #NONE}. With a date this is since the epoch, without one
+    *         it is since midnight, or since Maven started for the logger's
+    *         default format; only differences between lines of one log are
+    *         meaningful.
+    */
+   static long millis(final String line) {
+      int prefix = prefixLength(line);
+      if (prefix == 0) {
+         return NONE;
+      }
+      String text = line.substring(0, prefix).trim();
+      int colon = text.indexOf(':');
+      if (colon < 0) {
+         return parseDigits(text, 0, text.length());
+      }
+      int timeStart = colon - MINUTES_COLON;
+      if (timeStart < 0 || text.length() < timeStart + TIME_LENGTH
+            || text.charAt(timeStart + SECONDS_COLON) != ':') {
+         return NONE;
+      }
+      long hours = parseDigits(text, timeStart, timeStart + MINUTES_COLON);
+      long minutes = parseDigits(text, timeStart + MINUTES_COLON + 1,
+            timeStart + SECONDS_COLON);
+      long seconds = parseDigits(text, timeStart + SECONDS_COLON + 1,
+            timeStart + TIME_LENGTH);
+      if (hours == NONE || minutes == NONE || seconds == NONE) {
+         return NONE;
+      }
+      long millis = TimeUnit.HOURS.toMillis(hours)
+            + TimeUnit.MINUTES.toMillis(minutes)
+            + TimeUnit.SECONDS.toMillis(seconds);
+      int fraction = timeStart + TIME_LENGTH + 1;
+      if (fraction + MILLIS_DIGITS <= text.length()) {
+         long part = parseDigits(text, fraction, fraction + MILLIS_DIGITS);
+         if (part != NONE) {
+            millis += part;
+         }
+      }
+      if (timeStart >= DATE_LENGTH) {
+         try {
+            millis += LocalDate.parse(text.substring(0, DATE_LENGTH))
+                  .toEpochDay() * MILLIS_PER_DAY;
+         } catch (DateTimeParseException e) {
+            return NONE;
+         }
+      }
+      return millis;
+   }
+
+   /**
+    * @param text
+    *           text to read
+    * @param start
+    *           first character
+    * @param end
+    *           after the last character
+    * @return the digits as a number, or {@link #NONE} if there are none or
+    *         something else is there
+    */
+   private static long parseDigits(final String text, final int start,
+         final int end) {
+      if (start >= end) {
+         return NONE;
+      }
+      long value = 0;
+      for (int index = start; index < end; index++) {
+         char next = text.charAt(index);
+         if (!Character.isDigit(next)) {
+            return NONE;
+         }
+         value = value * RADIX + (next - '0');
+      }
+      return value;
+   }
+}
@@ -3,15 +3,28 @@ package org.rmb.maven;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
-import java.io.FilenameFilter;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.management.JMException;
 
 /**
  * Analyse build times from my logs.
@@ -20,9 +33,6 @@ import java.util.StringTokenizer;
  */
 public final class MavenBuildTimes {
 
-   /** Output debug messages? */
-   private static final boolean DEBUG = true;
-
    /** String to look for at the start of a line that outputs directory. */
    private static final String FRAGMENT_DIRECTORY1 = "Directory: ";
 
@@ -44,19 +54,384 @@ public final class MavenBuildTimes {
    /** String to look for at end of line that has time taken. */
    private static final String FRAGMENT_WALL_CLOCK = " (Wall Clock)";
 
-   /** Where the build logs are. */
+   /** Command line option to request a report. */
+   private static final String OPTION_REPORT = "--report=";
+
+   /** Command line option to group by command lines exactly as logged. */
+   private static final String OPTION_RAW_COMMANDS = "--raw-commands";
+
+   /** Command line option to drop an option when grouping commands. */
+   private static final String OPTION_IGNORE_OPTION = "--ignore-option=";
+
+   /** Command line option to keep an option ignored by default. */
+   private static final String OPTION_KEEP_OPTION = "--keep-option=";
+
+   /** Command line option to drop matching properties. */
+   private static final String OPTION_IGNORE_PROPERTY = "--ignore-property=";
+
+   /** Command line option to turn on metrics about the analysis itself. */
+   private static final String OPTION_METRICS = "--metrics";
+
+   /** Command line option to set when a file is slow enough to log. */
+   private static final String OPTION_SLOW_FILE_MS = "--slow-file-ms=";
+
+   /** Command line option to serve statistics over HTTP. */
+   private static final String OPTION_SERVE = "--serve=";
+
+   /** Minimum time between published snapshots, in nanoseconds. */
+   private static final long PUBLISH_INTERVAL_NANOS =
+         TimeUnit.MILLISECONDS.toNanos(250);
+
+   /** {@link #FRAGMENT_INFO_TOTAL_TIME} as bytes, for the tail scan. */
+   private static final byte[] TOTAL_TIME_BYTES =
+         FRAGMENT_INFO_TOTAL_TIME.getBytes(StandardCharsets.US_ASCII);
+
+   /** Default size of the window at the start of a log. */
+   private static final int DEFAULT_HEAD_BYTES = 16 * 1024;
+
+   /** Default size of the window at the end of a log. */
+   private static final int DEFAULT_TAIL_BYTES = 64 * 1024;
+
+   /** How far back we read at a time when scanning the end of a log. */
+   private static final int TAIL_CHUNK_BYTES = 4 * 1024;
+
+   /** Command line option to choose how much of each log is read. */
+   private static final String OPTION_SCAN = "--scan=";
+
+   /** Command line option for the size of the window at the start. */
+   private static final String OPTION_HEAD_BYTES = "--head-bytes=";
+
+   /** Command line option for the size of the window at the end. */
+   private static final String OPTION_TAIL_BYTES = "--tail-bytes=";
+
+   /** Command line option to group times by JDK, Maven and heap settings. */
+   private static final String OPTION_ENVIRONMENT = "--environment";
+
+   /** Command line option to time each plugin goal. */
+   private static final String OPTION_MOJOS = "--mojos";
+
+   /** Command line option to add up artifact downloads. */
+   private static final String OPTION_DOWNLOADS = "--downloads";
+
+   /** Command line option to track the slowest test classes. */
+   private static final String OPTION_TESTS = "--tests";
+
+   /** Command line option for how many test classes to track. */
+   private static final String OPTION_TEST_CAPACITY = "--test-capacity=";
+
+   /** Command line option to estimate parallel build times. */
+   private static final String OPTION_REACTOR = "--reactor";
+
+   /** Command line option for the thread counts to simulate. */
+   private static final String OPTION_REACTOR_THREADS = "--reactor-threads=";
+
+   /** Command line option for how many logs to sample. */
+   private static final String OPTION_SAMPLE_FILES = "--sample-files=";
+
+   /** Command line option for how long to spend sampling logs. */
+   private static final String OPTION_SAMPLE_SECONDS = "--sample-seconds=";
+
+   /** Command line option for the seed of the sample. */
+   private static final String OPTION_SAMPLE_SEED = "--sample-seed=";
+
+   /** Command line option to save the statistics for merging later. */
+   private static final String OPTION_WRITE_SNAPSHOT = "--write-snapshot=";
+
+   /** Command line option to merge saved statistics instead of reading logs. */
+   private static final String OPTION_MERGE = "--merge=";
+
+   /** Command line option for the directory holding the logs. */
+   private static final String OPTION_LOGS = "--logs=";
+
+   /** Command line option for a glob of logs to read. */
+   private static final String OPTION_INCLUDE = "--include=";
+
+   /** Command line option for a glob of logs or directories to skip. */
+   private static final String OPTION_EXCLUDE = "--exclude=";
+
+   /** Command line option to read logs in the order the disk lists them. */
+   private static final String OPTION_UNSORTED = "--unsorted";
+
+   /** Command line option to track only the top commands. */
+   private static final String OPTION_HEAVY_HITTERS = "--heavy-hitters=";
+
+   /** Command line option to read the text of logs that have events. */
+   private static final String OPTION_IGNORE_EVENTS = "--ignore-events";
+
+   /** Where the build logs are, unless told otherwise. */
    public static final String LOGS_DIR =
          "D:/Dropbox/Toll/Notes/logs";
 
+   /** Reports to write once analysis is finished. */
+   private final List<ReportSink> reportSinks = new ArrayList<ReportSink>();
+
+   /** Extra analyses run in the same pass over each log. */
+   private final List<LogExtractor> extractors = new ArrayList<LogExtractor>();
+
+   /** Picks a sample of the logs to read, or null to read them all. */
+   private LogSampler sampler;
+
+   /** Where to save the statistics when done, or null not to. */
+   private Path snapshotTarget;
+
+   /** Tracks only the top commands, or null to track every command. */
+   private CommandHeavyHitters heavyHitters;
+
+   /** Finds the logs to read. */
+   private final LogFinder finder = new LogFinder(Paths.get(LOGS_DIR));
+
+   /** Latest published view of the statistics. */
+   private final AtomicReference<BuildTimesSnapshot> snapshot =
+         new AtomicReference<BuildTimesSnapshot>(BuildTimesSnapshot.EMPTY);
+
+   /** Statistics changed since the last snapshot was published. */
+   private final Set<Statistic> changed = new LinkedHashSet<Statistic>();
+
+   /** Number of log files analysed so far. */
+   private int filesAnalysed;
+
+   /** When the last snapshot was published, from {@link System#nanoTime()}. */
+   private long lastPublished;
+
+   /** Keep snapshots up to date while analysing? */
+   private boolean publishing;
+
+   /** Ids for canonical command lines. */
+   private final CommandTable commandTable = new CommandTable();
+
+   /** Turns command lines into canonical form, null to use them as is. */
+   private CommandNormaliser normaliser = new CommandNormaliser();
+
+   /** How much of each log file to read. */
+   private ScanMode scanMode = ScanMode.FULL;
+
+   /** Read build events written next to a log instead of its text? */
+   private boolean readEvents = true;
+
+   /** Size of the window at the start of a log, in head and tail mode. */
+   private int headBytes = DEFAULT_HEAD_BYTES;
+
+   /** Size of the window at the end of a log, in head and tail mode. */
+   private int tailBytes = DEFAULT_TAIL_BYTES;
+
+   /** Counters and timers for the analysis itself. */
+   private BuildTimesMetrics metrics = BuildTimesMetrics.DISABLED;
+
+   /** Watches each command and directory for builds getting slower. */
+   private final RegressionDetector regressionDetector =
+         new RegressionDetector();
+
    /**
     * @param args
-    *           not used
+    *           optional reports to write, each as
+    *           <code>--report=FORMAT[:PATH]</code> where FORMAT is one of
+    *           <code>csv</code>, <code>jsonl</code>, <code>columnar</code> or
+    *           <code>prometheus</code>. Defaults to a CSV report in
+    *           <code>mavenReport.csv</code>. Add <code>--serve=PORT</code> to
+    *           serve statistics on localhost while and after analysing; the
+    *           program then runs until killed. Commands are grouped by
+    *           canonical form (see {@link CommandNormaliser}), tuned with
+    *           <code>--ignore-option=OPTION</code>,
+    *           <code>--keep-option=OPTION</code> and
+    *           <code>--ignore-property=REGEX</code>, or grouped exactly as
+    *           logged with <code>--raw-commands</code>.
+    *           <code>--metrics</code> times each phase of the analysis,
+    *           publishes the numbers over JMX and logs files slower than
+    *           <code>--slow-file-ms=MILLIS</code>.
+    *           <code>--scan=head-and-tail</code> reads only the first
+    *           <code>--head-bytes=N</code> and last
+    *           <code>--tail-bytes=N</code> of each log, see
+    *           {@link ScanMode#HEAD_AND_TAIL}. <code>--environment</code>
+    *           reports times by JDK, Maven version and heap settings, see
+    *           {@link EnvironmentExtractor}. <code>--mojos</code> times
+    *           each plugin goal in logs with timestamps, see
+    *           {@link MojoExtractor}. <code>--downloads</code> adds up
+    *           artifact downloads by command and repository host, see
+    *           {@link DownloadExtractor}. <code>--tests</code> lists the
+    *           slowest and most regressed test classes, tracking at most
+    *           <code>--test-capacity=N</code> of them, see
+    *           {@link SurefireExtractor}. <code>--reactor</code> estimates
+    *           multi module build times with <code>-T</code>, for the thread
+    *           counts in <code>--reactor-threads=1,2,4</code> (0 is one per
+    *           core), see {@link ReactorExtractor}.
+    *           <code>--sample-files=N</code> and
+    *           <code>--sample-seconds=N</code> read a random sample of the
+    *           logs, by month, within those budgets and estimate each
+    *           command's runs, mean and 90th percentile with confidence
+    *           intervals; <code>--sample-seed=N</code> repeats a sample, see
+    *           {@link LogSampler}. <code>--write-snapshot=FILE</code> saves
+    *           the statistics, which can't be those of a sample, so that
+    *           those of many build agents can be combined exactly with
+    *           <code>--merge=FILE,FILE,...</code>, which reads
+    *           saved statistics instead of logs, see
+    *           {@link AggregateSnapshot}. <code>--logs=DIR</code> reads
+    *           logs from under <code>DIR</code> instead of
+    *           {@link #LOGS_DIR}, including its subdirectories, limited with
+    *           <code>--include=GLOB</code> and
+    *           <code>--exclude=GLOB</code>. Each directory's names are read
+    *           and sorted, so logs come in the order they were run, as the
+    *           regression report needs, from one flat directory or from
+    *           subdirectories named by date, but not from one subdirectory
+    *           per build agent, when regressions are skipped. Sorting holds
+    *           every name in the largest directory, so for a flat directory
+    *           of millions of logs, <code>--unsorted</code> reads them in the
+    *           order the disk lists them in fixed memory, also skipping
+    *           regressions, see {@link LogFinder}.
+    *           <code>--heavy-hitters=N</code> tracks only
+    *           the N commands run most and the N taking most time, with error
+    *           bounds, in fixed memory however many distinct commands there
+    *           are, see {@link CommandHeavyHitters}; its statistics are
+    *           partial, so it can't be used with
+    *           <code>--write-snapshot</code>. Logs with build
+    *           events from the <code>build-events</code> Maven extension
+    *           beside them are timed from those, unless
+    *           <code>--ignore-events</code> is given, see
+    *           {@link BuildEventReader}.
     */
    public static void main(final String[] args) {
       MavenBuildTimes buildTimes = new MavenBuildTimes();
+      BuildTimesServer server = null;
+      boolean rawCommands = false;
+      int testCapacity = 0;
+      int[] reactorThreads = null;
+      int sampleFiles = 0;
+      double sampleSeconds = 0;
+      long sampleSeed = System.currentTimeMillis();
+      List<Path> merge = null;
+      for (String arg : args) {
+         if (arg.startsWith(OPTION_REPORT)) {
+            String value = arg.substring(OPTION_REPORT.length());
+            int colon = value.indexOf(':');
+            if (colon < 0) {
+               ReportFormat format = ReportFormat.fromName(value);
+               buildTimes.addReportSink(format
+                     .createSink(Paths.get(format.getDefaultFileName())));
+            } else {
+               buildTimes.addReportSink(ReportFormat.fromName(
+                     value.substring(0, colon)).createSink(
+                     Paths.get(value.substring(colon + 1))));
+            }
+         } else if (arg.equals(OPTION_RAW_COMMANDS)) {
+            rawCommands = true;
+         } else if (arg.startsWith(OPTION_IGNORE_OPTION)) {
+            buildTimes.getNormaliser().ignoreOption(
+                  arg.substring(OPTION_IGNORE_OPTION.length()));
+         } else if (arg.startsWith(OPTION_KEEP_OPTION)) {
+            buildTimes.getNormaliser().keepOption(
+                  arg.substring(OPTION_KEEP_OPTION.length()));
+         } else if (arg.startsWith(OPTION_IGNORE_PROPERTY)) {
+            buildTimes.getNormaliser().ignoreProperty(
+                  arg.substring(OPTION_IGNORE_PROPERTY.length()));
+         } else if (arg.startsWith(OPTION_SCAN)) {
+            buildTimes.setScanMode(ScanMode.valueOf(arg.substring(
+                  OPTION_SCAN.length()).toUpperCase().replace('-', '_')));
+         } else if (arg.startsWith(OPTION_HEAD_BYTES)) {
+            buildTimes.setScanWindows(Integer.parseInt(arg
+                  .substring(OPTION_HEAD_BYTES.length())),
+                  buildTimes.tailBytes);
+         } else if (arg.startsWith(OPTION_TAIL_BYTES)) {
+            buildTimes.setScanWindows(buildTimes.headBytes, Integer
+                  .parseInt(arg.substring(OPTION_TAIL_BYTES.length())));
+         } else if (arg.equals(OPTION_ENVIRONMENT)) {
+            buildTimes.addExtractor(new EnvironmentExtractor());
+         } else if (arg.equals(OPTION_MOJOS)) {
+            buildTimes.addExtractor(new MojoExtractor());
+         } else if (arg.equals(OPTION_DOWNLOADS)) {
+            buildTimes.addExtractor(new DownloadExtractor());
+         } else if (arg.equals(OPTION_TESTS)) {
+            testCapacity = SurefireExtractor.DEFAULT_CAPACITY;
+         } else if (arg.startsWith(OPTION_TEST_CAPACITY)) {
+            testCapacity = Integer.parseInt(arg
+                  .substring(OPTION_TEST_CAPACITY.length()));
+         } else if (arg.equals(OPTION_REACTOR)) {
+            reactorThreads = ReactorExtractor.DEFAULT_THREADS;
+         } else if (arg.startsWith(OPTION_REACTOR_THREADS)) {
+            String[] counts = arg.substring(OPTION_REACTOR_THREADS.length())
+                  .split(",");
+            reactorThreads = new int[counts.length];
+            for (int index = 0; index < counts.length; index++) {
+               reactorThreads[index] = Integer.parseInt(counts[index].trim());
+            }
+         } else if (arg.startsWith(OPTION_SAMPLE_FILES)) {
+            sampleFiles = Integer.parseInt(arg
+                  .substring(OPTION_SAMPLE_FILES.length()));
+         } else if (arg.startsWith(OPTION_SAMPLE_SECONDS)) {
+            sampleSeconds = Double.parseDouble(arg
+                  .substring(OPTION_SAMPLE_SECONDS.length()));
+         } else if (arg.startsWith(OPTION_SAMPLE_SEED)) {
+            sampleSeed = Long.parseLong(arg
+                  .substring(OPTION_SAMPLE_SEED.length()));
+         } else if (arg.startsWith(OPTION_WRITE_SNAPSHOT)) {
+            buildTimes.setSnapshotTarget(Paths.get(arg
+                  .substring(OPTION_WRITE_SNAPSHOT.length())));
+         } else if (arg.startsWith(OPTION_MERGE)) {
+            merge = new ArrayList<Path>();
+            for (String file : arg.substring(OPTION_MERGE.length())
+                  .split(",")) {
+               merge.add(Paths.get(file));
+            }
+         } else if (arg.startsWith(OPTION_LOGS)) {
+            buildTimes.getFinder().setRoot(Paths.get(arg
+                  .substring(OPTION_LOGS.length())));
+         } else if (arg.startsWith(OPTION_INCLUDE)) {
+            buildTimes.getFinder().include(arg
+                  .substring(OPTION_INCLUDE.length()));
+         } else if (arg.startsWith(OPTION_EXCLUDE)) {
+            buildTimes.getFinder().exclude(arg
+                  .substring(OPTION_EXCLUDE.length()));
+         } else if (arg.equals(OPTION_UNSORTED)) {
+            buildTimes.getFinder().setSorted(false);
+         } else if (arg.startsWith(OPTION_HEAVY_HITTERS)) {
+            buildTimes.setHeavyHitters(Integer.parseInt(arg
+                  .substring(OPTION_HEAVY_HITTERS.length())));
+         } else if (arg.equals(OPTION_IGNORE_EVENTS)) {
+            buildTimes.setReadEvents(false);
+         } else if (arg.equals(OPTION_METRICS)) {
+            buildTimes.enableMetrics();
+         } else if (arg.startsWith(OPTION_SLOW_FILE_MS)) {
+            buildTimes.enableMetrics();
+            buildTimes.getMetrics().setSlowFileThresholdMillis(Long
+                  .parseLong(arg.substring(OPTION_SLOW_FILE_MS.length())));
+         } else if (arg.startsWith(OPTION_SERVE)) {
+            try {
+               server = buildTimes.serve(Integer.parseInt(arg
+                     .substring(OPTION_SERVE.length())));
+            } catch (IOException e) {
+               System.err.println("Failed to start HTTP server.");
+               e.printStackTrace();
+            }
+         } else {
+            System.err.println("Ignoring unknown argument [" + arg + "].");
+         }
+      }
+      if (rawCommands) {
+         buildTimes.setNormaliser(null);
+      }
+      if (testCapacity > 0) {
+         buildTimes.addExtractor(new SurefireExtractor(testCapacity));
+      }
+      if (reactorThreads != null) {
+         buildTimes.addExtractor(new ReactorExtractor(reactorThreads));
+      }
+      if (sampleFiles > 0 || sampleSeconds > 0) {
+         System.out.println("Sampling logs with seed [" + sampleSeed + "].");
+         buildTimes.setSampler(new LogSampler(sampleFiles, sampleSeconds,
+               sampleSeed));
+      }
+      if (merge == null && buildTimes.snapshotRefusal() != null) {
+         System.err.println(buildTimes.snapshotRefusal());
+         return;
+      }
+      if (server != null) {
+         server.start();
+      }
       try {
          System.out.println("--- START ----");
-         buildTimes.analyseBuildTimes();
+         if (merge == null) {
+            buildTimes.analyseBuildTimes();
+         } else {
+            buildTimes.mergeSnapshots(merge);
+         }
          System.out.println("--- END ----");
       } catch (IOException e) {
          System.err.println("Failed to analyse build times.");
@@ -64,43 +439,363 @@ public final class MavenBuildTimes {
       }
    }
 
+   /**
+    * Add a report to be written when analysis finishes. If none are added, a
+    * CSV report is written to <code>mavenReport.csv</code>.
+    *
+    * @param sink
+    *           where to write the report
+    */
+   public void addReportSink(final ReportSink sink) {
+      reportSinks.add(sink);
+   }
+
+   /**
+    * Add an analysis to run in the same pass over each log. Its results are
+    * written after the regressions.
+    *
+    * @param extractor
+    *           analysis to run
+    */
+   public void addExtractor(final LogExtractor extractor) {
+      extractors.add(extractor);
+   }
+
+   /**
+    * Read a sample of the logs instead of all of them. The sampler's
+    * estimates are written after the regressions. A sample's statistics
+    * can't be saved as a snapshot.
+    *
+    * @param theSampler
+    *           picks the logs to read
+    */
+   public void setSampler(final LogSampler theSampler) {
+      sampler = theSampler;
+      addExtractor(theSampler);
+   }
+
+   /**
+    * Track only the commands run most often and taking the most time, in
+    * fixed memory, instead of every distinct command. Regressions are not
+    * looked for and snapshots are not published, nor saved, in this mode.
+    *
+    * @param capacity
+    *           most commands tracked by runs, and by time
+    */
+   public void setHeavyHitters(final int capacity) {
+      heavyHitters = new CommandHeavyHitters(capacity);
+      addExtractor(heavyHitters);
+   }
+
+   /** @return finds the logs to read, to be set up before analysis */
+   public LogFinder getFinder() {
+      return finder;
+   }
+
+   /**
+    * @param target
+    *           where to save the statistics once analysis is finished, see
+    *           {@link AggregateSnapshot}; null not to save them
+    */
+   public void setSnapshotTarget(final Path target) {
+      snapshotTarget = target;
+   }
+
+   /**
+    * A snapshot must hold every run of every command, so that merging
+    * snapshots gives what reading all their logs would.
+    *
+    * @return why the statistics can't be saved as asked, or null if they
+    *         can, or aren't to be saved
+    */
+   private String snapshotRefusal() {
+      if (snapshotTarget == null) {
+         return null;
+      }
+      if (heavyHitters != null) {
+         return "Cannot save a snapshot of heavy hitters, whose statistics"
+               + " only cover the runs since each command was taken on.";
+      }
+      if (sampler != null) {
+         return "Cannot save a snapshot of a sample, whose statistics only"
+               + " cover the logs sampled.";
+      }
+      return null;
+   }
+
+   /**
+    * @return true if an extractor needs every line of each log
+    */
+   private boolean needsFullLog() {
+      for (LogExtractor extractor : extractors) {
+         if (extractor.needsFullLog()) {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   /**
+    * Tell each extractor a log is about to be read.
+    *
+    * @param log
+    *           log about to be read
+    */
+   private void startLog(final File log) {
+      for (LogExtractor extractor : extractors) {
+         extractor.startLog(log);
+      }
+   }
+
+   /**
+    * Create a server on localhost that answers with the latest snapshot, and
+    * keep snapshots up to date while analysing. The caller starts the server.
+    *
+    * @param port
+    *           port to listen on, 0 for any free port
+    * @return server, not yet started
+    * @throws IOException
+    *            if we cannot bind to the port.
+    */
+   public BuildTimesServer serve(final int port) throws IOException {
+      publishing = true;
+      return new BuildTimesServer(port, snapshot::get);
+   }
+
+   /**
+    * @return rules for grouping command lines, or null if commands are used
+    *         exactly as logged
+    */
+   public CommandNormaliser getNormaliser() {
+      return normaliser;
+   }
+
+   /**
+    * @param theNormaliser
+    *           rules for grouping command lines, or null to use commands
+    *           exactly as logged
+    */
+   public void setNormaliser(final CommandNormaliser theNormaliser) {
+      normaliser = theNormaliser;
+   }
+
+   /**
+    * @param theReadEvents
+    *           take times from the build events written next to a log, when
+    *           there are some and no extractor needs the whole log? False
+    *           always reads the log itself.
+    */
+   public void setReadEvents(final boolean theReadEvents) {
+      readEvents = theReadEvents;
+   }
+
+   /**
+    * @param theScanMode
+    *           how much of each log file to read
+    */
+   public void setScanMode(final ScanMode theScanMode) {
+      scanMode = theScanMode;
+   }
+
+   /**
+    * @param theHeadBytes
+    *           size of the window at the start of a log that must hold the
+    *           command and directory, in head and tail mode
+    * @param theTailBytes
+    *           size of the window at the end of a log that must hold the
+    *           total time, in head and tail mode
+    */
+   public void setScanWindows(final int theHeadBytes, final int theTailBytes) {
+      headBytes = theHeadBytes;
+      tailBytes = theTailBytes;
+   }
+
+   /**
+    * Start recording metrics about the analysis and publish them over JMX.
+    */
+   public void enableMetrics() {
+      if (metrics.isEnabled()) {
+         return;
+      }
+      metrics = new BuildTimesMetrics();
+      try {
+         metrics.register();
+      } catch (JMException e) {
+         System.err.println("Failed to register metrics with JMX.");
+         e.printStackTrace();
+      }
+   }
+
+   /** @return metrics about the analysis, disabled unless turned on */
+   public BuildTimesMetrics getMetrics() {
+      return metrics;
+   }
+
+   /** @return latest published view of the statistics */
+   public BuildTimesSnapshot getSnapshot() {
+      return snapshot.get();
+   }
+
+   /**
+    * Publish a new snapshot containing the statistics changed since the last
+    * one, if publishing is on.
+    *
+    * @param force
+    *           publish even if the last snapshot is very recent
+    */
+   private void publishSnapshot(final boolean force) {
+      if (!publishing) {
+         return;
+      }
+      long now = System.nanoTime();
+      if (!force && now - lastPublished < PUBLISH_INTERVAL_NANOS) {
+         return;
+      }
+      snapshot.set(snapshot.get().update(changed, filesAnalysed));
+      changed.clear();
+      lastPublished = now;
+   }
+
    /**
     * Analyse the build times.
     *
     * @throws IOException
     *            if there is any problem listing files or reading from files.
+    * @throws IllegalStateException
+    *            if the statistics are to be saved, but won't be whole.
     */
    public void analyseBuildTimes() throws IOException {
-      File logDir = new File(LOGS_DIR);
+      String refusal = snapshotRefusal();
+      if (refusal != null) {
+         throw new IllegalStateException(refusal);
+      }
       int countFiles = 0;
       int countBadFiles = 0;
-      String[] fileList = logDir.list(new FilenameFilter() {
-         @Override
-         public boolean accept(final File dir, final String name) {
-            return name.toLowerCase().endsWith(".txt");
-         }
-      });
-      Map<String, MavenBuildTimes.Statistic> times =
-            new HashMap<String, MavenBuildTimes.Statistic>();
+      List<Statistic> times = new ArrayList<Statistic>();
 
-      System.out.println("In log dir [" + logDir.getAbsolutePath() + "] we found [" + fileList + "] files.");
+      System.out.println("Looking for logs under ["
+            + finder.getRoot().toAbsolutePath() + "].");
 
-      for (int index = 0; index < fileList.length; index++) {
-         boolean analysisResult =
-               analyseLog(new File(LOGS_DIR + "/" + fileList[index]), times);
+      if (sampler != null) {
+         // Sampling needs every log to choose from before it starts.
+         List<File> all = new ArrayList<File>();
+         File found = nextFound();
+         while (found != null) {
+            all.add(found);
+            found = nextFound();
+         }
+         sampler.plan(all);
+      }
+      File log = nextLog();
+      while (log != null) {
+         boolean analysisResult = analyseLog(log, times);
          countFiles++;
+         filesAnalysed++;
+         publishSnapshot(false);
          if (!analysisResult) {
             countBadFiles++;
-            if (DEBUG) {
-               System.err.println("   Bad file.");
-            }
-
+            metrics.count(BuildTimesMetrics.Counter.BAD_FILES, 1);
          }
+         log = nextLog();
+      }
+      publishSnapshot(true);
+      if (heavyHitters != null) {
+         times = heavyHitters.getStatistics();
       }
       outputResults(times);
+      writeSnapshot(times);
+      if (sampler == null && heavyHitters == null) {
+         // Logs read out of order, as a sample is, can't show a trend.
+         if (finder.isInRunOrder()) {
+            outputRegressions();
+         } else {
+            System.out.println("Not looking for regressions: logs were not"
+                  + " read in the order they were run.");
+         }
+      }
+      for (LogExtractor extractor : extractors) {
+         extractor.outputResults();
+      }
       System.out.println("Finished analysis with [" + countFiles
             + "] total files and [" + countBadFiles
             + "] files we couldn't read.");
+      if (metrics.isEnabled()) {
+         System.out.print(metrics.summary());
+      }
+   }
+
+   /**
+    * Merge statistics saved by {@link #setSnapshotTarget(Path)}, perhaps on
+    * other machines, and report on them as if their logs had been read here.
+    *
+    * @param sources
+    *           saved statistics
+    * @throws IOException
+    *            if a file cannot be read or the report cannot be written.
+    */
+   public void mergeSnapshots(final List<Path> sources) throws IOException {
+      AggregateSnapshot merged = new AggregateSnapshot();
+      for (Path source : sources) {
+         merged.merge(AggregateSnapshot.read(source));
+      }
+      List<Statistic> times = merged.getStatistics();
+      outputResults(times);
+      writeSnapshot(times);
+      int builds = 0;
+      for (Statistic statistic : times) {
+         builds += statistic.getCount();
+      }
+      System.out.println("Merged [" + sources.size() + "] snapshots with ["
+            + times.size() + "] commands and [" + builds + "] builds.");
+   }
+
+   /**
+    * Save the statistics, if asked to.
+    *
+    * @param times
+    *           statistics to save
+    * @throws IOException
+    *            if we cannot write.
+    */
+   private void writeSnapshot(final List<Statistic> times)
+         throws IOException {
+      if (snapshotTarget == null) {
+         return;
+      }
+      AggregateSnapshot saved = new AggregateSnapshot();
+      saved.addAll(times);
+      saved.write(snapshotTarget);
+      System.out.println("Saved snapshot [" + snapshotTarget + "].");
+   }
+
+   /**
+    * @return next log to read: the next found, or the next in the sample when
+    *         sampling; null when there are no more
+    * @throws IOException
+    *            if the log directory cannot be walked
+    */
+   private File nextLog() throws IOException {
+      if (sampler != null) {
+         return sampler.next();
+      }
+      return nextFound();
+   }
+
+   /**
+    * @return next log found under the log directory, or null when there are
+    *         no more
+    * @throws IOException
+    *            if the log directory cannot be walked
+    */
+   private File nextFound() throws IOException {
+      // Only time spent waiting on the walk counts as listing.
+      long clock = metrics.start();
+      File found = finder.next();
+      metrics.stop(BuildTimesMetrics.Timer.LIST, clock);
+      if (found != null) {
+         metrics.count(BuildTimesMetrics.Counter.FILES_LISTED, 1);
+      }
+      return found;
    }
 
    /**
@@ -109,66 +804,393 @@ public final class MavenBuildTimes {
     * @param log
     *           file writen by a maven run
     * @param times
-    *           map of command line to
+    *           statistics indexed by command id
     * @return true if we found a command and time and updated <code>times</code>
     *         . False if we didn't - probably because we encountered a file with
     *         a time but no command.
     * @throws IOException
     *            if there is any problem reading from a file
     */
-   private boolean analyseLog(final File log,
-         final Map<String, MavenBuildTimes.Statistic> times) //
+   private boolean analyseLog(final File log, final List<Statistic> times) //
+         throws IOException {
+      if (readEvents && !needsFullLog()) {
+         File events = BuildEventReader.eventsFor(log);
+         if (events.isFile() && analyseEvents(log, events, times)) {
+            return true;
+         }
+      }
+      if (scanMode == ScanMode.HEAD_AND_TAIL && !needsFullLog()
+            && log.length() > headBytes + tailBytes) {
+         LogState state = new LogState(metrics.start());
+         if (analyseHeadAndTail(log, times, state)) {
+            metrics.fileFinished(log, state.started);
+            return state.readTime;
+         }
+      }
+      return analyseWholeLog(log, times);
+   }
+
+   /**
+    * Take the command, directory and total time from the build events
+    * written next to a log, reading only the head of the log itself for any
+    * extractors, which look there for what the events don't give them.
+    *
+    * @param log
+    *           file writen by a maven run
+    * @param events
+    *           build events for the same run
+    * @param times
+    *           statistics indexed by command id
+    * @return true if the events had a whole session and <code>times</code>
+    *         was updated; false if the log needs to be read instead
+    * @throws IOException
+    *            if there is any problem reading from a file
+    */
+   private boolean analyseEvents(final File log, final File events,
+         final List<Statistic> times) throws IOException {
+      LogState state = new LogState(metrics.start());
+      metrics.count(BuildTimesMetrics.Counter.FILES_OPENED, 1);
+      BuildEventReader.Session session = BuildEventReader.read(events);
+      state.clock = metrics.stop(BuildTimesMetrics.Timer.READ, state.clock);
+      if (session == null) {
+         return false;
+      }
+      startLog(log);
+      if (!extractors.isEmpty()) {
+         scanHead(log, state);
+      }
+      state.directory = session.getDirectory();
+      state.command = commandStatistic(times, session.getCommand());
+      recordBuild(log, state, session.getSeconds());
+      metrics.fileFinished(log, state.started);
+      return true;
+   }
+
+   /**
+    * Hand the lines in the head window of a log to the extractors only.
+    *
+    * @param log
+    *           file writen by a maven run
+    * @param state
+    *           state for this file, for timing
+    * @throws IOException
+    *            if there is any problem reading from a file
+    */
+   private void scanHead(final File log, final LogState state)
          throws IOException {
-      if (DEBUG) {
-         System.out.println("Reading log [" + log.getAbsolutePath() + "] ");
+      FileChannel channel = FileChannel.open(log.toPath(),
+            StandardOpenOption.READ);
+      state.clock = metrics.stop(BuildTimesMetrics.Timer.OPEN, state.clock);
+      metrics.count(BuildTimesMetrics.Counter.FILES_OPENED, 1);
+      try {
+         for (String line : splitHead(readBytes(channel, 0, headBytes,
+               state))) {
+            metrics.count(BuildTimesMetrics.Counter.LINES_SCANNED, 1);
+            for (LogExtractor extractor : extractors) {
+               extractor.scanLine(line);
+            }
+         }
+      } finally {
+         channel.close();
       }
+      state.clock = metrics.stop(BuildTimesMetrics.Timer.SCAN, state.clock);
+   }
+
+   /**
+    * Read every line of a log file.
+    *
+    * @param log
+    *           file writen by a maven run
+    * @param times
+    *           statistics indexed by command id
+    * @return true if we found a command and time and updated
+    *         <code>times</code>
+    * @throws IOException
+    *            if there is any problem reading from a file
+    */
+   private boolean analyseWholeLog(final File log,
+         final List<Statistic> times) throws IOException {
+      LogState state = new LogState(metrics.start());
+      startLog(log);
       BufferedReader reader = new BufferedReader(new FileReader(log));
-      String previous = null;
-      String directory = null;
-      Statistic command = null;
-      Statistic tempCmd = null;
+      state.clock = metrics.stop(BuildTimesMetrics.Timer.OPEN, state.clock);
+      metrics.count(BuildTimesMetrics.Counter.FILES_OPENED, 1);
       String line = null;
-      String tempSt = null;
-      boolean readTime = false;
-      while ((line = reader.readLine()) != null) {
-         tempSt = lookForDirectory(line);
-         if (tempSt != null) {
-            directory = tempSt;
+      try {
+         while ((line = reader.readLine()) != null) {
+            state.clock = metrics.stop(BuildTimesMetrics.Timer.READ,
+                  state.clock);
+            // Characters plus line break; close enough to bytes for logs.
+            metrics.count(BuildTimesMetrics.Counter.BYTES_READ,
+                  line.length() + 1);
+            if (!scanLine(log, times, state, line, true)) {
+               return false;
+            }
+         }
+      } finally {
+         reader.close();
+         metrics.fileFinished(log, state.started);
+      }
+      return state.readTime;
+   }
+
+   /**
+    * Read only the start of a log, for the command and directory, and the end
+    * of it, for the total time, using positional reads.
+    *
+    * @param log
+    *           file writen by a maven run, longer than the head and tail
+    *           windows together
+    * @param times
+    *           statistics indexed by command id
+    * @param state
+    *           state for this file
+    * @return true if the file was dealt with, false if a marker was missing
+    *         and the whole file needs to be read. Nothing is added to
+    *         <code>times</code> in the latter case.
+    * @throws IOException
+    *            if there is any problem reading from a file
+    */
+   private boolean analyseHeadAndTail(final File log,
+         final List<Statistic> times, final LogState state)
+         throws IOException {
+      startLog(log);
+      FileChannel channel = FileChannel.open(log.toPath(),
+            StandardOpenOption.READ);
+      state.clock = metrics.stop(BuildTimesMetrics.Timer.OPEN, state.clock);
+      metrics.count(BuildTimesMetrics.Counter.FILES_OPENED, 1);
+      try {
+         // Head: command and directory.
+         List<String> head =
+               splitHead(readBytes(channel, 0, headBytes, state));
+         for (String line : head) {
+            scanLine(log, times, state, line, false);
          }
-         tempCmd = lookForCommand(times, line, previous);
-         if (tempCmd != null) {
-            command = tempCmd;
+         if (state.command == null || state.directory == null) {
+            return false;
          }
-         /*-
-          * Look for time:
-          *    [INFO] Total time: 02:30 min (Wall Clock)
-          */
-         if (line != null && line.startsWith(FRAGMENT_INFO_TOTAL_TIME)) {
-            // Bad if we found time without a command.
-            if (command == null) {
-               if (DEBUG) {
-                  System.err.println("   Found time [" + line
-                        + "] without command.");
-               }
-               reader.close();
-               return false;
+         // Tail: last total time, reading backwards a chunk at a time.
+         long limit = channel.size() - tailBytes;
+         long from = channel.size();
+         long end = from;
+         String timeLine = null;
+         while (timeLine == null && from > limit) {
+            from = Math.max(limit, from - TAIL_CHUNK_BYTES);
+            byte[] chunk = readBytes(channel, from, end - from, state);
+            // Skip the line cut off at the start of the chunk.
+            int first = 0;
+            while (first < chunk.length && chunk[first] != '\n') {
+               first++;
             }
-            if (directory == null) {
-               if (DEBUG) {
-                  System.err.println("   No directory found.");
+            first++;
+            if (first > chunk.length) {
+               // One long line: widen the chunk and try again.
+               continue;
+            }
+            timeLine = findLastTimeLine(chunk, first);
+            state.clock = metrics.stop(BuildTimesMetrics.Timer.SCAN,
+                  state.clock);
+            end = from + first;
+         }
+         if (timeLine == null) {
+            return false;
+         }
+         scanLine(log, times, state, timeLine, true);
+         return true;
+      } finally {
+         channel.close();
+      }
+   }
+
+   /**
+    * Look backwards through whole lines in a chunk for the total time.
+    *
+    * @param chunk
+    *           bytes from the file
+    * @param first
+    *           start of the first whole line in the chunk
+    * @return last line holding the total time, or null if there isn't one
+    */
+   private String findLastTimeLine(final byte[] chunk, final int first) {
+      int lineEnd = chunk.length;
+      for (int index = chunk.length - 1; index >= first - 1; index--) {
+         if (index == first - 1 || chunk[index] == '\n') {
+            int lineStart = index + 1;
+            metrics.count(BuildTimesMetrics.Counter.LINES_SCANNED, 1);
+            // The marker may follow a timestamp, see LogTimestamp.
+            int textStart = lineStart
+                  + LogTimestamp.prefixLength(chunk, lineStart, lineEnd);
+            if (startsWith(chunk, textStart, lineEnd, TOTAL_TIME_BYTES)) {
+               int length = lineEnd - lineStart;
+               if (length > 0 && chunk[lineEnd - 1] == '\r') {
+                  length--;
                }
-               reader.close();
-               return false;
+               return new String(chunk, lineStart, length,
+                     Charset.defaultCharset());
             }
-            double seconds = secondsFromLogLine(line);
-            times.put(command.getCommand(), command);
-            command.addTime(seconds, directory);
-            readTime = true;
+            lineEnd = index;
          }
-         previous = line;
       }
-      reader.close();
-      return readTime;
+      return null;
+   }
+
+   /**
+    * @param bytes
+    *           bytes to look in
+    * @param start
+    *           where the line starts
+    * @param end
+    *           where the line ends
+    * @param prefix
+    *           bytes to look for
+    * @return true if the line starts with <code>prefix</code>
+    */
+   private static boolean startsWith(final byte[] bytes, final int start,
+         final int end, final byte[] prefix) {
+      if (end - start < prefix.length) {
+         return false;
+      }
+      for (int index = 0; index < prefix.length; index++) {
+         if (bytes[start + index] != prefix[index]) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   /**
+    * Read part of a file with a positional read.
+    *
+    * @param channel
+    *           file to read
+    * @param position
+    *           where to start
+    * @param length
+    *           how many bytes to read at most
+    * @param state
+    *           state for this file, for timing
+    * @return bytes read
+    * @throws IOException
+    *            if we cannot read
+    */
+   private byte[] readBytes(final FileChannel channel, final long position,
+         final long length, final LogState state) throws IOException {
+      ByteBuffer buffer = ByteBuffer.allocate((int) length);
+      long at = position;
+      int read = 0;
+      while (buffer.hasRemaining()
+            && (read = channel.read(buffer, at)) > 0) {
+         at += read;
+      }
+      metrics.count(BuildTimesMetrics.Counter.BYTES_READ, buffer.position());
+      state.clock = metrics.stop(BuildTimesMetrics.Timer.READ, state.clock);
+      return Arrays.copyOf(buffer.array(), buffer.position());
+   }
+
+   /**
+    * Split the start of a file into lines. The line cut off by the end of the
+    * window is dropped.
+    *
+    * @param bytes
+    *           start of the file
+    * @return whole lines
+    */
+   private static List<String> splitHead(final byte[] bytes) {
+      String text = new String(bytes, Charset.defaultCharset());
+      List<String> lines = new ArrayList<String>();
+      int lineStart = 0;
+      int newLine = text.indexOf('\n');
+      while (newLine >= 0) {
+         int lineEnd = newLine;
+         if (lineEnd > lineStart && text.charAt(lineEnd - 1) == '\r') {
+            lineEnd--;
+         }
+         lines.add(text.substring(lineStart, lineEnd));
+         lineStart = newLine + 1;
+         newLine = text.indexOf('\n', lineStart);
+      }
+      return lines;
+   }
+
+   /**
+    * Look at one line of a log for the directory, command and time.
+    *
+    * @param log
+    *           file the line came from
+    * @param times
+    *           statistics indexed by command id
+    * @param state
+    *           state for this file
+    * @param line
+    *           line to look at
+    * @param lookForTime
+    *           look for the total time too?
+    * @return false if the file turned out to be bad and reading should stop
+    */
+   private boolean scanLine(final File log, final List<Statistic> times,
+         final LogState state, final String line, final boolean lookForTime) {
+      metrics.count(BuildTimesMetrics.Counter.LINES_SCANNED, 1);
+      for (LogExtractor extractor : extractors) {
+         extractor.scanLine(line);
+      }
+      String tempSt = lookForDirectory(line);
+      if (tempSt != null) {
+         state.directory = tempSt;
+      }
+      Statistic tempCmd = lookForCommand(times, line, state.previous);
+      if (tempCmd != null) {
+         state.command = tempCmd;
+      }
+      /*-
+       * Look for time, which may follow a timestamp:
+       *    [INFO] Total time: 02:30 min (Wall Clock)
+       */
+      String text = LogTimestamp.strip(line);
+      if (lookForTime && text.startsWith(FRAGMENT_INFO_TOTAL_TIME)) {
+         metrics.count(BuildTimesMetrics.Counter.MARKERS_MATCHED, 1);
+         // Bad if we found time without a command.
+         if (state.command == null || state.directory == null) {
+            return false;
+         }
+         double seconds = secondsFromLogLine(text);
+         state.clock = metrics.stop(BuildTimesMetrics.Timer.SCAN, state.clock);
+         recordBuild(log, state, seconds);
+      }
+      state.previous = line;
+      state.clock = metrics.stop(BuildTimesMetrics.Timer.SCAN, state.clock);
+      return true;
+   }
+
+   /**
+    * Add a finished build to the command's statistic and tell the
+    * extractors.
+    *
+    * @param log
+    *           file writen by the maven run
+    * @param state
+    *           state for this file, with the command and directory found
+    * @param seconds
+    *           total time of the build
+    */
+   private void recordBuild(final File log, final LogState state,
+         final double seconds) {
+      Statistic command = state.command;
+      if (heavyHitters == null) {
+         command.addTime(seconds, state.directory);
+         regressionDetector.observe(command.getCommand(), state.directory,
+               seconds, log);
+      }
+      for (LogExtractor extractor : extractors) {
+         extractor.buildFinished(command.getCommand(), state.directory,
+               seconds);
+      }
+      if (publishing && heavyHitters == null) {
+         changed.add(command);
+      }
+      metrics.count(BuildTimesMetrics.Counter.RUNS_AGGREGATED, 1);
+      state.clock = metrics.stop(BuildTimesMetrics.Timer.AGGREGATE,
+            state.clock);
+      state.readTime = true;
    }
 
    /**
@@ -196,27 +1218,27 @@ public final class MavenBuildTimes {
                line.substring(FRAGMENT_DIRECTORY2.length(), line.length() - 1);
       }
 
-      if (DEBUG && directory != null) {
-         System.out.println("   Found directory [" + directory + "] ");
+      if (directory != null) {
+         metrics.count(BuildTimesMetrics.Counter.MARKERS_MATCHED, 1);
       }
       return directory;
    }
 
    /**
     * Look to see if current line is a command line and add it to times as
-    * required.
+    * required. Commands are normalised and interned, so the same command
+    * always maps to the same id and the same statistic.
     *
     * @param times
-    *           map of command line to
+    *           statistics indexed by command id
     * @param line
     *           current line in log file
     * @param previous
     *           line in log file
     * @return Statistic if the line was a command line
     */
-   private Statistic lookForCommand(
-         final Map<String, MavenBuildTimes.Statistic> times, final String line,
-         final String previous) {
+   private Statistic lookForCommand(final List<Statistic> times,
+         final String line, final String previous) {
       if (line == null || line.length() == 0) {
          return null;
       }
@@ -228,47 +1250,95 @@ public final class MavenBuildTimes {
        */
       if ("Command:".equals(previous) && line != null
             && line.startsWith("mvn ")) {
-         if (DEBUG) {
-            System.out.println("   Found command [" + line + "] ");
-         }
-         command = times.get(line);
-         if (command == null) {
-            command = new Statistic(line);
-         }
+         metrics.count(BuildTimesMetrics.Counter.MARKERS_MATCHED, 1);
+         command = commandStatistic(times, line);
       }
       return command;
    }
 
    /**
-    * Output results to a CSV file.
+    * @param times
+    *           statistics indexed by command id, added to if the command is
+    *           new
+    * @param line
+    *           command as run
+    * @return statistic for the command, once normalised and interned
+    */
+   private Statistic commandStatistic(final List<Statistic> times,
+         final String line) {
+      String canonical = line;
+      if (normaliser != null) {
+         canonical = normaliser.normalise(line);
+      }
+      if (heavyHitters != null) {
+         // Only carries the command to the total time; not kept.
+         return new Statistic(canonical);
+      }
+      int id = commandTable.intern(canonical);
+      if (id == times.size()) {
+         times.add(new Statistic(commandTable.get(id)));
+      }
+      return times.get(id);
+   }
+
+   /**
+    * Output results to each report sink, streaming one command at a time.
     *
     * @param times
-    *           statistics around each command.
+    *           statistics around each command, indexed by command id.
+    *           Commands that never got a time are skipped.
     * @throws IOException
     *            if we cannot write out report.
     */
-   private void
-         outputResults(final Map<String, MavenBuildTimes.Statistic> times)
-               throws IOException {
-      Collection<Statistic> commands = times.values();
-      File output = new File("mavenReport.csv");
-      PrintWriter writer = new PrintWriter(output, "UTF-8");
-      writer.println("Average Time in Seconds,Number of Runs,Command,Directories");
-      for (Statistic command : commands) {
-         writer.println(command.getAverageTime() + "," //
-               + command.getCount() //
-               + ",\"" + command.getCommand() + "\"" //
-               + ",\"" + command.getDirectoryList() + "\"" //
-         );
-         if (DEBUG) {
-            System.out.println("Command [" + command.getCommand()
-                  + "] took an average of [" + command.getAverageTime()
-                  + "] seconds over [" + command.getCount() + "] runs.");
+   private void outputResults(final List<Statistic> times)
+         throws IOException {
+      List<ReportSink> sinks = reportSinks;
+      if (sinks.isEmpty()) {
+         sinks = Collections.<ReportSink> singletonList(new CsvReportSink(
+               Paths.get(ReportFormat.CSV.getDefaultFileName())));
+      }
+      // Sinks not yet closed, aborted if anything fails.
+      List<ReportSink> open = new ArrayList<ReportSink>();
+      try {
+         for (ReportSink sink : sinks) {
+            open.add(sink);
+            sink.setPartial(heavyHitters != null);
+            sink.open();
+         }
+         for (Statistic command : times) {
+            if (command.getCount() == 0) {
+               continue;
+            }
+            for (ReportSink sink : sinks) {
+               sink.write(command);
+            }
+         }
+         while (!open.isEmpty()) {
+            open.get(0).close();
+            open.remove(0);
+         }
+      } finally {
+         for (ReportSink sink : open) {
+            sink.abort();
          }
       }
-      writer.close();
-      System.out.println("Output report [" + output.getAbsolutePath() + "].");
+   }
 
+   /**
+    * Output commands that have become slower.
+    */
+   private void outputRegressions() {
+      List<RegressionDetector.Regression> found =
+            regressionDetector.getRegressions();
+      System.out.println("Found [" + found.size() + "] regressions.");
+      for (RegressionDetector.Regression regression : found) {
+         System.out.println("   " + regression);
+      }
+   }
+
+   /** @return regressions found in the build times analysed so far */
+   public List<RegressionDetector.Regression> getRegressions() {
+      return regressionDetector.getRegressions();
    }
 
    /**
@@ -290,9 +1360,6 @@ public final class MavenBuildTimes {
       } else {
          fragment = line.substring(FRAGMENT_INFO_TOTAL_TIME.length());
       }
-      if (DEBUG) {
-         System.out.print("   Got time fragment [" + fragment + "] ");
-      }
       /*-
        * Will get one of:
        *    42.102 s
@@ -301,17 +1368,10 @@ public final class MavenBuildTimes {
       StringTokenizer tokens = new StringTokenizer(fragment, " :");
       if (fragment.endsWith(FRAGMENT_TIME_SECONDS)) {
          final double secondsDbl = Double.parseDouble(tokens.nextToken());
-         if (DEBUG) {
-            System.out.println("with seconds [" + secondsDbl + "].");
-         }
          seconds = secondsDbl;
       } else if (fragment.endsWith(FRAGMENT_TIME_MIN)) {
          final int minutesInt = Integer.parseInt(tokens.nextToken());
          final double secondsDbl = Double.parseDouble(tokens.nextToken());
-         if (DEBUG) {
-            System.out.println("with seconds [" + secondsDbl
-                  + "] and minutes [" + minutesInt + "].");
-         }
          seconds = minutesInt * 60 + secondsDbl;
       } else {
          throw new IllegalArgumentException("Unknown time indicator from ["
@@ -320,12 +1380,128 @@ public final class MavenBuildTimes {
       return seconds;
    }
 
+   /** How much of each log file to read. */
+   public enum ScanMode {
+      /** Read every line. */
+      FULL,
+      /**
+       * Read a window at the start of the file for the command and directory
+       * and scan backwards from the end for the total time. Falls back to
+       * {@link #FULL} when a marker is not found in its window. Only the last
+       * total time in a file is seen in this mode.
+       */
+      HEAD_AND_TAIL;
+   }
+
+   /**
+    * What we have found so far in one log file.
+    */
+   private static final class LogState {
+
+      /** When we started on the file, from {@link BuildTimesMetrics}. */
+      private final long started;
+
+      /** Current value of the clock, from {@link BuildTimesMetrics}. */
+      private long clock;
+
+      /** Line before the current one. */
+      private String previous;
+
+      /** Directory the build was run from. */
+      private String directory;
+
+      /** Statistic for the command that was run. */
+      private Statistic command;
+
+      /** Did we find a time? */
+      private boolean readTime;
+
+      /**
+       * @param theStarted
+       *           when we started on the file
+       */
+      LogState(final long theStarted) {
+         started = theStarted;
+         clock = theStarted;
+      }
+   }
+
+   /** Built in report formats. */
+   public enum ReportFormat {
+      /** Comma separated values, see {@link CsvReportSink}. */
+      CSV("csv", "mavenReport.csv"),
+      /** One JSON object per line, see {@link JsonLinesReportSink}. */
+      JSON_LINES("jsonl", "mavenReport.jsonl"),
+      /** Column oriented binary, see {@link ColumnarReportSink}. */
+      COLUMNAR("columnar", "mavenReport.mbtc"),
+      /** Prometheus text exposition, see {@link PrometheusReportSink}. */
+      PROMETHEUS("prometheus", "mavenReport.prom");
+
+      /** Name used on the command line. */
+      private final String optionName;
+
+      /** File written to if no path is given. */
+      private final String defaultFileName;
+
+      /**
+       * @param theName
+       *           name used on the command line
+       * @param theDefaultFileName
+       *           file written to if no path is given
+       */
+      ReportFormat(final String theName, final String theDefaultFileName) {
+         optionName = theName;
+         defaultFileName = theDefaultFileName;
+      }
+
+      /**
+       * @param name
+       *           name used on the command line
+       * @return matching format
+       */
+      public static ReportFormat fromName(final String name) {
+         for (ReportFormat format : values()) {
+            if (format.optionName.equalsIgnoreCase(name)) {
+               return format;
+            }
+         }
+         throw new IllegalArgumentException("Unknown report format [" + name
+               + "].");
+      }
+
+      /**
+       * @param target
+       *           file to write to
+       * @return new sink writing this format to <code>target</code>
+       */
+      public ReportSink createSink(final Path target) {
+         switch (this) {
+            case JSON_LINES:
+               return new JsonLinesReportSink(target);
+            case COLUMNAR:
+               return new ColumnarReportSink(target);
+            case PROMETHEUS:
+               return new PrometheusReportSink(target);
+            default:
+               return new CsvReportSink(target);
+         }
+      }
+
+      /** @return file written to if no path is given */
+      public String getDefaultFileName() {
+         return defaultFileName;
+      }
+   }
+
    /**
     * Calculates average time and number of times.
     *
     * @author robbram
     */
-   private static final class Statistic {
+   public static final class Statistic {
+
+      /** Milliseconds in a second. */
+      private static final double MILLIS_PER_SECOND = 1000.0;
 
       /** Command we are calculating time for. */
       private final String command;
@@ -333,11 +1509,21 @@ public final class MavenBuildTimes {
       /** Number of times the command has been run. */
       private int count = 0;
 
-      /** Directories that command was run from. */
-      private final List<String> directoryList;
+      /** Time and count per directory the command was run from. */
+      private final Map<String, DirectoryTotal> directories;
+
+      /** Distribution of times, for percentiles. */
+      private final DurationHistogram histogram;
 
-      /** Total time for all builds of the same command. */
-      private double totalTime = 0;
+      /**
+       * Total time for all builds of the same command in milliseconds. Whole
+       * milliseconds, like the histogram, so totals added up in any order,
+       * such as by {@link AggregateSnapshot}, come out the same.
+       */
+      private long totalMillis = 0;
+
+      /** True for copies held by a snapshot, which must not change. */
+      private final boolean frozen;
 
       /**
        * @param theCommand
@@ -345,7 +1531,27 @@ public final class MavenBuildTimes {
        */
       public Statistic(final String theCommand) {
          command = theCommand;
-         directoryList = new ArrayList<String>();
+         directories = new LinkedHashMap<String, DirectoryTotal>();
+         histogram = new DurationHistogram();
+         frozen = false;
+      }
+
+      /**
+       * Create a frozen copy.
+       *
+       * @param other
+       *           statistic to copy
+       */
+      private Statistic(final Statistic other) {
+         command = other.command;
+         count = other.count;
+         totalMillis = other.totalMillis;
+         histogram = other.histogram.copy();
+         directories = new LinkedHashMap<String, DirectoryTotal>();
+         for (DirectoryTotal total : other.directories.values()) {
+            directories.put(total.getDirectory(), total.copy());
+         }
+         frozen = true;
       }
 
       /**
@@ -355,18 +1561,86 @@ public final class MavenBuildTimes {
        *           that the command was run from
        */
       public void addTime(final double newTime, final String directory) {
-         totalTime += newTime;
+         checkWritable();
+         long millis = Math.round(newTime * MILLIS_PER_SECOND);
          count++;
-         if (!directoryList.contains(directory)) {
-            directoryList.add(directory);
+         totalMillis += millis;
+         histogram.add(millis);
+         addDirectory(directory, 1, millis);
+      }
+
+      /**
+       * @param moreCount
+       *           number of builds to add
+       * @param moreMillis
+       *           their total time in milliseconds
+       * @param moreHistogram
+       *           distribution of their times
+       */
+      void add(final int moreCount, final long moreMillis,
+            final DurationHistogram moreHistogram) {
+         checkWritable();
+         count += moreCount;
+         totalMillis += moreMillis;
+         histogram.merge(moreHistogram);
+      }
+
+      /**
+       * @param directory
+       *           directory the builds were run from
+       * @param moreCount
+       *           number of builds to add for it
+       * @param moreMillis
+       *           their total time in milliseconds
+       */
+      void addDirectory(final String directory, final int moreCount,
+            final long moreMillis) {
+         checkWritable();
+         DirectoryTotal total = directories.get(directory);
+         if (total == null) {
+            total = new DirectoryTotal(directory);
+            directories.put(directory, total);
+         }
+         total.add(moreCount, moreMillis);
+      }
+
+      /**
+       * @throws IllegalStateException
+       *            if this is a read only copy
+       */
+      private void checkWritable() {
+         if (frozen) {
+            throw new IllegalStateException("Statistic for [" + command
+                  + "] is a read only copy.");
          }
       }
 
+      /**
+       * Add everything in another statistic for the same command to this one.
+       *
+       * @param other
+       *           statistic to add
+       */
+      void merge(final Statistic other) {
+         add(other.count, other.totalMillis, other.histogram);
+         for (DirectoryTotal total : other.directories.values()) {
+            addDirectory(total.getDirectory(), total.getCount(),
+                  total.getTotalMillis());
+         }
+      }
+
+      /**
+       * @return read only copy of this statistic, as it stands now
+       */
+      public Statistic copy() {
+         return new Statistic(this);
+      }
+
       /**
        * @return calculated average from total and count
        */
       public double getAverageTime() {
-         return totalTime / count;
+         return getTotalTime() / count;
       }
 
       /** @return Command we are calculating time for. */
@@ -381,17 +1655,131 @@ public final class MavenBuildTimes {
          return count;
       }
 
+      /**
+       * @return time and count for each directory the command was run from, in
+       *         the order they were first seen
+       */
+      public Collection<DirectoryTotal> getDirectoryTotals() {
+         return Collections.unmodifiableCollection(directories.values());
+      }
+
+      /**
+       * @return directories the command was run from, in the order they were
+       *         first seen
+       */
+      public List<String> getDirectories() {
+         return new ArrayList<String>(directories.keySet());
+      }
+
       /**
        * @return directory the command was run from
        */
       public String getDirectoryList() {
          StringBuilder builder = new StringBuilder();
-         for (String dir : directoryList) {
+         for (String dir : directories.keySet()) {
             builder.append(dir);
             builder.append(", ");
          }
          return builder.toString();
       }
 
+      /**
+       * @param quantile
+       *           between 0 and 1, e.g. 0.9 for the 90th percentile
+       * @return estimated time at the quantile in <strong>seconds</strong>
+       */
+      public double getPercentile(final double quantile) {
+         return histogram.percentile(quantile);
+      }
+
+      /**
+       * @return total time for all builds of the command in
+       *         <strong>seconds</strong>
+       */
+      public double getTotalTime() {
+         return totalMillis / MILLIS_PER_SECOND;
+      }
+
+      /** @return total time for all builds of the command in milliseconds */
+      long getTotalMillis() {
+         return totalMillis;
+      }
+
+      /** @return distribution of times, not to be changed */
+      DurationHistogram getHistogram() {
+         return histogram;
+      }
+   }
+
+   /**
+    * Time and count for one command run from one directory.
+    *
+    * @author robbram
+    */
+   public static final class DirectoryTotal {
+
+      /** Directory the command was run from. */
+      private final String directory;
+
+      /** Number of times the command was run from the directory. */
+      private int count;
+
+      /** Milliseconds in a second. */
+      private static final double MILLIS_PER_SECOND = 1000.0;
+
+      /** Total time of those runs in milliseconds. */
+      private long totalMillis;
+
+      /**
+       * @param theDirectory
+       *           directory the command was run from
+       */
+      DirectoryTotal(final String theDirectory) {
+         directory = theDirectory;
+      }
+
+      /**
+       * @param moreCount
+       *           number of runs to add
+       * @param moreMillis
+       *           their total time in milliseconds
+       */
+      void add(final int moreCount, final long moreMillis) {
+         totalMillis += moreMillis;
+         count += moreCount;
+      }
+
+      /** @return copy of this total */
+      DirectoryTotal copy() {
+         DirectoryTotal copy = new DirectoryTotal(directory);
+         copy.count = count;
+         copy.totalMillis = totalMillis;
+         return copy;
+      }
+
+      /** @return average time in seconds */
+      public double getAverageTime() {
+         return getTotalTime() / count;
+      }
+
+      /** @return number of times the command was run from the directory */
+      public int getCount() {
+         return count;
+      }
+
+      /** @return directory the command was run from */
+      public String getDirectory() {
+         return directory;
+      }
+
+      /** @return total time in seconds */
+      public double getTotalTime() {
+         return totalMillis / MILLIS_PER_SECOND;
+      }
+
+      /** @return total time in milliseconds */
+      long getTotalMillis() {
+         return totalMillis;
+      }
    }
 }
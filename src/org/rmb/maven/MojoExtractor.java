@@ -0,0 +1,197 @@
+package org.rmb.maven;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.rmb.maven.MavenBuildTimes.Statistic;
+
+/**
+ * <p>
+ * Time each plugin goal from logs written with
+ * <code>-Dorg.slf4j.simpleLogger.showDateTime=true</code>, so we can see
+ * whether builds spend their time compiling, testing, shading or writing
+ * javadoc.
+ * </p>
+ * <p>
+ * A mojo starts at its header:
+ * </p>
+ *
+ * <pre>
+ * 16:57:36,123 [INFO] --- maven-jar-plugin:2.4:jar (default-jar) @ app ---
+ * </pre>
+ * <p>
+ * and runs until the next header or the next separator line, which Maven
+ * writes before each module and before the build result. Goals are grouped
+ * as <code>plugin:goal</code>, whatever the plugin version, with a breakdown
+ * by module. Lines without a time are ignored, so logs written without
+ * <code>showDateTime</code> add nothing. Without a date in the timestamp, a
+ * time more than half a day earlier than the line before is taken to be the
+ * next day.
+ * </p>
+ *
+ * @author robbram
+ */
+public final class MojoExtractor implements LogExtractor {
+
+   /** Start of a mojo header, after the time. */
+   private static final String FRAGMENT_MOJO = "[INFO] --- ";
+
+   /** End of a mojo header. */
+   private static final String FRAGMENT_MOJO_END = " ---";
+
+   /** Start of a separator line, after the time. */
+   private static final String FRAGMENT_SEPARATOR = "[INFO] ---";
+
+   /** Separates the goal from the module in a mojo header. */
+   private static final String FRAGMENT_MODULE = " @ ";
+
+   /** Parts of <code>plugin:version:goal</code>. */
+   private static final int PLUGIN_VERSION_GOAL = 3;
+
+   /** Milliseconds in a second. */
+   private static final double MILLIS_PER_SECOND = 1000.0;
+
+   /** Quantile shown next to the average. */
+   private static final double REPORTED_QUANTILE = 0.9;
+
+   /** Statistics by goal; each statistic's directories are modules. */
+   private final Map<String, Statistic> goals =
+         new LinkedHashMap<String, Statistic>();
+
+   /** Goal running now, or null. */
+   private String goal;
+
+   /** Module the goal is running in. */
+   private String module;
+
+   /** When the goal started, in milliseconds. */
+   private long started;
+
+   /** Time of the last timed line, in milliseconds. */
+   private long last;
+
+   /** Added to times without a date once they pass midnight. */
+   private long dayOffset;
+
+   @Override
+   public boolean needsFullLog() {
+      return true;
+   }
+
+   @Override
+   public void startLog(final File log) {
+      goal = null;
+      module = null;
+      last = Long.MIN_VALUE;
+      dayOffset = 0;
+   }
+
+   @Override
+   public void scanLine(final String line) {
+      long millis = LogTimestamp.millis(line);
+      if (millis == LogTimestamp.NONE) {
+         return;
+      }
+      millis += dayOffset;
+      if (last != Long.MIN_VALUE
+            && millis < last - LogTimestamp.MILLIS_PER_DAY / 2) {
+         dayOffset += LogTimestamp.MILLIS_PER_DAY;
+         millis += LogTimestamp.MILLIS_PER_DAY;
+      }
+      last = millis;
+      String text = LogTimestamp.strip(line);
+      if (!text.startsWith(FRAGMENT_SEPARATOR)) {
+         return;
+      }
+      finishGoal(millis);
+      if (text.startsWith(FRAGMENT_MOJO) && text.endsWith(FRAGMENT_MOJO_END)) {
+         startGoal(text.substring(FRAGMENT_MOJO.length(), text.length()
+               - FRAGMENT_MOJO_END.length()), millis);
+      }
+   }
+
+   /**
+    * @param header
+    *           mojo header without the dashes, like
+    *           <code>maven-jar-plugin:2.4:jar (default-jar) @ app</code>
+    * @param millis
+    *           when it started
+    */
+   private void startGoal(final String header, final long millis) {
+      int space = header.indexOf(' ');
+      if (space < 0) {
+         return;
+      }
+      String[] parts = header.substring(0, space).split(":");
+      if (parts.length == PLUGIN_VERSION_GOAL) {
+         goal = parts[0] + ":" + parts[2];
+      } else {
+         goal = header.substring(0, space);
+      }
+      int at = header.lastIndexOf(FRAGMENT_MODULE);
+      if (at < 0) {
+         module = "";
+      } else {
+         module = header.substring(at + FRAGMENT_MODULE.length());
+      }
+      started = millis;
+   }
+
+   /**
+    * Add the time of the goal running now, if there is one.
+    *
+    * @param millis
+    *           when it finished
+    */
+   private void finishGoal(final long millis) {
+      if (goal == null) {
+         return;
+      }
+      Statistic statistic = goals.get(goal);
+      if (statistic == null) {
+         statistic = new Statistic(goal);
+         goals.put(goal, statistic);
+      }
+      statistic.addTime((millis - started) / MILLIS_PER_SECOND, module);
+      goal = null;
+   }
+
+   @Override
+   public void buildFinished(final String command, final String directory,
+         final double seconds) {
+      // Goals are finished by the separator before the build result.
+   }
+
+   /**
+    * @return statistics for each goal, most total time first; each
+    *         statistic's directories are the modules it ran in
+    */
+   public List<Statistic> getGoals() {
+      List<Statistic> sorted = new ArrayList<Statistic>(goals.values());
+      Collections.sort(sorted, new Comparator<Statistic>() {
+         @Override
+         public int compare(final Statistic one, final Statistic two) {
+            return Double.compare(two.getTotalTime(), one.getTotalTime());
+         }
+      });
+      return sorted;
+   }
+
+   @Override
+   public void outputResults() {
+      System.out.println("---- Time by plugin goal, most first ----");
+      for (Statistic statistic : getGoals()) {
+         System.out.println(String.format(
+               "   %10.1f s total %6d runs %9.2f s avg %9.2f s p90   %s",
+               statistic.getTotalTime(), statistic.getCount(),
+               statistic.getAverageTime(),
+               statistic.getPercentile(REPORTED_QUANTILE),
+               statistic.getCommand()));
+      }
+   }
+}
@@ -0,0 +1,185 @@
+package org.rmb.maven;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.file.Path;
+
+import org.rmb.maven.MavenBuildTimes.DirectoryTotal;
+import org.rmb.maven.MavenBuildTimes.Statistic;
+
+/**
+ * <p>
+ * Write statistics in the Prometheus text exposition format, as a single
+ * <code>summary</code> family with one series per command:
+ * </p>
+ *
+ * <pre>
+ * maven_build_duration_seconds{command="mvn clean install",quantile="0.5"} 41.9
+ * maven_build_duration_seconds_sum{command="mvn clean install"} 126.3
+ * maven_build_duration_seconds_count{command="mvn clean install"} 3
+ * </pre>
+ * <p>
+ * Keeping every sample in one family lets us stream commands out one at a time
+ * and still produce a valid exposition. Partial statistics are called so in
+ * the family's help. Written to a file, the report is
+ * replaced atomically so it can be picked up by the node exporter textfile
+ * collector or any scraper reading a local path.
+ * </p>
+ *
+ * @author robbram
+ */
+public final class PrometheusReportSink extends AbstractReportSink {
+
+   /** Name of the metric family. */
+   static final String METRIC = "maven_build_duration_seconds";
+
+   /** Name of the metric family broken down by directory. */
+   static final String DIRECTORY_METRIC =
+         "maven_build_directory_duration_seconds";
+
+   /**
+    * @param theTarget
+    *           file to write the report to
+    */
+   public PrometheusReportSink(final Path theTarget) {
+      super(theTarget);
+   }
+
+   /**
+    * @param theStream
+    *           stream to write the report to
+    */
+   public PrometheusReportSink(final OutputStream theStream) {
+      super(theStream);
+   }
+
+   /**
+    * Write <code>value</code> as a quoted label value.
+    *
+    * @param writer
+    *           to write to
+    * @param value
+    *           label value to escape
+    * @throws IOException
+    *            if we cannot write.
+    */
+   static void writeLabelValue(final Writer writer, final String value)
+         throws IOException {
+      writer.write('"');
+      for (int index = 0; index < value.length(); index++) {
+         char character = value.charAt(index);
+         if (character == '\\') {
+            writer.write("\\\\");
+         } else if (character == '"') {
+            writer.write("\\\"");
+         } else if (character == '\n') {
+            writer.write("\\n");
+         } else {
+            writer.write(character);
+         }
+      }
+      writer.write('"');
+   }
+
+   /**
+    * @param writer
+    *           to write to
+    * @param metric
+    *           family name
+    * @param help
+    *           description of the family
+    * @throws IOException
+    *            if we cannot write.
+    */
+   static void writeFamilyHeader(final Writer writer, final String metric,
+         final String help) throws IOException {
+      writer.write("# HELP " + metric + " " + help + "\n");
+      writer.write("# TYPE " + metric + " summary\n");
+   }
+
+   /**
+    * Write the sum and count for each directory a command was run from, as
+    * part of the {@link #DIRECTORY_METRIC} family.
+    *
+    * @param writer
+    *           to write to
+    * @param statistic
+    *           command to write directory series for
+    * @throws IOException
+    *            if we cannot write.
+    */
+   static void writeDirectorySeries(final Writer writer,
+         final Statistic statistic) throws IOException {
+      for (DirectoryTotal total : statistic.getDirectoryTotals()) {
+         writer.write(DIRECTORY_METRIC);
+         writer.write("_sum{command=");
+         writeLabelValue(writer, statistic.getCommand());
+         writer.write(",directory=");
+         writeLabelValue(writer, total.getDirectory());
+         writer.write("} ");
+         writer.write(Double.toString(total.getTotalTime()));
+         writer.write('\n');
+         writer.write(DIRECTORY_METRIC);
+         writer.write("_count{command=");
+         writeLabelValue(writer, statistic.getCommand());
+         writer.write(",directory=");
+         writeLabelValue(writer, total.getDirectory());
+         writer.write("} ");
+         writer.write(Integer.toString(total.getCount()));
+         writer.write('\n');
+      }
+   }
+
+   /**
+    * Write the quantiles, sum and count for a command, as part of the
+    * {@link #METRIC} family.
+    *
+    * @param writer
+    *           to write to
+    * @param statistic
+    *           command to write series for
+    * @throws IOException
+    *            if we cannot write.
+    */
+   static void writeSeries(final Writer writer, final Statistic statistic)
+         throws IOException {
+      for (double quantile : DurationHistogram.REPORTED_QUANTILES) {
+         writer.write(METRIC);
+         writer.write("{command=");
+         writeLabelValue(writer, statistic.getCommand());
+         writer.write(",quantile=\"");
+         writer.write(Double.toString(quantile));
+         writer.write("\"} ");
+         writer.write(Double.toString(statistic.getPercentile(quantile)));
+         writer.write('\n');
+      }
+      writer.write(METRIC);
+      writer.write("_sum{command=");
+      writeLabelValue(writer, statistic.getCommand());
+      writer.write("} ");
+      writer.write(Double.toString(statistic.getTotalTime()));
+      writer.write('\n');
+      writer.write(METRIC);
+      writer.write("_count{command=");
+      writeLabelValue(writer, statistic.getCommand());
+      writer.write("} ");
+      writer.write(Integer.toString(statistic.getCount()));
+      writer.write('\n');
+   }
+
+   @Override
+   protected void writeHeader() throws IOException {
+      String help = "Wall clock time of maven builds by command.";
+      if (isPartial()) {
+         help = "Wall clock time of maven builds by command, partial: only"
+               + " runs since each command was last tracked are counted.";
+      }
+      writeFamilyHeader(getWriter(), METRIC, help);
+   }
+
+   @Override
+   public void write(final Statistic statistic) throws IOException {
+      writeSeries(getWriter(), statistic);
+   }
+}
@@ -0,0 +1,550 @@
+package org.rmb.maven;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * <p>
+ * Estimate how much a parallel build (<code>mvn -T N</code>) would save, from
+ * the module order Maven writes at the start of a multi module build and the
+ * module times it writes at the end:
+ * </p>
+ *
+ * <pre>
+ * [INFO] Reactor Build Order:
+ * [INFO]
+ * [INFO] parent
+ * [INFO] core                                                    [jar]
+ * ...
+ * [INFO] Reactor Summary:
+ * [INFO]
+ * [INFO] parent ..................................... SUCCESS [  0.512 s]
+ * [INFO] core ....................................... SUCCESS [01:02 min]
+ * </pre>
+ * <p>
+ * If the directory a build ran from is on this machine, which modules depend
+ * on which is read from its <code>pom.xml</code> files (see
+ * {@link ReactorPoms}). Each build is then replayed on N threads the way
+ * Maven schedules one: whenever a thread is free it takes the first module
+ * in reactor order whose upstream modules have finished. The critical path
+ * is the chain of dependent modules with the most time, which no number of
+ * threads can beat; its modules are the ones to split or speed up to go
+ * faster in parallel.
+ * </p>
+ * <p>
+ * Without the project files, modules are taken to be independent, so the
+ * simulated times are the best a parallel build could do rather than what it
+ * would do. Times come from the serial build that was logged and leave out
+ * the contention of running modules side by side, so a real parallel build
+ * will be somewhat slower than simulated either way.
+ * </p>
+ *
+ * @author robbram
+ */
+public final class ReactorExtractor implements LogExtractor {
+
+   /** Thread counts simulated if none are given; 0 is one per core. */
+   public static final int[] DEFAULT_THREADS = {1, 2, 4, 8, 0 };
+
+   /** Start of the module order, after the level. */
+   private static final String FRAGMENT_BUILD_ORDER = "Reactor Build Order:";
+
+   /** Start of the module times, after the level. */
+   private static final String FRAGMENT_SUMMARY = "Reactor Summary";
+
+   /** Start of the separator line that ends the module times. */
+   private static final String FRAGMENT_SEPARATOR = "---";
+
+   /** Separates a module name from the dots in the summary. */
+   private static final String FRAGMENT_DOTS = " .";
+
+   /** Level written before reactor lines. */
+   private static final String FRAGMENT_INFO = "[INFO]";
+
+   /** Unit of times of a minute or more from Maven 3.1. */
+   private static final String UNIT_MINUTES = " min";
+
+   /** Unit of times of an hour or more from Maven 3.1. */
+   private static final String UNIT_HOURS = " h";
+
+   /** Seconds in a minute. */
+   private static final int SECONDS_PER_MINUTE = 60;
+
+   /** Modules listed as limiting each command. */
+   private static final int LIMITING_MODULES = 5;
+
+   /** Thread counts simulated; 0 is one per core of this machine. */
+   private final int[] threads;
+
+   /** Reads module dependencies from project files. */
+   private final ReactorPoms poms = new ReactorPoms();
+
+   /** Totals by command. */
+   private final Map<String, Totals> commands =
+         new LinkedHashMap<String, Totals>();
+
+   /** Modules in the build order of the log being read. */
+   private final List<String> order = new ArrayList<String>();
+
+   /** Module times in seconds, from the summary of the log being read. */
+   private final Map<String, Double> times =
+         new LinkedHashMap<String, Double>();
+
+   /** True while reading the build order. */
+   private boolean inOrder;
+
+   /** True while reading the summary. */
+   private boolean inSummary;
+
+   /**
+    * Simulate {@link #DEFAULT_THREADS}.
+    */
+   public ReactorExtractor() {
+      this(DEFAULT_THREADS);
+   }
+
+   /**
+    * @param theThreads
+    *           thread counts to simulate; 0 is one per core of this machine,
+    *           as <code>-T 1C</code> would be here
+    */
+   public ReactorExtractor(final int[] theThreads) {
+      threads = theThreads.clone();
+      int cores = Runtime.getRuntime().availableProcessors();
+      for (int index = 0; index < threads.length; index++) {
+         if (threads[index] < 1) {
+            threads[index] = cores;
+         }
+      }
+   }
+
+   @Override
+   public boolean needsFullLog() {
+      return true;
+   }
+
+   @Override
+   public void startLog(final File log) {
+      order.clear();
+      times.clear();
+      inOrder = false;
+      inSummary = false;
+   }
+
+   @Override
+   public void scanLine(final String line) {
+      String text = LogTimestamp.strip(line);
+      if (!text.startsWith(FRAGMENT_INFO)) {
+         inOrder = false;
+         inSummary = false;
+         return;
+      }
+      text = text.substring(FRAGMENT_INFO.length()).trim();
+      if (text.startsWith(FRAGMENT_BUILD_ORDER)) {
+         order.clear();
+         inOrder = true;
+      } else if (text.startsWith(FRAGMENT_SUMMARY)) {
+         times.clear();
+         inSummary = true;
+      } else if (inOrder) {
+         readOrder(text);
+      } else if (inSummary) {
+         readSummary(text);
+      }
+   }
+
+   /**
+    * @param text
+    *           line of the build order without the level, like
+    *           <code>core [jar]</code>
+    */
+   private void readOrder(final String text) {
+      if (text.isEmpty()) {
+         // A blank line comes before the modules and after them.
+         inOrder = order.isEmpty();
+         return;
+      }
+      String module = text;
+      if (module.endsWith("]")) {
+         // Maven 3.6 adds the packaging.
+         int open = module.lastIndexOf('[');
+         if (open > 0) {
+            module = module.substring(0, open).trim();
+         }
+      }
+      order.add(module);
+   }
+
+   /**
+    * @param text
+    *           line of the summary without the level, like
+    *           <code>core ...... SUCCESS [  2.345 s]</code>
+    */
+   private void readSummary(final String text) {
+      if (text.startsWith(FRAGMENT_SEPARATOR)) {
+         inSummary = false;
+         return;
+      }
+      int dots = text.indexOf(FRAGMENT_DOTS);
+      int open = text.lastIndexOf('[');
+      int close = text.lastIndexOf(']');
+      if (dots < 0 || open < dots || close < open) {
+         // Blank, or a module that was skipped and has no time.
+         return;
+      }
+      double seconds = parseSeconds(text.substring(open + 1, close));
+      if (seconds >= 0) {
+         times.put(text.substring(0, dots).trim(), seconds);
+      }
+   }
+
+   /**
+    * @param text
+    *           module time as Maven writes it: <code>2.345 s</code>,
+    *           <code>01:02 min</code> or <code>01:02 h</code> from Maven 3.1;
+    *           <code>2.345s</code> or <code>1:02.345s</code> before that
+    * @return seconds, or -1 if not understood
+    */
+   static double parseSeconds(final String text) {
+      String value = text.trim();
+      // Seconds in the part before any colon.
+      int unit = SECONDS_PER_MINUTE;
+      if (value.endsWith(UNIT_HOURS)) {
+         value = value.substring(0, value.length() - UNIT_HOURS.length());
+         unit = SECONDS_PER_MINUTE * SECONDS_PER_MINUTE;
+      } else if (value.endsWith(UNIT_MINUTES)) {
+         value = value.substring(0, value.length() - UNIT_MINUTES.length());
+      } else if (value.endsWith("s")) {
+         value = value.substring(0, value.length() - 1).trim();
+      } else {
+         return -1;
+      }
+      try {
+         int colon = value.indexOf(':');
+         if (colon < 0) {
+            return Double.parseDouble(value);
+         }
+         // Minutes and seconds, or hours and minutes.
+         return (Integer.parseInt(value.substring(0, colon))
+               + Double.parseDouble(value.substring(colon + 1))
+                  / SECONDS_PER_MINUTE) * unit;
+      } catch (NumberFormatException e) {
+         return -1;
+      }
+   }
+
+   @Override
+   public void buildFinished(final String command, final String directory,
+         final double seconds) {
+      List<String> modules = new ArrayList<String>();
+      for (String module : order) {
+         if (times.containsKey(module)) {
+            modules.add(module);
+         }
+      }
+      if (modules.isEmpty()) {
+         // No build order was logged, but the summary is in the same order.
+         modules.addAll(times.keySet());
+      }
+      if (modules.size() > 1) {
+         Map<String, Set<String>> dependencies = null;
+         if (directory != null) {
+            dependencies = poms.dependencies(directory);
+         }
+         addBuild(command, new Reactor(modules, times, dependencies));
+      }
+      order.clear();
+      times.clear();
+   }
+
+   /**
+    * @param command
+    *           command that was run
+    * @param reactor
+    *           modules of the build
+    */
+   private void addBuild(final String command, final Reactor reactor) {
+      Totals totals = commands.get(command);
+      if (totals == null) {
+         totals = new Totals(threads.length);
+         commands.put(command, totals);
+      }
+      totals.builds++;
+      totals.modules += reactor.size();
+      if (reactor.hasDependencies) {
+         totals.buildsWithDependencies++;
+      }
+      totals.serialSeconds += reactor.serialSeconds();
+      for (int index = 0; index < threads.length; index++) {
+         totals.simulatedSeconds[index] += reactor.simulate(threads[index]);
+      }
+      List<Integer> path = reactor.criticalPath();
+      for (int module : path) {
+         totals.criticalSeconds += reactor.seconds[module];
+         Limit limit = totals.limits.get(reactor.names.get(module));
+         if (limit == null) {
+            limit = new Limit(reactor.names.get(module));
+            totals.limits.put(limit.module, limit);
+         }
+         limit.builds++;
+         limit.seconds += reactor.seconds[module];
+      }
+   }
+
+   @Override
+   public void outputResults() {
+      System.out.println("---- Parallel build (-T) estimates by command ----");
+      for (Map.Entry<String, Totals> entry : commands.entrySet()) {
+         Totals totals = entry.getValue();
+         System.out.println(String.format("%s (%d builds, %.1f modules avg,"
+               + " dependencies read for %d)", entry.getKey(), totals.builds,
+               (double) totals.modules / totals.builds,
+               totals.buildsWithDependencies));
+         double serial = totals.serialSeconds / totals.builds;
+         System.out.println(String.format("   %9.1f s avg of modules built"
+               + " one after another", serial));
+         for (int index = 0; index < threads.length; index++) {
+            double simulated = totals.simulatedSeconds[index] / totals.builds;
+            System.out.println(String.format(
+                  "   %9.1f s avg with -T %-3d (%.2fx)", simulated,
+                  threads[index], serial / simulated));
+         }
+         System.out.println(String.format("   %9.1f s avg on the critical"
+               + " path, the least any thread count can take",
+               totals.criticalSeconds / totals.builds));
+         List<Limit> limits = new ArrayList<Limit>(totals.limits.values());
+         Collections.sort(limits, new Comparator<Limit>() {
+            @Override
+            public int compare(final Limit one, final Limit two) {
+               return Double.compare(two.seconds, one.seconds);
+            }
+         });
+         if (limits.size() > LIMITING_MODULES) {
+            limits = limits.subList(0, LIMITING_MODULES);
+         }
+         for (Limit limit : limits) {
+            System.out.println(String.format("   %9.1f s avg on the critical"
+                  + " path in %d of %d builds   %s",
+                  limit.seconds / limit.builds, limit.builds, totals.builds,
+                  limit.module));
+         }
+      }
+   }
+
+   /**
+    * Modules of one build, in reactor order, with their times and upstream
+    * modules.
+    */
+   private static final class Reactor {
+
+      /** Module names in reactor order. */
+      private final List<String> names;
+
+      /** Time of each module, in seconds. */
+      private final double[] seconds;
+
+      /** Indexes of the upstream modules of each module, all earlier. */
+      private final List<List<Integer>> upstream;
+
+      /** True if dependencies were known. */
+      private final boolean hasDependencies;
+
+      /**
+       * @param theNames
+       *           module names in reactor order
+       * @param times
+       *           time of each module, in seconds
+       * @param dependencies
+       *           upstream module names by module name, or null if not
+       *           known
+       */
+      Reactor(final List<String> theNames, final Map<String, Double> times,
+            final Map<String, Set<String>> dependencies) {
+         names = theNames;
+         seconds = new double[names.size()];
+         upstream = new ArrayList<List<Integer>>();
+         hasDependencies = dependencies != null;
+         Map<String, Integer> indexes = new HashMap<String, Integer>();
+         for (int index = 0; index < names.size(); index++) {
+            String name = names.get(index);
+            seconds[index] = times.get(name);
+            List<Integer> before = new ArrayList<Integer>();
+            if (hasDependencies && dependencies.containsKey(name)) {
+               for (String dependency : dependencies.get(name)) {
+                  Integer found = indexes.get(dependency);
+                  if (found != null) {
+                     before.add(found);
+                  }
+               }
+            }
+            upstream.add(before);
+            indexes.put(name, index);
+         }
+      }
+
+      /** @return modules in the build */
+      int size() {
+         return names.size();
+      }
+
+      /** @return time of all modules one after another, in seconds */
+      double serialSeconds() {
+         double total = 0;
+         for (double module : seconds) {
+            total += module;
+         }
+         return total;
+      }
+
+      /**
+       * @param threadCount
+       *           threads building modules
+       * @return simulated time from the first module starting to the last
+       *         finishing, in seconds
+       */
+      double simulate(final int threadCount) {
+         int count = size();
+         List<List<Integer>> downstream = new ArrayList<List<Integer>>();
+         int[] waiting = new int[count];
+         for (int index = 0; index < count; index++) {
+            downstream.add(new ArrayList<Integer>());
+         }
+         for (int index = 0; index < count; index++) {
+            waiting[index] = upstream.get(index).size();
+            for (int before : upstream.get(index)) {
+               downstream.get(before).add(index);
+            }
+         }
+         // Modules ready to build, first in reactor order first.
+         PriorityQueue<Integer> ready = new PriorityQueue<Integer>();
+         for (int index = 0; index < count; index++) {
+            if (waiting[index] == 0) {
+               ready.add(index);
+            }
+         }
+         final double[] finishes = new double[count];
+         PriorityQueue<Integer> running = new PriorityQueue<Integer>(
+               new Comparator<Integer>() {
+                  @Override
+                  public int compare(final Integer one, final Integer two) {
+                     return Double.compare(finishes[one], finishes[two]);
+                  }
+               });
+         double now = 0;
+         while (!ready.isEmpty() || !running.isEmpty()) {
+            while (!ready.isEmpty() && running.size() < threadCount) {
+               int module = ready.poll();
+               finishes[module] = now + seconds[module];
+               running.add(module);
+            }
+            int finished = running.poll();
+            now = finishes[finished];
+            for (int after : downstream.get(finished)) {
+               waiting[after]--;
+               if (waiting[after] == 0) {
+                  ready.add(after);
+               }
+            }
+         }
+         return now;
+      }
+
+      /**
+       * @return indexes of the modules on the chain of dependent modules
+       *         with the most time, first to last
+       */
+      List<Integer> criticalPath() {
+         int count = size();
+         double[] finishes = new double[count];
+         int[] previous = new int[count];
+         int last = 0;
+         for (int index = 0; index < count; index++) {
+            previous[index] = -1;
+            for (int before : upstream.get(index)) {
+               if (previous[index] < 0
+                     || finishes[before] > finishes[previous[index]]) {
+                  previous[index] = before;
+               }
+            }
+            finishes[index] = seconds[index];
+            if (previous[index] >= 0) {
+               finishes[index] += finishes[previous[index]];
+            }
+            if (finishes[index] > finishes[last]) {
+               last = index;
+            }
+         }
+         List<Integer> path = new ArrayList<Integer>();
+         for (int index = last; index >= 0; index = previous[index]) {
+            path.add(0, index);
+         }
+         return path;
+      }
+   }
+
+   /**
+    * Simulated times added up for a command.
+    */
+   private static final class Totals {
+
+      /** Builds seen. */
+      private int builds;
+
+      /** Builds whose module dependencies were read. */
+      private int buildsWithDependencies;
+
+      /** Modules over all builds. */
+      private int modules;
+
+      /** Time of all modules one after another, in seconds. */
+      private double serialSeconds;
+
+      /** Simulated time at each thread count, in seconds. */
+      private final double[] simulatedSeconds;
+
+      /** Time on the critical path, in seconds. */
+      private double criticalSeconds;
+
+      /** Modules seen on the critical path. */
+      private final Map<String, Limit> limits = new HashMap<String, Limit>();
+
+      /**
+       * @param threadCounts
+       *           number of thread counts simulated
+       */
+      Totals(final int threadCounts) {
+         simulatedSeconds = new double[threadCounts];
+      }
+   }
+
+   /**
+    * How often and how long a module was on the critical path.
+    */
+   private static final class Limit {
+
+      /** Module name. */
+      private final String module;
+
+      /** Builds with the module on the critical path. */
+      private int builds;
+
+      /** Time of the module in those builds, in seconds. */
+      private double seconds;
+
+      /**
+       * @param theModule
+       *           module name
+       */
+      Limit(final String theModule) {
+         module = theModule;
+      }
+   }
+}
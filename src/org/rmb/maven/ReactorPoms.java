@@ -0,0 +1,241 @@
+package org.rmb.maven;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+/**
+ * <p>
+ * Which modules of a multi module build depend on which, read from the
+ * <code>pom.xml</code> files under the directory the build ran from.
+ * </p>
+ * <p>
+ * Modules are named as Maven names them in the reactor: by
+ * <code>&lt;name&gt;</code>, or by <code>&lt;artifactId&gt;</code> when there
+ * is no name or it is a property. A module depends on another in the same
+ * build if it lists it as a dependency or has it as its parent. Plugin and
+ * extension dependencies, profiles and properties are not looked at, so this
+ * is close to Maven's own graph rather than the same.
+ * </p>
+ *
+ * @author robbram
+ */
+final class ReactorPoms {
+
+   /** Name of a project file. */
+   private static final String POM = "pom.xml";
+
+   /** Upstream module names by module name, by directory read. */
+   private final Map<String, Map<String, Set<String>>> byDirectory =
+         new HashMap<String, Map<String, Set<String>>>();
+
+   /**
+    * @param directory
+    *           directory a build ran from
+    * @return upstream module names by module name, in reactor order of the
+    *         modules found; null if there is no readable <code>pom.xml</code>
+    *         there
+    */
+   Map<String, Set<String>> dependencies(final String directory) {
+      if (byDirectory.containsKey(directory)) {
+         return byDirectory.get(directory);
+      }
+      Map<String, Set<String>> dependencies = null;
+      File root = new File(directory, POM);
+      if (root.isFile()) {
+         try {
+            dependencies = read(root);
+         } catch (IOException | SAXException
+               | ParserConfigurationException e) {
+            System.err.println("Unable to read modules from [" + root + "]: "
+                  + e);
+         }
+      }
+      byDirectory.put(directory, dependencies);
+      return dependencies;
+   }
+
+   /**
+    * @param root
+    *           top level project file
+    * @return upstream module names by module name
+    * @throws IOException
+    *            if a project file cannot be read
+    * @throws SAXException
+    *            if a project file is not XML
+    * @throws ParserConfigurationException
+    *            if no XML parser is available
+    */
+   private static Map<String, Set<String>> read(final File root)
+         throws IOException, SAXException, ParserConfigurationException {
+      DocumentBuilder builder =
+            DocumentBuilderFactory.newInstance().newDocumentBuilder();
+      List<Project> projects = new ArrayList<Project>();
+      collect(builder, root, projects, new LinkedHashSet<File>());
+      Map<String, String> namesByArtifactId = new HashMap<String, String>();
+      for (Project project : projects) {
+         namesByArtifactId.put(project.artifactId, project.name);
+      }
+      Map<String, Set<String>> dependencies =
+            new LinkedHashMap<String, Set<String>>();
+      for (Project project : projects) {
+         Set<String> upstream = new LinkedHashSet<String>();
+         for (String artifactId : project.upstream) {
+            String name = namesByArtifactId.get(artifactId);
+            if (name != null && !name.equals(project.name)) {
+               upstream.add(name);
+            }
+         }
+         dependencies.put(project.name, upstream);
+      }
+      return dependencies;
+   }
+
+   /**
+    * Read a project file and, in turn, those of its modules.
+    *
+    * @param builder
+    *           XML parser
+    * @param pom
+    *           project file, or the directory holding it
+    * @param projects
+    *           where to add what is read
+    * @param seen
+    *           project files already read
+    * @throws IOException
+    *            if a project file cannot be read
+    * @throws SAXException
+    *            if a project file is not XML
+    */
+   private static void collect(final DocumentBuilder builder, final File pom,
+         final List<Project> projects, final Set<File> seen)
+         throws IOException, SAXException {
+      File file = pom;
+      if (file.isDirectory()) {
+         file = new File(file, POM);
+      }
+      file = file.getCanonicalFile();
+      if (!file.isFile() || !seen.add(file)) {
+         return;
+      }
+      Document document = builder.parse(file);
+      Element top = document.getDocumentElement();
+      String artifactId = childText(top, "artifactId");
+      String name = childText(top, "name");
+      if (name == null || name.contains("${")) {
+         name = artifactId;
+      }
+      Project project = new Project(artifactId, name);
+      Element parent = child(top, "parent");
+      if (parent != null) {
+         project.upstream.add(childText(parent, "artifactId"));
+      }
+      Element dependencies = child(top, "dependencies");
+      if (dependencies != null) {
+         for (Element dependency : children(dependencies, "dependency")) {
+            project.upstream.add(childText(dependency, "artifactId"));
+         }
+      }
+      projects.add(project);
+      Element modules = child(top, "modules");
+      if (modules != null) {
+         for (Element module : children(modules, "module")) {
+            collect(builder, new File(file.getParentFile(),
+                  module.getTextContent().trim()), projects, seen);
+         }
+      }
+   }
+
+   /**
+    * @param parent
+    *           element to look in
+    * @param name
+    *           name of the child
+    * @return first child element with the name, or null
+    */
+   private static Element child(final Element parent, final String name) {
+      List<Element> found = children(parent, name);
+      if (found.isEmpty()) {
+         return null;
+      }
+      return found.get(0);
+   }
+
+   /**
+    * @param parent
+    *           element to look in
+    * @param name
+    *           name of the child
+    * @return trimmed text of the first child element with the name, or null
+    */
+   private static String childText(final Element parent, final String name) {
+      Element child = child(parent, name);
+      if (child == null) {
+         return null;
+      }
+      return child.getTextContent().trim();
+   }
+
+   /**
+    * @param parent
+    *           element to look in
+    * @param name
+    *           name of the children
+    * @return child elements with the name, in order
+    */
+   private static List<Element> children(final Element parent,
+         final String name) {
+      List<Element> found = new ArrayList<Element>();
+      NodeList nodes = parent.getChildNodes();
+      for (int index = 0; index < nodes.getLength(); index++) {
+         Node node = nodes.item(index);
+         if (node.getNodeType() == Node.ELEMENT_NODE
+               && name.equals(node.getNodeName())) {
+            found.add((Element) node);
+         }
+      }
+      return found;
+   }
+
+   /**
+    * What we need from one project file.
+    */
+   private static final class Project {
+
+      /** Artifact id. */
+      private final String artifactId;
+
+      /** Name shown in the reactor. */
+      private final String name;
+
+      /** Artifact ids of the parent and dependencies. */
+      private final List<String> upstream = new ArrayList<String>();
+
+      /**
+       * @param theArtifactId
+       *           artifact id
+       * @param theName
+       *           name shown in the reactor
+       */
+      Project(final String theArtifactId, final String theName) {
+         artifactId = theArtifactId;
+         name = theName;
+      }
+   }
+}
@@ -0,0 +1,298 @@
+package org.rmb.maven;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * Flag commands whose build time has shifted upwards, per command and
+ * directory.
+ * </p>
+ * <p>
+ * Each series keeps a slowly moving exponentially weighted mean and variance
+ * of its runs and a one-sided CUSUM of how far new runs sit above that
+ * mean, in standard deviations. When the CUSUM passes {@link #THRESHOLD} the
+ * series is flagged with the size of the shift and the log file where the
+ * CUSUM started climbing, and the baseline restarts from the new level so a
+ * lasting change is only reported once. Each run costs a map lookup and a few
+ * arithmetic operations, whatever the length of the history.
+ * </p>
+ * <p>
+ * Runs must be fed in the order they happened.
+ * </p>
+ *
+ * @author robbram
+ */
+public final class RegressionDetector {
+
+   /** Weight of a new run in the baseline. */
+   private static final double ALPHA = 0.05;
+
+   /** Runs used to set up the baseline before we start testing. */
+   private static final int WARM_UP_RUNS = 5;
+
+   /** Shift, in standard deviations, that the CUSUM ignores. */
+   private static final double SLACK = 0.5;
+
+   /** CUSUM value, in standard deviations, that raises a flag. */
+   private static final double THRESHOLD = 5.0;
+
+   /**
+    * Smallest standard deviation used, as a fraction of the mean, so a very
+    * steady series is not flagged for noise.
+    */
+   private static final double MIN_RELATIVE_DEVIATION = 0.05;
+
+   /** Smallest standard deviation used, in seconds. */
+   private static final double MIN_DEVIATION = 1.0;
+
+   /** State for each command and directory. */
+   private final Map<String, Series> series = new HashMap<String, Series>();
+
+   /** Regressions found so far, in the order they were found. */
+   private final List<Regression> regressions = new ArrayList<Regression>();
+
+   /**
+    * @param command
+    *           command that was run
+    * @param directory
+    *           directory it was run from
+    * @param seconds
+    *           how long it took
+    * @param log
+    *           log file the run came from
+    */
+   public void observe(final String command, final String directory,
+         final double seconds, final File log) {
+      String key = command + '\n' + directory;
+      Series current = series.get(key);
+      if (current == null) {
+         current = new Series(command, directory);
+         series.put(key, current);
+      }
+      Regression regression = current.observe(seconds, log);
+      if (regression != null) {
+         regressions.add(regression);
+      }
+   }
+
+   /** @return regressions found so far, in the order they were found */
+   public List<Regression> getRegressions() {
+      return Collections.unmodifiableList(regressions);
+   }
+
+   /**
+    * Detection state for one command run from one directory.
+    */
+   private static final class Series {
+
+      /** Command being tracked. */
+      private final String command;
+
+      /** Directory being tracked. */
+      private final String directory;
+
+      /** Runs seen since the baseline was last reset. */
+      private int runs;
+
+      /** Weighted mean of runs. */
+      private double mean;
+
+      /** Weighted variance of runs. */
+      private double variance;
+
+      /** One-sided CUSUM of standardised deviations above the mean. */
+      private double cusum;
+
+      /** Log file of the run where the CUSUM last left zero. */
+      private File firstOffending;
+
+      /** Baseline mean when the CUSUM last left zero. */
+      private double suspectBaseline;
+
+      /** Number of runs since the CUSUM last left zero. */
+      private int suspectRuns;
+
+      /** Total time of runs since the CUSUM last left zero. */
+      private double suspectTotal;
+
+      /**
+       * @param theCommand
+       *           command being tracked
+       * @param theDirectory
+       *           directory being tracked
+       */
+      Series(final String theCommand, final String theDirectory) {
+         command = theCommand;
+         directory = theDirectory;
+      }
+
+      /**
+       * @param seconds
+       *           how long the run took
+       * @param log
+       *           log file the run came from
+       * @return regression if this run tipped the series over the threshold,
+       *         null otherwise
+       */
+      Regression observe(final double seconds, final File log) {
+         runs++;
+         if (runs <= WARM_UP_RUNS) {
+            updateBaseline(seconds);
+            return null;
+         }
+         double deviation = Math.max(Math.sqrt(variance), Math.max(
+               MIN_DEVIATION, mean * MIN_RELATIVE_DEVIATION));
+         double score = (seconds - mean) / deviation;
+         double next = Math.max(0, cusum + score - SLACK);
+         double baseline = mean;
+         updateBaseline(seconds);
+         if (next == 0) {
+            cusum = 0;
+            suspectRuns = 0;
+            suspectTotal = 0;
+            return null;
+         }
+         if (cusum == 0) {
+            firstOffending = log;
+            suspectBaseline = baseline;
+         }
+         cusum = next;
+         suspectRuns++;
+         suspectTotal += seconds;
+         if (cusum < THRESHOLD) {
+            return null;
+         }
+         double recentMean = suspectTotal / suspectRuns;
+         Regression regression = new Regression(command, directory,
+               suspectBaseline, recentMean, firstOffending, suspectRuns);
+         // Start again from the new level.
+         runs = 1;
+         mean = recentMean;
+         variance = 0;
+         cusum = 0;
+         suspectRuns = 0;
+         suspectTotal = 0;
+         return regression;
+      }
+
+      /**
+       * Add a run to the baseline. Early runs are weighted as a plain average
+       * so the baseline settles quickly after a reset.
+       *
+       * @param seconds
+       *           run to add to the baseline
+       */
+      private void updateBaseline(final double seconds) {
+         if (runs == 1) {
+            mean = seconds;
+            variance = 0;
+            return;
+         }
+         double weight = Math.max(ALPHA, 1.0 / runs);
+         double difference = seconds - mean;
+         double increment = weight * difference;
+         mean += increment;
+         variance = (1 - weight) * (variance + difference * increment);
+      }
+   }
+
+   /**
+    * A shift upwards in the build time of one command run from one directory.
+    */
+   public static final class Regression {
+
+      /** Command that got slower. */
+      private final String command;
+
+      /** Directory it was run from. */
+      private final String directory;
+
+      /** Baseline mean before the shift, in seconds. */
+      private final double baselineSeconds;
+
+      /** Mean of the runs since the shift, in seconds. */
+      private final double recentSeconds;
+
+      /** Log file of the first run after the shift. */
+      private final File firstOffendingLog;
+
+      /** Number of runs since the shift. */
+      private final int runs;
+
+      /**
+       * @param theCommand
+       *           command that got slower
+       * @param theDirectory
+       *           directory it was run from
+       * @param theBaselineSeconds
+       *           baseline mean before the shift
+       * @param theRecentSeconds
+       *           mean of the runs since the shift
+       * @param theFirstOffendingLog
+       *           log file of the first run after the shift
+       * @param theRuns
+       *           number of runs since the shift
+       */
+      Regression(final String theCommand, final String theDirectory,
+            final double theBaselineSeconds, final double theRecentSeconds,
+            final File theFirstOffendingLog, final int theRuns) {
+         command = theCommand;
+         directory = theDirectory;
+         baselineSeconds = theBaselineSeconds;
+         recentSeconds = theRecentSeconds;
+         firstOffendingLog = theFirstOffendingLog;
+         runs = theRuns;
+      }
+
+      /** @return baseline mean before the shift, in seconds */
+      public double getBaselineSeconds() {
+         return baselineSeconds;
+      }
+
+      /** @return command that got slower */
+      public String getCommand() {
+         return command;
+      }
+
+      /** @return directory it was run from */
+      public String getDirectory() {
+         return directory;
+      }
+
+      /** @return log file of the first run after the shift */
+      public File getFirstOffendingLog() {
+         return firstOffendingLog;
+      }
+
+      /**
+       * @return size of the shift relative to the baseline, e.g. 0.25 for 25%
+       *         slower
+       */
+      public double getMagnitude() {
+         return recentSeconds / baselineSeconds - 1;
+      }
+
+      /** @return mean of the runs since the shift, in seconds */
+      public double getRecentSeconds() {
+         return recentSeconds;
+      }
+
+      /** @return number of runs since the shift */
+      public int getRuns() {
+         return runs;
+      }
+
+      @Override
+      public String toString() {
+         return "Command [" + command + "] in [" + directory
+               + "] went from [" + baselineSeconds + "] to ["
+               + recentSeconds + "] seconds over [" + runs
+               + "] runs, starting with [" + firstOffendingLog + "].";
+      }
+   }
+}
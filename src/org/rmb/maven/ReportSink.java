@@ -0,0 +1,64 @@
+package org.rmb.maven;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import org.rmb.maven.MavenBuildTimes.Statistic;
+
+/**
+ * <p>
+ * Destination for the statistics gathered by {@link MavenBuildTimes}.
+ * </p>
+ * <p>
+ * Sinks stream: {@link #open()} is called once, then {@link #write(Statistic)}
+ * for each command and finally {@link #close()}. A sink should write each
+ * statistic as it is handed over rather than building up the whole report in
+ * memory. If any of those fail, {@link #abort()} is called instead of
+ * {@link #close()}. {@link #setPartial(boolean)} comes before all of them.
+ * </p>
+ *
+ * @author robbram
+ */
+public interface ReportSink extends Closeable {
+
+   /**
+    * @param partial
+    *           true if each statistic covers only the runs since
+    *           {@link CommandHeavyHitters} last took its command on, which
+    *           the report must then say, rather than every run
+    */
+   void setPartial(boolean partial);
+
+   /**
+    * Prepare the destination and write any header.
+    *
+    * @throws IOException
+    *            if we cannot open the destination.
+    */
+   void open() throws IOException;
+
+   /**
+    * @param statistic
+    *           statistics for one command
+    * @throws IOException
+    *            if we cannot write to the destination.
+    */
+   void write(Statistic statistic) throws IOException;
+
+   /**
+    * Write any trailer and release the destination. A report written to a
+    * file only becomes visible under its final name once this returns.
+    *
+    * @throws IOException
+    *            if we cannot finish writing the report.
+    */
+   @Override
+   void close() throws IOException;
+
+   /**
+    * Give up on the report after a failure, releasing the destination and
+    * leaving any earlier report as it was. Does nothing if the sink was
+    * closed, or never opened.
+    */
+   void abort();
+}
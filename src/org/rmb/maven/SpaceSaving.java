@@ -0,0 +1,302 @@
+package org.rmb.maven;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * <p>
+ * The keys with the most weight in a stream of any number of distinct keys,
+ * in a fixed amount of memory, using the Space-Saving algorithm of Metwally,
+ * Agrawal and El Abbadi.
+ * </p>
+ * <p>
+ * At most <code>capacity</code> keys are tracked. A new key takes over the
+ * counter with the least weight, inheriting that weight as its possible
+ * error, so a counter's weight is never less than the key's true weight and
+ * over-counts by at most {@link Counter#getError()}. That error is never more
+ * than {@link #getTotalWeight()} divided by the capacity, and any key whose
+ * true weight is above that bound is guaranteed to be tracked. Weights can
+ * be counts (add 1) or amounts such as seconds.
+ * </p>
+ * <p>
+ * Each counter carries a value for the caller's own statistics about the key,
+ * made fresh by the function given when a key starts being tracked; whatever
+ * was known about an evicted key is lost with its value. Counters sit in a
+ * binary min-heap, so adding costs a map lookup and <code>O(log
+ * capacity)</code>.
+ * </p>
+ *
+ * @param <K>
+ *           type of key
+ * @param <V>
+ *           type of the value kept with each tracked key
+ * @author robbram
+ */
+public final class SpaceSaving<K, V> {
+
+   /** Most keys tracked. */
+   private final int capacity;
+
+   /** Makes the value for a newly tracked key. */
+   private final Function<? super K, V> values;
+
+   /** Counters by key. */
+   private final Map<K, Counter<K, V>> counters;
+
+   /** Counters in a min-heap on weight. */
+   private final List<Counter<K, V>> heap;
+
+   /** Total weight added. */
+   private double totalWeight;
+
+   /** Keys evicted to make room for others. */
+   private long evictions;
+
+   /**
+    * @param theCapacity
+    *           most keys tracked
+    * @param theValues
+    *           makes the value for a newly tracked key
+    */
+   public SpaceSaving(final int theCapacity, final Supplier<V> theValues) {
+      this(theCapacity, key -> theValues.get());
+   }
+
+   /**
+    * @param theCapacity
+    *           most keys tracked
+    * @param theValues
+    *           makes the value for a newly tracked key, given the key
+    */
+   public SpaceSaving(final int theCapacity,
+         final Function<? super K, V> theValues) {
+      if (theCapacity < 1) {
+         throw new IllegalArgumentException(
+               "Capacity must be at least 1, not [" + theCapacity + "].");
+      }
+      capacity = theCapacity;
+      values = theValues;
+      counters = new HashMap<K, Counter<K, V>>();
+      heap = new ArrayList<Counter<K, V>>();
+   }
+
+   /**
+    * @param key
+    *           key seen
+    * @param weight
+    *           weight to add for it, not negative
+    * @return counter now tracking the key, whose value may be new
+    */
+   public Counter<K, V> add(final K key, final double weight) {
+      totalWeight += weight;
+      Counter<K, V> counter = counters.get(key);
+      if (counter == null && heap.size() < capacity) {
+         counter = new Counter<K, V>(key, values.apply(key), heap.size());
+         counter.weight = weight;
+         heap.add(counter);
+         counters.put(key, counter);
+         siftUp(counter.index);
+         return counter;
+      }
+      if (counter == null) {
+         // Take over the least counter, which is at the root.
+         counter = heap.get(0);
+         counters.remove(counter.key);
+         counter.key = key;
+         counter.error = counter.weight;
+         counter.value = values.apply(key);
+         counters.put(key, counter);
+         evictions++;
+      }
+      counter.weight += weight;
+      siftDown(counter.index);
+      return counter;
+   }
+
+   /**
+    * @param key
+    *           key to look up
+    * @return counter tracking the key, or null if it isn't tracked
+    */
+   public Counter<K, V> get(final K key) {
+      return counters.get(key);
+   }
+
+   /**
+    * @param limit
+    *           most counters wanted
+    * @return tracked counters with the most weight, most first
+    */
+   public List<Counter<K, V>> top(final int limit) {
+      List<Counter<K, V>> sorted = new ArrayList<Counter<K, V>>(heap);
+      Collections.sort(sorted, new Comparator<Counter<K, V>>() {
+         @Override
+         public int compare(final Counter<K, V> one, final Counter<K, V> two) {
+            return Double.compare(two.weight, one.weight);
+         }
+      });
+      if (sorted.size() > limit) {
+         return sorted.subList(0, limit);
+      }
+      return sorted;
+   }
+
+   /** @return most keys tracked */
+   public int getCapacity() {
+      return capacity;
+   }
+
+   /** @return keys tracked now */
+   public int size() {
+      return heap.size();
+   }
+
+   /** @return total weight added */
+   public double getTotalWeight() {
+      return totalWeight;
+   }
+
+   /**
+    * @return keys evicted to make room for others; while 0, every weight is
+    *         exact
+    */
+   public long getEvictions() {
+      return evictions;
+   }
+
+   /**
+    * @return most any counter over-counts by: the total weight divided by the
+    *         capacity, or 0 if no key was ever evicted
+    */
+   public double getErrorBound() {
+      if (evictions == 0) {
+         return 0;
+      }
+      return totalWeight / capacity;
+   }
+
+   /**
+    * Restore the heap above a counter just added at the bottom.
+    *
+    * @param start
+    *           heap index of the counter
+    */
+   private void siftUp(final int start) {
+      int index = start;
+      Counter<K, V> counter = heap.get(index);
+      while (index > 0) {
+         int parent = (index - 1) / 2;
+         Counter<K, V> larger = heap.get(parent);
+         if (larger.weight <= counter.weight) {
+            break;
+         }
+         heap.set(index, larger);
+         larger.index = index;
+         index = parent;
+      }
+      heap.set(index, counter);
+      counter.index = index;
+   }
+
+   /**
+    * Restore the heap below a counter whose weight went up.
+    *
+    * @param start
+    *           heap index of the counter
+    */
+   private void siftDown(final int start) {
+      int index = start;
+      Counter<K, V> counter = heap.get(index);
+      int size = heap.size();
+      while (true) {
+         int child = 2 * index + 1;
+         if (child >= size) {
+            break;
+         }
+         if (child + 1 < size
+               && heap.get(child + 1).weight < heap.get(child).weight) {
+            child++;
+         }
+         Counter<K, V> smaller = heap.get(child);
+         if (smaller.weight >= counter.weight) {
+            break;
+         }
+         heap.set(index, smaller);
+         smaller.index = index;
+         index = child;
+      }
+      heap.set(index, counter);
+      counter.index = index;
+   }
+
+   /**
+    * Weight tracked for one key.
+    *
+    * @param <K>
+    *           type of key
+    * @param <V>
+    *           type of the value kept with the key
+    */
+   public static final class Counter<K, V> {
+
+      /** Key tracked. */
+      private K key;
+
+      /** Caller's statistics about the key. */
+      private V value;
+
+      /** Weight counted, never less than the true weight. */
+      private double weight;
+
+      /** Most the weight can be over the true weight. */
+      private double error;
+
+      /** Position in the heap. */
+      private int index;
+
+      /**
+       * @param theKey
+       *           key tracked
+       * @param theValue
+       *           caller's statistics about the key
+       * @param theIndex
+       *           position in the heap
+       */
+      Counter(final K theKey, final V theValue, final int theIndex) {
+         key = theKey;
+         value = theValue;
+         index = theIndex;
+      }
+
+      /** @return key tracked */
+      public K getKey() {
+         return key;
+      }
+
+      /** @return caller's statistics about the key, since it was tracked */
+      public V getValue() {
+         return value;
+      }
+
+      /** @return weight counted, never less than the true weight */
+      public double getWeight() {
+         return weight;
+      }
+
+      /** @return most the weight can be over the true weight */
+      public double getError() {
+         return error;
+      }
+
+      /** @return least the true weight can be */
+      public double getGuaranteedWeight() {
+         return weight - error;
+      }
+   }
+}
@@ -0,0 +1,292 @@
+package org.rmb.maven;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.rmb.maven.SpaceSaving.Counter;
+
+/**
+ * <p>
+ * Track the test classes that take the most time, across the whole log
+ * history, from the line surefire writes for each test class:
+ * </p>
+ *
+ * <pre>
+ * Tests run: 3, Failures: 0, ..., Time elapsed: 1.2 sec - in a.BTest
+ * [INFO] Tests run: 3, Failures: 0, ..., Time elapsed: 1.2 s -- in a.BTest
+ * </pre>
+ * <p>
+ * Older surefire versions leave off the class name, which is then taken from
+ * the <code>Running a.BTest</code> line before it.
+ * </p>
+ * <p>
+ * Test classes are kept in a {@link SpaceSaving} summary weighted by time,
+ * so memory stays the same however many distinct classes there are. The
+ * classes that take the most total time are always tracked; classes that
+ * take little are evicted and forgotten when room is needed. For each tracked
+ * class we keep its runs, its average over its first
+ * {@link #BASELINE_RUNS} runs and a moving average of the runs after, to
+ * report the slowest classes by total and average time and those whose recent
+ * runs are slowest compared with how they started.
+ * </p>
+ *
+ * @author robbram
+ */
+public final class SurefireExtractor implements LogExtractor {
+
+   /** Test classes tracked if no capacity is given. */
+   public static final int DEFAULT_CAPACITY = 10000;
+
+   /** Runs of a class that make up its baseline. */
+   static final int BASELINE_RUNS = 5;
+
+   /** Runs after the baseline before a class can be called regressed. */
+   private static final int RECENT_RUNS = 3;
+
+   /** Weight of a new run in the recent average. */
+   private static final double ALPHA = 0.3;
+
+   /** Rows in each list of the report. */
+   private static final int REPORT_ROWS = 20;
+
+   /** Start of the per class line, after any level. */
+   private static final String FRAGMENT_TESTS_RUN = "Tests run: ";
+
+   /** Before the time in the per class line. */
+   private static final String FRAGMENT_TIME_ELAPSED = "Time elapsed: ";
+
+   /** Before the class name in the per class line. */
+   private static final String FRAGMENT_IN = " in ";
+
+   /** Start of the line naming the class about to run. */
+   private static final String FRAGMENT_RUNNING = "Running ";
+
+   /** Levels that may come before surefire lines. */
+   private static final String[] LEVELS = {"[INFO] ", "[WARNING] ",
+         "[ERROR] " };
+
+   /** Time taken by each test class. */
+   private final SpaceSaving<String, TestHistory> tests;
+
+   /** Class named by the last <code>Running</code> line, or null. */
+   private String running;
+
+   /**
+    * Track up to {@link #DEFAULT_CAPACITY} test classes.
+    */
+   public SurefireExtractor() {
+      this(DEFAULT_CAPACITY);
+   }
+
+   /**
+    * @param capacity
+    *           most test classes tracked
+    */
+   public SurefireExtractor(final int capacity) {
+      tests = new SpaceSaving<String, TestHistory>(capacity,
+            TestHistory::new);
+   }
+
+   @Override
+   public boolean needsFullLog() {
+      return true;
+   }
+
+   @Override
+   public void startLog(final File log) {
+      running = null;
+   }
+
+   @Override
+   public void scanLine(final String line) {
+      String text = LogTimestamp.strip(line);
+      for (String level : LEVELS) {
+         if (text.startsWith(level)) {
+            text = text.substring(level.length());
+            break;
+         }
+      }
+      if (text.startsWith(FRAGMENT_RUNNING)) {
+         running = text.substring(FRAGMENT_RUNNING.length()).trim();
+         return;
+      }
+      if (!text.startsWith(FRAGMENT_TESTS_RUN)) {
+         return;
+      }
+      int elapsed = text.indexOf(FRAGMENT_TIME_ELAPSED);
+      if (elapsed < 0) {
+         // The totals line at the end of a module.
+         return;
+      }
+      int start = elapsed + FRAGMENT_TIME_ELAPSED.length();
+      int end = text.indexOf(' ', start);
+      if (end < 0) {
+         end = text.length();
+      }
+      double seconds;
+      try {
+         // Surefire may group thousands with a comma.
+         seconds = Double.parseDouble(text.substring(start, end)
+               .replace(",", ""));
+      } catch (NumberFormatException e) {
+         return;
+      }
+      String testClass = running;
+      int in = text.lastIndexOf(FRAGMENT_IN);
+      if (in > end) {
+         testClass = text.substring(in + FRAGMENT_IN.length()).trim();
+      }
+      if (testClass == null || testClass.isEmpty()) {
+         return;
+      }
+      tests.add(testClass, seconds).getValue().addRun(seconds);
+      running = null;
+   }
+
+   @Override
+   public void buildFinished(final String command, final String directory,
+         final double seconds) {
+      // Test classes are counted as they finish.
+   }
+
+   /** @return time taken by each tracked test class */
+   public SpaceSaving<String, TestHistory> getTests() {
+      return tests;
+   }
+
+   @Override
+   public void outputResults() {
+      System.out.println(String.format("---- Slowest test classes by total"
+            + " time (tracking %d of at most %d, totals over by at most"
+            + " %.1f s) ----", tests.size(), tests.getCapacity(),
+            tests.getErrorBound()));
+      for (Counter<String, TestHistory> test : tests.top(REPORT_ROWS)) {
+         System.out.println(String.format(
+               "   %10.1f s total (+0/-%.1f) %6d runs %9.2f s avg   %s",
+               test.getWeight(), test.getError(), test.getValue().runs,
+               test.getValue().getAverage(), test.getKey()));
+      }
+      List<Counter<String, TestHistory>> all = tests.top(tests.size());
+      System.out.println("---- Slowest test classes by average time ----");
+      Collections.sort(all, new Comparator<Counter<String, TestHistory>>() {
+         @Override
+         public int compare(final Counter<String, TestHistory> one,
+               final Counter<String, TestHistory> two) {
+            return Double.compare(two.getValue().getAverage(),
+                  one.getValue().getAverage());
+         }
+      });
+      for (Counter<String, TestHistory> test : first(all)) {
+         System.out.println(String.format("   %9.2f s avg %6d runs   %s",
+               test.getValue().getAverage(), test.getValue().runs,
+               test.getKey()));
+      }
+      System.out.println("---- Most regressed test classes ----");
+      List<Counter<String, TestHistory>> regressed =
+            new ArrayList<Counter<String, TestHistory>>();
+      for (Counter<String, TestHistory> test : all) {
+         if (test.getValue().getRegression() > 0) {
+            regressed.add(test);
+         }
+      }
+      Collections.sort(regressed,
+            new Comparator<Counter<String, TestHistory>>() {
+               @Override
+               public int compare(final Counter<String, TestHistory> one,
+                     final Counter<String, TestHistory> two) {
+                  return Double.compare(two.getValue().getRegression(),
+                        one.getValue().getRegression());
+               }
+            });
+      for (Counter<String, TestHistory> test : first(regressed)) {
+         TestHistory history = test.getValue();
+         System.out.println(String.format(
+               "   +%8.2f s from %9.2f s to %9.2f s %6d runs   %s",
+               history.getRegression(), history.getBaseline(),
+               history.recent, history.runs, test.getKey()));
+      }
+   }
+
+   /**
+    * @param sorted
+    *           sorted test classes
+    * @return the first {@link #REPORT_ROWS} of them
+    */
+   private static List<Counter<String, TestHistory>> first(
+         final List<Counter<String, TestHistory>> sorted) {
+      if (sorted.size() > REPORT_ROWS) {
+         return sorted.subList(0, REPORT_ROWS);
+      }
+      return sorted;
+   }
+
+   /**
+    * Runs of one test class since it was last tracked.
+    */
+   public static final class TestHistory {
+
+      /** Runs seen. */
+      private int runs;
+
+      /** Total time of the runs, in seconds. */
+      private double total;
+
+      /**
+       * Total time of the first {@link SurefireExtractor#BASELINE_RUNS} runs,
+       * in seconds.
+       */
+      private double baselineTotal;
+
+      /** Moving average of the runs after the baseline, in seconds. */
+      private double recent;
+
+      /**
+       * @param seconds
+       *           time of one more run
+       */
+      void addRun(final double seconds) {
+         runs++;
+         total += seconds;
+         if (runs <= BASELINE_RUNS) {
+            baselineTotal += seconds;
+            recent = baselineTotal / runs;
+         } else {
+            recent += ALPHA * (seconds - recent);
+         }
+      }
+
+      /** @return runs seen */
+      public int getRuns() {
+         return runs;
+      }
+
+      /** @return average time of all runs, in seconds */
+      public double getAverage() {
+         return total / runs;
+      }
+
+      /** @return average of the first runs, in seconds */
+      public double getBaseline() {
+         return baselineTotal / Math.min(runs, BASELINE_RUNS);
+      }
+
+      /** @return moving average of the latest runs, in seconds */
+      public double getRecent() {
+         return recent;
+      }
+
+      /**
+       * @return how many seconds slower recent runs are than the baseline,
+       *         or 0 if there have not been enough runs to tell
+       */
+      public double getRegression() {
+         if (runs < BASELINE_RUNS + RECENT_RUNS) {
+            return 0;
+         }
+         return Math.max(0, recent - getBaseline());
+      }
+   }
+}
@@ -0,0 +1,713 @@
+package org.rmb.reflectionutils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.rmb.reflectionutils.OutputFieldList.EqualsStyle;
+import org.rmb.reflectionutils.OutputFieldList.OutputFields;
+import org.rmb.reflectionutils.OutputFieldList.OutputGetters;
+import org.rmb.reflectionutils.OutputFieldList.OutputSetters;
+import org.rmb.reflectionutils.OutputFieldList.ShowParameters;
+import org.rmb.reflectionutils.OutputFieldList.TypeLocation;
+import org.rmb.reflectionutils.OutputFieldList.TypeOutput;
+import org.rmb.reflectionutils.OutputFieldList.WithType;
+import org.rmb.reflectionutils.introspect.ClassFileIntrospector;
+import org.rmb.reflectionutils.introspect.ClassModel;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * <p>
+ * Resident process that runs {@link OutputFieldList}'s generators on request,
+ * so an editor macro pays for JVM start up and class loading once rather than
+ * on every call. It listens on the loopback interface only and answers
+ * <code>GET /generate</code> with the generated text, e.g.
+ * </p>
+ *
+ * <pre>
+ * curl -s -H "X-Generation-Token: $(cat ~/.generation-daemon.token)" \
+ * "http://localhost:7301/generate?generator=generateGetAndSetMethods\
+ * &amp;class=org.rmb.Person&amp;classpath=/work/person/target/classes\
+ * &amp;outputFields=NO_FIELDS"
+ * </pre>
+ * <p>
+ * Each start makes a new random token, written to a file only its owner can
+ * read, <code>.generation-daemon.token</code> in the home directory unless
+ * <code>--token-file=PATH</code> says otherwise, and deleted on
+ * {@link #stop()}. Requests without the token in an
+ * <code>X-Generation-Token</code> header get 403, as do requests with an
+ * <code>Origin</code> header or a <code>Host</code> other than localhost, so
+ * neither another user nor a web page the user visits can drive the daemon.
+ * Classes are described by reading their class files with
+ * {@link ClassFileIntrospector}, so nothing the request names is loaded or
+ * initialised; static field comments show compile-time constants only.
+ * </p>
+ * <p>
+ * Parameters:
+ * </p>
+ * <ul>
+ * <li><code>generator</code> - name of the {@link OutputFieldList} method to
+ * run, see {@link Generator}.</li>
+ * <li><code>class</code> - binary name of the class to generate for.</li>
+ * <li><code>classpath</code> - where to find it, entries separated by
+ * {@link File#pathSeparator}. Relative entries are resolved against the
+ * daemon's working directory.</li>
+ * <li>Options, named after the option enum with a lower case first letter and
+ * given as the constant's name: <code>withType</code>,
+ * <code>typeLocation</code>, <code>typeOutput</code>,
+ * <code>showParameters</code>, <code>outputFields</code>,
+ * <code>outputGetters</code>, <code>outputSetters</code> and
+ * <code>equalsStyle</code>. Each defaults to what the generators' usual
+ * callers pass.</li>
+ * <li><code>objectName</code> - object name for
+ * <code>listSetMethods</code>.</li>
+ * <li><code>templates</code> - directory read with
+ * {@link Templates#withDirectory} on each request.</li>
+ * </ul>
+ * <p>
+ * A bad request gets 400 and a one line reason; a generator that fails gets
+ * 500 and the stack trace. Introspectors are kept per classpath, along with
+ * the models of the classes described through them, and replaced when the
+ * requested class file or a jar on the classpath is newer than the models.
+ * Requests are answered one at a time because the generators write to
+ * {@link System#out}, which is redirected to the response while they run.
+ * </p>
+ *
+ * @author robbram
+ */
+public final class GenerationDaemon {
+
+   /** Port used when none is given. */
+   public static final int DEFAULT_PORT = 7301;
+
+   /** Command line option giving the port. */
+   private static final String OPTION_PORT = "--port=";
+
+   /** Command line option giving where to write the token. */
+   private static final String OPTION_TOKEN_FILE = "--token-file=";
+
+   /** Token file used when none is given, in the home directory. */
+   public static final String DEFAULT_TOKEN_FILE = ".generation-daemon.token";
+
+   /** Request header that must hold the token. */
+   public static final String TOKEN_HEADER = "X-Generation-Token";
+
+   /** Random bytes in a token. */
+   private static final int TOKEN_BYTES = 32;
+
+   /** HTTP OK. */
+   private static final int HTTP_OK = 200;
+
+   /** HTTP bad request. */
+   private static final int HTTP_BAD_REQUEST = 400;
+
+   /** HTTP forbidden. */
+   private static final int HTTP_FORBIDDEN = 403;
+
+   /** HTTP method not allowed. */
+   private static final int HTTP_BAD_METHOD = 405;
+
+   /** HTTP internal server error. */
+   private static final int HTTP_ERROR = 500;
+
+   /** Most classpaths kept warm; the least recently used is closed. */
+   private static final int MAX_CLASSPATHS = 8;
+
+   /** Held while {@link System#out} is redirected. */
+   private static final Object OUT_LOCK = new Object();
+
+   /** Warm introspectors by classpath, least recently used first. */
+   private final Map<String, WarmClassPath> classPaths =
+         new LinkedHashMap<String, WarmClassPath>(MAX_CLASSPATHS, 1f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                  final Map.Entry<String, WarmClassPath> eldest) {
+               if (size() > MAX_CLASSPATHS) {
+                  eldest.getValue().close();
+                  return true;
+               }
+               return false;
+            }
+         };
+
+   /** The underlying JDK server. */
+   private final HttpServer server;
+
+   /** Thread used to answer requests. */
+   private final ExecutorService executor;
+
+   /** Secret every request must carry, new on each start. */
+   private final String token;
+
+   /** Where the token was written, or null if it was not. */
+   private Path tokenFile;
+
+   /**
+    * @param port
+    *           port on localhost to listen on, 0 for any free port
+    * @throws IOException
+    *            if we cannot bind to the port.
+    */
+   public GenerationDaemon(final int port) throws IOException {
+      byte[] random = new byte[TOKEN_BYTES];
+      new SecureRandom().nextBytes(random);
+      StringBuilder hex = new StringBuilder();
+      for (byte value : random) {
+         hex.append(String.format("%02x", value));
+      }
+      token = hex.toString();
+      server = HttpServer.create(new InetSocketAddress(
+            InetAddress.getLoopbackAddress(), port), 0);
+      executor = Executors.newSingleThreadExecutor(
+            runnable -> new Thread(runnable, "generation-daemon"));
+      server.setExecutor(executor);
+      server.createContext("/generate", new GenerateHandler());
+   }
+
+   /**
+    * @param args
+    *           optionally <code>--port=N</code> and
+    *           <code>--token-file=PATH</code>
+    * @throws IOException
+    *            if we cannot bind to the port or write the token.
+    */
+   public static void main(final String[] args) throws IOException {
+      int port = DEFAULT_PORT;
+      Path tokenFile = Paths.get(System.getProperty("user.home"),
+            DEFAULT_TOKEN_FILE);
+      for (String arg : args) {
+         if (arg.startsWith(OPTION_PORT)) {
+            port = Integer.parseInt(arg.substring(OPTION_PORT.length()));
+         } else if (arg.startsWith(OPTION_TOKEN_FILE)) {
+            tokenFile = Paths.get(arg.substring(OPTION_TOKEN_FILE.length()));
+         } else {
+            System.out.println("Unknown option [" + arg + "]. Usage: "
+                  + GenerationDaemon.class.getName() + " [" + OPTION_PORT
+                  + "N] [" + OPTION_TOKEN_FILE + "PATH]");
+            return;
+         }
+      }
+      GenerationDaemon daemon = new GenerationDaemon(port);
+      daemon.writeToken(tokenFile);
+      // Runs until killed; take the token file with it.
+      Runtime.getRuntime().addShutdownHook(new Thread(daemon::stop));
+      daemon.start();
+   }
+
+   /** @return secret every request must carry in {@link #TOKEN_HEADER} */
+   public String getToken() {
+      return token;
+   }
+
+   /**
+    * Write the token to a file only its owner can read, replacing any file
+    * already there. It is deleted again by {@link #stop()}.
+    *
+    * @param file
+    *           where to write it
+    * @throws IOException
+    *            if it cannot be written
+    */
+   public void writeToken(final Path file) throws IOException {
+      Files.deleteIfExists(file);
+      if (FileSystems.getDefault().supportedFileAttributeViews()
+            .contains("posix")) {
+         Files.createFile(file, PosixFilePermissions.asFileAttribute(
+               PosixFilePermissions.fromString("rw-------")));
+      } else {
+         // Windows: the home directory is private to its owner already.
+         Files.createFile(file);
+      }
+      Files.write(file, token.getBytes(StandardCharsets.US_ASCII));
+      tokenFile = file;
+   }
+
+   /** @return port the daemon is listening on */
+   public int getPort() {
+      return server.getAddress().getPort();
+   }
+
+   /** Start answering requests. */
+   public void start() {
+      server.start();
+      System.out.println("Generating on [http://"
+            + server.getAddress().getHostString() + ":" + getPort()
+            + "/generate], token in [" + tokenFile + "].");
+   }
+
+   /**
+    * Stop answering requests, close the warm introspectors and delete the
+    * token file.
+    */
+   public void stop() {
+      server.stop(0);
+      executor.shutdown();
+      for (WarmClassPath classPath : classPaths.values()) {
+         classPath.close();
+      }
+      classPaths.clear();
+      if (tokenFile != null) {
+         try {
+            Files.deleteIfExists(tokenFile);
+         } catch (IOException e) {
+            System.err.println("Unable to delete [" + tokenFile + "]: " + e);
+         }
+      }
+   }
+
+   /**
+    * @param exchange
+    *           request
+    * @return why the request is refused, or null if it may be answered
+    */
+   private String refusal(final HttpExchange exchange) {
+      if (exchange.getRequestHeaders().containsKey("Origin")) {
+         return "Requests from web pages are not accepted.";
+      }
+      String host = exchange.getRequestHeaders().getFirst("Host");
+      if (host == null || !isLocalHost(host)) {
+         return "Host must be localhost.";
+      }
+      String given = exchange.getRequestHeaders().getFirst(TOKEN_HEADER);
+      if (given == null || !MessageDigest.isEqual(token.getBytes(
+            StandardCharsets.US_ASCII), given.trim().getBytes(
+            StandardCharsets.US_ASCII))) {
+         return "Missing or wrong " + TOKEN_HEADER + " header.";
+      }
+      return null;
+   }
+
+   /**
+    * @param host
+    *           Host header, perhaps with a port
+    * @return true if it names the loopback interface, so the request did not
+    *         come through a DNS name rebound to it
+    */
+   private static boolean isLocalHost(final String host) {
+      String name = host.trim().toLowerCase(Locale.ROOT);
+      if (name.startsWith("[")) {
+         return name.startsWith("[::1]");
+      }
+      int colon = name.indexOf(':');
+      if (colon >= 0) {
+         name = name.substring(0, colon);
+      }
+      return "localhost".equals(name) || "127.0.0.1".equals(name);
+   }
+
+   /**
+    * @param parameters
+    *           request parameters
+    * @return generated text
+    * @throws Exception
+    *            if the request is bad ({@link BadRequestException}) or the
+    *            generator fails
+    */
+   private String generate(final Map<String, String> parameters)
+         throws Exception {
+      Generator generator = Generator.forName(required(parameters,
+            "generator"));
+      String className = required(parameters, "class");
+      ClassModel clazz = warm(required(parameters, "classpath"))
+            .describe(className);
+      Templates templates = Templates.builtIn();
+      if (parameters.containsKey("templates")) {
+         templates = templates.withDirectory(new File(parameters
+               .get("templates")));
+      }
+      ByteArrayOutputStream text = new ByteArrayOutputStream();
+      synchronized (OUT_LOCK) {
+         PrintStream original = System.out;
+         System.setOut(new PrintStream(text, true,
+               StandardCharsets.UTF_8.name()));
+         try {
+            generator.run(clazz, parameters, templates);
+         } finally {
+            System.out.flush();
+            System.setOut(original);
+         }
+      }
+      return new String(text.toByteArray(), StandardCharsets.UTF_8);
+   }
+
+   /**
+    * @param classPath
+    *           classpath as given in the request
+    * @return warm introspector for it
+    */
+   private WarmClassPath warm(final String classPath) {
+      WarmClassPath warm = classPaths.get(classPath);
+      if (warm == null) {
+         warm = new WarmClassPath(classPath);
+         classPaths.put(classPath, warm);
+      }
+      return warm;
+   }
+
+   /**
+    * @param parameters
+    *           request parameters
+    * @param name
+    *           parameter that must be there
+    * @return its value
+    * @throws BadRequestException
+    *            if it is missing
+    */
+   private static String required(final Map<String, String> parameters,
+         final String name) throws BadRequestException {
+      String value = parameters.get(name);
+      if (value == null || value.isEmpty()) {
+         throw new BadRequestException("Missing parameter [" + name + "].");
+      }
+      return value;
+   }
+
+   /**
+    * @param <E>
+    *           option enum
+    * @param parameters
+    *           request parameters
+    * @param type
+    *           option enum, whose name with a lower case first letter is the
+    *           parameter name
+    * @param defaultValue
+    *           used when the parameter is not given
+    * @return option asked for
+    * @throws BadRequestException
+    *            if the value is not one of the enum's constants
+    */
+   private static <E extends Enum<E>> E option(
+         final Map<String, String> parameters, final Class<E> type,
+         final E defaultValue) throws BadRequestException {
+      String name = Character.toLowerCase(type.getSimpleName().charAt(0))
+            + type.getSimpleName().substring(1);
+      String value = parameters.get(name);
+      if (value == null) {
+         return defaultValue;
+      }
+      try {
+         return Enum.valueOf(type, value);
+      } catch (IllegalArgumentException e) {
+         throw new BadRequestException("Parameter [" + name
+               + "] must be one of " + Arrays.toString(type.getEnumConstants())
+               + ", not [" + value + "].");
+      }
+   }
+
+   /**
+    * @param query
+    *           raw query string, may be null
+    * @return decoded parameters; the last of a repeated name wins
+    * @throws UnsupportedEncodingException
+    *            never, UTF-8 is always supported
+    */
+   private static Map<String, String> parseQuery(final String query)
+         throws UnsupportedEncodingException {
+      Map<String, String> parameters = new HashMap<String, String>();
+      if (query == null) {
+         return parameters;
+      }
+      for (String pair : query.split("&")) {
+         int equals = pair.indexOf('=');
+         if (equals > 0) {
+            parameters.put(URLDecoder.decode(pair.substring(0, equals),
+                  StandardCharsets.UTF_8.name()), URLDecoder.decode(
+                  pair.substring(equals + 1), StandardCharsets.UTF_8.name()));
+         }
+      }
+      return parameters;
+   }
+
+   /** Generators that can be asked for, by {@link OutputFieldList} method. */
+   public enum Generator {
+      /** {@link OutputFieldList#listFields}. */
+      LIST_FIELDS("listFields"),
+      /** {@link OutputFieldList#listGetMethods}. */
+      LIST_GET_METHODS("listGetMethods"),
+      /** {@link OutputFieldList#listSetMethods}. */
+      LIST_SET_METHODS("listSetMethods"),
+      /** {@link OutputFieldList#generateGetAndSetMethods}. */
+      GET_AND_SET_METHODS("generateGetAndSetMethods"),
+      /** {@link OutputFieldList#generateStaticFieldComments}. */
+      STATIC_FIELD_COMMENTS("generateStaticFieldComments"),
+      /** {@link OutputFieldList#outputToStringHashAndEquals}. */
+      TO_STRING_HASH_AND_EQUALS("outputToStringHashAndEquals");
+
+      /** Name used in requests. */
+      private final String methodName;
+
+      /**
+       * @param theMethodName
+       *           name used in requests
+       */
+      Generator(final String theMethodName) {
+         methodName = theMethodName;
+      }
+
+      /**
+       * @param name
+       *           name used in requests
+       * @return generator with that name
+       * @throws BadRequestException
+       *            if there is none
+       */
+      static Generator forName(final String name) throws BadRequestException {
+         for (Generator generator : values()) {
+            if (generator.methodName.equals(name)) {
+               return generator;
+            }
+         }
+         StringBuilder names = new StringBuilder();
+         for (Generator generator : values()) {
+            if (names.length() > 0) {
+               names.append(", ");
+            }
+            names.append(generator.methodName);
+         }
+         throw new BadRequestException("Parameter [generator] must be one of ["
+               + names + "], not [" + name + "].");
+      }
+
+      /** @return name used in requests */
+      public String getMethodName() {
+         return methodName;
+      }
+
+      /**
+       * @param clazz
+       *           class to generate for
+       * @param parameters
+       *           request parameters, for the options
+       * @param templates
+       *           templates to use
+       * @throws Exception
+       *            if an option is bad or the generator fails
+       */
+      void run(final ClassModel clazz, final Map<String, String> parameters,
+            final Templates templates) throws Exception {
+         WithType withType =
+               option(parameters, WithType.class, WithType.INCLUDE_TYPE);
+         TypeLocation typeLocation = option(parameters, TypeLocation.class,
+               TypeLocation.TYPE_AT_START);
+         TypeOutput typeOutput =
+               option(parameters, TypeOutput.class, TypeOutput.SIMPLE);
+         switch (this) {
+            case LIST_FIELDS:
+               OutputFieldList.listFields(clazz, withType, typeLocation,
+                     typeOutput);
+               break;
+            case LIST_GET_METHODS:
+               OutputFieldList.listGetMethods(clazz, withType, typeLocation,
+                     typeOutput);
+               break;
+            case LIST_SET_METHODS:
+               OutputFieldList.listSetMethods(clazz, option(parameters,
+                     ShowParameters.class, ShowParameters.INCLUDE_PARAMS),
+                     withType, typeOutput, parameters.get("objectName"));
+               break;
+            case GET_AND_SET_METHODS:
+               OutputFieldList.generateGetAndSetMethods(clazz, option(
+                     parameters, OutputFields.class,
+                     OutputFields.OUTPUT_FIELDS), option(parameters,
+                     OutputGetters.class, OutputGetters.OUTPUT_GETTERS),
+                     option(parameters, OutputSetters.class,
+                           OutputSetters.OUTPUT_SETTERS), templates);
+               break;
+            case STATIC_FIELD_COMMENTS:
+               OutputFieldList.generateStaticFieldComments(clazz, null,
+                     templates);
+               break;
+            default:
+               EqualsStyle equalsStyle = option(parameters,
+                     EqualsStyle.class, EqualsStyle.COMMONS_BUILDERS);
+               if (equalsStyle == EqualsStyle.COMMONS_BUILDERS) {
+                  OutputFieldList.outputToStringHashAndEquals(clazz,
+                        templates);
+               } else {
+                  OutputFieldList.outputToStringHashAndEquals(clazz,
+                        equalsStyle);
+               }
+               break;
+         }
+      }
+   }
+
+   /** A request that cannot be answered as asked. */
+   static final class BadRequestException extends Exception {
+
+      /** Serial version. */
+      private static final long serialVersionUID = 1L;
+
+      /**
+       * @param message
+       *           reason, sent back as the response
+       */
+      BadRequestException(final String message) {
+         super(message);
+      }
+   }
+
+   /**
+    * Class file introspector for one classpath, with the models described
+    * through it.
+    */
+   private static final class WarmClassPath {
+
+      /** Classpath entries. */
+      private final File[] entries;
+
+      /** Classpath as given in the request. */
+      private final String classPath;
+
+      /** Reads class files, replaced when out of date. */
+      private ClassFileIntrospector introspector;
+
+      /** When the introspector was made, in milliseconds since the epoch. */
+      private long loadedAt;
+
+      /**
+       * @param theClassPath
+       *           classpath as given in the request
+       */
+      WarmClassPath(final String theClassPath) {
+         classPath = theClassPath;
+         String[] names = classPath.split(File.pathSeparator);
+         entries = new File[names.length];
+         for (int index = 0; index < names.length; index++) {
+            entries[index] = new File(names[index]).getAbsoluteFile();
+         }
+         load();
+      }
+
+      /**
+       * Make a new introspector, forgetting the models described by the old
+       * one.
+       */
+      private void load() {
+         close();
+         loadedAt = System.currentTimeMillis();
+         introspector = new ClassFileIntrospector(Arrays.asList(entries));
+      }
+
+      /**
+       * @param className
+       *           binary name of the class
+       * @return true if the class file or a jar on the classpath changed since
+       *         the introspector was made
+       */
+      private boolean isStale(final String className) {
+         String path = className.replace('.', File.separatorChar) + ".class";
+         for (File entry : entries) {
+            if (entry.isDirectory()) {
+               if (new File(entry, path).lastModified() > loadedAt) {
+                  return true;
+               }
+            } else if (entry.lastModified() > loadedAt) {
+               return true;
+            }
+         }
+         return false;
+      }
+
+      /**
+       * @param className
+       *           binary name of the class
+       * @return model of the class, described afresh if it changed
+       * @throws BadRequestException
+       *            if the class is not on the classpath
+       */
+      ClassModel describe(final String className) throws BadRequestException {
+         if (isStale(className)) {
+            load();
+         }
+         try {
+            return introspector.describe(className);
+         } catch (ClassNotFoundException e) {
+            throw new BadRequestException("Cannot read [" + className
+                  + "] from [" + classPath + "]: " + e);
+         }
+      }
+
+      /** Close the introspector's jars, if there is one. */
+      void close() {
+         if (introspector != null) {
+            try {
+               introspector.close();
+            } catch (IOException e) {
+               System.err.println("Unable to close jars of [" + classPath
+                     + "]: " + e);
+            }
+         }
+      }
+   }
+
+   /** Run a generator and send back what it wrote. */
+   private final class GenerateHandler implements HttpHandler {
+
+      @Override
+      public void handle(final HttpExchange exchange) throws IOException {
+         try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+               exchange.sendResponseHeaders(HTTP_BAD_METHOD, -1);
+               return;
+            }
+            int status = HTTP_OK;
+            String text = refusal(exchange);
+            try {
+               if (text != null) {
+                  status = HTTP_FORBIDDEN;
+                  text += "\n";
+               } else {
+                  text = generate(parseQuery(exchange.getRequestURI()
+                        .getRawQuery()));
+               }
+            } catch (BadRequestException e) {
+               status = HTTP_BAD_REQUEST;
+               text = e.getMessage() + "\n";
+            } catch (Exception | LinkageError e) {
+               status = HTTP_ERROR;
+               StringWriter trace = new StringWriter();
+               e.printStackTrace(new PrintWriter(trace));
+               text = trace.toString();
+            }
+            byte[] body = text.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type",
+                  "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(status, body.length);
+            OutputStream response = exchange.getResponseBody();
+            response.write(body);
+            response.close();
+         } finally {
+            exchange.close();
+         }
+      }
+   }
+}
@@ -0,0 +1,566 @@
+package org.rmb.reflectionutils;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.rmb.reflectionutils.introspect.ClassIntrospector;
+import org.rmb.reflectionutils.introspect.ClassModel;
+import org.rmb.reflectionutils.introspect.FieldModel;
+import org.rmb.reflectionutils.introspect.ReflectionIntrospector;
+import org.rmb.reflectionutils.introspect.TypeModel;
+
+/**
+ * <p>
+ * Output a columnar (struct of arrays) container for records shaped like a
+ * DTO: one array per instance field of the class and its superclasses, all
+ * grown together, instead of a list of objects. A scan over one field then
+ * reads a single contiguous primitive array rather than following a pointer
+ * per element.
+ * </p>
+ * <p>
+ * Primitives get an array of their own type, enums an <code>int[]</code> of
+ * ordinals (-1 for null) and anything else an array of the field's erased
+ * type. The container has a cursor class with get and set methods with the
+ * same names and comments as {@link OutputFieldList#generateGetAndSetMethods}
+ * would give, the backing array of each column for bulk work, and a sum method
+ * for each numeric column.
+ * </p>
+ * <p>
+ * After the container, a JMH benchmark is output that sums the first numeric
+ * field over an <code>ArrayList</code> of objects, over the column and through
+ * the cursor. It fills the objects with the DTO's no-argument constructor and
+ * set method, and reads them with its get method.
+ * </p>
+ *
+ * @author robbram
+ */
+public final class OutputColumns {
+
+   /** Rows the generated benchmark fills by default. */
+   private static final int BENCHMARK_ROWS = 1000000;
+
+   /** Class not meant for external instantiation. */
+   private OutputColumns() {
+
+   }
+
+   /**
+    * Output a columnar container and benchmark for a loaded class.
+    *
+    * @param clazz
+    *           class whose records the container will hold
+    * @throws ClassNotFoundException
+    *            if a field type cannot be examined
+    */
+   public static void generateColumns(final Class<?> clazz)
+         throws ClassNotFoundException {
+      generateColumns(new ReflectionIntrospector(clazz.getClassLoader()),
+            clazz.getName());
+   }
+
+   /**
+    * Output a columnar container and benchmark for a class.
+    *
+    * @param introspector
+    *           backend used to describe the class and its field types
+    * @param className
+    *           binary name of the class whose records the container will hold
+    * @throws ClassNotFoundException
+    *            if the class or a field type cannot be examined
+    */
+   public static void generateColumns(final ClassIntrospector introspector,
+         final String className) throws ClassNotFoundException {
+      ClassModel clazz = introspector.describe(className);
+      List<Column> columns = new ArrayList<Column>();
+      for (ClassModel type : clazz.getHierarchy()) {
+         for (FieldModel field : type.getFields(false)) {
+            columns.add(new Column(field, isEnum(introspector,
+                  field.getType())));
+         }
+      }
+      System.out.println(container(clazz, columns));
+      System.out.println("// ---- JMH benchmark ----");
+      System.out.print(benchmark(clazz, columns));
+   }
+
+   /**
+    * @param introspector
+    *           used to describe the type
+    * @param type
+    *           field type
+    * @return true if the type is an enum
+    * @throws ClassNotFoundException
+    *            if the type cannot be examined
+    */
+   private static boolean isEnum(final ClassIntrospector introspector,
+         final TypeModel type) throws ClassNotFoundException {
+      if (type.isPrimitive() || type.isArray()) {
+         return false;
+      }
+      return Enum.class.getName().equals(
+            introspector.describe(type.getName()).getSuperclassName());
+   }
+
+   /**
+    * @param clazz
+    *           class whose records the container holds
+    * @param columns
+    *           one per instance field
+    * @return source of the container class
+    */
+   private static String container(final ClassModel clazz,
+         final List<Column> columns) {
+      String name = clazz.getSimpleName() + "Columns";
+      StringBuilder code = new StringBuilder();
+      code.append("/**\n * <p>\n * ").append(clazz.getSimpleName())
+            .append(" records stored as one array per field.\n")
+            .append(" * Append rows with {@link #add()} and read or write"
+                  + " them through a\n * {@link Cursor}.\n * </p>\n */\n");
+      for (Column column : columns) {
+         if (column.field.getGenericType() != null) {
+            // Columns of generic fields are arrays of the raw type.
+            code.append("@SuppressWarnings({\"rawtypes\", \"unchecked\"})\n");
+            break;
+         }
+      }
+      code.append("public final class ").append(name).append(" {\n\n");
+      code.append("   /** Capacity of a container made without one. */\n");
+      code.append("   private static final int DEFAULT_CAPACITY = 16;\n\n");
+      Set<String> enums = new LinkedHashSet<String>();
+      for (Column column : columns) {
+         if (column.isEnum && enums.add(column.elementType())) {
+            code.append("   /** Constants of ").append(column.elementType())
+                  .append(", by ordinal. */\n");
+            code.append("   private static final ")
+                  .append(column.elementType()).append("[] ")
+                  .append(column.valuesName()).append(" =\n")
+                  .append("         ").append(column.elementType())
+                  .append(".values();\n\n");
+         }
+      }
+      code.append("   /** Rows in use. */\n");
+      code.append("   private int size;\n\n");
+      code.append("   /** Length of every column. */\n");
+      code.append("   private int capacity;\n");
+      for (Column column : columns) {
+         code.append("\n   /** ").append(column.description())
+               .append(" */\n");
+         code.append("   private ").append(column.arrayType()).append(" ")
+               .append(column.field.getName()).append(";\n");
+      }
+
+      code.append("\n   /** Make a container with the default capacity."
+            + " */\n");
+      code.append("   public ").append(name).append("() {\n");
+      code.append("      this(DEFAULT_CAPACITY);\n");
+      code.append("   }\n\n");
+      code.append("   /**\n    * @param theCapacity\n")
+            .append("    *           rows to make room for\n    */\n");
+      code.append("   public ").append(name)
+            .append("(final int theCapacity) {\n");
+      code.append("      capacity = Math.max(1, theCapacity);\n");
+      for (Column column : columns) {
+         code.append("      ").append(column.field.getName())
+               .append(" = new ").append(column.newArray("capacity"))
+               .append(";\n");
+      }
+      code.append("   }\n\n");
+
+      code.append("   /**\n    * Append a row with every field zero,"
+            + " false or null.\n    *\n")
+            .append("    * @return index of the new row\n    */\n");
+      code.append("   public int add() {\n");
+      code.append("      ensureCapacity(size + 1);\n");
+      for (Column column : columns) {
+         if (column.isEnum) {
+            code.append("      ").append(column.field.getName())
+                  .append("[size] = -1;\n");
+         }
+      }
+      code.append("      return size++;\n");
+      code.append("   }\n\n");
+
+      code.append("   /** Remove every row, keeping the capacity. */\n");
+      code.append("   public void clear() {\n");
+      for (Column column : columns) {
+         if (!column.isEnum) {
+            code.append("      java.util.Arrays.fill(")
+                  .append(column.field.getName()).append(", 0, size, ")
+                  .append(column.zero()).append(");\n");
+         }
+      }
+      code.append("      size = 0;\n");
+      code.append("   }\n\n");
+
+      code.append("   /** @return a new cursor, at row 0 */\n");
+      code.append("   public Cursor cursor() {\n");
+      code.append("      return new Cursor();\n");
+      code.append("   }\n\n");
+
+      code.append("   /**\n    * @param minimum\n")
+            .append("    *           rows to make room for\n    */\n");
+      code.append("   public void ensureCapacity(final int minimum) {\n");
+      code.append("      if (minimum <= capacity) {\n");
+      code.append("         return;\n");
+      code.append("      }\n");
+      code.append("      capacity = Math.max(minimum,"
+            + " capacity + (capacity >> 1));\n");
+      for (Column column : columns) {
+         code.append("      ").append(column.field.getName())
+               .append(" = java.util.Arrays.copyOf(")
+               .append(column.field.getName()).append(", capacity);\n");
+      }
+      code.append("   }\n\n");
+
+      code.append("   /** @return rows in use */\n");
+      code.append("   public int size() {\n");
+      code.append("      return size;\n");
+      code.append("   }\n");
+
+      for (Column column : columns) {
+         code.append(columnMethods(column));
+      }
+
+      code.append("\n   /** View of one row of the container. */\n");
+      code.append("   public final class Cursor {\n\n");
+      code.append("      /** Row viewed. */\n");
+      code.append("      private int index;\n\n");
+      code.append("      /** @return row viewed */\n");
+      code.append("      public int getIndex() {\n");
+      code.append("         return index;\n");
+      code.append("      }\n\n");
+      code.append("      /**\n       * @param theIndex\n")
+            .append("       *           row to view\n")
+            .append("       * @return this cursor\n       */\n");
+      code.append("      public Cursor moveTo(final int theIndex) {\n");
+      code.append("         index = theIndex;\n");
+      code.append("         return this;\n");
+      code.append("      }\n");
+      for (Column column : columns) {
+         code.append(accessors(clazz, column));
+      }
+      code.append("   }\n");
+      code.append("}\n");
+      return code.toString();
+   }
+
+   /**
+    * @param column
+    *           column to work on
+    * @return method exposing the backing array and, for numeric columns, a
+    *         sum method
+    */
+   private static String columnMethods(final Column column) {
+      String fieldName = column.field.getName();
+      String capitalName = OutputFieldList.capitaliseFieldName(fieldName);
+      StringBuilder code = new StringBuilder();
+      code.append("\n   /**\n    * @return backing array of ")
+            .append(fieldName).append(", valid up to {@link #size()};\n")
+            .append("    *         replaced when the container grows\n")
+            .append("    */\n");
+      code.append("   public ").append(column.arrayType()).append(" get")
+            .append(capitalName).append("Column() {\n");
+      code.append("      return ").append(fieldName).append(";\n");
+      code.append("   }\n");
+
+      String sumType = column.sumType();
+      if (sumType != null) {
+         code.append("\n   /** @return sum of ").append(fieldName)
+               .append(" over every row */\n");
+         code.append("   public ").append(sumType).append(" sum")
+               .append(capitalName).append("() {\n");
+         code.append("      ").append(sumType).append(" sum = 0;\n");
+         code.append("      for (int row = 0; row < size; row++) {\n");
+         code.append("         sum += ").append(fieldName)
+               .append("[row];\n");
+         code.append("      }\n");
+         code.append("      return sum;\n");
+         code.append("   }\n");
+      }
+      return code.toString();
+   }
+
+   /**
+    * @param clazz
+    *           class whose records the container holds
+    * @param column
+    *           column to read and write
+    * @return get and set methods for the cursor
+    */
+   private static String accessors(final ClassModel clazz,
+         final Column column) {
+      String fieldName = column.field.getName();
+      String capitalName = OutputFieldList.capitaliseFieldName(fieldName);
+      String comment = OutputFieldList.generateAccessorComment(column.field);
+      String type = column.elementType();
+      String array = clazz.getSimpleName() + "Columns.this." + fieldName;
+      StringBuilder code = new StringBuilder();
+      code.append("\n      /** @return ").append(comment).append(" */\n");
+      code.append("      public ").append(type).append(" get")
+            .append(capitalName).append("() {\n");
+      if (column.isEnum) {
+         code.append("         final int ordinal = ").append(array)
+               .append("[index];\n");
+         code.append("         if (ordinal < 0) {\n");
+         code.append("            return null;\n");
+         code.append("         }\n");
+         code.append("         return ").append(column.valuesName())
+               .append("[ordinal];\n");
+      } else {
+         code.append("         return ").append(array).append("[index];\n");
+      }
+      code.append("      }\n");
+
+      String parameter = "the" + capitalName;
+      code.append("\n      /** @param ").append(parameter).append(" ")
+            .append(comment).append(" */\n");
+      code.append("      public void set").append(capitalName)
+            .append("(final ").append(type).append(" ").append(parameter)
+            .append(") {\n");
+      if (column.isEnum) {
+         code.append("         if (").append(parameter).append(" == null) {\n");
+         code.append("            ").append(array).append("[index] = -1;\n");
+         code.append("         } else {\n");
+         code.append("            ").append(array).append("[index] = ")
+               .append(parameter).append(".ordinal();\n");
+         code.append("         }\n");
+      } else {
+         code.append("         ").append(array).append("[index] = ")
+               .append(parameter).append(";\n");
+      }
+      code.append("      }\n");
+      return code.toString();
+   }
+
+   /**
+    * @param clazz
+    *           class whose records the container holds
+    * @param columns
+    *           one per instance field
+    * @return source of the JMH benchmark class, or a comment saying why there
+    *         is none
+    */
+   private static String benchmark(final ClassModel clazz,
+         final List<Column> columns) {
+      Column summed = null;
+      for (Column column : columns) {
+         if (summed == null && column.sumType() != null) {
+            summed = column;
+         }
+      }
+      if (summed == null) {
+         return "// No numeric field in " + clazz.getSimpleName()
+               + " to benchmark.\n";
+      }
+      String dto = clazz.getName().replace('$', '.');
+      String name = clazz.getSimpleName() + "Columns";
+      String capitalName =
+            OutputFieldList.capitaliseFieldName(summed.field.getName());
+      String sumType = summed.sumType();
+      StringBuilder code = new StringBuilder();
+      code.append("import java.util.ArrayList;\n");
+      code.append("import java.util.List;\n");
+      code.append("import java.util.Random;\n");
+      code.append("import java.util.concurrent.TimeUnit;\n\n");
+      code.append("import org.openjdk.jmh.annotations.Benchmark;\n");
+      code.append("import org.openjdk.jmh.annotations.BenchmarkMode;\n");
+      code.append("import org.openjdk.jmh.annotations.Mode;\n");
+      code.append("import org.openjdk.jmh.annotations.OutputTimeUnit;\n");
+      code.append("import org.openjdk.jmh.annotations.Param;\n");
+      code.append("import org.openjdk.jmh.annotations.Scope;\n");
+      code.append("import org.openjdk.jmh.annotations.Setup;\n");
+      code.append("import org.openjdk.jmh.annotations.State;\n\n");
+      code.append("/**\n * Sum ").append(summed.field.getName())
+            .append(" over an ArrayList of ").append(clazz.getSimpleName())
+            .append(" and over a ").append(name).append(".\n */\n");
+      code.append("@State(Scope.Benchmark)\n");
+      code.append("@BenchmarkMode(Mode.AverageTime)\n");
+      code.append("@OutputTimeUnit(TimeUnit.MICROSECONDS)\n");
+      code.append("public class ").append(name).append("Benchmark {\n\n");
+      code.append("   /** Rows to sum over. */\n");
+      code.append("   @Param({\"").append(BENCHMARK_ROWS).append("\"})\n");
+      code.append("   public int rows;\n\n");
+      code.append("   /** Rows as objects. */\n");
+      code.append("   private List<").append(dto).append("> objects;\n\n");
+      code.append("   /** Rows as columns. */\n");
+      code.append("   private ").append(name).append(" columns;\n\n");
+      code.append("   /** Fill both with the same values. */\n");
+      code.append("   @Setup\n");
+      code.append("   public void setUp() {\n");
+      code.append("      final Random random = new Random(rows);\n");
+      code.append("      objects = new ArrayList<").append(dto)
+            .append(">(rows);\n");
+      code.append("      columns = new ").append(name).append("(rows);\n");
+      code.append("      final ").append(name)
+            .append(".Cursor cursor = columns.cursor();\n");
+      code.append("      for (int row = 0; row < rows; row++) {\n");
+      code.append("         final ").append(summed.elementType())
+            .append(" value = ").append(summed.randomValue()).append(";\n");
+      code.append("         final ").append(dto).append(" object = new ")
+            .append(dto).append("();\n");
+      code.append("         object.set").append(capitalName)
+            .append("(value);\n");
+      code.append("         objects.add(object);\n");
+      code.append("         cursor.moveTo(columns.add()).set")
+            .append(capitalName).append("(value);\n");
+      code.append("      }\n");
+      code.append("   }\n\n");
+      code.append("   /** @return sum over the objects */\n");
+      code.append("   @Benchmark\n");
+      code.append("   public ").append(sumType).append(" arrayList() {\n");
+      code.append("      ").append(sumType).append(" sum = 0;\n");
+      code.append("      for (").append(dto).append(" object : objects) {\n");
+      code.append("         sum += object.get").append(capitalName)
+            .append("();\n");
+      code.append("      }\n");
+      code.append("      return sum;\n");
+      code.append("   }\n\n");
+      code.append("   /** @return sum over the column */\n");
+      code.append("   @Benchmark\n");
+      code.append("   public ").append(sumType).append(" column() {\n");
+      code.append("      return columns.sum").append(capitalName)
+            .append("();\n");
+      code.append("   }\n\n");
+      code.append("   /** @return sum through the cursor */\n");
+      code.append("   @Benchmark\n");
+      code.append("   public ").append(sumType).append(" cursor() {\n");
+      code.append("      final ").append(name)
+            .append(".Cursor cursor = columns.cursor();\n");
+      code.append("      ").append(sumType).append(" sum = 0;\n");
+      code.append("      for (int row = 0; row < columns.size(); row++) {\n");
+      code.append("         sum += cursor.moveTo(row).get")
+            .append(capitalName).append("();\n");
+      code.append("      }\n");
+      code.append("      return sum;\n");
+      code.append("   }\n");
+      code.append("}\n");
+      return code.toString();
+   }
+
+   /**
+    * @param type
+    *           type to name
+    * @return type as written in Java source, e.g. int[] or java.util.Map
+    */
+   private static String sourceType(final TypeModel type) {
+      if (type.isArray()) {
+         return sourceType(type.getComponentType()) + "[]";
+      }
+      return type.getName().replace('$', '.');
+   }
+
+   /** Array holding one field of every row. */
+   private static final class Column {
+
+      /** Field stored here. */
+      private final FieldModel field;
+
+      /** Is the field an enum, stored as its ordinal? */
+      private final boolean isEnum;
+
+      /**
+       * @param theField
+       *           field stored here
+       * @param theIsEnum
+       *           is the field an enum, stored as its ordinal?
+       */
+      Column(final FieldModel theField, final boolean theIsEnum) {
+         field = theField;
+         isEnum = theIsEnum;
+      }
+
+      /** @return field type as written in Java source */
+      String elementType() {
+         return sourceType(field.getType());
+      }
+
+      /** @return name of the constant holding the enum values */
+      String valuesName() {
+         return field.getType().getSimpleName()
+               .replaceAll("([a-z0-9])([A-Z])", "$1_$2").toUpperCase()
+               + "_VALUES";
+      }
+
+      /** @return type of the array, e.g. int[] */
+      String arrayType() {
+         if (isEnum) {
+            return "int[]";
+         }
+         return elementType() + "[]";
+      }
+
+      /**
+       * @param length
+       *           expression giving the length
+       * @return array creation expression, without <code>new</code>
+       */
+      String newArray(final String length) {
+         String type = arrayType();
+         int dimension = type.indexOf('[');
+         return type.substring(0, dimension) + "[" + length + "]"
+               + type.substring(dimension + 2);
+      }
+
+      /** @return value of an unset element, e.g. (byte) 0 */
+      String zero() {
+         switch (field.getType().getName()) {
+            case "boolean":
+               return "false";
+            case "byte":
+            case "short":
+            case "char":
+               return "(" + field.getType().getName() + ") 0";
+            default:
+               if (field.getType().isPrimitive()) {
+                  return "0";
+               }
+               return "null";
+         }
+      }
+
+      /** @return comment for the array */
+      String description() {
+         if (isEnum) {
+            return "Ordinal of " + field.getName() + " in each row, -1 for"
+                  + " null.";
+         }
+         return field.getName() + " of each row.";
+      }
+
+      /** @return type of the sum of the column, null if it is not numeric */
+      String sumType() {
+         switch (field.getType().getName()) {
+            case "byte":
+            case "short":
+            case "int":
+            case "long":
+               return "long";
+            case "float":
+            case "double":
+               return "double";
+            default:
+               return null;
+         }
+      }
+
+      /** @return expression giving a random value for a numeric column */
+      String randomValue() {
+         switch (field.getType().getName()) {
+            case "byte":
+               return "(byte) random.nextInt()";
+            case "short":
+               return "(short) random.nextInt()";
+            case "int":
+               return "random.nextInt()";
+            case "long":
+               return "random.nextLong()";
+            case "float":
+               return "random.nextFloat()";
+            default:
+               return "random.nextDouble()";
+         }
+      }
+   }
+}
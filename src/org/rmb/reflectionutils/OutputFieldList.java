@@ -1,6 +1,7 @@
 package org.rmb.reflectionutils;
 
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
+import static org.rmb.reflectionutils.OutputFieldList.EqualsStyle.SPECIALISED;
 import static org.rmb.reflectionutils.OutputFieldList.OutputFields.OUTPUT_FIELDS;
 import static org.rmb.reflectionutils.OutputFieldList.OutputGetters.OUTPUT_GETTERS;
 import static org.rmb.reflectionutils.OutputFieldList.OutputSetters.OUTPUT_SETTERS;
@@ -10,22 +11,20 @@ import static org.rmb.reflectionutils.OutputFieldList.TypeLocation.TYPE_AT_START
 import static org.rmb.reflectionutils.OutputFieldList.TypeOutput.SIMPLE;
 import static org.rmb.reflectionutils.OutputFieldList.WithType.INCLUDE_TYPE;
 
-import java.lang.reflect.Field;
-import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
-import java.lang.reflect.Parameter;
-import java.lang.reflect.ParameterizedType;
-import java.lang.reflect.Type;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 
+import org.rmb.reflectionutils.introspect.ClassModel;
+import org.rmb.reflectionutils.introspect.FieldModel;
+import org.rmb.reflectionutils.introspect.MethodModel;
+import org.rmb.reflectionutils.introspect.ReflectionIntrospector;
+import org.rmb.reflectionutils.introspect.TypeModel;
 import org.rmb.reflectionutils.javadoc.FieldComment;
 import org.rmb.reflectionutils.javadoc.FieldCommentSampleClass;
 
@@ -33,6 +32,21 @@ import org.rmb.reflectionutils.javadoc.FieldCommentSampleClass;
  * <p>
  * Output list of fields, methods etc for a given class.
  * </p>
+ * <p>
+ * Every generator takes either a loaded {@link Class} or a {@link ClassModel}.
+ * Models come from a {@link org.rmb.reflectionutils.introspect.ClassIntrospector}:
+ * {@link ReflectionIntrospector} uses reflection, while
+ * {@link org.rmb.reflectionutils.introspect.ClassFileIntrospector} reads
+ * <code>.class</code> files and never loads or initialises the classes it
+ * looks at. Output is the same either way, except that static fields that are
+ * not compile-time constants have no value without running the static
+ * initialiser.
+ * </p>
+ * <p>
+ * Get and set methods, static field comments and the commons-lang
+ * toString(), hashCode() and equals() are rendered from {@link Templates};
+ * pass your own to change the style without changing code.
+ * </p>
  *
  * @author robbram
  */
@@ -42,6 +56,12 @@ public final class OutputFieldList {
    // TODO rmb - create settings object to cut down on parameters.
    // TODO rmb - add ability to specify object name for get/set lists.
 
+   /** Multiplier used by generated hashCode() methods. */
+   static final int HASH_MULTIPLIER = 31;
+
+   /** Characters allowed per field when presizing generated toString(). */
+   private static final int TO_STRING_CHARS_PER_FIELD = 16;
+
    /** Class not meant for external instantiation. */
    private OutputFieldList() {
 
@@ -64,22 +84,19 @@ public final class OutputFieldList {
     * @param typeOutput
     *           how to output class name
     */
-   private static void addFieldNamesToList(final Class clazz,
-         final Map<Class, List<String>> membersByClass,
+   private static void addFieldNamesToList(final ClassModel clazz,
+         final Map<ClassModel, List<String>> membersByClass,
          final WithType withType, final TypeLocation typeLocation,
          final TypeOutput typeOutput) {
       // Finished once we get to Object.
-      if (clazz.getName().equals(Object.class.getName())) {
+      if (clazz == null || clazz.getName().equals(Object.class.getName())) {
          return;
       }
       // Add fields for this class.
-      List<Field> declaredFields =
-            Arrays.asList(clazz.getDeclaredFields()).stream()
-                  .filter(field -> !Modifier.isStatic(field.getModifiers()))
-                  .collect(Collectors.toList());
+      List<FieldModel> declaredFields = clazz.getFields(false);
 
       List<String> memberNames = new ArrayList<String>();
-      for (Field field : declaredFields) {
+      for (FieldModel field : declaredFields) {
          String fieldName = field.getName();
          if (withType == INCLUDE_TYPE) {
             String type = getClassName(field.getType(), typeOutput);
@@ -114,18 +131,18 @@ public final class OutputFieldList {
     * @param typeOutput
     *           how to output class name
     */
-   private static void addGetMethodNamesToList(final Class clazz,
-         final Map<Class, List<String>> membersByClass,
+   private static void addGetMethodNamesToList(final ClassModel clazz,
+         final Map<ClassModel, List<String>> membersByClass,
          final WithType withType, final TypeLocation typeLocation,
          final TypeOutput typeOutput) {
       // Finished once we get to Object.
-      if (clazz.getName().equals(Object.class.getName())) {
+      if (clazz == null || clazz.getName().equals(Object.class.getName())) {
          return;
       }
       // Add fields for this class.
-      List<Method> declaredMembers = Arrays.asList(clazz.getDeclaredMethods());
+      List<MethodModel> declaredMembers = clazz.getMethods();
       List<String> memberNames = new ArrayList<String>();
-      for (Method method : declaredMembers) {
+      for (MethodModel method : declaredMembers) {
          extractGetMethod(withType, typeLocation, memberNames, method,
                typeOutput);
       }
@@ -154,18 +171,18 @@ public final class OutputFieldList {
     *           to prepend sets with so that they will come out as
     *           <code>objectName.setFoo(bar);</code>.f
     */
-   private static void addSetMethodNamesToList(final Class clazz,
-         final Map<Class, List<String>> membersByClass,
+   private static void addSetMethodNamesToList(final ClassModel clazz,
+         final Map<ClassModel, List<String>> membersByClass,
          final ShowParameters showParameters, final WithType withType,
          final TypeOutput typeOutput, final String objectName) {
       // Finished once we get to Object.
-      if (clazz.getName().equals(Object.class.getName())) {
+      if (clazz == null || clazz.getName().equals(Object.class.getName())) {
          return;
       }
       // Add fields for this class.
-      List<Method> declaredMethods = Arrays.asList(clazz.getDeclaredMethods());
+      List<MethodModel> declaredMethods = clazz.getMethods();
       List<String> memberNames = new ArrayList<String>();
-      for (Method method : declaredMethods) {
+      for (MethodModel method : declaredMethods) {
          extractSetMethod(showParameters, memberNames, method, withType,
                typeOutput, objectName);
       }
@@ -176,6 +193,15 @@ public final class OutputFieldList {
             showParameters, withType, typeOutput, objectName);
    }
 
+   /**
+    * @param clazz
+    *           loaded class
+    * @return model of the class built with reflection
+    */
+   private static ClassModel describe(final Class clazz) {
+      return ReflectionIntrospector.describeClass(clazz);
+   }
+
    /**
     * @param withType
     *           include return type in output?
@@ -191,7 +217,7 @@ public final class OutputFieldList {
     */
    private static void extractGetMethod(final WithType withType,
          final TypeLocation typeLocation, final List<String> memberNames,
-         final Method method, final TypeOutput typeOutput) {
+         final MethodModel method, final TypeOutput typeOutput) {
       String methodName = method.getName();
       if ((methodName.startsWith("get") || methodName.startsWith("is"))
             && !methodName.equals("getClass")) {
@@ -225,7 +251,7 @@ public final class OutputFieldList {
     *           <code>objectName.setFoo(bar);</code>.f
     */
    private static void extractSetMethod(final ShowParameters showParameters,
-         final List<String> memberNames, final Method method,
+         final List<String> memberNames, final MethodModel method,
          final WithType withType, final TypeOutput typeOutput,
          final String objectName) {
       String methodName = method.getName();
@@ -235,11 +261,11 @@ public final class OutputFieldList {
             if (isNotBlank(objectName)) {
                memberString = objectName + "." + memberString;
             }
-            Parameter[] parameters = method.getParameters();
+            List<TypeModel> parameters = method.getParameterTypes();
             String typeString = "";
-            for (int index = 0; index < parameters.length; index++) {
-               Parameter parameter = parameters[index];
-               typeString += getClassName(parameter.getType(), typeOutput);
+            for (int index = 0; index < parameters.size(); index++) {
+               TypeModel parameter = parameters.get(index);
+               typeString += getClassName(parameter, typeOutput);
                // Remove "set".
                String paramName = method.getName().replaceFirst("set", "");
                // Lowercase first letter.
@@ -253,7 +279,7 @@ public final class OutputFieldList {
                // if (parameter.isNamePresent()) {
                // memberString += " " + parameter.getName();
                // }
-               if (index < parameters.length - 1) {
+               if (index < parameters.size() - 1) {
                   memberString += ", ";
                   typeString += ", ";
                }
@@ -278,11 +304,11 @@ public final class OutputFieldList {
     *           in the class we are generating getters and setters for.
     * @return comment from the field contents.
     */
-   private static String generateCommentForField(final Field field) {
+   static String generateCommentForField(final FieldModel field) {
       String comment = "";
-      final FieldComment fieldComment = field.getAnnotation(FieldComment.class);
+      final String fieldComment = field.getComment();
       if (fieldComment != null) {
-         comment = fieldComment.comment();
+         comment = fieldComment;
       } else {
          comment = "the " + field.getName() + " which is a " //
                + getClassName(field.getType(), SIMPLE);
@@ -291,6 +317,32 @@ public final class OutputFieldList {
       return comment;
    }
 
+   /**
+    * Comment for the get and set methods of a field: the field comment starting
+    * with a lower case letter.
+    *
+    * @param field
+    *           in the class we are generating getters and setters for.
+    * @return comment to follow <code>@return</code> or <code>@param</code>.
+    */
+   static String generateAccessorComment(final FieldModel field) {
+      String comment = generateCommentForField(field);
+      if (comment.isEmpty()) {
+         return comment;
+      }
+      return comment.substring(0, 1).toLowerCase() + comment.substring(1);
+   }
+
+   /**
+    * @param name
+    *           field name, e.g. <code>age</code>
+    * @return name as used after <code>get</code> and <code>set</code>, e.g.
+    *         <code>Age</code>
+    */
+   static String capitaliseFieldName(final String name) {
+      return name.substring(0, 1).toUpperCase() + name.substring(1);
+   }
+
    /**
     * Comment will come from the {@link FieldComment} annotation or generated
     * from field name. <code>SOME_STATIC_FIELD</code> should have a comment of
@@ -303,12 +355,12 @@ public final class OutputFieldList {
     *           empty, in which case it will be ignored.
     * @return comment from the field contents.
     */
-   private static String generateCommentForStaticField(final Field field,
-         final List<CommentReplacement> replacements) {
+   static String generateCommentForStaticField(
+         final FieldModel field, final List<CommentReplacement> replacements) {
       String comment = "";
-      final FieldComment fieldComment = field.getAnnotation(FieldComment.class);
+      final String fieldComment = field.getComment();
       if (fieldComment != null) {
-         comment = fieldComment.comment();
+         comment = fieldComment;
       } else {
          comment = field.getName().toLowerCase().replace('_', ' ') + ".";
       }
@@ -322,12 +374,10 @@ public final class OutputFieldList {
          }
       }
 
-      final String commentFirstLetter = comment.substring(0, 1);
-      comment =
-            comment.replaceFirst(commentFirstLetter,
-                  commentFirstLetter.toUpperCase());
-
-      return comment;
+      if (comment.isEmpty()) {
+         return comment;
+      }
+      return comment.substring(0, 1).toUpperCase() + comment.substring(1);
    }
 
    /**
@@ -348,63 +398,83 @@ public final class OutputFieldList {
    public static void generateGetAndSetMethods(final Class clazz,
          final OutputFields outputFields, final OutputGetters outputGetters,
          final OutputSetters outputSetters) {
+      generateGetAndSetMethods(describe(clazz), outputFields, outputGetters,
+            outputSetters);
+   }
+
+   /**
+    * Generate get and set methods with comments for all declared non-static
+    * fields in a class. If a field is annotated with {@link FieldComment},
+    * javadoc comments will be generated using the contents of the
+    * <code>comment</code> attribute in that annotation.
+    *
+    * @param clazz
+    *           model of the class to examine
+    * @param outputFields
+    *           should fields be output?
+    * @param outputGetters
+    *           should getters, a.k.a. accessors be output?
+    * @param outputSetters
+    *           should setters, a.k.a. mutators be output?
+    */
+   public static void generateGetAndSetMethods(final ClassModel clazz,
+         final OutputFields outputFields, final OutputGetters outputGetters,
+         final OutputSetters outputSetters) {
+      generateGetAndSetMethods(clazz, outputFields, outputGetters,
+            outputSetters, Templates.builtIn());
+   }
+
+   /**
+    * Generate get and set methods for all declared non-static fields in a
+    * class, using the FIELD, GETTER and SETTER templates given.
+    *
+    * @param clazz
+    *           class to examine
+    * @param outputFields
+    *           should fields be output?
+    * @param outputGetters
+    *           should getters, a.k.a. accessors be output?
+    * @param outputSetters
+    *           should setters, a.k.a. mutators be output?
+    * @param templates
+    *           templates to render
+    */
+   public static void generateGetAndSetMethods(final Class clazz,
+         final OutputFields outputFields, final OutputGetters outputGetters,
+         final OutputSetters outputSetters, final Templates templates) {
+      generateGetAndSetMethods(describe(clazz), outputFields, outputGetters,
+            outputSetters, templates);
+   }
+
+   /**
+    * Generate get and set methods for all declared non-static fields in a
+    * class, using the FIELD, GETTER and SETTER templates given.
+    *
+    * @param clazz
+    *           model of the class to examine
+    * @param outputFields
+    *           should fields be output?
+    * @param outputGetters
+    *           should getters, a.k.a. accessors be output?
+    * @param outputSetters
+    *           should setters, a.k.a. mutators be output?
+    * @param templates
+    *           templates to render
+    */
+   public static void generateGetAndSetMethods(final ClassModel clazz,
+         final OutputFields outputFields, final OutputGetters outputGetters,
+         final OutputSetters outputSetters, final Templates templates) {
       // Add fields for this class.
-      List<Field> declaredFields =
-            Arrays.asList(clazz.getDeclaredFields()).stream()
-                  .filter(field -> !Modifier.isStatic(field.getModifiers()))
-                  .collect(Collectors.toList());
+      TemplateModel model =
+            new TemplateModel(clazz, clazz.getFields(false), null);
       StringBuilder fields = new StringBuilder();
       StringBuilder getters = new StringBuilder();
       StringBuilder setters = new StringBuilder();
 
-      for (Field field : declaredFields) {
-         String type = getClassName(field.getType(), SIMPLE);
-         // Is type a generic type?
-         // TODO rmb doesn't work. Why?
-         String typeGenericSt = null;
-         Type genericSuperclass = field.getClass().getGenericSuperclass();
-         if (genericSuperclass instanceof ParameterizedType) {
-            ParameterizedType typeGeneric =
-                  (ParameterizedType) field.getGenericType();
-            Class<?> typeGenericClass =
-                  (Class<?>) typeGeneric.getActualTypeArguments()[0];
-            typeGenericSt = getClassName(typeGenericClass, SIMPLE);
-         }
-
-         String name = field.getName();
-         String comment = generateCommentForField(field);
-         String commentFirstLetter = comment.substring(0, 1);
-         String lowerCaseComment = comment.replaceFirst(commentFirstLetter, //
-               commentFirstLetter.toLowerCase());
-         String nameFirstLetter = name.substring(0, 1);
-         String capitalName = name.replaceFirst(//
-               nameFirstLetter, nameFirstLetter.toUpperCase());
-
-         fields.append("   /** ").append(comment).append(" */\n   private ")
-               .append(type);
-         if (isNotBlank(typeGenericSt)) {
-            fields.append("<").append(typeGenericSt).append(">");
-         }
-         fields.append(" ").append(name).append(";\n\n");
-
-         getters.append("   /** @return ").append(lowerCaseComment)
-               .append(" */\n   public ").append(type);
-         if (isNotBlank(typeGenericSt)) {
-            getters.append("<").append(typeGenericSt).append(">");
-         }
-         getters.append(" get").append(capitalName)
-               .append("() {\n      return ").append(name)
-               .append(";\n   }\n\n");
-
-         setters.append("   /** @param the").append(capitalName).append(" ")
-               .append(lowerCaseComment).append(" */\n   public void set")
-               .append(capitalName).append("(final ").append(type);
-         if (isNotBlank(typeGenericSt)) {
-            setters.append("<").append(typeGenericSt).append(">");
-         }
-         setters.append(" the").append(capitalName).append(") {\n      this.")
-               .append(name).append(" = the").append(capitalName)
-               .append(";\n   }\n\n");
+      for (int index = 0; index < model.size(); index++) {
+         templates.get(Templates.Kind.FIELD).render(fields, model, index);
+         templates.get(Templates.Kind.GETTER).render(getters, model, index);
+         templates.get(Templates.Kind.SETTER).render(setters, model, index);
       }
       if (outputFields.equals(OUTPUT_FIELDS)) {
          System.out.print(fields);
@@ -430,44 +500,72 @@ public final class OutputFieldList {
     */
    public static void generateStaticFieldComments(final Class clazz,
          final List<CommentReplacement> replacements) throws Exception {
-      // Add fields for this class.
-      List<Field> declaredFields =
-            Arrays.asList(clazz.getDeclaredFields()).stream()
-                  .filter(field -> Modifier.isStatic(field.getModifiers()))
-                  .collect(Collectors.toList());
-      StringBuilder fields = new StringBuilder();
+      generateStaticFieldComments(describe(clazz), replacements);
+   }
 
-      for (Field field : declaredFields) {
-         String type = getClassName(field.getType(), SIMPLE);
-         // Is type a generic type?
-         // TODO rmb doesn't work. Why?
-         String typeGenericSt = null;
-         Type genericSuperclass = field.getClass().getGenericSuperclass();
-         if (genericSuperclass instanceof ParameterizedType) {
-            ParameterizedType typeGeneric =
-                  (ParameterizedType) field.getGenericType();
-            Class<?> typeGenericClass =
-                  (Class<?>) typeGeneric.getActualTypeArguments()[0];
-            typeGenericSt = getClassName(typeGenericClass, SIMPLE);
-         }
+   /**
+    * Generate static fields with comments.
+    *
+    * @param clazz
+    *           model of the class to examine
+    * @param replacements
+    *           list of replacements to make to the comments. Can be null or
+    *           empty, in which case it will be ignored.
+    * @throws Exception
+    *            if we are unable to examine a field's value.
+    */
+   public static void generateStaticFieldComments(final ClassModel clazz,
+         final List<CommentReplacement> replacements) throws Exception {
+      generateStaticFieldComments(clazz, replacements, Templates.builtIn());
+   }
 
-         final String name = field.getName();
-         final String comment =
-               generateCommentForStaticField(field, replacements);
-
-         fields.append("   /** ")//
-               .append(comment)//
-               .append(" */\n   ")//
-               .append(Modifier.toString(field.getModifiers())).append(" ")//
-               .append(type);
-         if (isNotBlank(typeGenericSt)) {
-            fields.append("<").append(typeGenericSt).append(">");
-         }
-         fields.append(" ").append(name)//
-               .append(" = ")//
-               .append(getFieldValue(field))//
-               .append(";\n\n");
+   /**
+    * Generate static fields with comments, using the STATIC_FIELD template
+    * given.
+    *
+    * @param clazz
+    *           class to examine
+    * @param replacements
+    *           list of replacements to make to the comments. Can be null or
+    *           empty, in which case it will be ignored.
+    * @param templates
+    *           templates to render
+    * @throws Exception
+    *            if we are unable to examine a field's value.
+    */
+   public static void generateStaticFieldComments(final Class clazz,
+         final List<CommentReplacement> replacements,
+         final Templates templates) throws Exception {
+      generateStaticFieldComments(describe(clazz), replacements, templates);
+   }
 
+   /**
+    * Generate static fields with comments, using the STATIC_FIELD template
+    * given.
+    *
+    * @param clazz
+    *           model of the class to examine
+    * @param replacements
+    *           list of replacements to make to the comments. Can be null or
+    *           empty, in which case it will be ignored.
+    * @param templates
+    *           templates to render
+    * @throws Exception
+    *            if we are unable to examine a field's value.
+    */
+   public static void generateStaticFieldComments(final ClassModel clazz,
+         final List<CommentReplacement> replacements,
+         final Templates templates) throws Exception {
+      // Add fields for this class.
+      TemplateModel model =
+            new TemplateModel(clazz, clazz.getFields(true), replacements);
+      Template template = templates.get(Templates.Kind.STATIC_FIELD);
+      if (template.uses(TemplateSlot.VALUE)) {
+         model.readValues();
+      }
+      StringBuilder fields = new StringBuilder();
+      for (int index = 0; index < model.size(); index++) {
+         template.render(fields, model, index);
       }
       System.out.print(fields);
    }
@@ -475,21 +573,27 @@ public final class OutputFieldList {
    /**
     * @param field
     *           field which should have a value
-    * @return field value as a string for output
+    * @return field value as a string for output. A field that is not a
+    *         compile-time constant, read from a class file, comes out as
+    *         <code>null</code> with a comment saying so.
     * @throws Exception
     *            if we cannot access field value.
     */
-   private static String getFieldValue(final Field field) throws Exception {
-      if (!Modifier.isStatic(field.getModifiers())) {
+   static String getFieldValue(final FieldModel field)
+         throws Exception {
+      if (!field.isStatic()) {
          throw new IllegalStateException(
                "Do not currently handle getting field"
                      + " value for instance fields.");
       }
+      if (!field.hasValue()) {
+         return "null /* not a compile-time constant */";
+      }
 
-      if (field.getType().isAssignableFrom(String.class)) {
-         return "\"" + field.get(null).toString() + "\"";
+      if (field.getType().isAssignableFromString()) {
+         return "\"" + field.getValue().toString() + "\"";
       } else {
-         return field.get(null).toString();
+         return field.getValue().toString();
       }
    }
 
@@ -500,7 +604,7 @@ public final class OutputFieldList {
     *           how to output class name
     * @return name or simple name depending on {@link #fullTypeNames}.
     */
-   private static String getClassName(final Class clazz,
+   static String getClassName(final ClassModel clazz,
          final TypeOutput typeOutput) {
       switch (typeOutput) {
          case SIMPLE:
@@ -510,6 +614,23 @@ public final class OutputFieldList {
       }
    }
 
+   /**
+    * @param type
+    *           type whose name we want
+    * @param typeOutput
+    *           how to output class name
+    * @return name or simple name depending on {@link #fullTypeNames}.
+    */
+   static String getClassName(final TypeModel type,
+         final TypeOutput typeOutput) {
+      switch (typeOutput) {
+         case SIMPLE:
+            return type.getSimpleName();
+         default:
+            return type.getName();
+      }
+   }
+
    /**
     * @param clazz
     *           class whose name we want (as string class name)
@@ -545,8 +666,29 @@ public final class OutputFieldList {
    public static void listFields(final Class clazz, final WithType withType,
          final TypeLocation typeLocation, final TypeOutput typeOutput)
          throws Exception {
-      Map<Class, List<String>> membersByClass =
-            new HashMap<Class, List<String>>();
+      listFields(describe(clazz), withType, typeLocation, typeOutput);
+   }
+
+   /**
+    * Output list of field names.
+    *
+    * @param clazz
+    *           model of the class to output fields from
+    * @param withType
+    *           include type in output?
+    * @param typeLocation
+    *           output return type at end of each line or at start of each line
+    *           (as you would expect in an actual method declaration).
+    * @param typeOutput
+    *           how to output class name
+    * @throws Exception
+    *            if something goes wrong with reflection
+    */
+   public static void listFields(final ClassModel clazz,
+         final WithType withType, final TypeLocation typeLocation,
+         final TypeOutput typeOutput) throws Exception {
+      Map<ClassModel, List<String>> membersByClass =
+            new HashMap<ClassModel, List<String>>();
       addFieldNamesToList(clazz, membersByClass, INCLUDE_TYPE, typeLocation,
             typeOutput);
       System.out.println("\n\n=============== FIELDS ===============");
@@ -572,8 +714,30 @@ public final class OutputFieldList {
    public static void listGetMethods(final Class clazz,
          final WithType withType, final TypeLocation typeLocation,
          final TypeOutput typeOutput) throws Exception {
-      Map<Class, List<String>> membersByClass =
-            new HashMap<Class, List<String>>();
+      listGetMethods(describe(clazz), withType, typeLocation, typeOutput);
+   }
+
+   /**
+    * Output list of all get methods in class.
+    *
+    * @param clazz
+    *           model of the class you want to examine
+    * @param withType
+    *           include return type in report?
+    * @param typeLocation
+    *           true: output has return type at end of each line; false: output
+    *           includes return type at start of each line (as you would expect
+    *           in an actual method declaration).
+    * @param typeOutput
+    *           how to output class name
+    * @throws Exception
+    *            if something goes wrong with reflection
+    */
+   public static void listGetMethods(final ClassModel clazz,
+         final WithType withType, final TypeLocation typeLocation,
+         final TypeOutput typeOutput) throws Exception {
+      Map<ClassModel, List<String>> membersByClass =
+            new HashMap<ClassModel, List<String>>();
       addGetMethodNamesToList(clazz, membersByClass, withType, typeLocation,
             typeOutput);
       System.out.println("\n\n=============== GET METHODS ===============");
@@ -601,8 +765,33 @@ public final class OutputFieldList {
          final ShowParameters showParameters, final WithType withType,
          final TypeOutput typeOutput, final String objectName)//
          throws Exception {
-      Map<Class, List<String>> membersByClass =
-            new HashMap<Class, List<String>>();
+      listSetMethods(describe(clazz), showParameters, withType, typeOutput,
+            objectName);
+   }
+
+   /**
+    * Output list of all set methods in class.
+    *
+    * @param clazz
+    *           model of the class you want to examine
+    * @param showParameters
+    *           include parameters in report?
+    * @param withType
+    *           include parameter type in report?
+    * @param typeOutput
+    *           how to output class name
+    * @param objectName
+    *           to prepend sets with so that they will come out as
+    *           <code>objectName.setFoo(bar);</code>.f
+    * @throws Exception
+    *            if something goes wrong with reflection
+    */
+   public static void listSetMethods(final ClassModel clazz,
+         final ShowParameters showParameters, final WithType withType,
+         final TypeOutput typeOutput, final String objectName)//
+         throws Exception {
+      Map<ClassModel, List<String>> membersByClass =
+            new HashMap<ClassModel, List<String>>();
       addSetMethodNamesToList(clazz, membersByClass, //
             showParameters, withType, typeOutput, objectName);
       System.out.println("\n\n=============== SET METHODS ===============");
@@ -629,6 +818,8 @@ public final class OutputFieldList {
                OutputGetters.OUTPUT_GETTERS, //
                OutputSetters.OUTPUT_SETTERS);
          outputToStringHashAndEquals(FieldCommentSampleClass.class);
+         outputToStringHashAndEquals(FieldCommentSampleClass.class,
+               SPECIALISED);
          listGetMethods(FieldCommentSampleClass.class, INCLUDE_TYPE,
                TYPE_AT_START, SIMPLE);
          listSetMethods(FieldCommentSampleClass.class, INCLUDE_PARAMS,
@@ -648,17 +839,17 @@ public final class OutputFieldList {
     * @throws Exception
     *            if something goes wrong with reflection
     */
-   private static void outputMemberNames(final Class clazz,
-         final Map<Class, List<String>> membersByClass,
+   private static void outputMemberNames(final ClassModel clazz,
+         final Map<ClassModel, List<String>> membersByClass,
          final TypeOutput typeOutput) throws Exception {
 
       List<String> memberNames = new ArrayList<String>(membersByClass.size());
       List<String> output = new ArrayList<String>();
 
       // Go through list by class, collecting the output to print later.
-      for (Map.Entry<Class, List<String>> fieldsInClass : membersByClass
+      for (Map.Entry<ClassModel, List<String>> fieldsInClass : membersByClass
             .entrySet()) {
-         Class key = fieldsInClass.getKey();
+         ClassModel key = fieldsInClass.getKey();
          List<String> value = fieldsInClass.getValue();
          memberNames.addAll(value);
          output.add("\n   ---- "
@@ -690,100 +881,312 @@ public final class OutputFieldList {
     *           class to output fields from
     */
    public static void outputToStringHashAndEquals(final Class clazz) {
-      List<Field> instanceFields =
-            Arrays.asList(clazz.getDeclaredFields()).stream()
-                  .filter(field -> !Modifier.isStatic(field.getModifiers()))
-                  .collect(Collectors.toList());
-
-      // @formatter:off
-		// toString.
-		StringBuilder toString = new StringBuilder();
-		toString.append("	@Override\n");
-		toString.append("	public String toString() {\n");
-		toString.append("		org.apache.commons.lang.builder.ToStringBuilder"
-				+ ".setDefaultStyle(org.apache.commons.lang.builder"
-				+ ".ToStringStyle.SHORT_PREFIX_STYLE);\n");
-		toString.append("		// @formatter:off\n");
-		toString.append("		return new org.apache.commons.lang.builder"
-				+ ".ToStringBuilder(this)\n");
-
-		// Hashcode.
-		StringBuilder hashCode = new StringBuilder();
-		hashCode.append("	@Override\n");
-		hashCode.append("	public int hashCode() {\n");
-		hashCode.append("		// @formatter:off\n");
-		hashCode.append("		return new org.apache.commons.lang.builder"
-				+ ".HashCodeBuilder()\n");
-
-		// Equals.
-		StringBuilder equals = new StringBuilder();
-		equals.append("	@Override\n");
-		equals.append("	public boolean equals(final Object obj) {\n");
-		equals.append("		if (obj == this) {\n");
-		equals.append("			return true; // test for reference equality\n");
-		equals.append("		}\n");
-		equals.append("		if (obj == null) {\n");
-		equals.append("			return false; // test for null\n");
-		equals.append("		}\n");
-		equals.append("		if (obj instanceof ");
-		equals.append(getClassName(clazz, SIMPLE));
-		equals.append(") {\n");
-		equals.append("			final ");
-		equals.append(getClassName(clazz, SIMPLE));
-		equals.append(" other = (");
-		equals.append(getClassName(clazz, SIMPLE));
-		equals.append(") obj;\n");
-		equals.append("			// @formatter:off\n");
-		equals.append("			return new org.apache.commons.lang.builder"
-				+ ".EqualsBuilder()\n");
-		// @formatter:on
-
-      for (Field field : instanceFields) {
-         String fieldName = field.getName();
+      outputToStringHashAndEquals(describe(clazz));
+   }
+
+   /**
+    * Output string including toString(), hashCode() and equals(). NOT recursive
+    * and only does it for instance fields (not static ones).
+    *
+    * @param clazz
+    *           model of the class to output fields from
+    */
+   public static void outputToStringHashAndEquals(final ClassModel clazz) {
+      outputToStringHashAndEquals(clazz, Templates.builtIn());
+   }
+
+   /**
+    * Output string including toString(), hashCode() and equals() using the
+    * EQUALS, HASH_CODE and TO_STRING templates given. NOT recursive and only
+    * does it for instance fields (not static ones).
+    *
+    * @param clazz
+    *           class to output fields from
+    * @param templates
+    *           templates to render
+    */
+   public static void outputToStringHashAndEquals(final Class clazz,
+         final Templates templates) {
+      outputToStringHashAndEquals(describe(clazz), templates);
+   }
+
+   /**
+    * Output string including toString(), hashCode() and equals() using the
+    * EQUALS, HASH_CODE and TO_STRING templates given. NOT recursive and only
+    * does it for instance fields (not static ones).
+    *
+    * @param clazz
+    *           model of the class to output fields from
+    * @param templates
+    *           templates to render
+    */
+   public static void outputToStringHashAndEquals(final ClassModel clazz,
+         final Templates templates) {
+      TemplateModel model =
+            new TemplateModel(clazz, clazz.getFields(false), null);
+      StringBuilder equals = new StringBuilder();
+      StringBuilder hashCode = new StringBuilder();
+      StringBuilder toString = new StringBuilder();
+      templates.get(Templates.Kind.EQUALS).render(equals, model, -1);
+      templates.get(Templates.Kind.HASH_CODE).render(hashCode, model, -1);
+      templates.get(Templates.Kind.TO_STRING).render(toString, model, -1);
+
+      System.out.println(equals);
+      System.out.println(hashCode);
+      System.out.println(toString);
+   }
+
+   /**
+    * Output string including toString(), hashCode() and equals(). NOT recursive
+    * and only does it for instance fields (not static ones).
+    *
+    * @param clazz
+    *           class to output fields from
+    * @param equalsStyle
+    *           commons-lang builders or type specialised code
+    */
+   public static void outputToStringHashAndEquals(final Class clazz,
+         final EqualsStyle equalsStyle) {
+      outputToStringHashAndEquals(describe(clazz), equalsStyle);
+   }
+
+   /**
+    * Output string including toString(), hashCode() and equals(). NOT recursive
+    * and only does it for instance fields (not static ones).
+    *
+    * @param clazz
+    *           model of the class to output fields from
+    * @param equalsStyle
+    *           commons-lang builders or type specialised code
+    */
+   public static void outputToStringHashAndEquals(final ClassModel clazz,
+         final EqualsStyle equalsStyle) {
+      if (equalsStyle == SPECIALISED) {
+         outputSpecialisedToStringHashAndEquals(clazz);
+      } else {
+         outputToStringHashAndEquals(clazz);
+      }
+   }
 
-         // Tostring.
-         toString.append("			.append(\"");
-         toString.append(fieldName);
-         toString.append("\", ");
-         toString.append(fieldName);
-         toString.append(")\n");
-
-         // Hashcode.
-         hashCode.append("				.append(");
-         hashCode.append(fieldName);
-         hashCode.append(")\n");
-
-         // Equals.
-         equals.append("					.append(");
-         equals.append(fieldName);
-         equals.append(", other.");
-         equals.append(fieldName);
-         equals.append(")\n");
-
-      }
-
-      // Finish toString.
-      toString.append("			.toString();\n");
-      toString.append("		// @formatter:on\n");
-      toString.append("	}\n");
-
-      // Finish hashCode.
-      hashCode.append("				.toHashCode();\n");
-      hashCode.append("		// @formatter:on\n");
-      hashCode.append("	}\n");
-
-      // Finish equals.
-      equals.append("					.isEquals();\n");
-      equals.append("			// @formatter:on\n");
-      equals.append("		} else {\n");
-      equals.append("			return false;\n");
-      equals.append("		}\n");
-      equals.append("	}\n");
+   /**
+    * Output toString(), hashCode() and equals() that do not allocate or box:
+    * primitives are compared directly (floating point with
+    * <code>Double.compare</code>/<code>Float.compare</code>), arrays with
+    * <code>java.util.Arrays</code>, and the hash is a multiply-accumulate over
+    * the fields. Equals compares the cheapest fields first. toString uses a
+    * presized StringBuilder and is laid out like commons-lang's
+    * SHORT_PREFIX_STYLE, <code>Name[a=1,b=x]</code>, but is not the same:
+    * nulls come out as <code>null</code> rather than <code>&lt;null&gt;</code>
+    * and arrays as <code>java.util.Arrays.toString</code> gives them,
+    * <code>[1, 2]</code>, rather than <code>{1,2}</code>.
+    *
+    * @param clazz
+    *           model of the class to output fields from
+    */
+   private static void outputSpecialisedToStringHashAndEquals(
+         final ClassModel clazz) {
+      List<FieldModel> instanceFields = clazz.getFields(false);
+      String className = getClassName(clazz, SIMPLE);
+
+      // Equals, cheapest comparisons first.
+      List<FieldModel> byCost = new ArrayList<FieldModel>(instanceFields);
+      byCost.sort((first, second) -> ComparisonCost.of(first.getType())
+            .compareTo(ComparisonCost.of(second.getType())));
+      StringBuilder equals = new StringBuilder();
+      equals.append("\t@Override\n");
+      equals.append("\tpublic boolean equals(final Object obj) {\n");
+      equals.append("\t\tif (obj == this) {\n");
+      equals.append("\t\t\treturn true; // test for reference equality\n");
+      equals.append("\t\t}\n");
+      equals.append("\t\tif (!(obj instanceof ").append(className)
+            .append(")) {\n");
+      equals.append("\t\t\treturn false; // test for null and type\n");
+      equals.append("\t\t}\n");
+      equals.append("\t\tfinal ").append(className).append(" other = (")
+            .append(className).append(") obj;\n");
+      equals.append("\t\treturn ");
+      if (byCost.isEmpty()) {
+         equals.append("true");
+      }
+      for (int index = 0; index < byCost.size(); index++) {
+         if (index > 0) {
+            equals.append("\n\t\t\t\t&& ");
+         }
+         equals.append(equalsTerm(byCost.get(index)));
+      }
+      equals.append(";\n");
+      equals.append("\t}\n");
+
+      // Hashcode.
+      StringBuilder hashCode = new StringBuilder();
+      hashCode.append("\t@Override\n");
+      hashCode.append("\tpublic int hashCode() {\n");
+      hashCode.append("\t\tint result = 1;\n");
+      for (FieldModel field : instanceFields) {
+         hashCode.append("\t\tresult = ").append(HASH_MULTIPLIER)
+               .append(" * result + ").append(hashTerm(field)).append(";\n");
+      }
+      hashCode.append("\t\treturn result;\n");
+      hashCode.append("\t}\n");
+
+      // Tostring.
+      StringBuilder body = new StringBuilder();
+      // Class name and closing bracket; labels are added below.
+      int literalLength = className.length() + 1;
+      String separator = "[";
+      for (FieldModel field : instanceFields) {
+         String label = separator + field.getName() + "=";
+         literalLength += label.length();
+         body.append("\t\t\t\t.append(\"").append(label).append("\").append(")
+               .append(toStringTerm(field)).append(")\n");
+         separator = ",";
+      }
+      if (instanceFields.isEmpty()) {
+         body.append("\t\t\t\t.append('[')\n");
+      }
+      int capacity =
+            literalLength + TO_STRING_CHARS_PER_FIELD * instanceFields.size();
+      StringBuilder toString = new StringBuilder();
+      toString.append("\t@Override\n");
+      toString.append("\tpublic String toString() {\n");
+      toString.append("\t\treturn new StringBuilder(").append(capacity)
+            .append(")\n");
+      toString.append("\t\t\t\t.append(\"").append(className).append("\")\n");
+      toString.append(body);
+      toString.append("\t\t\t\t.append(']').toString();\n");
+      toString.append("\t}\n");
 
       System.out.println(equals);
       System.out.println(hashCode);
       System.out.println(toString);
+   }
+
+   /**
+    * @param field
+    *           instance field
+    * @return expression that is true if the field is equal in
+    *         <code>this</code> and <code>other</code>
+    */
+   private static String equalsTerm(final FieldModel field) {
+      String name = field.getName();
+      TypeModel type = field.getType();
+      if (type.isArray()) {
+         return arraysMethod(type, "equals") + "(" + name + ", other." + name
+               + ")";
+      }
+      if ("double".equals(type.getName())) {
+         return "Double.compare(" + name + ", other." + name + ") == 0";
+      }
+      if ("float".equals(type.getName())) {
+         return "Float.compare(" + name + ", other." + name + ") == 0";
+      }
+      if (type.isPrimitive()) {
+         return name + " == other." + name;
+      }
+      return "java.util.Objects.equals(" + name + ", other." + name + ")";
+   }
+
+   /**
+    * @param field
+    *           instance field
+    * @return int expression to fold into the hash code
+    */
+   private static String hashTerm(final FieldModel field) {
+      String name = field.getName();
+      TypeModel type = field.getType();
+      if (type.isArray()) {
+         return arraysMethod(type, "hashCode") + "(" + name + ")";
+      }
+      switch (type.getName()) {
+         case "int":
+         case "short":
+         case "byte":
+         case "char":
+            return name;
+         case "long":
+            return "Long.hashCode(" + name + ")";
+         case "double":
+            return "Double.hashCode(" + name + ")";
+         case "float":
+            return "Float.hashCode(" + name + ")";
+         case "boolean":
+            return "Boolean.hashCode(" + name + ")";
+         default:
+            return "java.util.Objects.hashCode(" + name + ")";
+      }
+   }
+
+   /**
+    * @param field
+    *           instance field
+    * @return expression to append to the StringBuilder
+    */
+   private static String toStringTerm(final FieldModel field) {
+      TypeModel type = field.getType();
+      if (type.isArray()) {
+         return arraysMethod(type, "toString") + "(" + field.getName() + ")";
+      }
+      return field.getName();
+   }
+
+   /**
+    * @param arrayType
+    *           array type
+    * @param method
+    *           <code>equals</code>, <code>hashCode</code> or
+    *           <code>toString</code>
+    * @return the <code>java.util.Arrays</code> method to use, the deep form
+    *         for arrays of objects or arrays.
+    */
+   private static String arraysMethod(final TypeModel arrayType,
+         final String method) {
+      if (arrayType.getComponentType().isPrimitive()) {
+         return "java.util.Arrays." + method;
+      }
+      return "java.util.Arrays.deep" + Character.toUpperCase(method.charAt(0))
+            + method.substring(1);
+   }
+
+   /** Style of generated toString(), hashCode() and equals(). */
+   public enum EqualsStyle {
+      /** Use commons-lang EqualsBuilder, HashCodeBuilder, ToStringBuilder. */
+      COMMONS_BUILDERS,
+      /** Type specialised code that does not allocate or box. */
+      SPECIALISED;
+   }
 
+   /**
+    * How expensive a field is to compare in equals(), cheapest first. Only the
+    * field types are known, so this is a rough ordering.
+    */
+   private enum ComparisonCost {
+      /** Integral and boolean primitives: one compare. */
+      PRIMITIVE,
+      /** float and double: Float.compare or Double.compare. */
+      FLOATING_POINT,
+      /** Objects: null check and a call to equals. */
+      OBJECT,
+      /** Arrays: a loop over the elements. */
+      ARRAY;
+
+      /**
+       * @param type
+       *           field type
+       * @return how expensive the type is to compare
+       */
+      static ComparisonCost of(final TypeModel type) {
+         if (type.isArray()) {
+            return ARRAY;
+         }
+         if (!type.isPrimitive()) {
+            return OBJECT;
+         }
+         if ("double".equals(type.getName())
+               || "float".equals(type.getName())) {
+            return FLOATING_POINT;
+         }
+         return PRIMITIVE;
+      }
    }
 
    /** Output fields in outputs? */
@@ -0,0 +1,389 @@
+package org.rmb.reflectionutils;
+
+import static org.rmb.reflectionutils.OutputFlyweights.UnsupportedFields.REJECT;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.rmb.reflectionutils.introspect.ClassIntrospector;
+import org.rmb.reflectionutils.introspect.ClassModel;
+import org.rmb.reflectionutils.introspect.FieldModel;
+import org.rmb.reflectionutils.introspect.ReflectionIntrospector;
+import org.rmb.reflectionutils.introspect.TypeModel;
+
+/**
+ * <p>
+ * Output a flyweight class that stores records shaped like a DTO in a
+ * {@link java.nio.ByteBuffer}, usually a direct one, instead of as objects on
+ * the heap. Each instance field of the class and its superclasses gets a fixed
+ * offset in the record, and the flyweight has get and set methods with the
+ * same names and comments as {@link OutputFieldList#generateGetAndSetMethods}
+ * would give, reading and writing at that offset.
+ * </p>
+ * <p>
+ * Fields are laid out widest first so each is naturally aligned, and records
+ * are padded to the widest field so that alignment holds for every record.
+ * Primitives are stored as they are and enums as their ordinal (-1 for null).
+ * Anything else (Strings, arrays, other objects) has no fixed width: such
+ * fields are listed in a comment in the flyweight, or cause the class to be
+ * rejected.
+ * </p>
+ *
+ * @author robbram
+ */
+public final class OutputFlyweights {
+
+   /** Bytes used to store each primitive type. */
+   private static final Map<String, Integer> WIDTHS =
+         new HashMap<String, Integer>();
+
+   /** Bytes used to store an enum ordinal. */
+   private static final int ENUM_WIDTH = 4;
+
+   static {
+      WIDTHS.put("long", Long.BYTES);
+      WIDTHS.put("double", Double.BYTES);
+      WIDTHS.put("int", Integer.BYTES);
+      WIDTHS.put("float", Float.BYTES);
+      WIDTHS.put("short", Short.BYTES);
+      WIDTHS.put("char", Character.BYTES);
+      WIDTHS.put("byte", Byte.BYTES);
+      WIDTHS.put("boolean", 1);
+   }
+
+   /** Class not meant for external instantiation. */
+   private OutputFlyweights() {
+
+   }
+
+   /**
+    * Output a flyweight for a loaded class.
+    *
+    * @param clazz
+    *           class whose records the flyweight will hold
+    * @param unsupportedFields
+    *           what to do with fields that have no fixed width
+    * @throws ClassNotFoundException
+    *            if a field type cannot be examined
+    */
+   public static void generateFlyweight(final Class<?> clazz,
+         final UnsupportedFields unsupportedFields)
+         throws ClassNotFoundException {
+      generateFlyweight(new ReflectionIntrospector(clazz.getClassLoader()),
+            clazz.getName(), unsupportedFields);
+   }
+
+   /**
+    * Output a flyweight for a class.
+    *
+    * @param introspector
+    *           backend used to describe the class and its field types
+    * @param className
+    *           binary name of the class whose records the flyweight will hold
+    * @param unsupportedFields
+    *           what to do with fields that have no fixed width
+    * @throws ClassNotFoundException
+    *            if the class or a field type cannot be examined
+    * @throws IllegalArgumentException
+    *            if a field has no fixed width and they are rejected
+    */
+   public static void generateFlyweight(final ClassIntrospector introspector,
+         final String className, final UnsupportedFields unsupportedFields)
+         throws ClassNotFoundException {
+      ClassModel clazz = introspector.describe(className);
+      List<Slot> slots = new ArrayList<Slot>();
+      List<String> skipped = new ArrayList<String>();
+      for (FieldModel field : instanceFields(clazz)) {
+         Slot slot = slotFor(introspector, field);
+         if (slot == null) {
+            skipped.add(field.getName() + " ("
+                  + field.getType().getSimpleName() + ")");
+         } else {
+            slots.add(slot);
+         }
+      }
+      if (!skipped.isEmpty() && unsupportedFields == REJECT) {
+         throw new IllegalArgumentException("Fields of [" + className
+               + "] have no fixed width: " + skipped);
+      }
+
+      // Widest first keeps every field naturally aligned.
+      slots.sort((first, second) -> second.width - first.width);
+      int offset = 0;
+      int alignment = 1;
+      for (Slot slot : slots) {
+         slot.offset = offset;
+         offset += slot.width;
+         alignment = Math.max(alignment, slot.width);
+      }
+      int recordSize = (offset + alignment - 1) / alignment * alignment;
+
+      System.out.print(flyweight(clazz, slots, skipped, recordSize));
+   }
+
+   /**
+    * @param clazz
+    *           class to look at
+    * @return instance fields of the class and its superclasses, superclass
+    *         fields first
+    */
+   private static List<FieldModel> instanceFields(final ClassModel clazz) {
+      List<FieldModel> fields = new ArrayList<FieldModel>();
+      for (ClassModel type : clazz.getHierarchy()) {
+         fields.addAll(type.getFields(false));
+      }
+      return fields;
+   }
+
+   /**
+    * @param introspector
+    *           used to tell enums apart
+    * @param field
+    *           instance field
+    * @return where the field goes in a record, without its offset, or null if
+    *         it has no fixed width
+    * @throws ClassNotFoundException
+    *            if the field type cannot be examined
+    */
+   private static Slot slotFor(final ClassIntrospector introspector,
+         final FieldModel field) throws ClassNotFoundException {
+      TypeModel type = field.getType();
+      if (type.isPrimitive()) {
+         return new Slot(field, WIDTHS.get(type.getName()), false);
+      }
+      if (type.isArray()) {
+         return null;
+      }
+      ClassModel model = introspector.describe(type.getName());
+      if (Enum.class.getName().equals(model.getSuperclassName())) {
+         return new Slot(field, ENUM_WIDTH, true);
+      }
+      return null;
+   }
+
+   /**
+    * @param clazz
+    *           class whose records the flyweight holds
+    * @param slots
+    *           fields laid out in the record
+    * @param skipped
+    *           fields left out
+    * @param recordSize
+    *           bytes per record
+    * @return source of the flyweight class
+    */
+   private static String flyweight(final ClassModel clazz,
+         final List<Slot> slots, final List<String> skipped,
+         final int recordSize) {
+      String name = clazz.getSimpleName() + "Flyweight";
+      StringBuilder code = new StringBuilder();
+      code.append("/**\n * <p>\n * View of ").append(clazz.getSimpleName())
+            .append(" records stored ").append(recordSize)
+            .append(" bytes apart in a ByteBuffer.\n")
+            .append(" * Point it at a record with {@link #wrap} or"
+                  + " {@link #moveTo}.\n * </p>\n");
+      if (!skipped.isEmpty()) {
+         code.append(" * <p>\n * Not stored, having no fixed width: ");
+         for (int index = 0; index < skipped.size(); index++) {
+            if (index > 0) {
+               code.append(", ");
+            }
+            code.append(skipped.get(index));
+         }
+         code.append(".\n * </p>\n");
+      }
+      code.append(" */\npublic final class ").append(name).append(" {\n\n");
+      code.append("   /** Bytes per record. */\n");
+      code.append("   public static final int RECORD_SIZE = ")
+            .append(recordSize).append(";\n\n");
+      for (Slot slot : slots) {
+         code.append("   /** Offset of ").append(slot.field.getName())
+               .append(" in a record. */\n");
+         code.append("   private static final int ")
+               .append(slot.constantName()).append(" = ").append(slot.offset)
+               .append(";\n\n");
+      }
+      Set<String> enums = new LinkedHashSet<String>();
+      for (Slot slot : slots) {
+         if (slot.isEnum && enums.add(slot.sourceType())) {
+            code.append("   /** Constants of ").append(slot.sourceType())
+                  .append(", by ordinal. */\n");
+            code.append("   private static final ").append(slot.sourceType())
+                  .append("[] ").append(slot.valuesName()).append(" =\n")
+                  .append("         ").append(slot.sourceType())
+                  .append(".values();\n\n");
+         }
+      }
+      code.append("   /** Buffer holding the records. */\n");
+      code.append("   private java.nio.ByteBuffer buffer;\n\n");
+      code.append("   /** Offset of the current record in the buffer. */\n");
+      code.append("   private int base;\n\n");
+
+      code.append("   /**\n    * @param records\n")
+            .append("    *           number of records to make room for\n")
+            .append("    * @return direct buffer in native byte order,"
+                  + " all fields zero\n")
+            .append("    *         (enums start as their first constant)"
+                  + "\n    */\n");
+      code.append("   public static java.nio.ByteBuffer allocate("
+            + "final int records) {\n");
+      code.append("      return java.nio.ByteBuffer.allocateDirect("
+            + "records * RECORD_SIZE).order(\n"
+            + "            java.nio.ByteOrder.nativeOrder());\n");
+      code.append("   }\n\n");
+
+      code.append("   /**\n    * @param theBuffer\n")
+            .append("    *           buffer holding the records\n")
+            .append("    * @param index\n")
+            .append("    *           index of the record to view\n")
+            .append("    * @return this flyweight\n    */\n");
+      code.append("   public ").append(name)
+            .append(" wrap(final java.nio.ByteBuffer theBuffer,"
+                  + " final int index) {\n");
+      code.append("      buffer = theBuffer;\n");
+      code.append("      return moveTo(index);\n");
+      code.append("   }\n\n");
+
+      code.append("   /**\n    * @param index\n")
+            .append("    *           index of the record to view\n")
+            .append("    * @return this flyweight\n    */\n");
+      code.append("   public ").append(name)
+            .append(" moveTo(final int index) {\n");
+      code.append("      base = index * RECORD_SIZE;\n");
+      code.append("      return this;\n");
+      code.append("   }\n");
+
+      for (Slot slot : slots) {
+         code.append(accessors(slot));
+      }
+      code.append("}\n");
+      return code.toString();
+   }
+
+   /**
+    * @param slot
+    *           field laid out in the record
+    * @return get and set methods for the field
+    */
+   private static String accessors(final Slot slot) {
+      String fieldName = slot.field.getName();
+      String capitalName = OutputFieldList.capitaliseFieldName(fieldName);
+      String comment = OutputFieldList.generateAccessorComment(slot.field);
+      String type = slot.sourceType();
+      String at = "base + " + slot.constantName();
+      StringBuilder code = new StringBuilder();
+      code.append("\n   /** @return ").append(comment).append(" */\n");
+      code.append("   public ").append(type).append(" get")
+            .append(capitalName).append("() {\n");
+      if (slot.isEnum) {
+         code.append("      final int ordinal = buffer.getInt(").append(at)
+               .append(");\n");
+         code.append("      if (ordinal < 0) {\n");
+         code.append("         return null;\n");
+         code.append("      }\n");
+         code.append("      return ").append(slot.valuesName())
+               .append("[ordinal];\n");
+      } else if ("boolean".equals(type)) {
+         code.append("      return buffer.get(").append(at)
+               .append(") != 0;\n");
+      } else {
+         code.append("      return buffer.get").append(slot.bufferSuffix())
+               .append("(").append(at).append(");\n");
+      }
+      code.append("   }\n");
+
+      String parameter = "the" + capitalName;
+      code.append("\n   /** @param ").append(parameter).append(" ")
+            .append(comment).append(" */\n");
+      code.append("   public void set").append(capitalName)
+            .append("(final ").append(type).append(" ").append(parameter)
+            .append(") {\n");
+      if (slot.isEnum) {
+         code.append("      if (").append(parameter).append(" == null) {\n");
+         code.append("         buffer.putInt(").append(at).append(", -1);\n");
+         code.append("      } else {\n");
+         code.append("         buffer.putInt(").append(at).append(", ")
+               .append(parameter).append(".ordinal());\n");
+         code.append("      }\n");
+      } else if ("boolean".equals(type)) {
+         code.append("      buffer.put(").append(at).append(", (byte) (")
+               .append(parameter).append(" ? 1 : 0));\n");
+      } else {
+         code.append("      buffer.put").append(slot.bufferSuffix())
+               .append("(").append(at).append(", ").append(parameter)
+               .append(");\n");
+      }
+      code.append("   }\n");
+      return code.toString();
+   }
+
+   /** What to do with fields that have no fixed width. */
+   public enum UnsupportedFields {
+      /** Leave them out and list them in the flyweight's comment. */
+      REPORT,
+      /** Refuse to generate the flyweight. */
+      REJECT;
+   }
+
+   /** Where a field goes in a record. */
+   private static final class Slot {
+
+      /** Field stored here. */
+      private final FieldModel field;
+
+      /** Bytes used. */
+      private final int width;
+
+      /** Is the field an enum, stored as its ordinal? */
+      private final boolean isEnum;
+
+      /** Offset from the start of the record. */
+      private int offset;
+
+      /**
+       * @param theField
+       *           field stored here
+       * @param theWidth
+       *           bytes used
+       * @param theIsEnum
+       *           is the field an enum, stored as its ordinal?
+       */
+      Slot(final FieldModel theField, final int theWidth,
+            final boolean theIsEnum) {
+         field = theField;
+         width = theWidth;
+         isEnum = theIsEnum;
+      }
+
+      /** @return name of the constant holding the offset, e.g. AGE_OFFSET */
+      String constantName() {
+         return field.getName().replaceAll("([a-z0-9])([A-Z])", "$1_$2")
+               .toUpperCase() + "_OFFSET";
+      }
+
+      /** @return name of the constant holding the enum values */
+      String valuesName() {
+         return field.getType().getSimpleName()
+               .replaceAll("([a-z0-9])([A-Z])", "$1_$2").toUpperCase()
+               + "_VALUES";
+      }
+
+      /** @return field type as written in Java source */
+      String sourceType() {
+         return field.getType().getName().replace('$', '.');
+      }
+
+      /** @return ByteBuffer get/put suffix, e.g. Int; empty for byte */
+      String bufferSuffix() {
+         String type = field.getType().getName();
+         if ("byte".equals(type)) {
+            return "";
+         }
+         return Character.toUpperCase(type.charAt(0)) + type.substring(1);
+      }
+   }
+}
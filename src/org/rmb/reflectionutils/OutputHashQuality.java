@@ -0,0 +1,650 @@
+package org.rmb.reflectionutils;
+
+import static org.rmb.reflectionutils.OutputFieldList.EqualsStyle.SPECIALISED;
+import static org.rmb.reflectionutils.OutputHashQuality.SampleValues.SMALL;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.ToIntFunction;
+
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+import org.rmb.reflectionutils.OutputFieldList.EqualsStyle;
+
+/**
+ * <p>
+ * Check how well a hashCode() spreads keys before it goes into a class:
+ * either the one {@link OutputFieldList#outputToStringHashAndEquals} would
+ * generate in a given style, or the one the class already has. Distinct sample
+ * instances are synthesised from the field types and the report gives
+ * </p>
+ * <ul>
+ * <li>how many samples share a hash code;</li>
+ * <li>for a range of table sizes, how evenly <code>HashMap</code> would spread
+ * them over its buckets compared with a random hash;</li>
+ * <li>for each field, the share of hash bits that change when the field
+ * changes to a neighbouring value (avalanche, where half is ideal).</li>
+ * </ul>
+ * <p>
+ * Problems such as many collisions, skewed buckets or a field that does not
+ * affect the hash at all are listed as warnings at the end. Primitives, their
+ * boxes, Strings, enums and arrays of those are varied; other fields are left
+ * null. Generated hash codes only use the fields declared in the class itself,
+ * as the generators do.
+ * </p>
+ *
+ * @author robbram
+ */
+public final class OutputHashQuality {
+
+   /** Seed for the synthesised values, so reports can be repeated. */
+   private static final long SEED = 20141014L;
+
+   /** Numbers drawn for {@link SampleValues#SMALL} are below this. */
+   private static final int SMALL_RANGE = 1000;
+
+   /** Longest String or array synthesised. */
+   private static final int MAX_LENGTH = 8;
+
+   /** Draws allowed per sample wanted before giving up on distinct values. */
+   private static final int DRAWS_PER_SAMPLE = 10;
+
+   /** Samples perturbed per field to measure avalanche. */
+   private static final int AVALANCHE_SAMPLES = 1000;
+
+   /** Converts a share to a percentage. */
+   private static final double PERCENT = 100.0;
+
+   /** Bits in a hash code. */
+   private static final double HASH_BITS = Integer.SIZE;
+
+   /** Smallest table size reported, and the default HashMap capacity. */
+   private static final int SMALLEST_TABLE = 16;
+
+   /** Table sizes reported go up by this factor. */
+   private static final int TABLE_STEP = 16;
+
+   /** HashMap's default load factor. */
+   private static final double LOAD_FACTOR = 0.75;
+
+   /** Share of samples sharing a hash code above which we warn. */
+   private static final double COLLISION_WARNING = 0.01;
+
+   /** Chi-squared per degree of freedom above which buckets are skewed. */
+   private static final double SKEW_WARNING = 2.0;
+
+   /** Average share of hash bits changed below which we warn. */
+   private static final double AVALANCHE_WARNING = 0.125;
+
+   /** Class not meant for external instantiation. */
+   private OutputHashQuality() {
+
+   }
+
+   /**
+    * Report on the hashCode() that
+    * {@link OutputFieldList#outputToStringHashAndEquals(Class, EqualsStyle)}
+    * would generate for a class.
+    *
+    * @param clazz
+    *           class to examine
+    * @param equalsStyle
+    *           style of the generated hashCode()
+    * @param sampleValues
+    *           range of the synthesised field values
+    * @param samples
+    *           distinct instances to synthesise
+    */
+   public static void analyseHashCode(final Class<?> clazz,
+         final EqualsStyle equalsStyle, final SampleValues sampleValues,
+         final int samples) {
+      List<Field> fields = instanceFields(clazz);
+      // Generated code only looks at the fields declared in the class.
+      List<Integer> declared = new ArrayList<Integer>();
+      for (int index = 0; index < fields.size(); index++) {
+         if (fields.get(index).getDeclaringClass() == clazz) {
+            declared.add(index);
+         }
+      }
+      ToIntFunction<Object[]> hash;
+      if (equalsStyle == SPECIALISED) {
+         hash = values -> specialisedHash(values, declared);
+      } else {
+         hash = values -> commonsHash(fields, values, declared);
+      }
+      analyse(clazz, fields, hash, "generated " + equalsStyle, sampleValues,
+            samples);
+   }
+
+   /**
+    * Report on the hashCode() a class already has. Instances are made with
+    * the no-argument constructor (which may be private) and every instance
+    * field, inherited ones included, is set by reflection.
+    *
+    * @param clazz
+    *           class to examine
+    * @param sampleValues
+    *           range of the synthesised field values
+    * @param samples
+    *           distinct instances to synthesise
+    * @throws IllegalArgumentException
+    *            if the class has no no-argument constructor
+    */
+   public static void analyseDeclaredHashCode(final Class<?> clazz,
+         final SampleValues sampleValues, final int samples) {
+      List<Field> fields = instanceFields(clazz);
+      Constructor<?> constructor;
+      try {
+         constructor = clazz.getDeclaredConstructor();
+      } catch (NoSuchMethodException e) {
+         throw new IllegalArgumentException("[" + clazz.getName()
+               + "] needs a no-argument constructor.", e);
+      }
+      constructor.setAccessible(true);
+      for (Field field : fields) {
+         field.setAccessible(true);
+      }
+      ToIntFunction<Object[]> hash = values -> {
+         try {
+            Object instance = constructor.newInstance();
+            for (int index = 0; index < values.length; index++) {
+               if (values[index] != null
+                     || !fields.get(index).getType().isPrimitive()) {
+                  fields.get(index).set(instance, values[index]);
+               }
+            }
+            return instance.hashCode();
+         } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot make an instance of ["
+                  + clazz.getName() + "].", e);
+         }
+      };
+      analyse(clazz, fields, hash, "declared hashCode()", sampleValues,
+            samples);
+   }
+
+   /**
+    * @param clazz
+    *           class to examine
+    * @param fields
+    *           instance fields, superclass fields first
+    * @param hash
+    *           hash of an instance with the given field values
+    * @param candidate
+    *           description of the hash, for the heading
+    * @param sampleValues
+    *           range of the synthesised field values
+    * @param samples
+    *           distinct instances to synthesise
+    */
+   private static void analyse(final Class<?> clazz, final List<Field> fields,
+         final ToIntFunction<Object[]> hash, final String candidate,
+         final SampleValues sampleValues, final int samples) {
+      Random random = new Random(SEED);
+      List<Object[]> instances =
+            synthesise(fields, sampleValues, samples, random);
+      int[] hashes = new int[instances.size()];
+      for (int index = 0; index < hashes.length; index++) {
+         hashes[index] = hash.applyAsInt(instances.get(index));
+      }
+      List<String> warnings = new ArrayList<String>();
+
+      System.out.println("\n\n=============== HASHCODE QUALITY: "
+            + clazz.getName() + " (" + candidate + ", " + sampleValues
+            + " values) ===============");
+      List<String> fixed = new ArrayList<String>();
+      for (Field field : fields) {
+         if (!canVary(field.getType())) {
+            fixed.add(field.getName());
+         }
+      }
+      if (!fixed.isEmpty()) {
+         System.out.println("Left null, not varied: " + fixed);
+      }
+      if (instances.size() < samples) {
+         warnings.add("Only " + instances.size() + " distinct instances of "
+               + samples + " could be made.");
+      }
+
+      Set<Integer> distinct = new HashSet<Integer>();
+      for (int value : hashes) {
+         distinct.add(value);
+      }
+      int collisions = hashes.length - distinct.size();
+      double collisionRate = ratio(collisions, hashes.length);
+      System.out.println(String.format(
+            "%d samples, %d distinct hash codes: %.2f%% collide.",
+            hashes.length, distinct.size(), percent(collisionRate)));
+      if (collisionRate > COLLISION_WARNING) {
+         warnings.add(String.format("%.2f%% of samples share a hash code.",
+               percent(collisionRate)));
+      }
+
+      System.out.println("---- HashMap buckets ----");
+      System.out.println("   table  occupied  random  in chains  random"
+            + "  longest   skew");
+      for (int table : tableSizes(hashes.length)) {
+         String skewWarning = outputBuckets(hashes, table);
+         if (skewWarning != null) {
+            warnings.add(skewWarning);
+         }
+      }
+
+      System.out.println("---- Avalanche (share of hash bits changed,"
+            + " 50% is ideal) ----");
+      for (int index = 0; index < fields.size(); index++) {
+         Field field = fields.get(index);
+         if (canVary(field.getType())) {
+            double avalanche = avalanche(instances, index, field.getType(),
+                  hash, random);
+            System.out.println(String.format("   %-24s %5.1f%%",
+                  field.getName(), percent(avalanche)));
+            if (avalanche == 0) {
+               warnings.add("Field " + field.getName()
+                     + " does not affect the hash code.");
+            } else if (avalanche < AVALANCHE_WARNING) {
+               warnings.add(String.format("Changing field %s changes only"
+                     + " %.1f%% of hash bits, so similar keys get similar"
+                     + " hashes.", field.getName(), percent(avalanche)));
+            }
+         }
+      }
+
+      System.out.println("---- Warnings ----");
+      if (warnings.isEmpty()) {
+         System.out.println("   none");
+      }
+      for (String warning : warnings) {
+         System.out.println("   " + warning);
+      }
+   }
+
+   /**
+    * Output one line of the bucket table.
+    *
+    * @param hashes
+    *           hash codes of the samples
+    * @param table
+    *           number of buckets, a power of two
+    * @return warning if the buckets are skewed, otherwise null
+    */
+   private static String outputBuckets(final int[] hashes, final int table) {
+      int[] counts = new int[table];
+      for (int value : hashes) {
+         // As HashMap.hash() spreads the high bits down.
+         counts[(value ^ (value >>> (Integer.SIZE / 2))) & (table - 1)]++;
+      }
+      int occupied = 0;
+      int longest = 0;
+      double mean = ratio(hashes.length, table);
+      double chiSquared = 0;
+      for (int count : counts) {
+         if (count > 0) {
+            occupied++;
+         }
+         longest = Math.max(longest, count);
+         chiSquared += (count - mean) * (count - mean) / mean;
+      }
+      double skew = chiSquared / (table - 1);
+      double expected =
+            table * (1 - Math.pow(1 - 1.0 / table, hashes.length));
+      System.out.println(String.format(
+            "   %5d  %8d  %6.0f  %8.2f%%  %5.2f%%  %7d  %5.2f", table,
+            occupied, expected,
+            percent(ratio(hashes.length - occupied, hashes.length)),
+            percent((hashes.length - expected) / hashes.length), longest,
+            skew));
+      if (skew > SKEW_WARNING) {
+         return String.format("Buckets of a %d slot table are skewed:"
+               + " chi-squared per bucket %.2f, where 1.0 is uniform.",
+               table, skew);
+      }
+      return null;
+   }
+
+   /**
+    * @param entries
+    *           keys to go in the table
+    * @return table sizes to report: powers of two from
+    *         {@link #SMALLEST_TABLE} up to the size HashMap would pick for
+    *         the keys
+    */
+   private static List<Integer> tableSizes(final int entries) {
+      int natural = SMALLEST_TABLE;
+      while (natural * LOAD_FACTOR < entries) {
+         natural *= 2;
+      }
+      List<Integer> sizes = new ArrayList<Integer>();
+      for (int size = SMALLEST_TABLE; size < natural; size *= TABLE_STEP) {
+         sizes.add(size);
+      }
+      sizes.add(natural);
+      return sizes;
+   }
+
+   /**
+    * @param instances
+    *           field values of the samples
+    * @param index
+    *           index of the field to change
+    * @param type
+    *           type of the field
+    * @param hash
+    *           hash of an instance with the given field values
+    * @param random
+    *           source of randomness
+    * @return average share of hash bits that change when the field changes to
+    *         a neighbouring value
+    */
+   private static double avalanche(final List<Object[]> instances,
+         final int index, final Class<?> type,
+         final ToIntFunction<Object[]> hash, final Random random) {
+      int tried = Math.min(AVALANCHE_SAMPLES, instances.size());
+      long changedBits = 0;
+      for (int sample = 0; sample < tried; sample++) {
+         Object[] values = instances.get(sample);
+         Object[] changed = values.clone();
+         changed[index] = neighbour(type, values[index], random);
+         changedBits += Integer.bitCount(hash.applyAsInt(values)
+               ^ hash.applyAsInt(changed));
+      }
+      return ratio(changedBits / HASH_BITS, tried);
+   }
+
+   /**
+    * @param part
+    *           count of some of the things
+    * @param whole
+    *           count of all of them
+    * @return part as a share of whole, 0 if whole is 0
+    */
+   private static double ratio(final double part, final double whole) {
+      if (whole == 0) {
+         return 0;
+      }
+      return part / whole;
+   }
+
+   /**
+    * @param share
+    *           share between 0 and 1
+    * @return share as a percentage
+    */
+   private static double percent(final double share) {
+      return share * PERCENT;
+   }
+
+   /**
+    * @param clazz
+    *           class to examine
+    * @return non-static fields of the class and its superclasses, superclass
+    *         fields first
+    */
+   private static List<Field> instanceFields(final Class<?> clazz) {
+      List<Class<?>> hierarchy = new ArrayList<Class<?>>();
+      for (Class<?> type = clazz; type != null && type != Object.class;
+            type = type.getSuperclass()) {
+         hierarchy.add(0, type);
+      }
+      List<Field> fields = new ArrayList<Field>();
+      for (Class<?> type : hierarchy) {
+         for (Field field : type.getDeclaredFields()) {
+            if (!Modifier.isStatic(field.getModifiers())
+                  && !field.isSynthetic()) {
+               fields.add(field);
+            }
+         }
+      }
+      return fields;
+   }
+
+   /**
+    * @param fields
+    *           instance fields
+    * @param sampleValues
+    *           range of the values
+    * @param samples
+    *           instances wanted
+    * @param random
+    *           source of randomness
+    * @return field values of up to that many distinct instances
+    */
+   private static List<Object[]> synthesise(final List<Field> fields,
+         final SampleValues sampleValues, final int samples,
+         final Random random) {
+      List<Object[]> instances = new ArrayList<Object[]>(samples);
+      Set<List<Object>> seen = new HashSet<List<Object>>();
+      for (int draw = 0; draw < samples * DRAWS_PER_SAMPLE
+            && instances.size() < samples; draw++) {
+         Object[] values = new Object[fields.size()];
+         List<Object> key = new ArrayList<Object>(values.length);
+         for (int index = 0; index < values.length; index++) {
+            values[index] =
+                  value(fields.get(index).getType(), sampleValues, random);
+            key.add(Arrays.deepToString(new Object[] {values[index] }));
+         }
+         if (seen.add(key)) {
+            instances.add(values);
+         }
+      }
+      return instances;
+   }
+
+   /**
+    * @param type
+    *           field type
+    * @return true if values of the type are synthesised
+    */
+   private static boolean canVary(final Class<?> type) {
+      if (type.isArray()) {
+         return canVary(type.getComponentType());
+      }
+      return type.isPrimitive() || type.isEnum() || type == String.class
+            || type == Boolean.class || type == Character.class
+            || Number.class.isAssignableFrom(type) && type.getName()
+                  .startsWith("java.lang.");
+   }
+
+   /**
+    * @param type
+    *           field type
+    * @param sampleValues
+    *           range of the value
+    * @param random
+    *           source of randomness
+    * @return random value of the type, boxed for primitives, or null for
+    *         types that are not varied
+    */
+   private static Object value(final Class<?> type,
+         final SampleValues sampleValues, final Random random) {
+      if (!canVary(type)) {
+         return null;
+      }
+      if (type.isArray()) {
+         Object array = Array.newInstance(type.getComponentType(),
+               random.nextInt(MAX_LENGTH));
+         for (int index = 0; index < Array.getLength(array); index++) {
+            Array.set(array, index,
+                  value(type.getComponentType(), sampleValues, random));
+         }
+         return array;
+      }
+      if (type.isEnum()) {
+         Object[] constants = type.getEnumConstants();
+         return constants[random.nextInt(constants.length)];
+      }
+      if (type == String.class) {
+         char[] chars = new char[1 + random.nextInt(MAX_LENGTH)];
+         for (int index = 0; index < chars.length; index++) {
+            chars[index] = (char) ('a' + random.nextInt('z' - 'a' + 1));
+         }
+         return new String(chars);
+      }
+      if (type == boolean.class || type == Boolean.class) {
+         return random.nextBoolean();
+      }
+      if (type == char.class || type == Character.class) {
+         if (sampleValues == SMALL) {
+            return (char) ('a' + random.nextInt('z' - 'a' + 1));
+         }
+         return (char) random.nextInt(Character.MAX_VALUE + 1);
+      }
+      long number = random.nextLong();
+      double real = random.nextDouble() * Double.MAX_VALUE;
+      if (sampleValues == SMALL) {
+         number = random.nextInt(SMALL_RANGE);
+         real = random.nextInt(SMALL_RANGE * SMALL_RANGE)
+               / (double) SMALL_RANGE;
+      }
+      return number(type, number, real);
+   }
+
+   /**
+    * @param type
+    *           primitive or boxed numeric type
+    * @param number
+    *           value to use for integral types, cast down as needed
+    * @param real
+    *           value to use for floating point types
+    * @return boxed value of the type
+    */
+   private static Object number(final Class<?> type, final long number,
+         final double real) {
+      if (type == byte.class || type == Byte.class) {
+         return (byte) number;
+      }
+      if (type == short.class || type == Short.class) {
+         return (short) number;
+      }
+      if (type == int.class || type == Integer.class) {
+         return (int) number;
+      }
+      if (type == float.class || type == Float.class) {
+         return (float) real;
+      }
+      if (type == double.class || type == Double.class) {
+         return real;
+      }
+      return number;
+   }
+
+   /**
+    * @param type
+    *           field type
+    * @param value
+    *           current value
+    * @param random
+    *           source of randomness
+    * @return a value next to the current one: one more (the next float or
+    *         double), the next constant, the other boolean, a String with its
+    *         last character changed or an array with an element added
+    */
+   private static Object neighbour(final Class<?> type, final Object value,
+         final Random random) {
+      if (value instanceof String) {
+         char[] chars = ((String) value).toCharArray();
+         chars[chars.length - 1]++;
+         return new String(chars);
+      }
+      if (value instanceof Boolean) {
+         return !(Boolean) value;
+      }
+      if (value instanceof Character) {
+         return (char) ((Character) value + 1);
+      }
+      if (value instanceof Enum) {
+         Object[] constants = type.getEnumConstants();
+         return constants[(((Enum<?>) value).ordinal() + 1)
+               % constants.length];
+      }
+      if (value instanceof Float) {
+         return Math.nextUp((Float) value);
+      }
+      if (value instanceof Double) {
+         return Math.nextUp((Double) value);
+      }
+      if (value instanceof Number) {
+         return number(type, ((Number) value).longValue() + 1, 0);
+      }
+      if (value != null && type.isArray()) {
+         int length = Array.getLength(value);
+         Object array = Array.newInstance(type.getComponentType(), length + 1);
+         System.arraycopy(value, 0, array, 0, length);
+         Array.set(array, length,
+               value(type.getComponentType(), SMALL, random));
+         return array;
+      }
+      return value;
+   }
+
+   /**
+    * Hash as the SPECIALISED hashCode() generated by
+    * {@link OutputFieldList} computes it.
+    *
+    * @param values
+    *           field values, boxed
+    * @param declared
+    *           indexes of the fields declared in the class itself
+    * @return hash code
+    */
+   private static int specialisedHash(final Object[] values,
+         final List<Integer> declared) {
+      int result = 1;
+      for (int index : declared) {
+         Object value = values[index];
+         int term = Objects.hashCode(value);
+         if (value != null && value.getClass().isArray()) {
+            // Arrays.hashCode or deepHashCode, without the wrapper's 31.
+            term = Arrays.deepHashCode(new Object[] {value }) - Arrays
+                  .deepHashCode(new Object[] {null });
+         }
+         result = OutputFieldList.HASH_MULTIPLIER * result + term;
+      }
+      return result;
+   }
+
+   /**
+    * Hash as the COMMONS_BUILDERS hashCode() generated by
+    * {@link OutputFieldList} computes it.
+    *
+    * @param fields
+    *           instance fields
+    * @param values
+    *           field values, boxed
+    * @param declared
+    *           indexes of the fields declared in the class itself
+    * @return hash code
+    */
+   private static int commonsHash(final List<Field> fields,
+         final Object[] values, final List<Integer> declared) {
+      HashCodeBuilder builder = new HashCodeBuilder();
+      for (int index : declared) {
+         if (fields.get(index).getType() == boolean.class) {
+            // append(boolean) differs from Boolean.hashCode().
+            builder.append(((Boolean) values[index]).booleanValue());
+         } else {
+            builder.append(values[index]);
+         }
+      }
+      return builder.toHashCode();
+   }
+
+   /** Range of synthesised values. */
+   public enum SampleValues {
+      /**
+       * Typical of ids, counts and codes: numbers from 0 to 999 (reals with
+       * three decimal places), lower case letters.
+       */
+      SMALL,
+      /** Numbers and characters from their whole range. */
+      FULL_RANGE;
+   }
+}
@@ -0,0 +1,541 @@
+package org.rmb.reflectionutils;
+
+import static org.rmb.reflectionutils.OutputMemoryLayout.Oops.COMPRESSED;
+import static org.rmb.reflectionutils.OutputMemoryLayout.Oops.UNCOMPRESSED;
+
+import java.io.IOException;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.rmb.reflectionutils.introspect.ClassFileIntrospector;
+import org.rmb.reflectionutils.introspect.ClassIntrospector;
+import org.rmb.reflectionutils.introspect.ClassModel;
+import org.rmb.reflectionutils.introspect.FieldModel;
+import org.rmb.reflectionutils.introspect.ReflectionIntrospector;
+import org.rmb.reflectionutils.introspect.TypeModel;
+
+/**
+ * <p>
+ * Estimate how much heap an instance of a class takes: object header, the
+ * offset of every instance field of the class and its superclasses, the
+ * padding between and after them, and how much narrowing a field's type (long
+ * to int, Integer to int and so on) would save. Reports can be made for one
+ * class or summarised across a package, sorted to show the classes that waste
+ * the most.
+ * </p>
+ * <p>
+ * Fields are laid out the way HotSpot does from JDK 15: superclass fields
+ * first, each class's own primitives widest first and then its references,
+ * each put in the first gap left earlier that it fits, and the instance
+ * padded to 8 bytes. Older JVMs and other
+ * flags can give different offsets, so treat sizes as estimates. Only shallow
+ * size is counted, except that narrowing a boxed field also saves the box.
+ * </p>
+ *
+ * @author robbram
+ */
+public final class OutputMemoryLayout {
+
+   /** Every object's size is a multiple of this. */
+   private static final int OBJECT_ALIGNMENT = 8;
+
+   /** Bytes used by each primitive type. */
+   private static final Map<String, Integer> WIDTHS =
+         new HashMap<String, Integer>();
+
+   /** Narrower type worth suggesting for each primitive and boxed type. */
+   private static final Map<String, String> NARROWER =
+         new HashMap<String, String>();
+
+   static {
+      WIDTHS.put("long", Long.BYTES);
+      WIDTHS.put("double", Double.BYTES);
+      WIDTHS.put("int", Integer.BYTES);
+      WIDTHS.put("float", Float.BYTES);
+      WIDTHS.put("short", Short.BYTES);
+      WIDTHS.put("char", Character.BYTES);
+      WIDTHS.put("byte", Byte.BYTES);
+      WIDTHS.put("boolean", 1);
+
+      NARROWER.put("long", "int");
+      NARROWER.put("double", "float");
+      NARROWER.put("int", "short");
+      NARROWER.put("short", "byte");
+      NARROWER.put(Long.class.getName(), "long");
+      NARROWER.put(Double.class.getName(), "double");
+      NARROWER.put(Integer.class.getName(), "int");
+      NARROWER.put(Float.class.getName(), "float");
+      NARROWER.put(Short.class.getName(), "short");
+      NARROWER.put(Character.class.getName(), "char");
+      NARROWER.put(Byte.class.getName(), "byte");
+      NARROWER.put(Boolean.class.getName(), "boolean");
+   }
+
+   /** Class not meant for external instantiation. */
+   private OutputMemoryLayout() {
+
+   }
+
+   /**
+    * Output the layout of a loaded class.
+    *
+    * @param clazz
+    *           class to examine
+    * @param oops
+    *           how references are stored
+    */
+   public static void outputLayout(final Class<?> clazz, final Oops oops) {
+      outputLayout(ReflectionIntrospector.describeClass(clazz), oops);
+   }
+
+   /**
+    * Output the layout of a class: header, field offsets, gaps and padding,
+    * then what narrowing each field would save.
+    *
+    * @param clazz
+    *           model of the class to examine
+    * @param oops
+    *           how references are stored
+    */
+   public static void outputLayout(final ClassModel clazz, final Oops oops) {
+      Layout layout = new Layout(clazz, oops);
+      System.out.println("\n\n=============== LAYOUT: " + clazz.getName()
+            + " (" + oops.description + ") ===============");
+      System.out.println("offset  size  field");
+      System.out.println(String.format("%6d  %4d  (object header)", 0,
+            oops.headerSize));
+      int end = oops.headerSize;
+      for (Placement placement : layout.placements) {
+         if (placement.offset > end) {
+            System.out.println(String.format("%6d  %4d  (gap)", end,
+                  placement.offset - end));
+         }
+         String declaredIn = "";
+         if (placement.declaringClass != clazz) {
+            declaredIn = "  [" + placement.declaringClass.getSimpleName() + "]";
+         }
+         System.out.println(String.format("%6d  %4d  %s %s%s",
+               placement.offset, placement.width,
+               placement.field.getType().getSimpleName(),
+               placement.field.getName(), declaredIn));
+         end = placement.offset + placement.width;
+      }
+      if (layout.size > end) {
+         System.out.println(String.format("%6d  %4d  (padding)", end,
+               layout.size - end));
+      }
+      System.out.println("Instance size " + layout.size + " bytes: "
+            + oops.headerSize + " header, " + layout.fieldBytes()
+            + " fields, " + layout.padding() + " padding.");
+
+      System.out.println("---- Possible savings from narrowing ----");
+      boolean any = false;
+      for (FieldModel field : layout.narrowable()) {
+         List<FieldModel> narrowed = Collections.singletonList(field);
+         int saving = layout.size - layout.narrow(narrowed).size
+               + boxSize(field, oops);
+         if (saving > 0) {
+            any = true;
+            System.out.println("   " + field.getType().getSimpleName() + " "
+                  + field.getName() + " -> " + narrower(field) + ": " + saving
+                  + " bytes");
+         }
+      }
+      if (any) {
+         System.out.println("   all narrowable fields: " + layout.saving()
+               + " bytes");
+      } else {
+         System.out.println("   none");
+      }
+   }
+
+   /**
+    * Output a summary of every class in a package, found on the
+    * introspector's class path.
+    *
+    * @param introspector
+    *           reads the classes
+    * @param packageName
+    *           package to examine, not including sub-packages
+    * @param sortBy
+    *           order of the classes
+    * @throws IOException
+    *            if the class path cannot be read
+    * @throws ClassNotFoundException
+    *            if a class or superclass cannot be found
+    */
+   public static void outputPackageLayouts(
+         final ClassFileIntrospector introspector, final String packageName,
+         final SortBy sortBy) throws IOException, ClassNotFoundException {
+      outputLayouts(introspector, introspector.listClasses(packageName),
+            sortBy);
+   }
+
+   /**
+    * Output one line per class: size with compressed and uncompressed oops,
+    * padding and possible saving from narrowing (both with compressed oops).
+    * Interfaces and annotations are left out.
+    *
+    * @param introspector
+    *           describes the classes
+    * @param classNames
+    *           binary names of the classes to examine
+    * @param sortBy
+    *           order of the classes
+    * @throws ClassNotFoundException
+    *            if a class cannot be found
+    */
+   public static void outputLayouts(final ClassIntrospector introspector,
+         final List<String> classNames, final SortBy sortBy)
+         throws ClassNotFoundException {
+      List<Layout> layouts = new ArrayList<Layout>();
+      Map<Layout, Layout> uncompressed = new HashMap<Layout, Layout>();
+      for (String className : classNames) {
+         ClassModel clazz = introspector.describe(className);
+         if (!Modifier.isInterface(clazz.getModifiers())) {
+            Layout layout = new Layout(clazz, COMPRESSED);
+            layouts.add(layout);
+            uncompressed.put(layout, new Layout(clazz, UNCOMPRESSED));
+         }
+      }
+      layouts.sort(sortBy.order);
+
+      System.out.println("\n\n=============== LAYOUTS by " + sortBy
+            + " ===============");
+      System.out.println("compressed  uncompressed  padding  narrowing"
+            + "  class");
+      for (Layout layout : layouts) {
+         System.out.println(String.format("%10d  %12d  %7d  %9d  %s",
+               layout.size, uncompressed.get(layout).size, layout.padding(),
+               layout.saving(), layout.clazz.getName()));
+      }
+   }
+
+   /**
+    * @param field
+    *           field that could be narrowed
+    * @return type to narrow it to
+    */
+   private static String narrower(final FieldModel field) {
+      return NARROWER.get(field.getType().getName());
+   }
+
+   /**
+    * @param field
+    *           field that could be narrowed
+    * @param oops
+    *           how references are stored
+    * @return size of the box object a value of the field needs, 0 if it is a
+    *         primitive
+    */
+   private static int boxSize(final FieldModel field, final Oops oops) {
+      if (field.getType().isPrimitive()) {
+         return 0;
+      }
+      return align(oops.headerSize + WIDTHS.get(narrower(field)));
+   }
+
+   /**
+    * @param value
+    *           size in bytes
+    * @return value rounded up to {@link #OBJECT_ALIGNMENT}
+    */
+   private static int align(final int value) {
+      return (value + OBJECT_ALIGNMENT - 1) / OBJECT_ALIGNMENT
+            * OBJECT_ALIGNMENT;
+   }
+
+   /** How references are stored, which also decides the header size. */
+   public enum Oops {
+      /** Default for heaps under 32GB: 4 byte references, 12 byte header. */
+      COMPRESSED("compressed oops", 12, 4),
+      /**
+       * Large heaps or -XX:-UseCompressedOops: 8 byte references. The class
+       * pointer stays compressed, as it does by default from JDK 15.
+       */
+      UNCOMPRESSED("uncompressed oops", 12, 8);
+
+      /** Used in report headings. */
+      private final String description;
+
+      /** Mark word plus class pointer. */
+      private final int headerSize;
+
+      /** Bytes per reference field. */
+      private final int referenceSize;
+
+      /**
+       * @param theDescription
+       *           used in report headings
+       * @param theHeaderSize
+       *           mark word plus class pointer
+       * @param theReferenceSize
+       *           bytes per reference field
+       */
+      Oops(final String theDescription, final int theHeaderSize,
+            final int theReferenceSize) {
+         description = theDescription;
+         headerSize = theHeaderSize;
+         referenceSize = theReferenceSize;
+      }
+   }
+
+   /** Order of classes in a package summary; sizes sort largest first. */
+   public enum SortBy {
+      /** Instance size with compressed oops. */
+      SIZE((first, second) -> second.size - first.size),
+      /** Padding plus possible saving from narrowing. */
+      WASTE((first, second) -> second.padding() + second.saving()
+            - first.padding() - first.saving()),
+      /** Class name. */
+      NAME((first, second) -> 0);
+
+      /** Compares layouts, ties broken by class name. */
+      private final Comparator<Layout> order;
+
+      /**
+       * @param theOrder
+       *           compares layouts, before ties are broken by class name
+       */
+      SortBy(final Comparator<Layout> theOrder) {
+         order = theOrder.thenComparing(
+               (first, second) -> first.clazz.getName().compareTo(
+                     second.clazz.getName()));
+      }
+   }
+
+   /** Where one field goes in an instance. */
+   private static final class Placement {
+
+      /** Field placed. */
+      private final FieldModel field;
+
+      /** Class declaring the field. */
+      private final ClassModel declaringClass;
+
+      /** Bytes used. */
+      private final int width;
+
+      /** Offset from the start of the object. */
+      private final int offset;
+
+      /**
+       * @param theField
+       *           field placed
+       * @param theDeclaringClass
+       *           class declaring the field
+       * @param theWidth
+       *           bytes used
+       * @param theOffset
+       *           offset from the start of the object
+       */
+      Placement(final FieldModel theField,
+            final ClassModel theDeclaringClass, final int theWidth,
+            final int theOffset) {
+         field = theField;
+         declaringClass = theDeclaringClass;
+         width = theWidth;
+         offset = theOffset;
+      }
+   }
+
+   /** Estimated layout of an instance of a class. */
+   private static final class Layout {
+
+      /** Class laid out. */
+      private final ClassModel clazz;
+
+      /** Class and its superclasses, the topmost first. */
+      private final List<ClassModel> hierarchy;
+
+      /** How references are stored. */
+      private final Oops oops;
+
+      /** Fields in offset order. */
+      private final List<Placement> placements = new ArrayList<Placement>();
+
+      /** Instance size, including padding. */
+      private final int size;
+
+      /** Saving from narrowing every field that can be, once worked out. */
+      private Integer saving;
+
+      /**
+       * @param theClazz
+       *           class to lay out
+       * @param theOops
+       *           how references are stored
+       */
+      Layout(final ClassModel theClazz, final Oops theOops) {
+         this(theClazz, theClazz.getHierarchy(), theOops, null);
+      }
+
+      /**
+       * @param theClazz
+       *           class to lay out
+       * @param theHierarchy
+       *           class and its superclasses, the topmost first
+       * @param theOops
+       *           how references are stored
+       * @param narrowed
+       *           fields to lay out as if narrowed, or null for none
+       */
+      private Layout(final ClassModel theClazz,
+            final List<ClassModel> theHierarchy, final Oops theOops,
+            final List<FieldModel> narrowed) {
+         clazz = theClazz;
+         hierarchy = theHierarchy;
+         oops = theOops;
+         // Free byte ranges left by alignment, as {offset, length}.
+         List<int[]> gaps = new ArrayList<int[]>();
+         int end = oops.headerSize;
+         for (ClassModel type : hierarchy) {
+            List<FieldModel> fields = type.getFields(false);
+            List<FieldModel> widestFirst = new ArrayList<FieldModel>(fields);
+            // Primitives widest first, then references; any may fill a gap.
+            widestFirst.sort((first, second) -> sortKey(second, narrowed)
+                  - sortKey(first, narrowed));
+            for (FieldModel field : widestFirst) {
+               int width = width(field, narrowed);
+               int offset = fillGap(gaps, width);
+               if (offset < 0) {
+                  offset = (end + width - 1) / width * width;
+                  if (offset > end) {
+                     gaps.add(new int[] {end, offset - end });
+                  }
+                  end = offset + width;
+               }
+               placements.add(new Placement(field, type, width, offset));
+            }
+         }
+         placements.sort((first, second) -> first.offset - second.offset);
+         size = align(end);
+      }
+
+      /**
+       * @param narrowed
+       *           fields to lay out as if narrowed
+       * @return layout of the same class with those fields narrowed
+       */
+      Layout narrow(final List<FieldModel> narrowed) {
+         return new Layout(clazz, hierarchy, oops, narrowed);
+      }
+
+      /**
+       * @param gaps
+       *           free byte ranges in offset order, updated if one is used
+       * @param width
+       *           bytes needed, aligned to the same number
+       * @return offset in the first gap that fits, or -1 if there is none
+       */
+      private static int fillGap(final List<int[]> gaps, final int width) {
+         for (int index = 0; index < gaps.size(); index++) {
+            int[] gap = gaps.get(index);
+            int offset = (gap[0] + width - 1) / width * width;
+            int gapEnd = gap[0] + gap[1];
+            if (offset + width <= gapEnd) {
+               gaps.remove(index);
+               if (offset + width < gapEnd) {
+                  gaps.add(index, new int[] {offset + width,
+                        gapEnd - offset - width });
+               }
+               if (offset > gap[0]) {
+                  gaps.add(index, new int[] {gap[0], offset - gap[0] });
+               }
+               return offset;
+            }
+         }
+         return -1;
+      }
+
+      /**
+       * @param field
+       *           field to size
+       * @param narrowed
+       *           fields to size as if narrowed, or null for none
+       * @return bytes the field takes in an instance
+       */
+      private int width(final FieldModel field,
+            final List<FieldModel> narrowed) {
+         TypeModel type = field.getType();
+         if (narrowed != null && narrowed.contains(field)) {
+            return WIDTHS.get(narrower(field));
+         }
+         if (type.isPrimitive()) {
+            return WIDTHS.get(type.getName());
+         }
+         return oops.referenceSize;
+      }
+
+      /**
+       * @param field
+       *           field to look at
+       * @param narrowed
+       *           fields to treat as if narrowed, or null for none
+       * @return true if the field is, or is treated as, a primitive
+       */
+      private static boolean isPrimitive(final FieldModel field,
+            final List<FieldModel> narrowed) {
+         return field.getType().isPrimitive()
+               || narrowed != null && narrowed.contains(field);
+      }
+
+      /**
+       * @param field
+       *           field to look at
+       * @param narrowed
+       *           fields to treat as if narrowed, or null for none
+       * @return larger for fields placed earlier in their class
+       */
+      private int sortKey(final FieldModel field,
+            final List<FieldModel> narrowed) {
+         if (isPrimitive(field, narrowed)) {
+            return width(field, narrowed);
+         }
+         return 0;
+      }
+
+      /** @return bytes taken by fields */
+      int fieldBytes() {
+         int bytes = 0;
+         for (Placement placement : placements) {
+            bytes += placement.width;
+         }
+         return bytes;
+      }
+
+      /** @return bytes in gaps and after the last field */
+      int padding() {
+         return size - oops.headerSize - fieldBytes();
+      }
+
+      /** @return fields whose type has a narrower alternative */
+      List<FieldModel> narrowable() {
+         List<FieldModel> fields = new ArrayList<FieldModel>();
+         for (Placement placement : placements) {
+            if (NARROWER.containsKey(placement.field.getType().getName())) {
+               fields.add(placement.field);
+            }
+         }
+         return fields;
+      }
+
+      /** @return bytes saved by narrowing every field that can be */
+      int saving() {
+         if (saving == null) {
+            List<FieldModel> narrowed = narrowable();
+            int boxes = 0;
+            for (FieldModel field : narrowed) {
+               boxes += boxSize(field, oops);
+            }
+            saving = size - narrow(narrowed).size + boxes;
+         }
+         return saving;
+      }
+   }
+}
@@ -0,0 +1,1311 @@
+package org.rmb.reflectionutils;
+
+import static org.rmb.reflectionutils.OutputSerializers.Dialect.BYTE_BUFFER;
+
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.rmb.reflectionutils.introspect.ClassIntrospector;
+import org.rmb.reflectionutils.introspect.ClassModel;
+import org.rmb.reflectionutils.introspect.FieldModel;
+import org.rmb.reflectionutils.introspect.ReflectionIntrospector;
+import org.rmb.reflectionutils.introspect.TypeModel;
+
+/**
+ * <p>
+ * Output hand-rolled binary serialization code for a set of classes, to paste
+ * into each class: <code>writeTo</code>/<code>readFrom</code> methods that
+ * write a version header followed by every instance field, superclass fields
+ * first. No reflection is used at run time.
+ * </p>
+ * <p>
+ * Fields may be primitives, boxed primitives, Strings, enums, other classes in
+ * the set, or lists, sets and maps of those (one level deep). Anything else is
+ * left out with a comment saying so, as are final and transient fields and
+ * the fields of superclasses that are not in the set, since their private
+ * fields cannot be reached. Each class needs a no-argument constructor.
+ * </p>
+ * <p>
+ * After the classes, a round-trip harness is output: a class whose
+ * <code>main</code> writes default and randomly filled instances of every
+ * class, with one to three elements in each collection and map, reads them
+ * back and checks every field written came back the same and every byte was
+ * read. Fields are compared rather than bytes, since sets and maps read back
+ * into hash tables of a different size may iterate in a different order.
+ * </p>
+ *
+ * @author robbram
+ */
+public final class OutputSerializers {
+
+   /** Version written in the header of every generated format. */
+   private static final int FORMAT_VERSION = 1;
+
+   /** Fixed part of the round trip harness. */
+   private static final String HARNESS_SUPPORT = "\n"
+         + "   /**\n"
+         + "    * @param value\n"
+         + "    *           object that was written\n"
+         + "    * @param copy\n"
+         + "    *           object read back\n"
+         + "    * @param unread\n"
+         + "    *           bytes left over after reading\n"
+         + "    * @throws Exception\n"
+         + "    *            if a field cannot be read\n"
+         + "    */\n"
+         + "   private static void compare(final Object value, final Object"
+         + " copy,\n"
+         + "         final int unread) throws Exception {\n"
+         + "      if (unread != 0) {\n"
+         + "         throw new IllegalStateException(\"Round trip of [\"\n"
+         + "               + value.getClass().getName() + \"] left [\" +"
+         + " unread\n"
+         + "               + \"] bytes unread.\");\n"
+         + "      }\n"
+         + "      if (!same(value, copy)) {\n"
+         + "         throw new IllegalStateException(\"Round trip of [\"\n"
+         + "               + value.getClass().getName() + \"] changed a"
+         + " field.\");\n"
+         + "      }\n"
+         + "   }\n"
+         + "\n"
+         + "   /**\n"
+         + "    * @param first\n"
+         + "    *           value written, may be null\n"
+         + "    * @param second\n"
+         + "    *           value read back, may be null\n"
+         + "    * @return true if they hold the same values: generated classes"
+         + " field by\n"
+         + "    *         field, lists in order, sets and maps in any order\n"
+         + "    * @throws Exception\n"
+         + "    *            if a field cannot be read\n"
+         + "    */\n"
+         + "   private static boolean same(final Object first, final Object"
+         + " second)\n"
+         + "         throws Exception {\n"
+         + "      if (first == null || second == null) {\n"
+         + "         return first == second;\n"
+         + "      }\n"
+         + "      if (GENERATED.contains(first.getClass().getName())) {\n"
+         + "         if (first.getClass() != second.getClass()) {\n"
+         + "            return false;\n"
+         + "         }\n"
+         + "         for (final java.lang.reflect.Field field\n"
+         + "               : serialized(first.getClass())) {\n"
+         + "            if (!same(field.get(first), field.get(second))) {\n"
+         + "               return false;\n"
+         + "            }\n"
+         + "         }\n"
+         + "         return true;\n"
+         + "      }\n"
+         + "      if (first instanceof java.util.Map && second instanceof"
+         + " java.util.Map) {\n"
+         + "         return same(((java.util.Map<?, ?>) first).entrySet(),\n"
+         + "               ((java.util.Map<?, ?>) second).entrySet());\n"
+         + "      }\n"
+         + "      if (first instanceof java.util.Map.Entry\n"
+         + "            && second instanceof java.util.Map.Entry) {\n"
+         + "         final java.util.Map.Entry<?, ?> one ="
+         + " (java.util.Map.Entry<?, ?>) first;\n"
+         + "         final java.util.Map.Entry<?, ?> two =\n"
+         + "               (java.util.Map.Entry<?, ?>) second;\n"
+         + "         return same(one.getKey(), two.getKey())\n"
+         + "               && same(one.getValue(), two.getValue());\n"
+         + "      }\n"
+         + "      if (first instanceof java.util.Collection\n"
+         + "            && second instanceof java.util.Collection) {\n"
+         + "         final java.util.Collection<?> one ="
+         + " (java.util.Collection<?>) first;\n"
+         + "         final java.util.Collection<?> two ="
+         + " (java.util.Collection<?>) second;\n"
+         + "         if (one.size() != two.size()) {\n"
+         + "            return false;\n"
+         + "         }\n"
+         + "         if (first instanceof java.util.List) {\n"
+         + "            final java.util.Iterator<?> others = two.iterator();\n"
+         + "            for (final Object element : one) {\n"
+         + "               if (!same(element, others.next())) {\n"
+         + "                  return false;\n"
+         + "               }\n"
+         + "            }\n"
+         + "            return true;\n"
+         + "         }\n"
+         + "         for (final Object element : one) {\n"
+         + "            if (!contains(two, element)) {\n"
+         + "               return false;\n"
+         + "            }\n"
+         + "         }\n"
+         + "         return true;\n"
+         + "      }\n"
+         + "      return first.equals(second);\n"
+         + "   }\n"
+         + "\n"
+         + "   /**\n"
+         + "    * @param collection\n"
+         + "    *           elements read back\n"
+         + "    * @param element\n"
+         + "    *           element written\n"
+         + "    * @return true if the collection has an element the same as"
+         + " it\n"
+         + "    * @throws Exception\n"
+         + "    *            if a field cannot be read\n"
+         + "    */\n"
+         + "   private static boolean contains(final java.util.Collection<?>"
+         + " collection,\n"
+         + "         final Object element) throws Exception {\n"
+         + "      for (final Object candidate : collection) {\n"
+         + "         if (same(element, candidate)) {\n"
+         + "            return true;\n"
+         + "         }\n"
+         + "      }\n"
+         + "      return false;\n"
+         + "   }\n"
+         + "\n"
+         + "   /**\n"
+         + "    * @param clazz\n"
+         + "    *           generated class\n"
+         + "    * @return fields the serializer writes, superclass fields too\n"
+         + "    */\n"
+         + "   private static java.util.List<java.lang.reflect.Field>"
+         + " serialized(\n"
+         + "         final Class<?> clazz) {\n"
+         + "      final java.util.List<java.lang.reflect.Field> fields =\n"
+         + "            new java.util.ArrayList<java.lang.reflect.Field>();\n"
+         + "      for (Class<?> type = clazz; type != null; type ="
+         + " type.getSuperclass()) {\n"
+         + "         for (final java.lang.reflect.Field field :"
+         + " type.getDeclaredFields()) {\n"
+         + "            if (SERIALIZED.contains(type.getName() + \".\" +"
+         + " field.getName())) {\n"
+         + "               field.setAccessible(true);\n"
+         + "               fields.add(field);\n"
+         + "            }\n"
+         + "         }\n"
+         + "      }\n"
+         + "      return fields;\n"
+         + "   }\n"
+         + "\n"
+         + "   /**\n"
+         + "    * Set every field the serializer writes, with one to three"
+         + " elements in\n"
+         + "    * each collection and map.\n"
+         + "    *\n"
+         + "    * @param <T>\n"
+         + "    *           type of object\n"
+         + "    * @param value\n"
+         + "    *           object to fill\n"
+         + "    * @param depth\n"
+         + "    *           nesting so far, to stop at cycles\n"
+         + "    * @return value\n"
+         + "    * @throws Exception\n"
+         + "    *            if a field cannot be set\n"
+         + "    */\n"
+         + "   private static <T> T fill(final T value, final int depth)\n"
+         + "         throws Exception {\n"
+         + "      for (final java.lang.reflect.Field field :"
+         + " serialized(value.getClass())) {\n"
+         + "         final Object sample = sample(field.getGenericType(),"
+         + " depth);\n"
+         + "         if (sample != null) {\n"
+         + "            field.set(value, sample);\n"
+         + "         }\n"
+         + "      }\n"
+         + "      return value;\n"
+         + "   }\n"
+         + "\n"
+         + "   /**\n"
+         + "    * @param type\n"
+         + "    *           field, element or map value type\n"
+         + "    * @param depth\n"
+         + "    *           nesting so far, to stop at cycles\n"
+         + "    * @return sample value, or null to leave the field alone\n"
+         + "    * @throws Exception\n"
+         + "    *            if a nested object cannot be made\n"
+         + "    */\n"
+         + "   private static Object sample(final java.lang.reflect.Type"
+         + " type,\n"
+         + "         final int depth) throws Exception {\n"
+         + "      if (type instanceof java.lang.reflect.ParameterizedType) {\n"
+         + "         final java.lang.reflect.ParameterizedType parameterized"
+         + " =\n"
+         + "               (java.lang.reflect.ParameterizedType) type;\n"
+         + "         return container((Class<?>) parameterized.getRawType(),\n"
+         + "               parameterized.getActualTypeArguments(), depth);\n"
+         + "      }\n"
+         + "      if (!(type instanceof Class)) {\n"
+         + "         return null;\n"
+         + "      }\n"
+         + "      final Class<?> clazz = (Class<?>) type;\n"
+         + "      if (clazz == int.class || clazz == Integer.class) {\n"
+         + "         return RANDOM.nextInt();\n"
+         + "      } else if (clazz == long.class || clazz == Long.class) {\n"
+         + "         return RANDOM.nextLong();\n"
+         + "      } else if (clazz == short.class || clazz == Short.class) {\n"
+         + "         return (short) RANDOM.nextInt();\n"
+         + "      } else if (clazz == byte.class || clazz == Byte.class) {\n"
+         + "         return (byte) RANDOM.nextInt();\n"
+         + "      } else if (clazz == char.class || clazz == Character.class)"
+         + " {\n"
+         + "         return (char) ('a' + RANDOM.nextInt(26));\n"
+         + "      } else if (clazz == boolean.class || clazz == Boolean.class)"
+         + " {\n"
+         + "         return RANDOM.nextBoolean();\n"
+         + "      } else if (clazz == float.class || clazz == Float.class) {\n"
+         + "         return RANDOM.nextFloat();\n"
+         + "      } else if (clazz == double.class || clazz == Double.class)"
+         + " {\n"
+         + "         return RANDOM.nextDouble();\n"
+         + "      } else if (clazz == String.class) {\n"
+         + "         return \"sample \\u00e9\" + RANDOM.nextInt();\n"
+         + "      } else if (clazz.isEnum()) {\n"
+         + "         final Object[] constants = clazz.getEnumConstants();\n"
+         + "         return constants[RANDOM.nextInt(constants.length)];\n"
+         + "      } else if (depth < 3 && GENERATED.contains(clazz.getName()))"
+         + " {\n"
+         + "         return"
+         + " fill(clazz.getDeclaredConstructor().newInstance(),\n"
+         + "               depth + 1);\n"
+         + "      }\n"
+         + "      return null;\n"
+         + "   }\n"
+         + "\n"
+         + "   /**\n"
+         + "    * @param raw\n"
+         + "    *           collection or map type\n"
+         + "    * @param arguments\n"
+         + "    *           element type, or key and value types\n"
+         + "    * @param depth\n"
+         + "    *           nesting so far, to stop at cycles\n"
+         + "    * @return collection or map of one to three sample elements\n"
+         + "    * @throws Exception\n"
+         + "    *            if an element cannot be made\n"
+         + "    */\n"
+         + "   @SuppressWarnings(\"unchecked\")\n"
+         + "   private static Object container(final Class<?> raw,\n"
+         + "         final java.lang.reflect.Type[] arguments, final int"
+         + " depth)\n"
+         + "         throws Exception {\n"
+         + "      final Object container = create(raw);\n"
+         + "      final int size = 1 + RANDOM.nextInt(3);\n"
+         + "      for (int index = 0; index < size; index++) {\n"
+         + "         final Object element = sample(arguments[0], depth + 1);\n"
+         + "         if (element == null) {\n"
+         + "            continue;\n"
+         + "         }\n"
+         + "         if (container instanceof java.util.Map) {\n"
+         + "            ((java.util.Map<Object, Object>)"
+         + " container).put(element,\n"
+         + "                  sample(arguments[1], depth + 1));\n"
+         + "         } else {\n"
+         + "            ((java.util.Collection<Object>)"
+         + " container).add(element);\n"
+         + "         }\n"
+         + "      }\n"
+         + "      return container;\n"
+         + "   }\n"
+         + "\n"
+         + "   /**\n"
+         + "    * @param raw\n"
+         + "    *           collection or map type\n"
+         + "    * @return empty instance of it, or of the class read back for"
+         + " an\n"
+         + "    *         interface\n"
+         + "    * @throws Exception\n"
+         + "    *            if it cannot be made\n"
+         + "    */\n"
+         + "   private static Object create(final Class<?> raw) throws"
+         + " Exception {\n"
+         + "      if (!raw.isInterface()) {\n"
+         + "         return raw.getDeclaredConstructor().newInstance();\n"
+         + "      } else if (java.util.SortedMap.class.isAssignableFrom(raw))"
+         + " {\n"
+         + "         return new java.util.TreeMap<Object, Object>();\n"
+         + "      } else if (java.util.Map.class.isAssignableFrom(raw)) {\n"
+         + "         return new java.util.HashMap<Object, Object>();\n"
+         + "      } else if (java.util.SortedSet.class.isAssignableFrom(raw))"
+         + " {\n"
+         + "         return new java.util.TreeSet<Object>();\n"
+         + "      } else if (java.util.Set.class.isAssignableFrom(raw)) {\n"
+         + "         return new java.util.HashSet<Object>();\n"
+         + "      }\n"
+         + "      return new java.util.ArrayList<Object>();\n"
+         + "   }\n";
+
+   /** Boxed primitive class names by primitive name. */
+   private static final Map<String, String> BOXED_BY_PRIMITIVE =
+         new HashMap<String, String>();
+
+   /** Class created on read, by collection or map type. */
+   private static final Map<String, String> COLLECTION_IMPLEMENTATIONS =
+         new HashMap<String, String>();
+
+   static {
+      BOXED_BY_PRIMITIVE.put("boolean", "java.lang.Boolean");
+      BOXED_BY_PRIMITIVE.put("byte", "java.lang.Byte");
+      BOXED_BY_PRIMITIVE.put("char", "java.lang.Character");
+      BOXED_BY_PRIMITIVE.put("short", "java.lang.Short");
+      BOXED_BY_PRIMITIVE.put("int", "java.lang.Integer");
+      BOXED_BY_PRIMITIVE.put("long", "java.lang.Long");
+      BOXED_BY_PRIMITIVE.put("float", "java.lang.Float");
+      BOXED_BY_PRIMITIVE.put("double", "java.lang.Double");
+
+      for (String type : Arrays.asList("java.util.Collection",
+            "java.util.List", "java.util.ArrayList")) {
+         COLLECTION_IMPLEMENTATIONS.put(type, "java.util.ArrayList");
+      }
+      COLLECTION_IMPLEMENTATIONS.put("java.util.LinkedList",
+            "java.util.LinkedList");
+      COLLECTION_IMPLEMENTATIONS.put("java.util.Set", "java.util.HashSet");
+      COLLECTION_IMPLEMENTATIONS.put("java.util.HashSet", "java.util.HashSet");
+      COLLECTION_IMPLEMENTATIONS.put("java.util.LinkedHashSet",
+            "java.util.LinkedHashSet");
+      for (String type : Arrays.asList("java.util.SortedSet",
+            "java.util.NavigableSet", "java.util.TreeSet")) {
+         COLLECTION_IMPLEMENTATIONS.put(type, "java.util.TreeSet");
+      }
+      COLLECTION_IMPLEMENTATIONS.put("java.util.Map", "java.util.HashMap");
+      COLLECTION_IMPLEMENTATIONS.put("java.util.HashMap", "java.util.HashMap");
+      COLLECTION_IMPLEMENTATIONS.put("java.util.LinkedHashMap",
+            "java.util.LinkedHashMap");
+      for (String type : Arrays.asList("java.util.SortedMap",
+            "java.util.NavigableMap", "java.util.TreeMap")) {
+         COLLECTION_IMPLEMENTATIONS.put(type, "java.util.TreeMap");
+      }
+   }
+
+   /** Used to find superclasses and tell enums apart. */
+   private final ClassIntrospector introspector;
+
+   /** Format being written. */
+   private final Dialect dialect;
+
+   /** Classes we generate code for, by binary name. */
+   private final Map<String, ClassModel> generated;
+
+   /** Fields written so far, as binary class name, dot, field name. */
+   private final List<String> serialized = new ArrayList<String>();
+
+   /** Did the current class need the string and enum helpers? */
+   private boolean needsHelpers;
+
+   /** Number of nested loops open, to keep loop variables unique. */
+   private int depth;
+
+   /** Containers read so far in the current class, to name locals. */
+   private int containers;
+
+   /**
+    * @param theIntrospector
+    *           used to find superclasses and tell enums apart
+    * @param theDialect
+    *           format being written
+    * @param theGenerated
+    *           classes we generate code for, by binary name
+    */
+   private OutputSerializers(final ClassIntrospector theIntrospector,
+         final Dialect theDialect, final Map<String, ClassModel> theGenerated) {
+      introspector = theIntrospector;
+      dialect = theDialect;
+      generated = theGenerated;
+   }
+
+   /**
+    * Output serialization code for loaded classes.
+    *
+    * @param dialect
+    *           write to DataOutput or ByteBuffer
+    * @param classes
+    *           classes to generate code for, at least one
+    * @throws ClassNotFoundException
+    *            if a field type cannot be examined
+    * @throws IllegalArgumentException
+    *            if there are no classes
+    */
+   public static void generateSerializers(final Dialect dialect,
+         final Class<?>... classes) throws ClassNotFoundException {
+      if (classes.length == 0) {
+         throw new IllegalArgumentException("Need at least one class to"
+               + " generate serializers for, not [" + classes.length + "].");
+      }
+      ReflectionIntrospector reflection =
+            new ReflectionIntrospector(classes[0].getClassLoader());
+      List<String> names = new ArrayList<String>();
+      for (Class<?> clazz : classes) {
+         names.add(clazz.getName());
+      }
+      generateSerializers(reflection, dialect, names);
+   }
+
+   /**
+    * Output serialization code for a set of classes, followed by the round
+    * trip harness.
+    *
+    * @param introspector
+    *           backend used to describe the classes
+    * @param dialect
+    *           write to DataOutput or ByteBuffer
+    * @param classNames
+    *           binary names of the classes to generate code for
+    * @throws ClassNotFoundException
+    *            if a class or field type cannot be examined
+    */
+   public static void generateSerializers(
+         final ClassIntrospector introspector, final Dialect dialect,
+         final List<String> classNames) throws ClassNotFoundException {
+      Map<String, ClassModel> generated =
+            new LinkedHashMap<String, ClassModel>();
+      for (String name : classNames) {
+         generated.put(name, introspector.describe(name));
+      }
+      OutputSerializers output =
+            new OutputSerializers(introspector, dialect, generated);
+      for (ClassModel clazz : generated.values()) {
+         System.out.println("// ---- " + clazz.getName() + " ----");
+         System.out.println(output.serializer(clazz));
+      }
+      System.out.println("// ---- Round trip harness ----");
+      System.out.println(output.harness());
+   }
+
+   /**
+    * @param clazz
+    *           class to generate code for
+    * @return code to paste into the class
+    * @throws ClassNotFoundException
+    *            if a field type cannot be examined
+    */
+   private String serializer(final ClassModel clazz)
+         throws ClassNotFoundException {
+      needsHelpers = false;
+      containers = 0;
+      String name = clazz.getSimpleName();
+      StringBuilder writes = new StringBuilder();
+      StringBuilder reads = new StringBuilder();
+      ClassModel superclass = clazz.getSuperclass();
+      if (superclass != null && generated.containsKey(superclass.getName())) {
+         writes.append("      super.writeFields(").append(dialect.out)
+               .append(");\n");
+         reads.append("      super.readFields(").append(dialect.in)
+               .append(");\n");
+      } else if (superclass != null && hasInstanceFields(superclass)) {
+         String comment = "      // Fields of " + superclass.getName()
+               + " are not included: it is not one of the generated classes.\n";
+         writes.append(comment);
+         reads.append(comment);
+      }
+      for (FieldModel field : clazz.getFields(false)) {
+         Value value = valueOf(field.getType(), field.getGenericType());
+         String reason = null;
+         if (Modifier.isFinal(field.getModifiers())) {
+            reason = "is final";
+         } else if (Modifier.isTransient(field.getModifiers())) {
+            reason = "is transient";
+         } else if (value == null) {
+            reason = "has a type that is not supported";
+         }
+         if (reason != null) {
+            String comment = "      // Field " + field.getName() + " ("
+                  + field.getType().getName() + ") " + reason + ".\n";
+            writes.append(comment);
+            reads.append(comment);
+            continue;
+         }
+         writeValue(writes, "      ", field.getName(), value);
+         readValue(reads, "      ", field.getName(), value);
+         serialized.add(clazz.getName() + "." + field.getName());
+      }
+
+      StringBuilder code = new StringBuilder();
+      code.append("   /** Version of the binary format below. */\n");
+      code.append("   public static final int SERIAL_FORMAT_VERSION = ")
+            .append(FORMAT_VERSION).append(";\n\n");
+      code.append("   /** Fingerprint of the fields written, checked on"
+            + " read. */\n");
+      code.append("   public static final int SERIAL_LAYOUT = ")
+            .append(layout(clazz)).append(";\n\n");
+      code.append("   /**\n    * Write this object, with a version header.\n")
+            .append("    *\n    * @param ").append(dialect.out)
+            .append("\n    *           where to write\n");
+      appendThrows(code);
+      code.append("    */\n   public void writeTo(final ")
+            .append(dialect.outType).append(" ").append(dialect.out)
+            .append(")").append(dialect.throwsClause).append(" {\n");
+      code.append(dialect.writeInt("SERIAL_FORMAT_VERSION", "      "));
+      code.append(dialect.writeInt("SERIAL_LAYOUT", "      "));
+      code.append("      writeFields(").append(dialect.out).append(");\n");
+      code.append("   }\n\n");
+
+      code.append("   /**\n    * Read an object written by {@link #writeTo}.\n")
+            .append("    *\n    * @param ").append(dialect.in)
+            .append("\n    *           where to read from\n")
+            .append("    * @return the object read\n");
+      appendThrows(code);
+      code.append("    */\n   public static ").append(name)
+            .append(" readFrom(final ").append(dialect.inType).append(" ")
+            .append(dialect.in).append(")").append(dialect.throwsClause)
+            .append(" {\n");
+      code.append("      final int version = ")
+            .append(dialect.read("int")).append(";\n");
+      code.append("      final int layout = ").append(dialect.read("int"))
+            .append(";\n");
+      code.append("      if (version != SERIAL_FORMAT_VERSION"
+            + " || layout != SERIAL_LAYOUT) {\n");
+      code.append("         throw new ").append(dialect.exception)
+            .append("(\"Unsupported version [\" + version + \"/\" + layout\n")
+            .append("               + \"] for ").append(name)
+            .append(".\");\n");
+      code.append("      }\n");
+      code.append("      final ").append(name).append(" value = new ")
+            .append(name).append("();\n");
+      code.append("      value.readFields(").append(dialect.in).append(");\n");
+      code.append("      return value;\n");
+      code.append("   }\n\n");
+
+      code.append("   /**\n    * @param ").append(dialect.out)
+            .append("\n    *           where to write the fields, without a"
+                  + " header\n");
+      appendThrows(code);
+      code.append("    */\n   public void writeFields(final ")
+            .append(dialect.outType).append(" ").append(dialect.out)
+            .append(")").append(dialect.throwsClause).append(" {\n")
+            .append(writes).append("   }\n\n");
+
+      code.append("   /**\n    * @param ").append(dialect.in)
+            .append("\n    *           where to read the fields from,"
+                  + " without a header\n");
+      appendThrows(code);
+      code.append("    */\n   public void readFields(final ")
+            .append(dialect.inType).append(" ").append(dialect.in)
+            .append(")").append(dialect.throwsClause).append(" {\n")
+            .append(reads).append("   }\n");
+
+      if (needsHelpers) {
+         code.append(helpers());
+      }
+      return code.toString();
+   }
+
+   /**
+    * @param code
+    *           javadoc being written
+    */
+   private void appendThrows(final StringBuilder code) {
+      if (!dialect.throwsClause.isEmpty()) {
+         code.append("    * @throws java.io.IOException\n")
+               .append("    *            if the stream fails\n");
+      }
+   }
+
+   /**
+    * @param clazz
+    *           class to look at
+    * @return true if it or its superclasses, below Object, have instance
+    *         fields
+    */
+   private static boolean hasInstanceFields(final ClassModel clazz) {
+      ClassModel current = clazz;
+      while (current != null
+            && !Object.class.getName().equals(current.getName())) {
+         if (!current.getFields(false).isEmpty()) {
+            return true;
+         }
+         current = current.getSuperclass();
+      }
+      return false;
+   }
+
+   /**
+    * @param clazz
+    *           class to generate code for
+    * @return fingerprint of the names and types of the fields, transient
+    *         ones aside, so a reader built for a different layout fails
+    *         straight away
+    */
+   private static int layout(final ClassModel clazz) {
+      StringBuilder fields = new StringBuilder();
+      ClassModel current = clazz;
+      while (current != null
+            && !Object.class.getName().equals(current.getName())) {
+         for (FieldModel field : current.getFields(false)) {
+            if (Modifier.isTransient(field.getModifiers())) {
+               continue;
+            }
+            fields.append(field.getName()).append(':')
+                  .append(field.getType().getDescriptor()).append(';');
+         }
+         current = current.getSuperclass();
+      }
+      return fields.toString().hashCode();
+   }
+
+   /**
+    * @param type
+    *           erased type of a field
+    * @param genericType
+    *           generic type as Java source, or null
+    * @return how to write values of that type, or null if not supported
+    * @throws ClassNotFoundException
+    *            if the type cannot be examined
+    */
+   private Value valueOf(final TypeModel type, final String genericType)
+         throws ClassNotFoundException {
+      String name = type.getName();
+      String implementation = COLLECTION_IMPLEMENTATIONS.get(name);
+      if (implementation == null) {
+         return scalarOf(name);
+      }
+      if (genericType == null) {
+         return null;
+      }
+      List<String> arguments = typeArguments(genericType);
+      List<Value> elements = new ArrayList<Value>();
+      for (String argument : arguments) {
+         Value element = scalarOf(argument);
+         if (element == null) {
+            return null;
+         }
+         elements.add(element);
+      }
+      boolean map = implementation.endsWith("Map");
+      if (map && elements.size() == 2) {
+         return new Value(Kind.MAP, genericType, implementation,
+               elements.get(0), elements.get(1));
+      }
+      if (!map && elements.size() == 1) {
+         return new Value(Kind.COLLECTION, genericType, implementation,
+               elements.get(0), null);
+      }
+      return null;
+   }
+
+   /**
+    * @param name
+    *           binary name of a type, from an erased type or a type argument
+    * @return how to write values of that type, or null if it is not a
+    *         primitive, boxed primitive, String, enum or generated class
+    * @throws ClassNotFoundException
+    *            if the type cannot be examined
+    */
+   private Value scalarOf(final String name) throws ClassNotFoundException {
+      String sourceName = name.replace('$', '.');
+      if (BOXED_BY_PRIMITIVE.containsKey(name)) {
+         return new Value(Kind.PRIMITIVE, name, name, null, null);
+      }
+      for (Map.Entry<String, String> boxed : BOXED_BY_PRIMITIVE.entrySet()) {
+         if (boxed.getValue().equals(name)) {
+            return new Value(Kind.BOXED, sourceName, boxed.getKey(), null,
+                  null);
+         }
+      }
+      if (String.class.getName().equals(name)) {
+         return new Value(Kind.STRING, name, name, null, null);
+      }
+      if (generated.containsKey(name)) {
+         return new Value(Kind.GENERATED, sourceName, sourceName, null, null);
+      }
+      if (name.contains("<") || name.contains("?") || name.indexOf('.') < 0) {
+         // Parameterised types, wildcards, type variables and arrays.
+         return null;
+      }
+      ClassModel model = introspector.describe(name);
+      if (Enum.class.getName().equals(model.getSuperclassName())) {
+         return new Value(Kind.ENUM, sourceName, sourceName, null, null);
+      }
+      return null;
+   }
+
+   /**
+    * @param genericType
+    *           e.g. <code>java.util.Map&lt;java.lang.String, foo.Bar&gt;</code>
+    * @return type arguments, e.g. <code>java.lang.String</code> and
+    *         <code>foo.Bar</code>
+    */
+   private static List<String> typeArguments(final String genericType) {
+      List<String> arguments = new ArrayList<String>();
+      int start = genericType.indexOf('<') + 1;
+      int nesting = 0;
+      for (int index = start; index < genericType.length() - 1; index++) {
+         char character = genericType.charAt(index);
+         if (character == '<') {
+            nesting++;
+         } else if (character == '>') {
+            nesting--;
+         } else if (character == ',' && nesting == 0) {
+            arguments.add(genericType.substring(start, index).trim());
+            start = index + 1;
+         }
+      }
+      arguments.add(genericType.substring(start, genericType.length() - 1)
+            .trim());
+      return arguments;
+   }
+
+   /**
+    * @param code
+    *           code being written
+    * @param indent
+    *           indentation of each line
+    * @param expression
+    *           value to write
+    * @param value
+    *           how to write it
+    */
+   private void writeValue(final StringBuilder code, final String indent,
+         final String expression, final Value value) {
+      switch (value.kind) {
+         case PRIMITIVE:
+            code.append(indent).append(dialect.write(value.primitive,
+                  expression)).append(";\n");
+            break;
+         case BOXED:
+            code.append(indent).append(dialect.write("boolean",
+                  expression + " != null")).append(";\n");
+            code.append(indent).append("if (").append(expression)
+                  .append(" != null) {\n");
+            code.append(indent).append("   ").append(dialect.write(
+                  value.primitive, expression)).append(";\n");
+            code.append(indent).append("}\n");
+            break;
+         case STRING:
+            needsHelpers = true;
+            code.append(indent).append("writeString(").append(dialect.out)
+                  .append(", ").append(expression).append(");\n");
+            break;
+         case ENUM:
+            needsHelpers = true;
+            code.append(indent).append("writeString(").append(dialect.out)
+                  .append(", ").append(expression).append(" == null ? null : ")
+                  .append(expression).append(".name());\n");
+            break;
+         case GENERATED:
+            code.append(indent).append(dialect.write("boolean",
+                  expression + " != null")).append(";\n");
+            code.append(indent).append("if (").append(expression)
+                  .append(" != null) {\n");
+            code.append(indent).append("   ").append(expression)
+                  .append(".writeFields(").append(dialect.out).append(");\n");
+            code.append(indent).append("}\n");
+            break;
+         default:
+            writeContainer(code, indent, expression, value);
+            break;
+      }
+   }
+
+   /**
+    * @param code
+    *           code being written
+    * @param indent
+    *           indentation of each line
+    * @param expression
+    *           collection or map to write
+    * @param value
+    *           how to write it
+    */
+   private void writeContainer(final StringBuilder code, final String indent,
+         final String expression, final Value value) {
+      String inner = indent + "   ";
+      code.append(indent).append("if (").append(expression)
+            .append(" == null) {\n");
+      code.append(dialect.writeInt("-1", inner));
+      code.append(indent).append("} else {\n");
+      code.append(dialect.writeInt(expression + ".size()", inner));
+      depth++;
+      String element = "element" + depth;
+      if (value.kind == Kind.MAP) {
+         code.append(inner).append("for (java.util.Map.Entry<")
+               .append(value.element.sourceType).append(", ")
+               .append(value.mapValue.sourceType).append("> ")
+               .append(element).append(" : ").append(expression)
+               .append(".entrySet()) {\n");
+         writeValue(code, inner + "   ", element + ".getKey()", value.element);
+         writeValue(code, inner + "   ", element + ".getValue()",
+               value.mapValue);
+      } else {
+         code.append(inner).append("for (final ")
+               .append(value.element.sourceType).append(" ").append(element)
+               .append(" : ").append(expression).append(") {\n");
+         writeValue(code, inner + "   ", element, value.element);
+      }
+      depth--;
+      code.append(inner).append("}\n");
+      code.append(indent).append("}\n");
+   }
+
+   /**
+    * @param code
+    *           code being written
+    * @param indent
+    *           indentation of each line
+    * @param target
+    *           field or local variable to read into
+    * @param value
+    *           how to read it
+    */
+   private void readValue(final StringBuilder code, final String indent,
+         final String target, final Value value) {
+      switch (value.kind) {
+         case PRIMITIVE:
+            code.append(indent).append(target).append(" = ")
+                  .append(dialect.read(value.primitive)).append(";\n");
+            break;
+         case BOXED:
+            code.append(indent).append("if (").append(dialect.read("boolean"))
+                  .append(") {\n");
+            code.append(indent).append("   ").append(target).append(" = ")
+                  .append(dialect.read(value.primitive)).append(";\n");
+            code.append(indent).append("} else {\n");
+            code.append(indent).append("   ").append(target)
+                  .append(" = null;\n");
+            code.append(indent).append("}\n");
+            break;
+         case STRING:
+            code.append(indent).append(target).append(" = readString(")
+                  .append(dialect.in).append(");\n");
+            break;
+         case ENUM:
+            code.append(indent).append(target).append(" = readEnum(")
+                  .append(dialect.in).append(", ").append(value.sourceType)
+                  .append(".class);\n");
+            break;
+         case GENERATED:
+            code.append(indent).append("if (").append(dialect.read("boolean"))
+                  .append(") {\n");
+            code.append(indent).append("   ").append(target)
+                  .append(" = new ").append(value.sourceType).append("();\n");
+            code.append(indent).append("   ").append(target)
+                  .append(".readFields(").append(dialect.in).append(");\n");
+            code.append(indent).append("} else {\n");
+            code.append(indent).append("   ").append(target)
+                  .append(" = null;\n");
+            code.append(indent).append("}\n");
+            break;
+         default:
+            readContainer(code, indent, target, value);
+            break;
+      }
+   }
+
+   /**
+    * @param code
+    *           code being written
+    * @param indent
+    *           indentation of each line
+    * @param target
+    *           field to read into
+    * @param value
+    *           how to read it
+    */
+   private void readContainer(final StringBuilder code, final String indent,
+         final String target, final Value value) {
+      containers++;
+      String size = "size" + containers;
+      String container = "container" + containers;
+      String index = "index" + containers;
+      String inner = indent + "   ";
+      String body = inner + "   ";
+      code.append(indent).append("final int ").append(size).append(" = ")
+            .append(dialect.read("int")).append(";\n");
+      code.append(indent).append("if (").append(size).append(" < 0) {\n");
+      code.append(inner).append(target).append(" = null;\n");
+      code.append(indent).append("} else {\n");
+      code.append(inner).append("final ").append(value.sourceType)
+            .append(" ").append(container).append(" = new ")
+            .append(value.primitive).append("<");
+      if (value.kind == Kind.MAP) {
+         code.append(value.element.sourceType).append(", ")
+               .append(value.mapValue.sourceType);
+      } else {
+         code.append(value.element.sourceType);
+      }
+      code.append(">(");
+      if (value.primitive.contains("Hash")) {
+         // Big enough not to rehash at the default load factor.
+         code.append("(int) (").append(size).append(" / 0.75f) + 1");
+      } else if (value.primitive.endsWith("ArrayList")) {
+         code.append(size);
+      }
+      code.append(");\n");
+      code.append(inner).append("for (int ").append(index).append(" = 0; ")
+            .append(index).append(" < ").append(size).append("; ")
+            .append(index).append("++) {\n");
+      String key = "element" + containers;
+      if (value.kind == Kind.MAP) {
+         key = "key" + containers;
+      }
+      code.append(body).append(value.element.sourceType).append(" ")
+            .append(key).append(";\n");
+      readValue(code, body, key, value.element);
+      if (value.kind == Kind.MAP) {
+         String mapValue = "value" + containers;
+         code.append(body).append(value.mapValue.sourceType).append(" ")
+               .append(mapValue).append(";\n");
+         readValue(code, body, mapValue, value.mapValue);
+         code.append(body).append(container).append(".put(").append(key)
+               .append(", ").append(mapValue).append(");\n");
+      } else {
+         code.append(body).append(container).append(".add(").append(key)
+               .append(");\n");
+      }
+      code.append(inner).append("}\n");
+      code.append(inner).append(target).append(" = ").append(container)
+            .append(";\n");
+      code.append(indent).append("}\n");
+   }
+
+   /**
+    * @return string and enum helpers, written as a length in bytes (-1 for
+    *         null) followed by UTF-8
+    */
+   private String helpers() {
+      StringBuilder code = new StringBuilder();
+      code.append("\n   /**\n    * @param ").append(dialect.out)
+            .append("\n    *           where to write\n")
+            .append("    * @param value\n")
+            .append("    *           string to write, may be null\n");
+      appendThrows(code);
+      code.append("    */\n   private static void writeString(final ")
+            .append(dialect.outType).append(" ").append(dialect.out)
+            .append(",\n         final String value)")
+            .append(dialect.throwsClause).append(" {\n");
+      code.append("      if (value == null) {\n");
+      code.append(dialect.writeInt("-1", "         "));
+      code.append("         return;\n");
+      code.append("      }\n");
+      code.append("      final byte[] bytes = value.getBytes("
+            + "java.nio.charset.StandardCharsets.UTF_8);\n");
+      code.append(dialect.writeInt("bytes.length", "      "));
+      code.append("      ").append(dialect.writeBytes("bytes")).append(";\n");
+      code.append("   }\n");
+
+      code.append("\n   /**\n    * @param ").append(dialect.in)
+            .append("\n    *           where to read from\n")
+            .append("    * @return string read, may be null\n");
+      appendThrows(code);
+      code.append("    */\n   private static String readString(final ")
+            .append(dialect.inType).append(" ").append(dialect.in)
+            .append(")").append(dialect.throwsClause).append(" {\n");
+      code.append("      final int length = ").append(dialect.read("int"))
+            .append(";\n");
+      code.append("      if (length < 0) {\n");
+      code.append("         return null;\n");
+      code.append("      }\n");
+      code.append("      final byte[] bytes = new byte[length];\n");
+      code.append("      ").append(dialect.readBytes("bytes")).append(";\n");
+      code.append("      return new String(bytes, "
+            + "java.nio.charset.StandardCharsets.UTF_8);\n");
+      code.append("   }\n");
+
+      code.append("\n   /**\n    * @param <E>\n    *           enum type\n")
+            .append("    * @param ").append(dialect.in)
+            .append("\n    *           where to read from\n")
+            .append("    * @param type\n    *           enum class\n")
+            .append("    * @return constant read, may be null\n");
+      appendThrows(code);
+      code.append("    */\n   private static <E extends Enum<E>> E readEnum(")
+            .append("final ").append(dialect.inType).append(" ")
+            .append(dialect.in).append(",\n         final Class<E> type)")
+            .append(dialect.throwsClause).append(" {\n");
+      code.append("      final String name = readString(").append(dialect.in)
+            .append(");\n");
+      code.append("      if (name == null) {\n");
+      code.append("         return null;\n");
+      code.append("      }\n");
+      code.append("      return Enum.valueOf(type, name);\n");
+      code.append("   }\n");
+      return code.toString();
+   }
+
+   /**
+    * @return source of a class whose main method round trips every generated
+    *         class
+    */
+   private String harness() {
+      StringBuilder code = new StringBuilder();
+      code.append("/**\n * Round trip check for the generated serializers:"
+            + " write, read back\n * and compare the fields.\n */\n");
+      code.append("public final class SerializerRoundTrip {\n\n");
+      code.append("   /** Source of sample values. */\n");
+      code.append("   private static final java.util.Random RANDOM =\n");
+      code.append("         new java.util.Random(42);\n\n");
+      code.append("   /** Classes with generated serializers. */\n");
+      code.append("   private static final java.util.Set<String>"
+            + " GENERATED =\n");
+      code.append("         new java.util.HashSet<String>("
+            + "java.util.Arrays.asList(");
+      String separator = "\n               ";
+      for (String name : generated.keySet()) {
+         code.append(separator).append('"').append(name).append('"');
+         separator = ",\n               ";
+      }
+      code.append("));\n\n");
+      code.append("   /** Fields the serializers write, as class.field. */\n");
+      code.append("   private static final java.util.Set<String>"
+            + " SERIALIZED =\n");
+      code.append("         new java.util.HashSet<String>("
+            + "java.util.Arrays.asList(");
+      separator = "\n               ";
+      for (String name : serialized) {
+         code.append(separator).append('"').append(name).append('"');
+         separator = ",\n               ";
+      }
+      code.append("));\n\n");
+      code.append("   /** Class not meant for instantiation. */\n");
+      code.append("   private SerializerRoundTrip() {\n   }\n\n");
+      code.append("   /**\n    * @param args\n    *           not used\n")
+            .append("    * @throws Exception\n")
+            .append("    *            if a round trip fails\n    */\n");
+      code.append("   public static void main(final String[] args)"
+            + " throws Exception {\n");
+      for (ClassModel clazz : generated.values()) {
+         String type = clazz.getName().replace('$', '.');
+         code.append("      check(new ").append(type).append("());\n");
+         code.append("      check(fill(new ").append(type).append("(), 0));\n");
+      }
+      code.append("      System.out.println(\"Round trip OK for [")
+            .append(generated.size()).append("] classes.\");\n");
+      code.append("   }\n");
+
+      for (ClassModel clazz : generated.values()) {
+         String type = clazz.getName().replace('$', '.');
+         code.append("\n   /**\n    * @param value\n")
+               .append("    *           object to round trip\n")
+               .append("    * @throws Exception\n")
+               .append("    *            if a field or the length differs\n")
+               .append("    */\n");
+         code.append("   private static void check(final ").append(type)
+               .append(" value) throws Exception {\n");
+         if (dialect == BYTE_BUFFER) {
+            code.append("      final java.nio.ByteBuffer buffer ="
+                  + " java.nio.ByteBuffer.allocate(1 << 20);\n");
+            code.append("      value.writeTo(buffer);\n");
+            code.append("      buffer.flip();\n");
+            code.append("      final ").append(type).append(" copy = ")
+                  .append(type).append(".readFrom(buffer);\n");
+            code.append("      compare(value, copy, buffer.remaining());\n");
+         } else {
+            code.append("      final java.io.ByteArrayOutputStream bytes ="
+                  + "\n            new java.io.ByteArrayOutputStream();\n");
+            code.append("      value.writeTo(new java.io.DataOutputStream"
+                  + "(bytes));\n");
+            code.append("      final java.io.ByteArrayInputStream in ="
+                  + "\n            new java.io.ByteArrayInputStream("
+                  + "bytes.toByteArray());\n");
+            code.append("      final ").append(type).append(" copy = ")
+                  .append(type).append(".readFrom(\n            new java.io."
+                        + "DataInputStream(in));\n");
+            code.append("      compare(value, copy, in.available());\n");
+         }
+         code.append("   }\n");
+      }
+      code.append(HARNESS_SUPPORT);
+      code.append("}\n");
+      return code.toString();
+   }
+
+   /** Kinds of value we can write. */
+   private enum Kind {
+      /** Primitive. */
+      PRIMITIVE,
+      /** Boxed primitive, may be null. */
+      BOXED,
+      /** String, may be null. */
+      STRING,
+      /** Enum, written by name, may be null. */
+      ENUM,
+      /** Class we generate code for, may be null. */
+      GENERATED,
+      /** List, set or other collection, may be null. */
+      COLLECTION,
+      /** Map, may be null. */
+      MAP;
+   }
+
+   /** How to write one value. */
+   private static final class Value {
+
+      /** Kind of value. */
+      private final Kind kind;
+
+      /** Type as written in Java source. */
+      private final String sourceType;
+
+      /**
+       * Primitive name for primitives and boxed primitives, class to create
+       * for collections and maps.
+       */
+      private final String primitive;
+
+      /** Elements of a collection, or keys of a map. */
+      private final Value element;
+
+      /** Values of a map. */
+      private final Value mapValue;
+
+      /**
+       * @param theKind
+       *           kind of value
+       * @param theSourceType
+       *           type as written in Java source
+       * @param thePrimitive
+       *           primitive name, or class to create for containers
+       * @param theElement
+       *           elements of a collection, or keys of a map
+       * @param theMapValue
+       *           values of a map
+       */
+      Value(final Kind theKind, final String theSourceType,
+            final String thePrimitive, final Value theElement,
+            final Value theMapValue) {
+         kind = theKind;
+         sourceType = theSourceType.replace('$', '.');
+         primitive = thePrimitive;
+         element = theElement;
+         mapValue = theMapValue;
+      }
+   }
+
+   /** Where the generated code writes to and reads from. */
+   public enum Dialect {
+      /** java.io.DataOutput and DataInput, big-endian. */
+      DATA_STREAM("java.io.DataOutput", "out", "java.io.DataInput", "in",
+            " throws java.io.IOException", "java.io.IOException"),
+      /** java.nio.ByteBuffer, in the buffer's byte order. */
+      BYTE_BUFFER("java.nio.ByteBuffer", "buffer", "java.nio.ByteBuffer",
+            "buffer", "", "IllegalArgumentException");
+
+      /** Type written to. */
+      private final String outType;
+
+      /** Parameter name of the type written to. */
+      private final String out;
+
+      /** Type read from. */
+      private final String inType;
+
+      /** Parameter name of the type read from. */
+      private final String in;
+
+      /** Throws clause of generated methods. */
+      private final String throwsClause;
+
+      /** Exception thrown for a header that does not match. */
+      private final String exception;
+
+      /**
+       * @param theOutType
+       *           type written to
+       * @param theOut
+       *           parameter name of the type written to
+       * @param theInType
+       *           type read from
+       * @param theIn
+       *           parameter name of the type read from
+       * @param theThrowsClause
+       *           throws clause of generated methods
+       * @param theException
+       *           exception thrown for a header that does not match
+       */
+      Dialect(final String theOutType, final String theOut,
+            final String theInType, final String theIn,
+            final String theThrowsClause, final String theException) {
+         outType = theOutType;
+         out = theOut;
+         inType = theInType;
+         in = theIn;
+         throwsClause = theThrowsClause;
+         exception = theException;
+      }
+
+      /**
+       * @param primitive
+       *           primitive type name
+       * @return name of the primitive as used in method names, e.g.
+       *         <code>Int</code>
+       */
+      private static String methodSuffix(final String primitive) {
+         return Character.toUpperCase(primitive.charAt(0))
+               + primitive.substring(1);
+      }
+
+      /**
+       * @param primitive
+       *           primitive type name
+       * @param expression
+       *           value to write
+       * @return call that writes the value
+       */
+      String write(final String primitive, final String expression) {
+         if (this == DATA_STREAM) {
+            return out + ".write" + methodSuffix(primitive) + "("
+                  + expression + ")";
+         }
+         if ("boolean".equals(primitive)) {
+            return out + ".put((byte) (" + expression + " ? 1 : 0))";
+         }
+         if ("byte".equals(primitive)) {
+            return out + ".put(" + expression + ")";
+         }
+         return out + ".put" + methodSuffix(primitive) + "(" + expression
+               + ")";
+      }
+
+      /**
+       * @param expression
+       *           int to write
+       * @param indent
+       *           indentation of the line
+       * @return statement that writes the int
+       */
+      String writeInt(final String expression, final String indent) {
+         return indent + write("int", expression) + ";\n";
+      }
+
+      /**
+       * @param primitive
+       *           primitive type name
+       * @return expression that reads a value
+       */
+      String read(final String primitive) {
+         if (this == DATA_STREAM) {
+            return in + ".read" + methodSuffix(primitive) + "()";
+         }
+         if ("boolean".equals(primitive)) {
+            return "(" + in + ".get() != 0)";
+         }
+         if ("byte".equals(primitive)) {
+            return in + ".get()";
+         }
+         return in + ".get" + methodSuffix(primitive) + "()";
+      }
+
+      /**
+       * @param array
+       *           byte array to write
+       * @return call that writes it
+       */
+      String writeBytes(final String array) {
+         if (this == DATA_STREAM) {
+            return out + ".write(" + array + ")";
+         }
+         return out + ".put(" + array + ")";
+      }
+
+      /**
+       * @param array
+       *           byte array to fill
+       * @return call that fills it
+       */
+      String readBytes(final String array) {
+         if (this == DATA_STREAM) {
+            return in + ".readFully(" + array + ")";
+         }
+         return in + ".get(" + array + ")";
+      }
+   }
+}
@@ -0,0 +1,243 @@
+package org.rmb.reflectionutils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>
+ * Text to generate, compiled once into a render plan of literal segments and
+ * {@link TemplateSlot} lookups, so rendering it for many classes does no
+ * parsing.
+ * </p>
+ * <p>
+ * <code>${key}</code> inserts a slot, e.g. <code>${name}</code>;
+ * <code>${fields}...${end}</code> renders the text between once per field,
+ * and <code>$$</code> is a literal <code>$</code>. Any other <code>$</code> is
+ * left as it is.
+ * </p>
+ *
+ * @author robbram
+ */
+public final class Template {
+
+   /** Starts a slot. */
+   private static final String OPEN = "${";
+
+   /** Ends a slot. */
+   private static final char CLOSE = '}';
+
+   /** Key that starts a per field section. */
+   private static final String FIELDS = "fields";
+
+   /** Key that ends a per field section. */
+   private static final String END = "end";
+
+   /** Source the template was compiled from. */
+   private final String source;
+
+   /** Literal text of each segment, or null. */
+   private final String[] literals;
+
+   /** Slot of each segment, or null. */
+   private final TemplateSlot[] slots;
+
+   /** Per field section of each segment, or null. */
+   private final Template[] sections;
+
+   /**
+    * @param theSource
+    *           source the template was compiled from
+    * @param theLiterals
+    *           literal text of each segment, or null
+    * @param theSlots
+    *           slot of each segment, or null
+    * @param theSections
+    *           per field section of each segment, or null
+    */
+   private Template(final String theSource, final List<String> theLiterals,
+         final List<TemplateSlot> theSlots, final List<Template> theSections) {
+      source = theSource;
+      literals = theLiterals.toArray(new String[theLiterals.size()]);
+      slots = theSlots.toArray(new TemplateSlot[theSlots.size()]);
+      sections = theSections.toArray(new Template[theSections.size()]);
+   }
+
+   /**
+    * @param source
+    *           template text
+    * @return compiled template
+    * @throws IllegalArgumentException
+    *            if a slot is not closed or not known, or sections do not
+    *            match up
+    */
+   public static Template compile(final String source) {
+      int[] position = {0 };
+      Template template = parse(source, position, false);
+      if (position[0] < source.length()) {
+         throw new IllegalArgumentException("${" + END
+               + "} without ${" + FIELDS + "} at " + position[0] + ".");
+      }
+      return template;
+   }
+
+   /**
+    * @param source
+    *           template text
+    * @param position
+    *           where to start, updated to just after the section; left at a
+    *           <code>${end}</code> that is not expected
+    * @param inSection
+    *           is this a per field section, ended by <code>${end}</code>?
+    * @return compiled template or section
+    */
+   private static Template parse(final String source, final int[] position,
+         final boolean inSection) {
+      int start = position[0];
+      List<String> literals = new ArrayList<String>();
+      List<TemplateSlot> slots = new ArrayList<TemplateSlot>();
+      List<Template> sections = new ArrayList<Template>();
+      StringBuilder literal = new StringBuilder();
+      int index = position[0];
+      while (index < source.length()) {
+         char next = source.charAt(index);
+         if (next == '$' && source.startsWith("$$", index)) {
+            literal.append('$');
+            index += 2;
+         } else if (next == '$' && source.startsWith(OPEN, index)) {
+            int close = source.indexOf(CLOSE, index);
+            if (close < 0) {
+               throw new IllegalArgumentException("Slot at " + index
+                     + " is not closed.");
+            }
+            String key = source.substring(index + OPEN.length(), close);
+            if (END.equals(key)) {
+               if (!inSection) {
+                  position[0] = index;
+                  break;
+               }
+               addLiteral(literal, literals, slots, sections);
+               position[0] = close + 1;
+               return new Template(source.substring(start, index), literals,
+                     slots, sections);
+            }
+            if (FIELDS.equals(key)) {
+               if (inSection) {
+                  throw new IllegalArgumentException("${" + FIELDS
+                        + "} inside ${" + FIELDS + "} at " + index + ".");
+               }
+               addLiteral(literal, literals, slots, sections);
+               position[0] = close + 1;
+               literals.add(null);
+               slots.add(null);
+               sections.add(parse(source, position, true));
+               index = position[0];
+            } else {
+               TemplateSlot slot = TemplateSlot.forKey(key);
+               if (slot == null) {
+                  throw new IllegalArgumentException("Unknown slot ${" + key
+                        + "} at " + index + ".");
+               }
+               addLiteral(literal, literals, slots, sections);
+               literals.add(null);
+               slots.add(slot);
+               sections.add(null);
+               index = close + 1;
+            }
+         } else {
+            literal.append(next);
+            index++;
+         }
+      }
+      if (inSection) {
+         throw new IllegalArgumentException("${" + FIELDS + "} at " + start
+               + " has no ${" + END + "}.");
+      }
+      if (index >= source.length()) {
+         position[0] = index;
+      }
+      addLiteral(literal, literals, slots, sections);
+      return new Template(source, literals, slots, sections);
+   }
+
+   /**
+    * End the literal segment being built, if there is one.
+    *
+    * @param literal
+    *           text of the segment, emptied
+    * @param literals
+    *           literal text of each segment
+    * @param slots
+    *           slot of each segment
+    * @param sections
+    *           per field section of each segment
+    */
+   private static void addLiteral(final StringBuilder literal,
+         final List<String> literals, final List<TemplateSlot> slots,
+         final List<Template> sections) {
+      if (literal.length() > 0) {
+         literals.add(literal.toString());
+         slots.add(null);
+         sections.add(null);
+         literal.setLength(0);
+      }
+   }
+
+   /**
+    * @param out
+    *           where to append the text
+    * @param model
+    *           values to insert
+    * @param field
+    *           index of the field to render for, or -1 for the class
+    * @throws IllegalStateException
+    *            if a field slot is used outside a section when rendering for
+    *            the class
+    */
+   void render(final StringBuilder out, final TemplateModel model,
+         final int field) {
+      for (int segment = 0; segment < literals.length; segment++) {
+         if (literals[segment] != null) {
+            out.append(literals[segment]);
+         } else if (slots[segment] != null) {
+            out.append(model.get(slots[segment], field));
+         } else {
+            for (int index = 0; index < model.size(); index++) {
+               sections[segment].render(out, model, index);
+            }
+         }
+      }
+   }
+
+   /**
+    * @param slot
+    *           slot to look for
+    * @return true if the template or one of its sections inserts the slot
+    */
+   public boolean uses(final TemplateSlot slot) {
+      for (int segment = 0; segment < literals.length; segment++) {
+         if (slots[segment] == slot
+               || sections[segment] != null && sections[segment].uses(slot)) {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   /**
+    * @return true if a field slot is used outside a per field section, so
+    *         the template must be rendered once per field
+    */
+   public boolean isPerField() {
+      for (TemplateSlot slot : slots) {
+         if (slot != null && !slot.isClassSlot()) {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   @Override
+   public String toString() {
+      return source;
+   }
+}
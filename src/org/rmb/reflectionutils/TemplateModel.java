@@ -0,0 +1,154 @@
+package org.rmb.reflectionutils;
+
+import static org.rmb.reflectionutils.OutputFieldList.TypeOutput.FULL;
+import static org.rmb.reflectionutils.OutputFieldList.TypeOutput.SIMPLE;
+
+import java.lang.reflect.Modifier;
+import java.util.List;
+
+import org.rmb.reflectionutils.OutputFieldList.CommentReplacement;
+import org.rmb.reflectionutils.introspect.ClassModel;
+import org.rmb.reflectionutils.introspect.FieldModel;
+
+/**
+ * Slot values for one class and its fields, each worked out the first time a
+ * {@link Template} asks for it and then kept.
+ *
+ * @author robbram
+ */
+final class TemplateModel {
+
+   /** Number of slots. */
+   private static final int SLOTS = TemplateSlot.values().length;
+
+   /** Class rendered. */
+   private final ClassModel clazz;
+
+   /** Fields rendered, in order. */
+   private final List<FieldModel> fields;
+
+   /** Replacements for static field comments, may be null. */
+   private final List<CommentReplacement> replacements;
+
+   /** Values of the class slots, by slot ordinal. */
+   private final String[] classValues = new String[SLOTS];
+
+   /** Values of the field slots, by field index then slot ordinal. */
+   private final String[][] fieldValues;
+
+   /**
+    * @param theClazz
+    *           class rendered
+    * @param theFields
+    *           fields rendered, in order
+    * @param theReplacements
+    *           replacements for static field comments, may be null
+    */
+   TemplateModel(final ClassModel theClazz, final List<FieldModel> theFields,
+         final List<CommentReplacement> theReplacements) {
+      clazz = theClazz;
+      fields = theFields;
+      replacements = theReplacements;
+      fieldValues = new String[fields.size()][SLOTS];
+   }
+
+   /** @return number of fields rendered */
+   int size() {
+      return fields.size();
+   }
+
+   /**
+    * Read the value of every field now, so failures come out as they are
+    * rather than wrapped.
+    *
+    * @throws Exception
+    *            if a value cannot be read
+    */
+   void readValues() throws Exception {
+      for (int index = 0; index < fields.size(); index++) {
+         fieldValues[index][TemplateSlot.VALUE.ordinal()] =
+               OutputFieldList.getFieldValue(fields.get(index));
+      }
+   }
+
+   /**
+    * @param slot
+    *           slot to look up
+    * @param field
+    *           index of the field, or -1 when rendering for the class
+    * @return value of the slot
+    * @throws IllegalStateException
+    *            if a field slot is asked for without a field, or a field
+    *            value cannot be read
+    */
+   String get(final TemplateSlot slot, final int field) {
+      if (slot.isClassSlot()) {
+         String value = classValues[slot.ordinal()];
+         if (value == null) {
+            value = classValue(slot);
+            classValues[slot.ordinal()] = value;
+         }
+         return value;
+      }
+      if (field < 0) {
+         throw new IllegalStateException("${" + slot.getKey()
+               + "} needs a field: use it inside ${fields}...${end}.");
+      }
+      String value = fieldValues[field][slot.ordinal()];
+      if (value == null) {
+         value = fieldValue(slot, fields.get(field));
+         fieldValues[field][slot.ordinal()] = value;
+      }
+      return value;
+   }
+
+   /**
+    * @param slot
+    *           class slot
+    * @return value of the slot
+    */
+   private String classValue(final TemplateSlot slot) {
+      switch (slot) {
+         case CLASS_NAME:
+            return OutputFieldList.getClassName(clazz, SIMPLE);
+         default:
+            return OutputFieldList.getClassName(clazz, FULL);
+      }
+   }
+
+   /**
+    * @param slot
+    *           field slot
+    * @param field
+    *           field to get the value for
+    * @return value of the slot
+    */
+   private String fieldValue(final TemplateSlot slot, final FieldModel field) {
+      switch (slot) {
+         case NAME:
+            return field.getName();
+         case CAPITAL_NAME:
+            return OutputFieldList.capitaliseFieldName(field.getName());
+         case TYPE:
+            return OutputFieldList.getClassName(field.getType(), SIMPLE);
+         case FULL_TYPE:
+            return OutputFieldList.getClassName(field.getType(), FULL);
+         case COMMENT:
+            return OutputFieldList.generateCommentForField(field);
+         case ACCESSOR_COMMENT:
+            return OutputFieldList.generateAccessorComment(field);
+         case STATIC_COMMENT:
+            return OutputFieldList.generateCommentForStaticField(field,
+                  replacements);
+         case MODIFIERS:
+            return Modifier.toString(field.getModifiers());
+         default:
+            try {
+               return OutputFieldList.getFieldValue(field);
+            } catch (Exception e) {
+               throw new IllegalStateException("Unable to read the value of ["
+                     + field.getName() + "] in [" + clazz.getName() + "].", e);
+            }
+      }
+   }
+}
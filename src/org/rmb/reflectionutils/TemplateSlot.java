@@ -0,0 +1,88 @@
+package org.rmb.reflectionutils;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * Values a {@link Template} can insert, written <code>${key}</code>. Class
+ * slots can be used anywhere; field slots only in a template rendered for one
+ * field, or between <code>${fields}</code> and <code>${end}</code>.
+ * </p>
+ *
+ * @author robbram
+ */
+public enum TemplateSlot {
+
+   /** Simple name of the class, e.g. <code>Person</code>. */
+   CLASS_NAME("className", true),
+   /** Binary name of the class, e.g. <code>org.rmb.Person</code>. */
+   FULL_CLASS_NAME("fullClassName", true),
+   /** Field name, e.g. <code>age</code>. */
+   NAME("name", false),
+   /** Field name as used after get and set, e.g. <code>Age</code>. */
+   CAPITAL_NAME("capitalName", false),
+   /** Simple name of the field type, e.g. <code>Integer</code>. */
+   TYPE("type", false),
+   /** Full name of the field type, e.g. <code>java.lang.Integer</code>. */
+   FULL_TYPE("fullType", false),
+   /**
+    * Field comment, from
+    * {@link org.rmb.reflectionutils.javadoc.FieldComment} or the field name.
+    */
+   COMMENT("comment", false),
+   /** Field comment starting with a lower case letter. */
+   ACCESSOR_COMMENT("accessorComment", false),
+   /** Comment for a static field, with the comment replacements applied. */
+   STATIC_COMMENT("staticComment", false),
+   /** Field modifiers, e.g. <code>public static final</code>. */
+   MODIFIERS("modifiers", false),
+   /** Value of a static field as Java source, e.g. <code>"abc"</code>. */
+   VALUE("value", false);
+
+   /** Slots by key. */
+   private static final Map<String, TemplateSlot> BY_KEY =
+         new HashMap<String, TemplateSlot>();
+
+   static {
+      for (TemplateSlot slot : values()) {
+         BY_KEY.put(slot.key, slot);
+      }
+   }
+
+   /** Name used in templates. */
+   private final String key;
+
+   /** Does the value come from the class rather than a field? */
+   private final boolean classSlot;
+
+   /**
+    * @param theKey
+    *           name used in templates
+    * @param theClassSlot
+    *           does the value come from the class rather than a field?
+    */
+   TemplateSlot(final String theKey, final boolean theClassSlot) {
+      key = theKey;
+      classSlot = theClassSlot;
+   }
+
+   /**
+    * @param key
+    *           name used in templates
+    * @return slot with that name, or null if there is none
+    */
+   static TemplateSlot forKey(final String key) {
+      return BY_KEY.get(key);
+   }
+
+   /** @return name used in templates */
+   public String getKey() {
+      return key;
+   }
+
+   /** @return does the value come from the class rather than a field? */
+   public boolean isClassSlot() {
+      return classSlot;
+   }
+}
@@ -0,0 +1,208 @@
+package org.rmb.reflectionutils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * The {@link Template}s used by {@link OutputFieldList}'s generators. Start
+ * from {@link #builtIn()}, which gives the generators' usual output, and
+ * replace the templates you want to change with {@link #with} or
+ * {@link #withDirectory}. Instances are immutable and can be shared.
+ * </p>
+ *
+ * @author robbram
+ */
+public final class Templates {
+
+   /** Built in templates, compiled once. */
+   private static final Templates BUILT_IN;
+
+   static {
+      Map<Kind, Template> templates = new EnumMap<Kind, Template>(Kind.class);
+      for (Kind kind : Kind.values()) {
+         templates.put(kind, Template.compile(kind.builtIn));
+      }
+      BUILT_IN = new Templates(templates);
+   }
+
+   /** Template for each kind of output. */
+   private final Map<Kind, Template> templates;
+
+   /**
+    * @param theTemplates
+    *           template for each kind of output
+    */
+   private Templates(final Map<Kind, Template> theTemplates) {
+      templates = theTemplates;
+   }
+
+   /** @return templates giving the generators' usual output */
+   public static Templates builtIn() {
+      return BUILT_IN;
+   }
+
+   /**
+    * @param kind
+    *           kind of output
+    * @return template used for it
+    */
+   public Template get(final Kind kind) {
+      return templates.get(kind);
+   }
+
+   /**
+    * @param kind
+    *           kind of output
+    * @param template
+    *           template to use for it
+    * @return copy of these templates with that one replaced
+    * @throws IllegalArgumentException
+    *            if a template rendered once per class uses a field slot
+    *            outside <code>${fields}...${end}</code>
+    */
+   public Templates with(final Kind kind, final Template template) {
+      if (kind.perClass && template.isPerField()) {
+         throw new IllegalArgumentException("The " + kind.fileName
+               + " template is rendered once per class, so field slots must"
+               + " be inside ${fields}...${end}.");
+      }
+      Map<Kind, Template> copy = new EnumMap<Kind, Template>(templates);
+      copy.put(kind, template);
+      return new Templates(copy);
+   }
+
+   /**
+    * Replace templates with those in a directory: a UTF-8 file named after
+    * the kind, e.g. <code>getter.template</code>, for each one to replace.
+    *
+    * @param directory
+    *           directory to read
+    * @return copy of these templates with those found replaced
+    * @throws IOException
+    *            if a file cannot be read
+    */
+   public Templates withDirectory(final File directory) throws IOException {
+      Templates result = this;
+      for (Kind kind : Kind.values()) {
+         File file = new File(directory, kind.fileName);
+         if (file.isFile()) {
+            String source = new String(Files.readAllBytes(file.toPath()),
+                  StandardCharsets.UTF_8);
+            result = result.with(kind, Template.compile(source));
+         }
+      }
+      return result;
+   }
+
+   /** Kinds of output, each with its own template. */
+   public enum Kind {
+      /** Instance field declaration, once per field. */
+      FIELD("field.template", false, ""
+            + "   /** ${comment} */\n"
+            + "   private ${type} ${name};\n"
+            + "\n"),
+      /** Get method, once per instance field. */
+      GETTER("getter.template", false, ""
+            + "   /** @return ${accessorComment} */\n"
+            + "   public ${type} get${capitalName}() {\n"
+            + "      return ${name};\n"
+            + "   }\n"
+            + "\n"),
+      /** Set method, once per instance field. */
+      SETTER("setter.template", false, ""
+            + "   /** @param the${capitalName} ${accessorComment} */\n"
+            + "   public void set${capitalName}(final ${type}"
+            + " the${capitalName}) {\n"
+            + "      this.${name} = the${capitalName};\n"
+            + "   }\n"
+            + "\n"),
+      /** Static field declaration with its value, once per static field. */
+      STATIC_FIELD("static-field.template", false, ""
+            + "   /** ${staticComment} */\n"
+            + "   ${modifiers} ${type} ${name} = ${value};\n"
+            + "\n"),
+      /** equals(), once per class. */
+      EQUALS("equals.template", true, ""
+            + "\t@Override\n"
+            + "\tpublic boolean equals(final Object obj) {\n"
+            + "\t\tif (obj == this) {\n"
+            + "\t\t\treturn true; // test for reference equality\n"
+            + "\t\t}\n"
+            + "\t\tif (obj == null) {\n"
+            + "\t\t\treturn false; // test for null\n"
+            + "\t\t}\n"
+            + "\t\tif (obj instanceof ${className}) {\n"
+            + "\t\t\tfinal ${className} other = (${className}) obj;\n"
+            + "\t\t\t// @formatter:off\n"
+            + "\t\t\treturn new org.apache.commons.lang.builder"
+            + ".EqualsBuilder()\n"
+            + "${fields}"
+            + "\t\t\t\t\t.append(${name}, other.${name})\n"
+            + "${end}"
+            + "\t\t\t\t\t.isEquals();\n"
+            + "\t\t\t// @formatter:on\n"
+            + "\t\t} else {\n"
+            + "\t\t\treturn false;\n"
+            + "\t\t}\n"
+            + "\t}\n"),
+      /** hashCode(), once per class. */
+      HASH_CODE("hash-code.template", true, ""
+            + "\t@Override\n"
+            + "\tpublic int hashCode() {\n"
+            + "\t\t// @formatter:off\n"
+            + "\t\treturn new org.apache.commons.lang.builder"
+            + ".HashCodeBuilder()\n"
+            + "${fields}"
+            + "\t\t\t\t.append(${name})\n"
+            + "${end}"
+            + "\t\t\t\t.toHashCode();\n"
+            + "\t\t// @formatter:on\n"
+            + "\t}\n"),
+      /** toString(), once per class. */
+      TO_STRING("to-string.template", true, ""
+            + "\t@Override\n"
+            + "\tpublic String toString() {\n"
+            + "\t\torg.apache.commons.lang.builder.ToStringBuilder"
+            + ".setDefaultStyle(org.apache.commons.lang.builder"
+            + ".ToStringStyle.SHORT_PREFIX_STYLE);\n"
+            + "\t\t// @formatter:off\n"
+            + "\t\treturn new org.apache.commons.lang.builder"
+            + ".ToStringBuilder(this)\n"
+            + "${fields}"
+            + "\t\t\t.append(\"${name}\", ${name})\n"
+            + "${end}"
+            + "\t\t\t.toString();\n"
+            + "\t\t// @formatter:on\n"
+            + "\t}\n");
+
+      /** Name of the file read by {@link Templates#withDirectory}. */
+      private final String fileName;
+
+      /** Is the template rendered once per class rather than per field? */
+      private final boolean perClass;
+
+      /** Source of the built in template. */
+      private final String builtIn;
+
+      /**
+       * @param theFileName
+       *           name of the file read by {@link Templates#withDirectory}
+       * @param thePerClass
+       *           is the template rendered once per class rather than per
+       *           field?
+       * @param theBuiltIn
+       *           source of the built in template
+       */
+      Kind(final String theFileName, final boolean thePerClass,
+            final String theBuiltIn) {
+         fileName = theFileName;
+         perClass = thePerClass;
+         builtIn = theBuiltIn;
+      }
+   }
+}
@@ -0,0 +1,234 @@
+package org.rmb.reflectionutils.introspect;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * <p>
+ * Build {@link ClassModel}s by reading <code>.class</code> files from a class
+ * path, without loading, linking or initialising anything. Use this for batch
+ * runs over large jars, or for classes whose static initialisers must not run.
+ * </p>
+ * <p>
+ * Classes not found on the class path given are read as resources from the
+ * system class loader, which also finds the JDK's own classes. Only
+ * compile-time constants have a value (see {@link FieldModel#getValue()}).
+ * Models are cached, so superclasses shared by many classes are read once.
+ * Close the introspector to close the jars it opened.
+ * </p>
+ *
+ * @author robbram
+ */
+public final class ClassFileIntrospector implements ClassIntrospector,
+      Closeable {
+
+   /** Size of the buffer used to read class files. */
+   private static final int BUFFER_SIZE = 8192;
+
+   /** Directories and jars to look in, in order. */
+   private final List<File> classPath;
+
+   /** Jars opened so far, by class path entry. */
+   private final Map<File, JarFile> jars = new HashMap<File, JarFile>();
+
+   /** Models read so far, by binary class name. */
+   private final Map<String, ClassModel> models =
+         new HashMap<String, ClassModel>();
+
+   /**
+    * @param theClassPath
+    *           directories and jars to look in, in order
+    */
+   public ClassFileIntrospector(final List<File> theClassPath) {
+      classPath = new ArrayList<File>(theClassPath);
+   }
+
+   /**
+    * @param classPath
+    *           class path in the platform format, e.g.
+    *           <code>target/classes:lib/a.jar</code>
+    * @return introspector for that class path
+    */
+   public static ClassFileIntrospector fromClassPath(final String classPath) {
+      List<File> entries = new ArrayList<File>();
+      for (String entry : classPath.split(File.pathSeparator)) {
+         if (!entry.isEmpty()) {
+            entries.add(new File(entry));
+         }
+      }
+      return new ClassFileIntrospector(entries);
+   }
+
+   @Override
+   public synchronized ClassModel describe(final String className)
+         throws ClassNotFoundException {
+      ClassModel model = models.get(className);
+      if (model != null) {
+         return model;
+      }
+      String resource = className.replace('.', '/') + ".class";
+      try {
+         byte[] bytes = read(resource);
+         if (bytes == null) {
+            throw new ClassNotFoundException(className);
+         }
+         model = ClassFileParser.parse(bytes, this);
+      } catch (IOException e) {
+         throw new ClassNotFoundException("Unable to read [" + resource
+               + "].", e);
+      }
+      models.put(className, model);
+      return model;
+   }
+
+   /**
+    * List the classes of a package found on the class path given, including
+    * nested classes but not those of sub-packages. The JDK's own classes are
+    * not listed.
+    *
+    * @param packageName
+    *           package to list, e.g. <code>org.rmb.maven</code>
+    * @return binary names of the classes, sorted
+    * @throws IOException
+    *            if a jar cannot be read
+    */
+   public synchronized List<String> listClasses(final String packageName)
+         throws IOException {
+      String prefix = packageName.replace('.', '/') + "/";
+      Set<String> names = new TreeSet<String>();
+      for (File entry : classPath) {
+         if (entry.isDirectory()) {
+            File[] files = new File(entry, prefix).listFiles();
+            if (files != null) {
+               for (File file : files) {
+                  addClassName(names, prefix + file.getName());
+               }
+            }
+         } else if (entry.isFile()) {
+            Enumeration<JarEntry> entries = jar(entry).entries();
+            while (entries.hasMoreElements()) {
+               String resource = entries.nextElement().getName();
+               if (resource.startsWith(prefix)
+                     && resource.indexOf('/', prefix.length()) < 0) {
+                  addClassName(names, resource);
+               }
+            }
+         }
+      }
+      return new ArrayList<String>(names);
+   }
+
+   /**
+    * @param names
+    *           binary class names to add to
+    * @param resource
+    *           path of a file in a package, e.g.
+    *           <code>java/lang/String.class</code>
+    */
+   private static void addClassName(final Set<String> names,
+         final String resource) {
+      if (resource.endsWith(".class") && !resource.endsWith("-info.class")) {
+         names.add(resource.substring(0,
+               resource.length() - ".class".length()).replace('/', '.'));
+      }
+   }
+
+   /**
+    * @param entry
+    *           jar on the class path
+    * @return the jar, opened the first time it is asked for
+    * @throws IOException
+    *            if the jar cannot be opened
+    */
+   private JarFile jar(final File entry) throws IOException {
+      JarFile jar = jars.get(entry);
+      if (jar == null) {
+         jar = new JarFile(entry);
+         jars.put(entry, jar);
+      }
+      return jar;
+   }
+
+   /**
+    * @param resource
+    *           path of the class file, e.g. <code>java/lang/String.class</code>
+    * @return contents of the class file, or null if it is not found
+    * @throws IOException
+    *            if the class file or a jar cannot be read
+    */
+   private byte[] read(final String resource) throws IOException {
+      for (File entry : classPath) {
+         if (entry.isDirectory()) {
+            File file = new File(entry, resource);
+            if (file.isFile()) {
+               try (InputStream stream = new FileInputStream(file)) {
+                  return readFully(stream);
+               }
+            }
+         } else if (entry.isFile()) {
+            JarFile jar = jar(entry);
+            JarEntry jarEntry = jar.getJarEntry(resource);
+            if (jarEntry != null) {
+               try (InputStream stream = jar.getInputStream(jarEntry)) {
+                  return readFully(stream);
+               }
+            }
+         }
+      }
+      try (InputStream stream =
+            ClassLoader.getSystemResourceAsStream(resource)) {
+         if (stream == null) {
+            return null;
+         }
+         return readFully(stream);
+      }
+   }
+
+   /**
+    * @param stream
+    *           stream to read to the end
+    * @return everything in the stream
+    * @throws IOException
+    *            if the stream cannot be read
+    */
+   private static byte[] readFully(final InputStream stream)
+         throws IOException {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      byte[] buffer = new byte[BUFFER_SIZE];
+      int read = stream.read(buffer);
+      while (read >= 0) {
+         bytes.write(buffer, 0, read);
+         read = stream.read(buffer);
+      }
+      return bytes.toByteArray();
+   }
+
+   @Override
+   public synchronized void close() throws IOException {
+      IOException failure = null;
+      for (JarFile jar : jars.values()) {
+         try {
+            jar.close();
+         } catch (IOException e) {
+            failure = e;
+         }
+      }
+      jars.clear();
+      if (failure != null) {
+         throw failure;
+      }
+   }
+}
@@ -0,0 +1,460 @@
+package org.rmb.reflectionutils.introspect;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.rmb.reflectionutils.javadoc.FieldComment;
+
+/**
+ * <p>
+ * Read a {@link ClassModel} straight from the bytes of a <code>.class</code>
+ * file, following chapter 4 of the JVM specification. Only the constant pool,
+ * fields, methods and the attributes we need are decoded; method bodies are
+ * skipped.
+ * </p>
+ *
+ * @author robbram
+ */
+final class ClassFileParser {
+
+   /** First four bytes of every class file. */
+   private static final int MAGIC = 0xCAFEBABE;
+
+   /** Constant pool tag. */
+   private static final int UTF8 = 1;
+
+   /** Constant pool tag. */
+   private static final int INTEGER = 3;
+
+   /** Constant pool tag. */
+   private static final int FLOAT = 4;
+
+   /** Constant pool tag. */
+   private static final int LONG = 5;
+
+   /** Constant pool tag. */
+   private static final int DOUBLE = 6;
+
+   /** Constant pool tag. */
+   private static final int CLASS = 7;
+
+   /** Constant pool tag. */
+   private static final int STRING = 8;
+
+   /** Constant pool tag. */
+   private static final int FIELD_REF = 9;
+
+   /** Constant pool tag. */
+   private static final int METHOD_REF = 10;
+
+   /** Constant pool tag. */
+   private static final int INTERFACE_METHOD_REF = 11;
+
+   /** Constant pool tag. */
+   private static final int NAME_AND_TYPE = 12;
+
+   /** Constant pool tag. */
+   private static final int METHOD_HANDLE = 15;
+
+   /** Constant pool tag. */
+   private static final int METHOD_TYPE = 16;
+
+   /** Constant pool tag. */
+   private static final int DYNAMIC = 17;
+
+   /** Constant pool tag. */
+   private static final int INVOKE_DYNAMIC = 18;
+
+   /** Constant pool tag. */
+   private static final int MODULE = 19;
+
+   /** Constant pool tag. */
+   private static final int PACKAGE = 20;
+
+   /** Access flag for interfaces. */
+   private static final int ACC_INTERFACE = 0x0200;
+
+   /** Descriptor of the annotation holding field comments. */
+   private static final String FIELD_COMMENT_DESCRIPTOR = "L"
+         + FieldComment.class.getName().replace('.', '/') + ";";
+
+   /** Element of {@link FieldComment} holding the comment. */
+   private static final String FIELD_COMMENT_ELEMENT = "comment";
+
+   /** Bytes of the class file. */
+   private final DataInputStream in;
+
+   /** Constant pool tags by index. */
+   private int[] tags;
+
+   /**
+    * Constant pool values by index: strings for UTF8 entries, boxed numbers
+    * for numeric entries and the index of the name for class and string
+    * entries.
+    */
+   private Object[] values;
+
+   /**
+    * @param bytes
+    *           contents of a class file
+    */
+   private ClassFileParser(final byte[] bytes) {
+      in = new DataInputStream(new ByteArrayInputStream(bytes));
+   }
+
+   /**
+    * @param bytes
+    *           contents of a class file
+    * @param introspector
+    *           used by the model to find its superclass
+    * @return model of the class
+    * @throws IOException
+    *            if the bytes are not a valid class file
+    */
+   static ClassModel parse(final byte[] bytes,
+         final ClassIntrospector introspector) throws IOException {
+      return new ClassFileParser(bytes).parse(introspector);
+   }
+
+   /**
+    * @param introspector
+    *           used by the model to find its superclass
+    * @return model of the class
+    * @throws IOException
+    *            if the bytes are not a valid class file
+    */
+   private ClassModel parse(final ClassIntrospector introspector)
+         throws IOException {
+      if (in.readInt() != MAGIC) {
+         throw new IOException("Not a class file.");
+      }
+      // Minor and major version.
+      in.readUnsignedShort();
+      in.readUnsignedShort();
+      readConstantPool();
+      int access = in.readUnsignedShort();
+      String internalName = className(in.readUnsignedShort());
+      int superIndex = in.readUnsignedShort();
+      String superclassName = null;
+      if (superIndex != 0 && (access & ACC_INTERFACE) == 0) {
+         superclassName = className(superIndex).replace('/', '.');
+      }
+      int interfaces = in.readUnsignedShort();
+      for (int index = 0; index < interfaces; index++) {
+         in.readUnsignedShort();
+      }
+      List<FieldModel> fields = new ArrayList<FieldModel>();
+      int fieldCount = in.readUnsignedShort();
+      for (int index = 0; index < fieldCount; index++) {
+         fields.add(readField());
+      }
+      List<MethodModel> methods = new ArrayList<MethodModel>();
+      int methodCount = in.readUnsignedShort();
+      for (int index = 0; index < methodCount; index++) {
+         MethodModel method = readMethod();
+         if (method != null) {
+            methods.add(method);
+         }
+      }
+
+      String name = internalName.replace('/', '.');
+      String simpleName = TypeModel.simpleNameOf(name);
+      int modifiers = access & ~Modifier.SYNCHRONIZED;
+      int attributes = in.readUnsignedShort();
+      for (int index = 0; index < attributes; index++) {
+         String attribute = utf8(in.readUnsignedShort());
+         int length = in.readInt();
+         if (!"InnerClasses".equals(attribute)) {
+            skip(length);
+            continue;
+         }
+         // A nested class finds its real modifiers and simple name here.
+         int classes = in.readUnsignedShort();
+         for (int entry = 0; entry < classes; entry++) {
+            int inner = in.readUnsignedShort();
+            in.readUnsignedShort();
+            int innerName = in.readUnsignedShort();
+            int innerAccess = in.readUnsignedShort();
+            if (inner != 0 && internalName.equals(className(inner))) {
+               modifiers = innerAccess;
+               simpleName = "";
+               if (innerName != 0) {
+                  simpleName = utf8(innerName);
+               }
+            }
+         }
+      }
+      modifiers &= Modifier.classModifiers() | Modifier.INTERFACE;
+      return new ClassModel(name, simpleName, modifiers, superclassName,
+            fields, methods, introspector);
+   }
+
+   /**
+    * @throws IOException
+    *            if the constant pool cannot be read
+    */
+   private void readConstantPool() throws IOException {
+      int count = in.readUnsignedShort();
+      tags = new int[count];
+      values = new Object[count];
+      for (int index = 1; index < count; index++) {
+         int tag = in.readUnsignedByte();
+         tags[index] = tag;
+         switch (tag) {
+            case UTF8:
+               values[index] = in.readUTF();
+               break;
+            case INTEGER:
+               values[index] = in.readInt();
+               break;
+            case FLOAT:
+               values[index] = in.readFloat();
+               break;
+            case LONG:
+               values[index] = in.readLong();
+               // Eight byte constants take two slots.
+               index++;
+               break;
+            case DOUBLE:
+               values[index] = in.readDouble();
+               index++;
+               break;
+            case CLASS:
+            case STRING:
+            case METHOD_TYPE:
+            case MODULE:
+            case PACKAGE:
+               values[index] = in.readUnsignedShort();
+               break;
+            case FIELD_REF:
+            case METHOD_REF:
+            case INTERFACE_METHOD_REF:
+            case NAME_AND_TYPE:
+            case DYNAMIC:
+            case INVOKE_DYNAMIC:
+               in.readInt();
+               break;
+            case METHOD_HANDLE:
+               in.readUnsignedByte();
+               in.readUnsignedShort();
+               break;
+            default:
+               throw new IOException("Unknown constant pool tag [" + tag
+                     + "] at [" + index + "].");
+         }
+      }
+   }
+
+   /**
+    * @return model of the next field
+    * @throws IOException
+    *            if the field cannot be read
+    */
+   private FieldModel readField() throws IOException {
+      int access = in.readUnsignedShort();
+      String name = utf8(in.readUnsignedShort());
+      String descriptor = utf8(in.readUnsignedShort());
+      String genericType = null;
+      String comment = null;
+      Object constant = null;
+      int attributes = in.readUnsignedShort();
+      for (int index = 0; index < attributes; index++) {
+         String attribute = utf8(in.readUnsignedShort());
+         int length = in.readInt();
+         if ("ConstantValue".equals(attribute)) {
+            constant = constant(in.readUnsignedShort(), descriptor);
+         } else if ("Signature".equals(attribute)) {
+            genericType = SignatureReader.toSource(utf8(in.readUnsignedShort()));
+         } else if ("RuntimeVisibleAnnotations".equals(attribute)) {
+            comment = readFieldComment();
+         } else {
+            skip(length);
+         }
+      }
+      Callable<Object> value = null;
+      if (Modifier.isStatic(access) && constant != null) {
+         final Object known = constant;
+         value = () -> known;
+      }
+      return new FieldModel(name, access & Modifier.fieldModifiers(),
+            TypeModel.fromDescriptor(descriptor), genericType, comment, value);
+   }
+
+   /**
+    * @return model of the next method, or null for constructors and static
+    *         initialisers
+    * @throws IOException
+    *            if the method cannot be read
+    */
+   private MethodModel readMethod() throws IOException {
+      int access = in.readUnsignedShort();
+      String name = utf8(in.readUnsignedShort());
+      String descriptor = utf8(in.readUnsignedShort());
+      int attributes = in.readUnsignedShort();
+      for (int index = 0; index < attributes; index++) {
+         in.readUnsignedShort();
+         skip(in.readInt());
+      }
+      if (name.startsWith("<")) {
+         return null;
+      }
+      List<TypeModel> parameters = new ArrayList<TypeModel>();
+      int position = 1;
+      while (descriptor.charAt(position) != ')') {
+         int end = position;
+         while (descriptor.charAt(end) == '[') {
+            end++;
+         }
+         if (descriptor.charAt(end) == 'L') {
+            end = descriptor.indexOf(';', end);
+         }
+         end++;
+         parameters.add(TypeModel.fromDescriptor(descriptor.substring(
+               position, end)));
+         position = end;
+      }
+      TypeModel returnType =
+            TypeModel.fromDescriptor(descriptor.substring(position + 1));
+      return new MethodModel(name, access & Modifier.methodModifiers(),
+            returnType, parameters);
+   }
+
+   /**
+    * Read a RuntimeVisibleAnnotations attribute, keeping only the comment from
+    * {@link FieldComment}.
+    *
+    * @return the comment, empty if {@link FieldComment} is present without
+    *         one, or null if it is not present
+    * @throws IOException
+    *            if the attribute cannot be read
+    */
+   private String readFieldComment() throws IOException {
+      String comment = null;
+      int annotations = in.readUnsignedShort();
+      for (int index = 0; index < annotations; index++) {
+         String type = utf8(in.readUnsignedShort());
+         boolean fieldComment = FIELD_COMMENT_DESCRIPTOR.equals(type);
+         if (fieldComment) {
+            comment = "";
+         }
+         int pairs = in.readUnsignedShort();
+         for (int pair = 0; pair < pairs; pair++) {
+            String element = utf8(in.readUnsignedShort());
+            Object value = readElementValue();
+            if (fieldComment && FIELD_COMMENT_ELEMENT.equals(element)) {
+               comment = (String) value;
+            }
+         }
+      }
+      return comment;
+   }
+
+   /**
+    * Read an annotation element value.
+    *
+    * @return value for constants and strings, null for anything else
+    * @throws IOException
+    *            if the value cannot be read
+    */
+   private Object readElementValue() throws IOException {
+      char tag = (char) in.readUnsignedByte();
+      switch (tag) {
+         case 's':
+            return utf8(in.readUnsignedShort());
+         case 'B':
+         case 'C':
+         case 'D':
+         case 'F':
+         case 'I':
+         case 'J':
+         case 'S':
+         case 'Z':
+            return values[in.readUnsignedShort()];
+         case 'e':
+            in.readUnsignedShort();
+            in.readUnsignedShort();
+            return null;
+         case 'c':
+            in.readUnsignedShort();
+            return null;
+         case '@':
+            in.readUnsignedShort();
+            int pairs = in.readUnsignedShort();
+            for (int pair = 0; pair < pairs; pair++) {
+               in.readUnsignedShort();
+               readElementValue();
+            }
+            return null;
+         case '[':
+            int count = in.readUnsignedShort();
+            for (int index = 0; index < count; index++) {
+               readElementValue();
+            }
+            return null;
+         default:
+            throw new IOException("Unknown element value tag [" + tag + "].");
+      }
+   }
+
+   /**
+    * @param index
+    *           constant pool index from a ConstantValue attribute
+    * @param descriptor
+    *           descriptor of the field, so ints can be turned back into the
+    *           type reflection would give
+    * @return value of the constant
+    */
+   private Object constant(final int index, final String descriptor) {
+      if (tags[index] == STRING) {
+         return utf8((Integer) values[index]);
+      }
+      Object value = values[index];
+      switch (descriptor.charAt(0)) {
+         case 'Z':
+            return ((Integer) value).intValue() != 0;
+         case 'C':
+            return (char) ((Integer) value).intValue();
+         case 'B':
+            return (byte) ((Integer) value).intValue();
+         case 'S':
+            return (short) ((Integer) value).intValue();
+         default:
+            return value;
+      }
+   }
+
+   /**
+    * @param index
+    *           constant pool index of a class entry
+    * @return internal name of the class, e.g. <code>java/lang/String</code>
+    */
+   private String className(final int index) {
+      return utf8((Integer) values[index]);
+   }
+
+   /**
+    * @param index
+    *           constant pool index of a UTF8 entry
+    * @return its value
+    */
+   private String utf8(final int index) {
+      return (String) values[index];
+   }
+
+   /**
+    * @param length
+    *           number of bytes to skip
+    * @throws IOException
+    *            if the bytes run out
+    */
+   private void skip(final int length) throws IOException {
+      if (in.skipBytes(length) != length) {
+         throw new IOException("Class file is truncated.");
+      }
+   }
+}
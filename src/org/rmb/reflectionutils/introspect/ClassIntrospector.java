@@ -0,0 +1,22 @@
+package org.rmb.reflectionutils.introspect;
+
+/**
+ * Source of {@link ClassModel}s. The generators in
+ * {@link org.rmb.reflectionutils.OutputFieldList} work the same whichever
+ * implementation is used.
+ *
+ * @author robbram
+ * @see ReflectionIntrospector
+ * @see ClassFileIntrospector
+ */
+public interface ClassIntrospector {
+
+   /**
+    * @param className
+    *           binary class name, e.g. <code>java.util.Map$Entry</code>
+    * @return model of the class
+    * @throws ClassNotFoundException
+    *            if the class cannot be found or read
+    */
+   ClassModel describe(String className) throws ClassNotFoundException;
+}
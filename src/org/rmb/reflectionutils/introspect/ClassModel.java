@@ -0,0 +1,149 @@
+package org.rmb.reflectionutils.introspect;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>
+ * A class as seen by the generators: its name, fields and methods. Instances
+ * come from a {@link ClassIntrospector}, which is also used to find the
+ * superclass when it is asked for.
+ * </p>
+ *
+ * @author robbram
+ */
+public final class ClassModel {
+
+   /** Binary name, as given by {@link Class#getName()}. */
+   private final String name;
+
+   /** Name as given by {@link Class#getSimpleName()}. */
+   private final String simpleName;
+
+   /** Modifiers, as given by {@link Class#getModifiers()}. */
+   private final int modifiers;
+
+   /** Binary name of the superclass, null for Object and interfaces. */
+   private final String superclassName;
+
+   /** Declared fields in declaration order. */
+   private final List<FieldModel> fields;
+
+   /** Declared methods. */
+   private final List<MethodModel> methods;
+
+   /** Used to find the superclass. */
+   private final ClassIntrospector introspector;
+
+   /**
+    * @param theName
+    *           binary name
+    * @param theSimpleName
+    *           name as given by {@link Class#getSimpleName()}
+    * @param theModifiers
+    *           modifiers
+    * @param theSuperclassName
+    *           binary name of the superclass, null for Object and interfaces
+    * @param theFields
+    *           declared fields
+    * @param theMethods
+    *           declared methods
+    * @param theIntrospector
+    *           used to find the superclass
+    */
+   ClassModel(final String theName, final String theSimpleName,
+         final int theModifiers, final String theSuperclassName,
+         final List<FieldModel> theFields, final List<MethodModel> theMethods,
+         final ClassIntrospector theIntrospector) {
+      name = theName;
+      simpleName = theSimpleName;
+      modifiers = theModifiers;
+      superclassName = theSuperclassName;
+      fields = Collections.unmodifiableList(theFields);
+      methods = Collections.unmodifiableList(theMethods);
+      introspector = theIntrospector;
+   }
+
+   /** @return declared fields in declaration order */
+   public List<FieldModel> getFields() {
+      return fields;
+   }
+
+   /**
+    * @param statics
+    *           true for static fields, false for instance fields
+    * @return declared fields of that kind in declaration order
+    */
+   public List<FieldModel> getFields(final boolean statics) {
+      List<FieldModel> matching = new ArrayList<FieldModel>();
+      for (FieldModel field : fields) {
+         if (field.isStatic() == statics) {
+            matching.add(field);
+         }
+      }
+      return matching;
+   }
+
+   /**
+    * @return this class and its superclasses below Object, the topmost first,
+    *         e.g. to visit inherited fields in the order they are laid out
+    */
+   public List<ClassModel> getHierarchy() {
+      List<ClassModel> hierarchy = new ArrayList<ClassModel>();
+      ClassModel current = this;
+      while (current != null
+            && !Object.class.getName().equals(current.getName())) {
+         hierarchy.add(0, current);
+         current = current.getSuperclass();
+      }
+      return hierarchy;
+   }
+
+   /** @return declared methods */
+   public List<MethodModel> getMethods() {
+      return methods;
+   }
+
+   /** @return modifiers, see {@link java.lang.reflect.Modifier} */
+   public int getModifiers() {
+      return modifiers;
+   }
+
+   /** @return binary name, as given by {@link Class#getName()} */
+   public String getName() {
+      return name;
+   }
+
+   /** @return name as given by {@link Class#getSimpleName()} */
+   public String getSimpleName() {
+      return simpleName;
+   }
+
+   /**
+    * @return model of the superclass, null for Object and interfaces
+    * @throws IllegalStateException
+    *            if the superclass cannot be found
+    */
+   public ClassModel getSuperclass() {
+      if (superclassName == null) {
+         return null;
+      }
+      try {
+         return introspector.describe(superclassName);
+      } catch (ClassNotFoundException e) {
+         throw new IllegalStateException("Cannot find superclass ["
+               + superclassName + "] of [" + name + "].", e);
+      }
+   }
+
+   /** @return binary name of the superclass, null for Object and interfaces */
+   public String getSuperclassName() {
+      return superclassName;
+   }
+
+   @Override
+   public String toString() {
+      return name;
+   }
+}
@@ -0,0 +1,121 @@
+package org.rmb.reflectionutils.introspect;
+
+import java.lang.reflect.Modifier;
+import java.util.concurrent.Callable;
+
+import org.rmb.reflectionutils.javadoc.FieldComment;
+
+/**
+ * A field declared by a {@link ClassModel}.
+ *
+ * @author robbram
+ */
+public final class FieldModel {
+
+   /** Field name. */
+   private final String name;
+
+   /** Modifiers, as given by {@link java.lang.reflect.Field#getModifiers()}. */
+   private final int modifiers;
+
+   /** Erased type of the field. */
+   private final TypeModel type;
+
+   /**
+    * Generic type as Java source, e.g. <code>java.util.List&lt;T&gt;</code>,
+    * or null if the type is not generic.
+    */
+   private final String genericType;
+
+   /** Comment from {@link FieldComment}, or null if not annotated. */
+   private final String comment;
+
+   /** Gets the value of a static field, or null if it cannot be known. */
+   private final Callable<Object> value;
+
+   /**
+    * @param theName
+    *           field name
+    * @param theModifiers
+    *           modifiers
+    * @param theType
+    *           erased type of the field
+    * @param theGenericType
+    *           generic type as Java source, or null if not generic
+    * @param theComment
+    *           comment from {@link FieldComment}, or null if not annotated
+    * @param theValue
+    *           gets the value of a static field, or null if it cannot be known
+    */
+   FieldModel(final String theName, final int theModifiers,
+         final TypeModel theType, final String theGenericType,
+         final String theComment, final Callable<Object> theValue) {
+      name = theName;
+      modifiers = theModifiers;
+      type = theType;
+      genericType = theGenericType;
+      comment = theComment;
+      value = theValue;
+   }
+
+   /** @return comment from {@link FieldComment}, or null if not annotated */
+   public String getComment() {
+      return comment;
+   }
+
+   /**
+    * @return generic type as Java source, e.g.
+    *         <code>java.util.List&lt;T&gt;</code>, or null if the type is not
+    *         generic
+    */
+   public String getGenericType() {
+      return genericType;
+   }
+
+   /** @return modifiers, see {@link Modifier} */
+   public int getModifiers() {
+      return modifiers;
+   }
+
+   /** @return field name */
+   public String getName() {
+      return name;
+   }
+
+   /** @return erased type of the field */
+   public TypeModel getType() {
+      return type;
+   }
+
+   /**
+    * Get the value of a static field. The reflection backend reads the field,
+    * which runs the static initialiser of the class; the class file backend
+    * only knows compile-time constants.
+    *
+    * @return value of the field
+    * @throws Exception
+    *            if the value cannot be read, or is not known
+    */
+   public Object getValue() throws Exception {
+      if (value == null) {
+         throw new IllegalStateException("Value of field [" + name
+               + "] is not known.");
+      }
+      return value.call();
+   }
+
+   /** @return true if {@link #getValue()} can give a value */
+   public boolean hasValue() {
+      return value != null;
+   }
+
+   /** @return true for static fields */
+   public boolean isStatic() {
+      return Modifier.isStatic(modifiers);
+   }
+
+   @Override
+   public String toString() {
+      return Modifier.toString(modifiers) + " " + type + " " + name;
+   }
+}
@@ -0,0 +1,71 @@
+package org.rmb.reflectionutils.introspect;
+
+import java.lang.reflect.Modifier;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A method declared by a {@link ClassModel}. Constructors and static
+ * initialisers are not included, as with
+ * {@link Class#getDeclaredMethods()}.
+ *
+ * @author robbram
+ */
+public final class MethodModel {
+
+   /** Method name. */
+   private final String name;
+
+   /** Modifiers, as given by {@link java.lang.reflect.Method#getModifiers()}. */
+   private final int modifiers;
+
+   /** Erased return type. */
+   private final TypeModel returnType;
+
+   /** Erased parameter types. */
+   private final List<TypeModel> parameterTypes;
+
+   /**
+    * @param theName
+    *           method name
+    * @param theModifiers
+    *           modifiers
+    * @param theReturnType
+    *           erased return type
+    * @param theParameterTypes
+    *           erased parameter types
+    */
+   MethodModel(final String theName, final int theModifiers,
+         final TypeModel theReturnType, final List<TypeModel> theParameterTypes) {
+      name = theName;
+      modifiers = theModifiers;
+      returnType = theReturnType;
+      parameterTypes = Collections.unmodifiableList(theParameterTypes);
+   }
+
+   /** @return modifiers, see {@link Modifier} */
+   public int getModifiers() {
+      return modifiers;
+   }
+
+   /** @return method name */
+   public String getName() {
+      return name;
+   }
+
+   /** @return erased parameter types */
+   public List<TypeModel> getParameterTypes() {
+      return parameterTypes;
+   }
+
+   /** @return erased return type */
+   public TypeModel getReturnType() {
+      return returnType;
+   }
+
+   @Override
+   public String toString() {
+      return Modifier.toString(modifiers) + " " + returnType + " " + name
+            + parameterTypes;
+   }
+}
@@ -0,0 +1,102 @@
+package org.rmb.reflectionutils.introspect;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.rmb.reflectionutils.javadoc.FieldComment;
+
+/**
+ * <p>
+ * Build {@link ClassModel}s with reflection. Classes are loaded (but not
+ * initialised) to describe them; asking a static field for its value reads the
+ * field, which does run the static initialiser.
+ * </p>
+ *
+ * @author robbram
+ */
+public final class ReflectionIntrospector implements ClassIntrospector {
+
+   /** Loads classes asked for by name; null means the bootstrap loader. */
+   private final ClassLoader loader;
+
+   /**
+    * @param theLoader
+    *           loads classes asked for by name; null means the bootstrap
+    *           loader
+    */
+   public ReflectionIntrospector(final ClassLoader theLoader) {
+      loader = theLoader;
+   }
+
+   /**
+    * @param type
+    *           class to describe
+    * @return model of the class, finding its superclass through the class's
+    *         own loader
+    */
+   public static ClassModel describeClass(final Class<?> type) {
+      return new ReflectionIntrospector(type.getClassLoader()).describe(type);
+   }
+
+   @Override
+   public ClassModel describe(final String className)
+         throws ClassNotFoundException {
+      return describe(Class.forName(className, false, loader));
+   }
+
+   /**
+    * @param type
+    *           class to describe
+    * @return model of the class
+    */
+   public ClassModel describe(final Class<?> type) {
+      List<FieldModel> fields = new ArrayList<FieldModel>();
+      for (Field field : type.getDeclaredFields()) {
+         fields.add(describe(field));
+      }
+      List<MethodModel> methods = new ArrayList<MethodModel>();
+      for (Method method : type.getDeclaredMethods()) {
+         List<TypeModel> parameters = new ArrayList<TypeModel>();
+         for (Class<?> parameter : method.getParameterTypes()) {
+            parameters.add(TypeModel.of(parameter));
+         }
+         methods.add(new MethodModel(method.getName(), method.getModifiers(),
+               TypeModel.of(method.getReturnType()), parameters));
+      }
+      String superclassName = null;
+      if (type.getSuperclass() != null) {
+         superclassName = type.getSuperclass().getName();
+      }
+      return new ClassModel(type.getName(), type.getSimpleName(),
+            type.getModifiers(), superclassName, fields, methods, this);
+   }
+
+   /**
+    * @param field
+    *           field to describe
+    * @return model of the field
+    */
+   private static FieldModel describe(final Field field) {
+      String comment = null;
+      FieldComment fieldComment = field.getAnnotation(FieldComment.class);
+      if (fieldComment != null) {
+         comment = fieldComment.comment();
+      }
+      String genericType = null;
+      Type type = field.getGenericType();
+      if (!(type instanceof Class)) {
+         genericType = type.getTypeName();
+      }
+      Callable<Object> value = null;
+      if (Modifier.isStatic(field.getModifiers())) {
+         value = () -> field.get(null);
+      }
+      return new FieldModel(field.getName(), field.getModifiers(),
+            TypeModel.of(field.getType()), genericType, comment, value);
+   }
+}
@@ -0,0 +1,116 @@
+package org.rmb.reflectionutils.introspect;
+
+/**
+ * Turn a field Signature attribute, e.g.
+ * <code>Ljava/util/Map&lt;Ljava/lang/String;TT;&gt;;</code>, into the Java
+ * source form given by {@link java.lang.reflect.Type#getTypeName()}, e.g.
+ * <code>java.util.Map&lt;java.lang.String, T&gt;</code>.
+ *
+ * @author robbram
+ */
+final class SignatureReader {
+
+   /** Signature being read. */
+   private final String signature;
+
+   /** Index of the next character to read. */
+   private int position;
+
+   /**
+    * @param theSignature
+    *           signature to read
+    */
+   private SignatureReader(final String theSignature) {
+      signature = theSignature;
+   }
+
+   /**
+    * @param signature
+    *           field type signature
+    * @return the type as Java source
+    */
+   static String toSource(final String signature) {
+      return new SignatureReader(signature).readType();
+   }
+
+   /** @return the type starting at {@link #position} as Java source */
+   private String readType() {
+      char tag = signature.charAt(position++);
+      switch (tag) {
+         case '[':
+            return readType() + "[]";
+         case 'T':
+            return readUntil(';');
+         case 'L':
+            return readClassType();
+         default:
+            return TypeModel.fromDescriptor(String.valueOf(tag)).getName();
+      }
+   }
+
+   /** @return class type, after its leading <code>L</code>, as Java source */
+   private String readClassType() {
+      StringBuilder builder = new StringBuilder();
+      builder.append(readName().replace('/', '.'));
+      while (true) {
+         char next = signature.charAt(position++);
+         if (next == ';') {
+            return builder.toString();
+         }
+         if (next == '<') {
+            builder.append('<');
+            boolean first = true;
+            while (signature.charAt(position) != '>') {
+               if (!first) {
+                  builder.append(", ");
+               }
+               builder.append(readTypeArgument());
+               first = false;
+            }
+            position++;
+            builder.append('>');
+         } else {
+            // Inner class of a parameterised outer class.
+            builder.append('$').append(readName());
+         }
+      }
+   }
+
+   /** @return a type argument as Java source */
+   private String readTypeArgument() {
+      char wildcard = signature.charAt(position);
+      if (wildcard == '*') {
+         position++;
+         return "?";
+      }
+      if (wildcard == '+') {
+         position++;
+         return "? extends " + readType();
+      }
+      if (wildcard == '-') {
+         position++;
+         return "? super " + readType();
+      }
+      return readType();
+   }
+
+   /** @return identifier up to the next <code>&lt;</code>, ; or . */
+   private String readName() {
+      int start = position;
+      while ("<;.".indexOf(signature.charAt(position)) < 0) {
+         position++;
+      }
+      return signature.substring(start, position);
+   }
+
+   /**
+    * @param end
+    *           character ending the text
+    * @return text up to <code>end</code>, moving past it
+    */
+   private String readUntil(final char end) {
+      int start = position;
+      position = signature.indexOf(end, start) + 1;
+      return signature.substring(start, position - 1);
+   }
+}
@@ -0,0 +1,215 @@
+package org.rmb.reflectionutils.introspect;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>
+ * A field, parameter or return type, described without needing the type to be
+ * loaded.
+ * </p>
+ * <p>
+ * {@link #getName()} and {@link #getSimpleName()} follow
+ * {@link Class#getName()} and {@link Class#getSimpleName()}, so output is the
+ * same whichever backend produced the model.
+ * </p>
+ *
+ * @author robbram
+ */
+public final class TypeModel {
+
+   /** Primitive names by descriptor character. */
+   private static final Map<Character, String> PRIMITIVES;
+
+   /**
+    * Types a String can be assigned to, i.e. those for which
+    * <code>type.isAssignableFrom(String.class)</code> is true.
+    */
+   private static final Set<String> STRING_SUPERTYPES =
+         Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(
+               "java.lang.String", "java.lang.Object",
+               "java.lang.CharSequence", "java.lang.Comparable",
+               "java.io.Serializable", "java.lang.constant.Constable",
+               "java.lang.constant.ConstantDesc")));
+
+   static {
+      Map<Character, String> primitives = new HashMap<Character, String>();
+      primitives.put('B', "byte");
+      primitives.put('C', "char");
+      primitives.put('D', "double");
+      primitives.put('F', "float");
+      primitives.put('I', "int");
+      primitives.put('J', "long");
+      primitives.put('S', "short");
+      primitives.put('Z', "boolean");
+      primitives.put('V', "void");
+      PRIMITIVES = Collections.unmodifiableMap(primitives);
+   }
+
+   /** JVM descriptor, e.g. <code>Ljava/lang/String;</code> or <code>I</code>. */
+   private final String descriptor;
+
+   /** Name as given by {@link Class#getName()}. */
+   private final String name;
+
+   /** Name as given by {@link Class#getSimpleName()}. */
+   private final String simpleName;
+
+   /**
+    * @param theDescriptor
+    *           JVM descriptor
+    * @param theName
+    *           name as given by {@link Class#getName()}
+    * @param theSimpleName
+    *           name as given by {@link Class#getSimpleName()}
+    */
+   private TypeModel(final String theDescriptor, final String theName,
+         final String theSimpleName) {
+      descriptor = theDescriptor;
+      name = theName;
+      simpleName = theSimpleName;
+   }
+
+   /**
+    * @param type
+    *           loaded class
+    * @return model of the class
+    */
+   public static TypeModel of(final Class<?> type) {
+      String typeDescriptor;
+      if (type.isPrimitive()) {
+         typeDescriptor = primitiveDescriptor(type.getName());
+      } else if (type.isArray()) {
+         typeDescriptor = type.getName().replace('.', '/');
+      } else {
+         typeDescriptor = "L" + type.getName().replace('.', '/') + ";";
+      }
+      return new TypeModel(typeDescriptor, type.getName(),
+            type.getSimpleName());
+   }
+
+   /**
+    * @param descriptor
+    *           JVM field descriptor, e.g. <code>[Ljava/util/List;</code>
+    * @return model of the type
+    */
+   public static TypeModel fromDescriptor(final String descriptor) {
+      char first = descriptor.charAt(0);
+      if (first == '[') {
+         TypeModel component = fromDescriptor(descriptor.substring(1));
+         return new TypeModel(descriptor, descriptor.replace('/', '.'),
+               component.simpleName + "[]");
+      }
+      if (first == 'L') {
+         String binaryName =
+               descriptor.substring(1, descriptor.length() - 1).replace('/',
+                     '.');
+         return new TypeModel(descriptor, binaryName,
+               simpleNameOf(binaryName));
+      }
+      String primitive = PRIMITIVES.get(first);
+      if (primitive == null || descriptor.length() != 1) {
+         throw new IllegalArgumentException("Bad type descriptor ["
+               + descriptor + "].");
+      }
+      return new TypeModel(descriptor, primitive, primitive);
+   }
+
+   /**
+    * @param internalName
+    *           name as found in a class file, e.g. <code>java/lang/String</code>
+    *           or <code>[I</code>
+    * @return model of the type
+    */
+   public static TypeModel fromInternalName(final String internalName) {
+      if (internalName.startsWith("[")) {
+         return fromDescriptor(internalName);
+      }
+      return fromDescriptor("L" + internalName + ";");
+   }
+
+   /**
+    * @param primitive
+    *           primitive type name, e.g. <code>int</code>
+    * @return its descriptor character as a string
+    */
+   private static String primitiveDescriptor(final String primitive) {
+      for (Map.Entry<Character, String> entry : PRIMITIVES.entrySet()) {
+         if (entry.getValue().equals(primitive)) {
+            return String.valueOf(entry.getKey());
+         }
+      }
+      throw new IllegalArgumentException("Not a primitive [" + primitive
+            + "].");
+   }
+
+   /**
+    * Work out the simple name from a binary name the way
+    * {@link Class#getSimpleName()} would for top level and member classes.
+    *
+    * @param binaryName
+    *           e.g. <code>java.util.Map$Entry</code>
+    * @return e.g. <code>Entry</code>
+    */
+   static String simpleNameOf(final String binaryName) {
+      String simple = binaryName.substring(binaryName.lastIndexOf('.') + 1);
+      simple = simple.substring(simple.lastIndexOf('$') + 1);
+      // Local classes are numbered, e.g. Outer$1Local; anonymous ones have
+      // nothing left.
+      int start = 0;
+      while (start < simple.length() && Character.isDigit(simple.charAt(start))) {
+         start++;
+      }
+      return simple.substring(start);
+   }
+
+   /** @return component type if this is an array, null otherwise */
+   public TypeModel getComponentType() {
+      if (!isArray()) {
+         return null;
+      }
+      return fromDescriptor(descriptor.substring(1));
+   }
+
+   /** @return JVM descriptor */
+   public String getDescriptor() {
+      return descriptor;
+   }
+
+   /** @return name as given by {@link Class#getName()} */
+   public String getName() {
+      return name;
+   }
+
+   /** @return name as given by {@link Class#getSimpleName()} */
+   public String getSimpleName() {
+      return simpleName;
+   }
+
+   /** @return true for arrays */
+   public boolean isArray() {
+      return descriptor.charAt(0) == '[';
+   }
+
+   /**
+    * @return true if a String can be assigned to this type, i.e.
+    *         <code>type.isAssignableFrom(String.class)</code>
+    */
+   public boolean isAssignableFromString() {
+      return STRING_SUPERTYPES.contains(name);
+   }
+
+   /** @return true for primitive types, including void */
+   public boolean isPrimitive() {
+      return descriptor.length() == 1;
+   }
+
+   @Override
+   public String toString() {
+      return name;
+   }
+}
@@ -47,6 +47,11 @@ SETLOCAL
 :: - Updated to check java, maven, mtee temp dir and editor variables.
 :: Thursday 08 January 2015, 04:57:36 PM
 :: - Modified the way this script looks for maven and java such that it always uses local versions first.
+:: Monday 19 October 2026
+:: - Report MAVEN_OPTS with the environment details.
+:: - Set BUILD_EVENTS_FILE and BUILD_EVENTS_COMMAND for the build-events extension,
+::   which writes maven_<timestamp>.jsonl next to the log for MavenBuildTimes.
+:: - Set BUILD_EVENTS_DIRECTORY too, so events name the directory as the log does.
 
 
 :: ############################################################################
@@ -68,6 +73,10 @@ SET hh=%time:~0,2%
 if "%time:~0,1%"==" " SET hh=0%hh:~1,1%
 SET YYYYMMDD_HHMMSS=%date:~10,4%%date:~7,2%%date:~4,2%_%hh%%time:~3,2%%time:~6,2%
 set LOG_FILE=%TMPDIR%\maven_%YYYYMMDD_HHMMSS%.txt
+:: Where the build-events extension, if loaded, writes its events.
+set BUILD_EVENTS_FILE=%TMPDIR%\maven_%YYYYMMDD_HHMMSS%.jsonl
+set BUILD_EVENTS_COMMAND=mvn %*
+set BUILD_EVENTS_DIRECTORY=%cd%
 
 :: Check temp dir.
 if not exist %TMPDIR% mkdir %TMPDIR%
@@ -172,6 +181,7 @@ echo Current Directory [%cd%] 2<&1 | "%MTEE%" /+ %LOG_FILE%
 echo This script [%0] 2<&1 | "%MTEE%" /+ %LOG_FILE%
 echo M2_HOME [%M2_HOME%] 2<&1 | "%MTEE%" /+ %LOG_FILE%
 echo JAVA_HOME [%JAVA_HOME%] 2<&1 | "%MTEE%" /+ %LOG_FILE%
+echo MAVEN_OPTS [%MAVEN_OPTS%] 2<&1 | "%MTEE%" /+ %LOG_FILE%
 echo EDITOR [%EDITOR%] 2<&1 | "%MTEE%" /+ %LOG_FILE%
 echo MTEE [%MTEE%] 2<&1 | "%MTEE%" /+ %LOG_FILE%
 echo TMPDIR [%TMPDIR%] 2<&1 | "%MTEE%" /+ %LOG_FILE%
@@ -50,6 +50,11 @@
 # - Modified the way this script looks for maven and java such that it always uses local versions first.
 # Thursday 08 January 2015, 06:55:09 PM
 # - Fix to reporting of commands. Use $* instead of $@ for reporting.
+# Monday 19 October 2026
+# - Report MAVEN_OPTS with the environment details.
+# - Export BUILD_EVENTS_FILE and BUILD_EVENTS_COMMAND for the build-events extension,
+#   which writes maven_<timestamp>.jsonl next to the log for MavenBuildTimes.
+# - Export BUILD_EVENTS_DIRECTORY too, so events name the directory as the log does.
 
 # ------------------------------------------------------------------------------
 # -- Variables for this script.
@@ -211,6 +216,7 @@ function showEnvironmentDetails() {
    message "This script [`pwd -P`/$0]"
    message "M2_HOME [$M2_HOME]"
    message "JAVA_HOME [$JAVA_HOME]"
+   message "MAVEN_OPTS [$MAVEN_OPTS]"
    message "EDITOR [$EDITOR]"
    message "MTEE [`type tee`]"
    message "TMPDIR [$TMPDIR]"
@@ -232,6 +238,10 @@ function showEnvironmentDetails() {
 # Create timestamp.
 timestamp=$(date +"%Y%m%d_%H%M%S")
 outputFile=$TMPDIR/maven_$timestamp.txt
+# Where the build-events extension, if loaded, writes its events.
+export BUILD_EVENTS_FILE=$TMPDIR/maven_$timestamp.jsonl
+export BUILD_EVENTS_COMMAND="mvn $*"
+export BUILD_EVENTS_DIRECTORY="`pwd`"
 
 
 checkDependencies